@@ -0,0 +1,31 @@
+package benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class runs the JMH benchmarks like org.openjdk.jmh.Main, but writes the
+ * results to jmh-result.csv unless the command line chooses another result
+ * file or format, so every run leaves a file CompareResults can read.
+ * Run with: java -jar benchmarks/target/benchmarks.jar [JMH options]
+ * @author ShuqinYe
+ *
+ */
+public class BenchmarkMain {
+
+	public static final String DEFAULT_RESULT = "jmh-result.csv";
+
+	public static void main(String[] args) throws Exception {
+		List<String> options = new ArrayList<String>(Arrays.asList(args));
+		// JMH names the file after the format when only the format is chosen.
+		if (!options.contains("-rf") && !options.contains("-rff")) {
+			options.add("-rf");
+			options.add("csv");
+			options.add("-rff");
+			options.add(DEFAULT_RESULT);
+		}
+		org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+	}
+
+}
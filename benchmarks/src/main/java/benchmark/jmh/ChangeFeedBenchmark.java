@@ -0,0 +1,151 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adapter.BuildAuto;
+import adapter.ChangeFeed;
+import adapter.ProxyAutomobile;
+import benchmark.CatalogGenerator;
+import fixerrors.FixMode;
+import model.AutoTable;
+import model.ChangeEvent;
+
+/**
+ * This class measures option price updates over a few cars with no
+ * subscriber, with a subscriber to every car that keeps up, and with a
+ * subscriber that sleeps on each batch. The slow subscriber should not slow
+ * the updates down: its buffer fills up and the events past it are dropped.
+ * At the end of a run the subscription is printed, and the run fails if the
+ * versions of a car did not arrive in order.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangeFeedBenchmark {
+
+	// "none", "fast" (a large buffer) or "slow" (sleeps 10 ms a batch).
+	@Param({ "none", "fast", "slow" })
+	public String subscriber;
+
+	// Number of cars the updates are spread over.
+	@Param({ "4" })
+	public int cars;
+
+	private ProxyAutomobile autos;
+	private List<AutoTable> tables;
+	private Checker checker;
+	private ChangeFeed.Subscription subscription;
+	private int updates;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		autos = new BuildAuto();
+		// Never wait for console input inside a benchmark.
+		autos.setFixMode(FixMode.SILENT);
+		CatalogGenerator generator = new CatalogGenerator(42, 5, 10);
+		tables = new ArrayList<AutoTable>(cars);
+		for (int i = 0; i < cars; ++i) {
+			Path file = Files.createTempFile("carconfig-feed", ".txt");
+			try {
+				generator.writeModel(file, i);
+				autos.buildAuto(file.toString());
+			}
+			finally {
+				Files.deleteIfExists(file);
+			}
+			tables.add(generator.buildModel(i).toTable());
+		}
+
+		ChangeFeed feed = autos.getChangeFeed();
+		if (subscriber.equals("fast")) {
+			checker = new Checker(0);
+			subscription = feed.subscribe(null, checker, 1 << 16, ChangeFeed.DEFAULT_BATCH);
+		}
+		else if (subscriber.equals("slow")) {
+			checker = new Checker(10);
+			subscription = feed.subscribe(null, checker, 1024, ChangeFeed.DEFAULT_BATCH);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		if (subscription == null) return;
+		if (!subscription.awaitDelivered(60000)) System.out.println("not delivered in time");
+		subscription.close();
+		System.out.println(subscription + ", largest batch " + checker.maxBatch);
+		if (checker.outOfOrder.sum() != 0)
+			throw new IllegalStateException(checker.outOfOrder.sum() + " events out of order");
+	}
+
+	@Benchmark
+	public boolean update() {
+		int u = updates++;
+		AutoTable table = tables.get(u % cars);
+		int s = (u / cars) % table.getOpSetCount();
+		return autos.updateOptionPrice(table.getName(), table.getOpSetName(s),
+				table.getOpName(table.getOpStart(s)), u % 1000);
+	}
+
+
+	/**
+	 * Checks the versions of each car arrive in order, and sleeps on each
+	 * batch.
+	 */
+	private static class Checker implements ChangeFeed.Subscriber {
+
+		private final long sleep;
+		private final Map<String, Long> versions = new HashMap<String, Long>();
+		private final LongAdder outOfOrder = new LongAdder();
+		private volatile long maxBatch;
+
+		private Checker(long sleep) {
+			this.sleep = sleep;
+		}
+
+		@Override
+		public void changed(List<ChangeEvent> events, long dropped) {
+			maxBatch = Math.max(maxBatch, events.size());
+			for (ChangeEvent event : events) {
+				Long last = versions.put(event.getAutoName(), event.getVersion());
+				if (last != null && event.getVersion() <= last) outOfOrder.increment();
+			}
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,135 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class compares two JMH result files in CSV format, a baseline and a
+ * new run, and prints the change of every benchmark found in both. A change
+ * for the worse by more than the threshold is marked as a regression, and
+ * the program then exits with status 1 so a build script can stop on it.
+ * Run with: java -cp benchmarks.jar benchmark.jmh.CompareResults
+ *   baseline.csv new.csv [threshold percent, default 10]
+ * @author ShuqinYe
+ *
+ */
+public class CompareResults {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: CompareResults baseline.csv new.csv [threshold percent]");
+			System.exit(2);
+		}
+		double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+		Map<String, Result> before = read(args[0]);
+		Map<String, Result> after = read(args[1]);
+
+		int regressions = 0;
+		System.out.printf("%-70s %14s %14s %9s%n", "benchmark", "baseline", "new", "change");
+		for (Map.Entry<String, Result> entry : after.entrySet()) {
+			Result old = before.get(entry.getKey());
+			Result now = entry.getValue();
+			if (old == null) {
+				System.out.printf("%-70s %14s %14.3f %9s%n", entry.getKey(), "-", now.score, "new");
+				continue;
+			}
+
+			double change = (now.score - old.score) / old.score * 100;
+			// Throughput gets worse when it falls, times when they rise.
+			double worse = now.higherIsBetter ? -change : change;
+			boolean regressed = worse > threshold;
+			if (regressed) ++regressions;
+
+			System.out.printf("%-70s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(),
+					old.score, now.score, change, regressed ? "  REGRESSION" : "");
+		}
+
+		System.out.println(regressions + " regressions over " + threshold + "%");
+		if (regressions > 0) System.exit(1);
+	}
+
+	/**
+	 * Read a JMH CSV result file.
+	 * @param filename the file.
+	 * @return the results by benchmark name, mode, threads and parameters.
+	 */
+	private static Map<String, Result> read(String filename) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8);
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		if (lines.isEmpty()) return results;
+
+		List<String> header = split(lines.get(0));
+		int name = header.indexOf("Benchmark");
+		int mode = header.indexOf("Mode");
+		int threads = header.indexOf("Threads");
+		int score = header.indexOf("Score");
+		int unit = header.indexOf("Unit");
+
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.isEmpty()) continue;
+			List<String> fields = split(line);
+
+			StringBuilder key = new StringBuilder(fields.get(name));
+			key.append(' ').append(fields.get(mode)).append(" t=").append(fields.get(threads));
+			for (int i = unit + 1; i < fields.size() && i < header.size(); ++i) {
+				if (fields.get(i).isEmpty()) continue;
+				String param = header.get(i).replace("Param: ", "");
+				key.append(' ').append(param).append('=').append(fields.get(i));
+			}
+
+			results.put(key.toString(), new Result(Double.parseDouble(fields.get(score)),
+					fields.get(mode).equals("thrpt")));
+		}
+		return results;
+	}
+
+	/**
+	 * Split one CSV line into its fields, removing the quotes.
+	 */
+	private static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				// A doubled quote inside quotes is one quote.
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					++i;
+				}
+				else quoted = !quoted;
+			}
+			else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else field.append(c);
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * The score of one benchmark, and whether a higher score is better.
+	 */
+	private static class Result {
+
+		private final double score;
+		private final boolean higherIsBetter;
+
+		private Result(double score, boolean higherIsBetter) {
+			this.score = score;
+			this.higherIsBetter = higherIsBetter;
+		}
+
+	}
+
+}
@@ -0,0 +1,120 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adapter.BuildAuto;
+import adapter.ProxyAutomobile;
+import benchmark.CatalogGenerator;
+import fixerrors.FixMode;
+import model.AutoTable;
+
+/**
+ * This class measures ProxyAutomobile.updateOptionPrice on one car from 1 to
+ * 8 threads at once, all taking the write lock of the same car. Each thread
+ * keeps setting the price of an option of its own, so every update finds its
+ * option. The score is the throughput summed over the threads; other thread
+ * counts can be run with "-t N" on the command line.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContendedUpdateBenchmark {
+
+	private static final int OP_SETS = 5;
+	private static final int OPTIONS = 10;
+
+	private ProxyAutomobile autos;
+	private String name;
+	private AutoTable table;
+	private final AtomicInteger threads = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		CatalogGenerator generator = new CatalogGenerator(42, OP_SETS, OPTIONS);
+		Path file = Files.createTempFile("carconfig-update", ".txt");
+		try {
+			generator.writeModel(file, 0);
+			autos = new BuildAuto();
+			// Never wait for console input inside a benchmark.
+			autos.setFixMode(FixMode.FAIL_FAST);
+			autos.buildAuto(file.toString());
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+		name = CatalogGenerator.name(0);
+		table = autos.getAuto(name).toTable();
+	}
+
+	/**
+	 * The option updated by one thread, and the next price to set.
+	 */
+	@State(Scope.Thread)
+	public static class Updater {
+
+		String setName;
+		String opName;
+		float price;
+
+		@Setup(Level.Trial)
+		public void setUp(ContendedUpdateBenchmark shared) {
+			int t = shared.threads.getAndIncrement() % (OP_SETS * OPTIONS);
+			int s = t % OP_SETS;
+			setName = shared.table.getOpSetName(s);
+			opName = shared.table.getOpName(shared.table.getOpStart(s) + t / OP_SETS);
+		}
+
+	}
+
+	private void update(Updater updater) {
+		updater.price = (updater.price + 1) % 1000;
+		autos.updateOptionPrice(name, updater.setName, updater.opName, updater.price);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void threads1(Updater updater) {
+		update(updater);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public void threads2(Updater updater) {
+		update(updater);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void threads4(Updater updater) {
+		update(updater);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void threads8(Updater updater) {
+		update(updater);
+	}
+
+}
@@ -0,0 +1,218 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.CatalogGenerator;
+import model.AutoTable;
+import model.Automobile;
+import util.CatalogSnapshot;
+import util.Journal;
+
+/**
+ * This class compares making each price update durable by rewriting the whole
+ * catalog with making it durable in the Journal, from 1 to 16 threads at
+ * once. Concurrent updates share one fsync of the journal (group commit), so
+ * the throughput summed over the threads should grow with them; the records
+ * per sync are printed at the end of each run. JournalRecoveryBenchmark times
+ * reading the journal back.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalBenchmark {
+
+	// Number of models in the catalog.
+	@Param({ "10000" })
+	public int models;
+
+	private List<Automobile> autos;
+	private AutoTable shape;
+	private Path dir;
+	private Path snap;
+	private Journal journal;
+	private int rewrites;
+	private final AtomicInteger seeds = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		autos = buildCatalog(models);
+		shape = autos.get(0).toTable();
+		dir = Files.createTempDirectory("journal");
+		snap = dir.resolve("catalog.snap");
+
+		journal = new Journal(dir.resolve("journal"), true, () -> tables(autos));
+		journal.open(new Ignore());
+		for (Automobile auto : autos) auto.setChangeListener(journal);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		System.out.println("journal: " + journal);
+		journal.close();
+		deleteAll(dir);
+	}
+
+	/**
+	 * The random updates of one thread.
+	 */
+	@State(Scope.Thread)
+	public static class Updater {
+
+		Random random;
+
+		@Setup(Level.Trial)
+		public void setUp(JournalBenchmark shared) {
+			random = new Random(shared.seeds.getAndIncrement());
+		}
+
+	}
+
+	/**
+	 * Make an update durable by rewriting the whole catalog. The update is
+	 * journaled too, but not committed.
+	 */
+	@Benchmark
+	public void rewriteCatalog() throws IOException {
+		autos.get(rewrites % models).setOpPriceCents(0, 0, rewrites);
+		++rewrites;
+		CatalogSnapshot.write(snap, autos);
+		try (FileChannel channel = FileChannel.open(snap, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	private void journal(Updater updater) throws IOException {
+		Random random = updater.random;
+		Automobile auto = autos.get(random.nextInt(models));
+		int s = random.nextInt(shape.getOpSetCount());
+		auto.setOpPriceCents(s, random.nextInt(shape.getOpCount(s)), random.nextInt(100000));
+		journal.commit();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void journal1(Updater updater) throws IOException {
+		journal(updater);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public void journal2(Updater updater) throws IOException {
+		journal(updater);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void journal4(Updater updater) throws IOException {
+		journal(updater);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void journal8(Updater updater) throws IOException {
+		journal(updater);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void journal16(Updater updater) throws IOException {
+		journal(updater);
+	}
+
+
+	/**
+	 * Build a catalog of generated models.
+	 */
+	static List<Automobile> buildCatalog(int models) {
+		CatalogGenerator generator = new CatalogGenerator(42, 5, 10);
+		List<Automobile> autos = new ArrayList<Automobile>(models);
+		for (int i = 0; i < models; ++i) autos.add(generator.buildModel(i));
+		return autos;
+	}
+
+	/**
+	 * Copy the models of a catalog, for a checkpoint.
+	 */
+	static List<AutoTable> tables(List<Automobile> autos) {
+		List<AutoTable> tables = new ArrayList<AutoTable>(autos.size());
+		for (Automobile auto : autos) tables.add(auto.toTable());
+		return tables;
+	}
+
+	/**
+	 * Delete a directory and the files and directories in it.
+	 */
+	static void deleteAll(Path dir) throws IOException {
+		if (Files.isDirectory(dir)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+				for (Path file : files) deleteAll(file);
+			}
+		}
+		Files.deleteIfExists(dir);
+	}
+
+
+	/**
+	 * Applies nothing, the catalog is already in memory.
+	 */
+	static class Ignore implements Journal.Replayer {
+
+		@Override
+		public void mapped(CatalogSnapshot snapshot) {}
+
+		@Override
+		public void built(AutoTable table) {}
+
+		@Override
+		public boolean contains(String name) { return false; }
+
+		@Override
+		public void opSetRenamed(String name, long version, int setIndex, String newName) {}
+
+		@Override
+		public void opPriceChanged(String name, long version, int setIndex, int opIndex,
+				long priceCents) {}
+
+		@Override
+		public void opSetDeleted(String name, long version, int setIndex) {}
+
+		@Override
+		public void opDeleted(String name, long version, int setIndex, int opIndex) {}
+
+		@Override
+		public void opAdded(String name, long version, int setIndex, int opIndex,
+				String opName, long priceCents) {}
+
+	}
+
+}
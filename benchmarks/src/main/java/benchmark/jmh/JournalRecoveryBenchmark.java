@@ -0,0 +1,145 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.AutoTable;
+import model.Automobile;
+import util.Journal;
+
+/**
+ * This class times opening a Journal of price updates, which reads every
+ * record back, and a checkpoint of the whole catalog. Before each run a new
+ * journal is written; no model was journaled as built, so its updates are
+ * read but skipped.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JournalRecoveryBenchmark {
+
+	// Number of models in the catalog.
+	@Param({ "10000" })
+	public int models;
+
+	// Number of price updates in the journal.
+	@Param({ "100000" })
+	public int records;
+
+	private List<Automobile> autos;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		autos = JournalBenchmark.buildCatalog(models);
+	}
+
+	/**
+	 * A journal written before each run and closed.
+	 */
+	@State(Scope.Thread)
+	public static class Written {
+
+		Path dir;
+		Journal journal;
+
+		@Setup(Level.Iteration)
+		public void setUp(JournalRecoveryBenchmark shared) throws IOException {
+			dir = Files.createTempDirectory("journal");
+			shared.write(dir);
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws IOException {
+			if (journal != null) journal.close();
+			journal = null;
+			JournalBenchmark.deleteAll(dir);
+		}
+
+	}
+
+	/**
+	 * A journal written before each run and opened again.
+	 */
+	@State(Scope.Thread)
+	public static class Opened {
+
+		Path dir;
+		Journal journal;
+
+		@Setup(Level.Iteration)
+		public void setUp(JournalRecoveryBenchmark shared) throws IOException {
+			dir = Files.createTempDirectory("journal");
+			shared.write(dir);
+			journal = shared.journal(dir);
+			journal.open(new JournalBenchmark.Ignore());
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws IOException {
+			journal.close();
+			JournalBenchmark.deleteAll(dir);
+		}
+
+	}
+
+	@Benchmark
+	public long recover(Written written) throws IOException {
+		written.journal = journal(written.dir);
+		written.journal.open(new JournalBenchmark.Ignore());
+		return written.journal.getSkipped();
+	}
+
+	@Benchmark
+	public void checkpoint(Opened opened) throws IOException {
+		opened.journal.checkpoint();
+	}
+
+	/**
+	 * Make a journal of the catalog, not opened.
+	 */
+	private Journal journal(Path dir) {
+		return new Journal(dir, false, () -> JournalBenchmark.tables(autos));
+	}
+
+	/**
+	 * Write a journal of random price updates and close it.
+	 */
+	private void write(Path dir) throws IOException {
+		Journal journal = journal(dir);
+		journal.open(new JournalBenchmark.Ignore());
+		for (Automobile auto : autos) auto.setChangeListener(journal);
+		AutoTable shape = autos.get(0).toTable();
+		Random random = new Random(1);
+		for (int i = 0; i < records; ++i) {
+			Automobile auto = autos.get(random.nextInt(models));
+			int s = random.nextInt(shape.getOpSetCount());
+			auto.setOpPriceCents(s, random.nextInt(shape.getOpCount(s)), random.nextInt(100000));
+		}
+		for (Automobile auto : autos) auto.setChangeListener(null);
+		journal.close();
+	}
+
+}
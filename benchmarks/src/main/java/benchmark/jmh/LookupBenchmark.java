@@ -0,0 +1,89 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adapter.BuildAuto;
+import adapter.ProxyAutomobile;
+import benchmark.CatalogGenerator;
+import model.Automobile;
+import util.CatalogSnapshot;
+
+/**
+ * This class measures ProxyAutomobile.getAuto with 10, 10 thousand and
+ * 1 million models in the database. The models have no option sets, so a
+ * million of them fit in the heap; the lookup does not depend on their size.
+ * The database is static, so every model count runs in its own forked JVM.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LookupBenchmark {
+
+	@Param({ "10", "10000", "1000000" })
+	public int models;
+
+	private ProxyAutomobile autos;
+	private String[] names;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		CatalogGenerator generator = new CatalogGenerator(42, 0, 0);
+		List<Automobile> all = new ArrayList<Automobile>(models);
+		for (int i = 0; i < models; ++i) all.add(generator.buildModel(i));
+
+		// Load through the snapshot, the way a server fills the database.
+		Path file = Files.createTempFile("carconfig-lookup", ".cat");
+		try {
+			CatalogSnapshot.write(file, all);
+			autos = new BuildAuto();
+			autos.loadCatalog(file.toString());
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+
+		// Look the names up in a scattered order, not the insertion order.
+		names = new String[1 << 12];
+		for (int i = 0; i < names.length; ++i)
+			names[i] = CatalogGenerator.name((int) ((i * 2654435761L) % models));
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Benchmark
+	public Automobile getAuto(Cursor cursor) {
+		return autos.getAuto(names[cursor.next++ & (names.length - 1)]);
+	}
+
+	@Benchmark
+	public Automobile getAutoMissing() {
+		return autos.getAuto("No Such Model");
+	}
+
+}
@@ -0,0 +1,80 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adapter.BuildAuto;
+import adapter.ProxyAutomobile;
+import benchmark.CatalogGenerator;
+import model.Automobile;
+
+/**
+ * This class measures what the metrics cost on the fastest ProxyAutomobile
+ * operations, by running them in one JVM with metrics on and in another with
+ * -Dcarconfig.metrics=false.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MetricsOverheadBenchmark {
+
+	private ProxyAutomobile autos;
+	private String name;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Path file = Files.createTempFile("carconfig-metrics", ".txt");
+		try {
+			new CatalogGenerator(42, 5, 10).writeModel(file, 0);
+			autos = new BuildAuto();
+			autos.buildAuto(file.toString());
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+		name = CatalogGenerator.name(0);
+	}
+
+	@Benchmark
+	@Fork(1)
+	public Automobile getAutoMetricsOn() {
+		return autos.getAuto(name);
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Dcarconfig.metrics=false")
+	public Automobile getAutoMetricsOff() {
+		return autos.getAuto(name);
+	}
+
+	@Benchmark
+	@Fork(1)
+	public float getTotalPriceMetricsOn() {
+		return autos.getTotalPrice(name);
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Dcarconfig.metrics=false")
+	public float getTotalPriceMetricsOff() {
+		return autos.getTotalPrice(name);
+	}
+
+}
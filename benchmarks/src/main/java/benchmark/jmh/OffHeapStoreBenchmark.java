@@ -0,0 +1,158 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.CatalogGenerator;
+import model.AutoTable;
+import model.Automobile;
+import util.OffHeapStore;
+
+/**
+ * This class keeps a catalog of generated models on the heap as Automobiles
+ * or in an OffHeapStore, and measures price updates and total prices, one
+ * model a call. JMH has no measure of the heap a result holds, so the heap
+ * held by the catalog and the time of a full garbage collection with the
+ * catalog live are printed when it is built. OffHeapStoreFileBenchmark times
+ * writing a store file and opening it again.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class OffHeapStoreBenchmark {
+
+	// "heap" for Automobiles, "offHeap" for an OffHeapStore in direct memory.
+	@Param({ "heap", "offHeap" })
+	public String store;
+
+	@Param({ "100000" })
+	public int models;
+
+	// Number of option sets of each model.
+	@Param({ "8" })
+	public int sets;
+
+	// Number of options of each option set.
+	@Param({ "10" })
+	public int options;
+
+	private List<Automobile> autos;
+	private OffHeapStore offHeap;
+
+	// The option each model updates, off the heap. The heap counted includes
+	// these names.
+	private String[] names;
+	private String[] setNames;
+	private String[] opNames;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		CatalogGenerator generator = new CatalogGenerator(42, sets, options);
+		long before = usedHeap();
+		if (store.equals("heap")) {
+			autos = new ArrayList<Automobile>(models);
+			for (int i = 0; i < models; ++i) autos.add(generator.buildModel(i));
+		}
+		else {
+			names = new String[models];
+			setNames = new String[models];
+			opNames = new String[models];
+			offHeap = new OffHeapStore(OffHeapStore.DEFAULT_SEGMENT_SIZE);
+			for (int i = 0; i < models; ++i) {
+				AutoTable table = generator.buildModel(i).toTable();
+				offHeap.put(table);
+				names[i] = table.getName();
+				setNames[i] = table.getOpSetName(i % sets);
+				opNames[i] = table.getOpName(table.getOpStart(i % sets));
+			}
+		}
+		long heap = usedHeap() - before;
+
+		long gcBefore = gcMillis();
+		long start = System.nanoTime();
+		System.gc();
+		double gc = (System.nanoTime() - start) / 1e6;
+		System.out.printf("%s: %.1f MB, %d bytes a model, full GC %.0f ms (%d ms by the "
+				+ "collectors)%n", store, heap / 1e6, heap / models, gc, gcMillis() - gcBefore);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (offHeap != null) {
+			System.out.println(offHeap);
+			offHeap.close();
+		}
+	}
+
+	/**
+	 * The next model of a thread, going round the catalog, and the next price.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int next;
+		long price;
+
+		int next(int models) {
+			if (next == models) {
+				next = 0;
+				++price;
+			}
+			return next++;
+		}
+
+	}
+
+	@Benchmark
+	public boolean priceUpdate(Cursor cursor) {
+		int i = cursor.next(models);
+		long price = cursor.price + i;
+		if (offHeap != null) return offHeap.updateOpPriceCents(names[i], setNames[i], opNames[i], price);
+		autos.get(i).setOpPriceCents(i % sets, 0, price);
+		return true;
+	}
+
+	@Benchmark
+	public long totalPrice(Cursor cursor) {
+		int i = cursor.next(models);
+		if (offHeap != null) return offHeap.getTotalPriceCents(names[i]);
+		return autos.get(i).getTotalPriceCents();
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			millis += gc.getCollectionTime();
+		return millis;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
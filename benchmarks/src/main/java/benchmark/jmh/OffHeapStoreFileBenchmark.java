@@ -0,0 +1,124 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.CatalogGenerator;
+import model.AutoTable;
+import util.OffHeapStore;
+
+/**
+ * This class times writing a catalog of generated models to an OffHeapStore
+ * file, and opening the file again after a restart, which reads back the
+ * index of every model.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class OffHeapStoreFileBenchmark {
+
+	@Param({ "100000" })
+	public int models;
+
+	private List<AutoTable> tables;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		CatalogGenerator generator = new CatalogGenerator(42, 8, 10);
+		tables = new ArrayList<AutoTable>(models);
+		for (int i = 0; i < models; ++i) tables.add(generator.buildModel(i).toTable());
+	}
+
+	/**
+	 * A new store file for each run.
+	 */
+	@State(Scope.Thread)
+	public static class StoreFile {
+
+		Path file;
+		OffHeapStore store;
+
+		@Setup(Level.Iteration)
+		public void setUp() throws IOException {
+			file = Files.createTempFile("carconfig-store", ".bin");
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws IOException {
+			if (store != null) store.close();
+			store = null;
+			Files.deleteIfExists(file);
+		}
+
+	}
+
+	/**
+	 * A store file written before each run and closed.
+	 */
+	@State(Scope.Thread)
+	public static class Written {
+
+		Path file;
+		OffHeapStore store;
+
+		@Setup(Level.Iteration)
+		public void setUp(OffHeapStoreFileBenchmark shared) throws IOException {
+			file = Files.createTempFile("carconfig-store", ".bin");
+			shared.write(file).close();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws IOException {
+			if (store != null) store.close();
+			store = null;
+			Files.deleteIfExists(file);
+		}
+
+	}
+
+	@Benchmark
+	public OffHeapStore write(StoreFile storeFile) throws IOException {
+		storeFile.store = write(storeFile.file);
+		return storeFile.store;
+	}
+
+	@Benchmark
+	public int reopen(Written written) throws IOException {
+		written.store = new OffHeapStore(written.file, OffHeapStore.DEFAULT_SEGMENT_SIZE);
+		return written.store.size();
+	}
+
+	/**
+	 * Write the catalog to a store file.
+	 */
+	private OffHeapStore write(Path file) throws IOException {
+		OffHeapStore store = new OffHeapStore(file, OffHeapStore.DEFAULT_SEGMENT_SIZE);
+		for (AutoTable table : tables) store.put(table);
+		store.force();
+		return store;
+	}
+
+}
@@ -0,0 +1,110 @@
+package benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.CatalogGenerator;
+import model.AutoTable;
+import model.Automobile;
+
+/**
+ * This class measures scanning the option prices of a catalog of generated
+ * models, one model a call: pricing a random configuration with
+ * getTotalPriceCents(short[]), and rendering the model with getAuto(). JMH
+ * has no measure of the heap a result holds, so the heap held by the
+ * catalog is printed when it is built.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class OptionStorageBenchmark {
+
+	@Param({ "20000" })
+	public int models;
+
+	// Number of option sets of each model.
+	@Param({ "8" })
+	public int sets;
+
+	// Number of options of each option set.
+	@Param({ "10" })
+	public int options;
+
+	private List<Automobile> autos;
+	private short[][] choices;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		CatalogGenerator generator = new CatalogGenerator(42, sets, options);
+		long before = usedHeap();
+		autos = new ArrayList<Automobile>(models);
+		for (int i = 0; i < models; ++i) autos.add(generator.buildModel(i));
+		long heap = usedHeap() - before;
+		System.out.printf("%d models of %d x %d options: %.1f MB, %d bytes a model, "
+				+ "%d bytes an option%n", models, sets, options, heap / 1e6, heap / models,
+				heap / ((long) models * sets * options));
+
+		// Random configurations, one per model.
+		Random random = new Random(1);
+		choices = new short[models][];
+		for (int i = 0; i < models; ++i) {
+			AutoTable table = autos.get(i).toTable();
+			choices[i] = new short[table.getOpSetCount()];
+			for (int s = 0; s < choices[i].length; ++s)
+				choices[i][s] = (short) random.nextInt(table.getOpCount(s));
+		}
+	}
+
+	/**
+	 * The next model of a thread, going round the catalog.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int next;
+
+		int next(int models) {
+			if (next == models) next = 0;
+			return next++;
+		}
+
+	}
+
+	@Benchmark
+	public long priceScan(Cursor cursor) {
+		int i = cursor.next(models);
+		return autos.get(i).getTotalPriceCents(choices[i]);
+	}
+
+	@Benchmark
+	public String getAuto(Cursor cursor) {
+		return autos.get(cursor.next(models)).getAuto();
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,79 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.CatalogGenerator;
+import exceptions.AutoException;
+import model.Automobile;
+import util.FileIO;
+import util.MappedAutoParser;
+
+/**
+ * This class measures building one Automobile from a model file, with
+ * FileIO.buildAutoObj and with the memory-mapped parser, for a small file
+ * shaped like Focus_Wagon_ZTW.txt and a synthetic huge file.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParseBenchmark {
+
+	// "small" is 5 option sets of 10 options, "huge" is 100 sets of 1000.
+	@Param({ "small", "huge" })
+	public String size;
+
+	private Path file;
+	private String filename;
+	private FileIO fileio;
+	private MappedAutoParser parser;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		boolean huge = size.equals("huge");
+		CatalogGenerator generator = huge ? new CatalogGenerator(42, 100, 1000)
+				: new CatalogGenerator(42, 5, 10);
+		file = Files.createTempFile("carconfig-" + size, ".txt");
+		generator.writeModel(file, 0);
+		filename = file.toString();
+		fileio = new FileIO();
+		parser = new MappedAutoParser();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public Automobile buildAutoObj() {
+		return fileio.buildAutoObj(filename);
+	}
+
+	@Benchmark
+	public Automobile mappedParse() throws AutoException, IOException {
+		return parser.parse(filename);
+	}
+
+}
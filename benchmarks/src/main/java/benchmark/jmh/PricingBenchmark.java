@@ -0,0 +1,87 @@
+package benchmark.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.CatalogGenerator;
+import model.AutoTable;
+import model.Automobile;
+import model.PriceTable;
+
+/**
+ * This class measures Automobile.getTotalPrice for the chosen options, the
+ * total of one configuration given by option indexes, and a batch of
+ * configurations priced through a PriceTable.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingBenchmark {
+
+	// Number of option sets of the car.
+	@Param({ "5", "50" })
+	public int opSets;
+
+	// Configurations priced by one batch call.
+	private static final int BATCH = 1024;
+
+	private Automobile auto;
+	private short[] choices;
+	private short[] batch;
+	private long[] totals;
+	private PriceTable table;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		auto = new CatalogGenerator(42, opSets, 10).buildModel(0);
+		Random random = new Random(42);
+
+		AutoTable names = auto.toTable();
+		choices = new short[opSets];
+		for (int s = 0; s < opSets; ++s) {
+			choices[s] = (short) random.nextInt(10);
+			auto.setOpChoice(names.getOpSetName(s), auto.getOpName(s, choices[s]));
+		}
+
+		batch = new short[BATCH * opSets];
+		for (int i = 0; i < batch.length; ++i) batch[i] = (short) random.nextInt(10);
+		totals = new long[BATCH];
+		table = new PriceTable(auto);
+	}
+
+	@Benchmark
+	public float getTotalPrice() {
+		return auto.getTotalPrice();
+	}
+
+	@Benchmark
+	public long getTotalPriceOfChoices() {
+		return auto.getTotalPriceCents(choices);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long[] priceBatch() {
+		table.price(batch, totals, BATCH, null, BATCH);
+		return totals;
+	}
+
+}
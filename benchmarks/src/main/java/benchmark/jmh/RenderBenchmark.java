@@ -0,0 +1,125 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.CatalogGenerator;
+import model.AutoTable;
+import model.Automobile;
+
+/**
+ * This class measures serving the description of a whole Automobile:
+ * rendering it again from a copy of the model, getAuto(), and writeAuto() to
+ * a Writer and to a ByteBuffer. The text is kept until the next update, so
+ * the car can be updated every so many calls to measure rendering it again.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+	// Number of option sets of the car, each with 10 options.
+	@Param({ "5", "100" })
+	public int opSets;
+
+	// Number of calls between two price updates of the car, 0 for none.
+	@Param({ "0", "1", "100" })
+	public int callsPerUpdate;
+
+	private Automobile auto;
+	private AutoTable table;
+	private ByteBuffer buffer;
+	private final NullWriter writer = new NullWriter();
+	private int calls;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		auto = new CatalogGenerator(42, opSets, 10).buildModel(0);
+		table = auto.toTable();
+		// Room for the text in UTF-8 whatever the prices become.
+		buffer = ByteBuffer.allocate(auto.getAuto().length() * 4);
+	}
+
+	/**
+	 * Update a price of the car if it is its turn.
+	 */
+	private void update() {
+		if (callsPerUpdate > 0 && ++calls % callsPerUpdate == 0)
+			auto.setOpPriceCents(0, 0, calls & 0xffff);
+	}
+
+	@Benchmark
+	public String render() {
+		return table.getAuto();
+	}
+
+	@Benchmark
+	public String getAuto() {
+		update();
+		return auto.getAuto();
+	}
+
+	@Benchmark
+	public long writeAutoWriter() throws IOException {
+		update();
+		auto.writeAuto(writer);
+		return writer.chars;
+	}
+
+	@Benchmark
+	public int writeAutoByteBuffer() {
+		update();
+		buffer.clear();
+		return auto.writeAuto(buffer);
+	}
+
+
+	/**
+	 * Counts the characters written to it.
+	 */
+	private static class NullWriter extends Writer {
+
+		private long chars;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			chars += len;
+		}
+
+		@Override
+		public Writer append(CharSequence csq) {
+			chars += csq.length();
+			return this;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
@@ -0,0 +1,192 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adapter.BuildAuto;
+import adapter.ProxyAutomobile;
+import benchmark.CatalogGenerator;
+import fixerrors.FixMode;
+import model.AutoTable;
+import server.AutoClient;
+import server.AutoServer;
+
+/**
+ * This class loads an AutoServer on the loopback address and samples the
+ * latency of its requests, p50 to p99.99 in the JMH result. Many idle
+ * connections are opened first and kept open, to show what they cost. Each
+ * benchmark thread is a busy connection that sends a batch of pipelined
+ * requests, mostly getTotalPrice with some getAuto, updateOptionPrice and
+ * setOpChoice, and waits for all responses; the time of a batch is the
+ * latency of its last request. Other numbers of busy connections can be run
+ * with "-t N". A running server is loaded with "-p port=N"; it is sent the
+ * model file by name, written to the working directory, so run from the
+ * model directory of that server.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ServerBenchmark {
+
+	// The server listens on the loopback address.
+	private static final String HOST = InetAddress.getLoopbackAddress().getHostAddress();
+
+	// Number of requests sent before waiting for the responses.
+	@Param({ "1", "16" })
+	public int depth;
+
+	// Number of connections kept open without requests.
+	@Param({ "0", "5000" })
+	public int idle;
+
+	// Port of a running server, 0 to start one.
+	@Param({ "0" })
+	public int port;
+
+	private AutoServer server;
+	private String name;
+	private AutoTable table;
+	private final List<SocketChannel> idlers = new ArrayList<SocketChannel>();
+	private final AtomicInteger seeds = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Path modelDir = Paths.get("");
+		if (port == 0) {
+			modelDir = Files.createTempDirectory("carconfig-load");
+			ProxyAutomobile autos = new BuildAuto();
+			// Never wait for console input inside a benchmark.
+			autos.setFixMode(FixMode.FAIL_FAST);
+			server = new AutoServer(autos, null, 0, Runtime.getRuntime().availableProcessors(),
+					modelDir);
+			port = server.getPort();
+		}
+
+		// Build the car over the network, from a generated model file.
+		CatalogGenerator generator = new CatalogGenerator(42, 5, 10);
+		Path file = Files.createTempFile(modelDir.toAbsolutePath(), "carconfig-load", ".txt");
+		generator.writeModel(file, 0);
+		name = CatalogGenerator.name(0);
+		table = generator.buildModel(0).toTable();
+		try (AutoClient client = new AutoClient(HOST, port)) {
+			if (!client.buildAuto(file.getFileName().toString()))
+				throw new IllegalStateException("The server could not build " + file);
+		}
+		finally {
+			Files.deleteIfExists(file);
+			if (server != null) Files.deleteIfExists(modelDir);
+		}
+
+		// Bare sockets, so their buffers do not hide the cost on the server.
+		for (int i = 0; i < idle; ++i) {
+			try {
+				idlers.add(SocketChannel.open(new InetSocketAddress(HOST, port)));
+			}
+			catch(IOException e) {
+				System.out.println("Stopped at " + i + " idle connections: " + e.getMessage());
+				break;
+			}
+		}
+		// Make sure the server has accepted them all before measuring.
+		try (AutoClient client = new AutoClient(HOST, port)) {
+			client.sendPing();
+			client.flush();
+			client.read();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		for (SocketChannel channel : idlers) channel.close();
+		idlers.clear();
+		if (server != null) {
+			server.close();
+			server = null;
+			port = 0;
+		}
+	}
+
+	/**
+	 * One busy connection.
+	 */
+	@State(Scope.Thread)
+	public static class Connection {
+
+		AutoClient client;
+		Random random;
+
+		@Setup(Level.Trial)
+		public void setUp(ServerBenchmark shared) throws IOException {
+			client = new AutoClient(HOST, shared.port);
+			random = new Random(shared.seeds.getAndIncrement());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			client.close();
+		}
+
+	}
+
+	@Benchmark
+	public int batch(Connection connection) throws IOException {
+		AutoClient client = connection.client;
+		for (int i = 0; i < depth; ++i) send(client, connection.random);
+		client.flush();
+		int ok = 0;
+		for (int i = 0; i < depth; ++i) if (client.read().isOk()) ++ok;
+		return ok;
+	}
+
+	/**
+	 * Send one request of the mix.
+	 */
+	private void send(AutoClient client, Random random) throws IOException {
+		int r = random.nextInt(100);
+		if (r < 80) {
+			client.sendGetTotalPrice(name);
+			return;
+		}
+		if (r < 85) {
+			client.sendGetAuto(name);
+			return;
+		}
+		int s = random.nextInt(table.getOpSetCount());
+		String setName = table.getOpSetName(s);
+		String opName = table.getOpName(table.getOpStart(s) + random.nextInt(table.getOpCount(s)));
+		if (r < 95) client.sendSetOpChoice(name, setName, opName);
+		else client.sendUpdateOptionPrice(name, setName, opName, random.nextInt(1000));
+	}
+
+}
@@ -0,0 +1,96 @@
+package benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.CatalogGenerator;
+import model.AutoTable;
+import model.Automobile;
+import model.Symbols;
+
+/**
+ * This class measures building a catalog of generated models, which interns
+ * their option set and option names in Symbols. JMH has no measure of the
+ * heap a result holds, so at the end of a run the memory saved is printed:
+ * the heap held by the models, and the heap a separate String per name
+ * would add, as measured by making those Strings.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SymbolTableBenchmark {
+
+	@Param({ "20000" })
+	public int models;
+
+	private CatalogGenerator generator;
+
+	// The catalog last built, held so the next one is built beside it.
+	private List<Automobile> autos;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		generator = new CatalogGenerator(42, 8, 10);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		autos = null;
+		long before = usedHeap();
+		List<Automobile> built = buildCatalog();
+		long held = usedHeap() - before;
+
+		// The Strings the models would hold without the symbol table.
+		before = usedHeap();
+		List<String> copies = new ArrayList<String>();
+		for (Automobile auto : built) {
+			AutoTable table = auto.toTable();
+			for (int s = 0; s < table.getOpSetCount(); ++s) {
+				copies.add(new String(table.getOpSetName(s).toCharArray()));
+				for (int o = 0; o < table.getOpCount(s); ++o)
+					copies.add(new String(table.getOpName(table.getOpStart(s) + o).toCharArray()));
+			}
+		}
+		long strings = usedHeap() - before - 4L * copies.size(); // Less the list.
+
+		System.out.printf("%d models, %d names: %.1f MB held by the models, "
+				+ "%.1f MB more (%d bytes a model) with a String per name%n",
+				built.size(), copies.size(), held / 1e6, strings / 1e6, strings / models);
+		System.out.println("symbols: " + Symbols.report());
+	}
+
+	@Benchmark
+	public List<Automobile> buildCatalog() {
+		List<Automobile> catalog = new ArrayList<Automobile>(models);
+		for (int i = 0; i < models; ++i) catalog.add(generator.buildModel(i));
+		autos = catalog;
+		return catalog;
+	}
+
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
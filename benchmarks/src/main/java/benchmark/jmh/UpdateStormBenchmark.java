@@ -0,0 +1,122 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adapter.BuildAuto;
+import adapter.ProxyAutomobile;
+import benchmark.CatalogGenerator;
+import fixerrors.FixMode;
+import model.AutoTable;
+import scale.UpdateScheduler;
+
+/**
+ * This class measures a storm of option price updates over a few cars, run
+ * with one thread per update, as the old EditOptions did, and run through
+ * the UpdateScheduler. The score is the time of the whole storm.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UpdateStormBenchmark {
+
+	// Number of updates of a storm.
+	@Param({ "20000" })
+	public int updates;
+
+	// Number of cars the updates are spread over.
+	@Param({ "4" })
+	public int cars;
+
+	private ProxyAutomobile autos;
+	private List<AutoTable> tables;
+	private UpdateScheduler scheduler;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		autos = new BuildAuto();
+		// Never wait for console input inside a benchmark.
+		autos.setFixMode(FixMode.SILENT);
+		CatalogGenerator generator = new CatalogGenerator(42, 5, 10);
+		tables = new ArrayList<AutoTable>(cars);
+		for (int i = 0; i < cars; ++i) {
+			Path file = Files.createTempFile("carconfig-storm", ".txt");
+			try {
+				generator.writeModel(file, i);
+				autos.buildAuto(file.toString());
+			}
+			finally {
+				Files.deleteIfExists(file);
+			}
+			tables.add(generator.buildModel(i).toTable());
+		}
+		scheduler = new UpdateScheduler(autos);
+	}
+
+	@Benchmark
+	public void threadPerUpdate() throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>(updates);
+		for (int u = 0; u < updates; ++u) {
+			final int n = u;
+			Thread thread = new Thread(() -> {
+				AutoTable table = tableOf(n);
+				int s = setOf(n, table);
+				autos.updateOptionPrice(table.getName(), table.getOpSetName(s),
+						table.getOpName(table.getOpStart(s)), n);
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) thread.join();
+	}
+
+	@Benchmark
+	public void scheduler() throws InterruptedException {
+		List<CompletableFuture<Boolean>> results = new ArrayList<CompletableFuture<Boolean>>(updates);
+		for (int u = 0; u < updates; ++u) {
+			AutoTable table = tableOf(u);
+			int s = setOf(u, table);
+			results.add(scheduler.updateOptionPrice(table.getName(), table.getOpSetName(s),
+					table.getOpName(table.getOpStart(s)), u));
+		}
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	/**
+	 * Get the car of an update of the storm.
+	 */
+	private AutoTable tableOf(int u) {
+		return tables.get(u % cars);
+	}
+
+	/**
+	 * Get the option set of an update of the storm.
+	 */
+	private int setOf(int u, AutoTable table) {
+		return (u / cars) % table.getOpSetCount();
+	}
+
+}
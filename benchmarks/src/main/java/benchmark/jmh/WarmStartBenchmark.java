@@ -0,0 +1,108 @@
+package benchmark.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adapter.AutoRegistry;
+import benchmark.CatalogGenerator;
+import model.AutoTable;
+import util.AutoSource;
+import util.CatalogSnapshot;
+
+/**
+ * This class measures the time to the first query after startup for catalogs
+ * of growing size, when the whole snapshot is built into Automobiles, when
+ * every model is registered to be built on first access, and when the
+ * snapshot is only mapped as the catalog image. The first query reads the
+ * text of one model; firstUpdate then also updates that model in the image,
+ * which builds it. The snapshot file is written once per catalog size.
+ * @author ShuqinYe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class WarmStartBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int models;
+
+	private Path snap;
+	private String name;
+	private AutoTable table;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		CatalogGenerator generator = new CatalogGenerator(42, 5, 6);
+		List<AutoTable> tables = new ArrayList<AutoTable>(models);
+		for (int i = 0; i < models; ++i) tables.add(generator.buildModel(i).toTable());
+		snap = Files.createTempFile("warmstart", ".acat");
+		CatalogSnapshot.writeTables(snap, tables);
+		name = CatalogGenerator.name(models / 2);
+		table = tables.get(models / 2);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(snap);
+	}
+
+	@Benchmark
+	public String mapImage() throws IOException {
+		AutoRegistry mapped = new AutoRegistry();
+		mapped.mapImage(new CatalogSnapshot(snap));
+		return check(mapped.getImageTable(name).getAuto());
+	}
+
+	@Benchmark
+	public String registerAll() throws IOException {
+		AutoRegistry registered = new AutoRegistry();
+		CatalogSnapshot snapshot = new CatalogSnapshot(snap);
+		for (String n : snapshot.names()) registered.register(n, AutoSource.fromSnapshot(snapshot, n));
+		return check(registered.get(name).getAuto());
+	}
+
+	@Benchmark
+	public String buildAll() throws IOException {
+		AutoRegistry built = new AutoRegistry();
+		for (AutoTable t : new CatalogSnapshot(snap).readAllTables())
+			built.put(t.getName(), t.toAutomobile());
+		return check(built.get(name).getAuto());
+	}
+
+	@Benchmark
+	public String firstUpdate() throws IOException {
+		AutoRegistry mapped = new AutoRegistry();
+		mapped.mapImage(new CatalogSnapshot(snap));
+		String text = check(mapped.getImageTable(name).getAuto());
+		mapped.get(name).updateOpPriceCents(table.getOpSetName(0), table.getOpName(0), 100);
+		return text;
+	}
+
+	private static String check(String text) {
+		if (text == null || text.isEmpty()) throw new IllegalStateException("Model not found");
+		return text;
+	}
+
+}
@@ -0,0 +1,348 @@
+package adapter;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import exceptions.AutoException;
+import model.AutoTable;
+import model.Automobile;
+import util.AutoSource;
+
+/**
+ * This class keeps the Automobiles of a catalog that is mostly cold. Only the
+ * auto names and where each Automobile is stored (AutoSource) are known up
+ * front; an Automobile is built the first time it is asked for, and the least
+ * recently used Automobiles are evicted when the cache holds more entries or
+ * more estimated bytes than its budget. When several threads miss on the same
+ * Automobile at once, it is built only once and the others wait for it.
+ * An Automobile that is going to be changed must not stay here, as evicting
+ * it would lose the change: the registry moves it to its built autos first.
+ * @author ShuqinYe
+ *
+ */
+public class AutoCache {
+
+	// Default budget: 10000 Automobiles, 64 MB.
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	// Auto name -> where the Automobile is stored.
+	private final ConcurrentHashMap<String, AutoSource> sources;
+
+	// Built Automobiles in least recently used order, guarded by itself.
+	private final LinkedHashMap<String, Entry> lru;
+
+	// Auto name -> build in progress, so concurrent misses build only once.
+	private final ConcurrentHashMap<String, CompletableFuture<Automobile>> loading;
+
+	private volatile int maxEntries;
+	private volatile long maxBytes;
+	private long bytes; // Estimated bytes of the built Automobiles, guarded by lru.
+
+	// Counters.
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder loadFailures = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+
+	/**
+	 * Construct a cache with the default budget.
+	 */
+	public AutoCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Construct a cache.
+	 * @param maxEntries the maximum number of built Automobiles.
+	 * @param maxBytes the maximum estimated bytes of built Automobiles.
+	 */
+	public AutoCache(int maxEntries, long maxBytes) {
+		sources = new ConcurrentHashMap<String, AutoSource>();
+		lru = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		loading = new ConcurrentHashMap<String, CompletableFuture<Automobile>>();
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Set the budget of the cache, evicting Automobiles if it is exceeded.
+	 * @param maxEntries the maximum number of built Automobiles.
+	 * @param maxBytes the maximum estimated bytes of built Automobiles.
+	 */
+	public void setBudget(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		synchronized(lru) {
+			evict();
+		}
+	}
+
+	/**
+	 * Register where an Automobile is stored, without building it. A built
+	 * Automobile of the same name is dropped.
+	 * @param name the auto name.
+	 * @param source where the Automobile is stored.
+	 * @return true if the name was not registered before.
+	 */
+	public boolean register(String name, AutoSource source) {
+		boolean added = sources.put(name, source) == null;
+		synchronized(lru) {
+			drop(name);
+		}
+		return added;
+	}
+
+	/**
+	 * Check whether an auto name is registered.
+	 * @param name the auto name.
+	 * @return true if the name is registered.
+	 */
+	public boolean contains(String name) {
+		return sources.containsKey(name);
+	}
+
+	/**
+	 * Get the registered auto names.
+	 * @return the auto names.
+	 */
+	public Set<String> names() {
+		return sources.keySet();
+	}
+
+	/**
+	 * Get the number of registered auto names.
+	 * @return the number of names.
+	 */
+	public int size() {
+		return sources.size();
+	}
+
+	/**
+	 * Remove an auto name and its built Automobile.
+	 * @param name the auto name.
+	 * @return true if the name was registered.
+	 */
+	public boolean remove(String name) {
+		boolean removed = sources.remove(name) != null;
+		synchronized(lru) {
+			drop(name);
+		}
+		return removed;
+	}
+
+	/**
+	 * Remove all auto names and built Automobiles.
+	 */
+	public void clear() {
+		sources.clear();
+		synchronized(lru) {
+			lru.clear();
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * Get an Automobile, building it from its source if it is not built yet.
+	 * @param name the auto name.
+	 * @return the Automobile, null if the name is not registered or the
+	 * Automobile cannot be built.
+	 */
+	public Automobile get(String name) {
+		Automobile auto = lookup(name);
+		if (auto != null) {
+			hits.increment();
+			return auto;
+		}
+
+		AutoSource source = sources.get(name);
+		if (source == null) return null;
+		misses.increment();
+
+		CompletableFuture<Automobile> mine = new CompletableFuture<Automobile>();
+		CompletableFuture<Automobile> other = loading.putIfAbsent(name, mine);
+		if (other != null) return other.join();
+
+		try {
+			// Another thread may have finished building it since the lookup.
+			auto = lookup(name);
+			if (auto == null) auto = build(name, source);
+			mine.complete(auto);
+			return auto;
+		}
+		catch(RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			loading.remove(name, mine);
+		}
+	}
+
+	/**
+	 * Get the number of lookups that found the Automobile built.
+	 * @return the number of hits.
+	 */
+	public long getHits() { return hits.sum(); }
+
+	/**
+	 * Get the number of lookups that had to wait for the Automobile to be built.
+	 * @return the number of misses.
+	 */
+	public long getMisses() { return misses.sum(); }
+
+	/**
+	 * Get the number of Automobiles built from their source.
+	 * @return the number of loads.
+	 */
+	public long getLoads() { return loads.sum(); }
+
+	/**
+	 * Get the number of Automobiles that could not be built.
+	 * @return the number of failed loads.
+	 */
+	public long getLoadFailures() { return loadFailures.sum(); }
+
+	/**
+	 * Get the number of Automobiles evicted.
+	 * @return the number of evictions.
+	 */
+	public long getEvictions() { return evictions.sum(); }
+
+	/**
+	 * Get the number of Automobiles currently built.
+	 * @return the number of built Automobiles.
+	 */
+	public int getCachedCount() {
+		synchronized(lru) {
+			return lru.size();
+		}
+	}
+
+	/**
+	 * Get the estimated bytes of the Automobiles currently built.
+	 * @return the estimated bytes.
+	 */
+	public long getCachedBytes() {
+		synchronized(lru) {
+			return bytes;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d names, %d built (%d bytes), %d hits, %d misses, "
+				+ "%d loads, %d failed loads, %d evictions", size(), getCachedCount(),
+				getCachedBytes(), getHits(), getMisses(), getLoads(),
+				getLoadFailures(), getEvictions());
+	}
+
+	/**
+	 * Estimate the heap bytes used by an Automobile, from the size of its
+	 * objects and the length of its names.
+	 * @param auto the Automobile.
+	 * @return the estimated bytes.
+	 */
+	public static long estimateBytes(Automobile auto) {
+		AutoTable table = auto.toTable();
+		long size = 200 + 2L * (table.getMake().length() + table.getModel().length());
+		for (int s = 0; s < table.getOpSetCount(); ++s)
+			size += 250 + 2L * table.getOpSetName(s).length();
+		for (int o = 0; o < table.getTotalOpCount(); ++o)
+			size += 150 + 2L * table.getOpName(o).length();
+		return size;
+	}
+
+
+	/**
+	 * Find a built Automobile and mark it as recently used.
+	 */
+	private Automobile lookup(String name) {
+		synchronized(lru) {
+			Entry entry = lru.get(name);
+			return entry == null ? null : entry.auto;
+		}
+	}
+
+	/**
+	 * Build an Automobile from its source and add it to the cache.
+	 */
+	private Automobile build(String name, AutoSource source) {
+		Automobile auto;
+		try {
+			auto = source.load();
+		}
+		catch(AutoException a) {
+			loadFailures.increment();
+			// Print the error message
+			a.printException(a.getErrNum());
+			// Output the log into a file called log.txt.
+			a.log();
+			return null;
+		}
+		catch(IOException i) {
+			loadFailures.increment();
+			i.printStackTrace();
+			return null;
+		}
+		loads.increment();
+
+		Entry entry = new Entry(auto, estimateBytes(auto));
+		synchronized(lru) {
+			// The name may have been removed or re-registered while building.
+			if (sources.get(name) != source) return auto;
+			drop(name);
+			lru.put(name, entry);
+			bytes += entry.bytes;
+			evict();
+		}
+		return auto;
+	}
+
+	/**
+	 * Remove a built Automobile. The caller holds the lru lock.
+	 */
+	private void drop(String name) {
+		Entry entry = lru.remove(name);
+		if (entry != null) bytes -= entry.bytes;
+	}
+
+	/**
+	 * Evict the least recently used Automobiles until the budget is met. The
+	 * caller holds the lru lock.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> i = lru.entrySet().iterator();
+		while ((lru.size() > maxEntries || bytes > maxBytes) && i.hasNext()) {
+			Entry entry = i.next().getValue();
+			i.remove();
+			bytes -= entry.bytes;
+			evictions.increment();
+		}
+	}
+
+
+	/**
+	 * One built Automobile.
+	 */
+	private static class Entry {
+
+		private final Automobile auto;
+		private final long bytes; // Estimated heap bytes.
+
+		private Entry(Automobile auto, long bytes) {
+			this.auto = auto;
+			this.bytes = bytes;
+		}
+
+	}
+
+}
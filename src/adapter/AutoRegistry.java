@@ -0,0 +1,467 @@
+package adapter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.AutoTable;
+import model.Automobile;
+import model.ChangeListener;
+import util.AutoSource;
+import util.CatalogSnapshot;
+import util.OffHeapStore;
+
+/**
+ * This class is the database of all Automobile objects, indexed by the auto
+ * name (make + model).
+ * Lookups are hashed (O(1)) and lock-free, so readers keep running while other
+ * threads insert new autos. The order in which the autos were first inserted is
+ * kept separately so the whole catalog can still be listed in order.
+ * Besides built autos, the registry can hold autos that are only registered
+ * with the place they are stored; those are kept in an AutoCache, which builds
+ * them on first access and evicts the cold ones.
+ * Last, the registry can read through to a mapped catalog image (a
+ * CatalogSnapshot). Its models are read straight from the image and an
+ * Automobile is only built for a model when get() hands it out to be
+ * changed; the built Automobile then replaces the model of the image.
+ * For very large catalogs, the registry can instead keep the models it is
+ * given in an OffHeapStore, outside of the Java heap. The models of the store
+ * are changed in the store; get() only hands out a copy of them.
+ * The registry gives every Automobile it holds its ChangeListeners, for
+ * example a journal of all updates and a ChangeFeed.
+ * @author ShuqinYe
+ *
+ */
+public class AutoRegistry {
+
+	// Auto name -> Automobile object.
+	private final ConcurrentHashMap<String, Automobile> autos;
+
+	// Auto name -> sequence number of its first insert, to list the autos in
+	// the order they were inserted. Keyed by name, so that an insert racing
+	// with a remove cannot list the same auto twice.
+	private final ConcurrentHashMap<String, Long> order;
+	private final AtomicLong sequence = new AtomicLong();
+
+	// Autos registered by where they are stored, built on first access.
+	private final AutoCache cache;
+
+	// The listeners added to the registry.
+	private final List<ChangeListener> listeners = new ArrayList<ChangeListener>();
+
+	// Given to every Automobile in the registry: null, the only listener or
+	// a Fanout of them all.
+	private volatile ChangeListener listener;
+
+	// Models read through from a mapped catalog image, can be null.
+	private volatile CatalogSnapshot image;
+
+	// Models of the image that were removed from the registry.
+	private final Set<String> imageRemoved = ConcurrentHashMap.newKeySet();
+
+	// Models kept off the heap, can be null.
+	private volatile OffHeapStore store;
+
+
+	/**
+	 * Construct an empty registry.
+	 */
+	public AutoRegistry() {
+		autos = new ConcurrentHashMap<String, Automobile>();
+		order = new ConcurrentHashMap<String, Long>();
+		cache = new AutoCache();
+	}
+
+	/**
+	 * Get the Automobile object with a certain name. A model of the image is
+	 * built into an Automobile, once. A model of the off-heap store is copied
+	 * out each time, and changing the copy does not change the store.
+	 * @param name the auto name = make + model
+	 * @return the Automobile, null if the name is not in the registry.
+	 */
+	public Automobile get(String name) {
+		Automobile auto = getBuilt(name);
+		if (auto != null) return auto;
+
+		OffHeapStore s = store;
+		if (s != null) {
+			auto = s.read(name);
+			if (auto != null) return auto;
+		}
+
+		CatalogSnapshot img = image;
+		if (img == null || imageRemoved.contains(name)) return null;
+		return autos.computeIfAbsent(name, n -> {
+			AutoTable table = img.readTable(n);
+			if (table == null) return null;
+			Automobile built = table.toAutomobile();
+			ChangeListener l = listener;
+			if (l != null) built.setChangeListener(l);
+			return built;
+		});
+	}
+
+	/**
+	 * Get the Automobile object with a certain name to change it. A cold
+	 * Automobile is moved out of the cache into the built autos before it is
+	 * returned, so it is not evicted with the change and the cache keeps to
+	 * its budget.
+	 * @param name the auto name = make + model
+	 * @return the Automobile, null if the name is not in the registry.
+	 */
+	public Automobile getForUpdate(String name) {
+		Automobile auto = autos.get(name);
+		if (auto != null) return auto;
+		if (!cache.contains(name)) return get(name);
+		auto = autos.computeIfAbsent(name, n -> {
+			Automobile built = cache.get(n);
+			if (built == null) return null;
+			ChangeListener l = listener;
+			if (l != null && built.getChangeListener() != l) built.setChangeListener(l);
+			return built;
+		});
+		
+		// Lookups find it in the built autos first, so it can leave the cache now.
+		if (auto != null) cache.remove(name);
+		return auto;
+	}
+
+	/**
+	 * Get the Automobile object with a certain name, without building a model
+	 * of the image.
+	 * @param name the auto name = make + model
+	 * @return the Automobile, null if the name is not in the registry or is
+	 * a model of the image that was not built.
+	 */
+	public Automobile getBuilt(String name) {
+		Automobile auto = autos.get(name);
+		if (auto == null && cache.contains(name)) {
+			auto = cache.get(name);
+			
+			// The cache builds the Automobile again after evicting it.
+			ChangeListener l = listener;
+			if (auto != null && l != null && auto.getChangeListener() != l)
+				auto.setChangeListener(l);
+		}
+		return auto;
+	}
+
+	/**
+	 * Read a model of the image that was not built.
+	 * @param name the auto name = make + model
+	 * @return the model, null if it is not in the image, was built or was
+	 * removed.
+	 */
+	public AutoTable getImageTable(String name) {
+		CatalogSnapshot img = image;
+		if (img == null || autos.containsKey(name) || cache.contains(name)
+				|| imageRemoved.contains(name)) return null;
+		OffHeapStore s = store;
+		if (s != null && s.contains(name)) return null;
+		return img.readTable(name);
+	}
+
+	/**
+	 * Get the off-heap store if it holds the model of a certain name, to
+	 * read or change the model there.
+	 * @param name the auto name = make + model
+	 * @return the store, null if there is none or the model is not in it.
+	 */
+	public OffHeapStore getStoreFor(String name) {
+		OffHeapStore s = store;
+		if (s == null || autos.containsKey(name) || cache.contains(name)) return null;
+		return s.contains(name) ? s : null;
+	}
+
+	/**
+	 * Read a model, without building a model of the image.
+	 * @param name the auto name = make + model
+	 * @return a copy of the model, null if the name is not in the registry.
+	 */
+	public AutoTable getTable(String name) {
+		Automobile auto = getBuilt(name);
+		if (auto != null) return auto.toTable();
+		OffHeapStore s = store;
+		AutoTable table = s != null ? s.readTable(name) : null;
+		return table != null ? table : getImageTable(name);
+	}
+
+	/**
+	 * Read through to a mapped catalog image for the models not otherwise in
+	 * the registry. It replaces the image mapped before.
+	 * @param snapshot the opened image.
+	 */
+	public void mapImage(CatalogSnapshot snapshot) {
+		image = snapshot;
+		imageRemoved.clear();
+	}
+
+	/**
+	 * Keep the Automobiles inserted from now on in an off-heap store. The
+	 * models already in the store join the registry; the Automobiles already
+	 * built stay on the heap until they are inserted again.
+	 * @param offHeap the store, null to stop using the store.
+	 */
+	public synchronized void useStore(OffHeapStore offHeap) {
+		OffHeapStore old = store;
+		if (old != null) old.setChangeListener(null);
+		if (offHeap != null) {
+			offHeap.setChangeListener(listener);
+			for (String name : offHeap.names()) {
+				if (!inImage(name)) addOrder(name);
+			}
+		}
+		store = offHeap;
+	}
+
+	/**
+	 * Get the off-heap store the Automobiles are kept in.
+	 * @return the store, null if there is none.
+	 */
+	public OffHeapStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Check whether an auto of a certain name is in the registry.
+	 * @param name the auto name
+	 * @return true if the auto is registered.
+	 */
+	public boolean contains(String name) {
+		if (autos.containsKey(name) || cache.contains(name)) return true;
+		OffHeapStore s = store;
+		if (s != null && s.contains(name)) return true;
+		CatalogSnapshot img = image;
+		return img != null && !imageRemoved.contains(name) && img.contains(name);
+	}
+
+	/**
+	 * Insert an Automobile, or replace the Automobile of the same name.
+	 * A replaced auto keeps its original position in the listing order.
+	 * With an off-heap store, the model of the Automobile is written to the
+	 * store, without its chosen options, and the Automobile is not kept.
+	 * @param name the auto name
+	 * @param auto the Automobile object
+	 * @return the Automobile previously registered under the name, or null.
+	 */
+	public Automobile put(String name, Automobile auto) {
+		OffHeapStore s = store;
+		if (s != null) {
+			s.put(auto.toTable());
+			Automobile old = autos.remove(name);
+			cache.remove(name);
+			if (!inImage(name)) addOrder(name);
+			imageRemoved.remove(name);
+			return old;
+		}
+
+		ChangeListener l = listener;
+		if (l != null) auto.setChangeListener(l);
+		Automobile old = autos.put(name, auto);
+		cache.remove(name);
+
+		// A replaced auto keeps its sequence number. The models of the image
+		// are listed in the order of the image.
+		if (!inImage(name)) addOrder(name);
+		imageRemoved.remove(name);
+		return old;
+	}
+
+	/**
+	 * Register an Automobile by where it is stored, without building it. It
+	 * replaces a built Automobile of the same name.
+	 * @param name the auto name
+	 * @param source where the Automobile is stored
+	 */
+	public void register(String name, AutoSource source) {
+		autos.remove(name);
+		cache.register(name, source);
+		if (!inImage(name)) addOrder(name);
+		imageRemoved.remove(name);
+	}
+
+	/**
+	 * Add a listener told about the updates of every Automobile in the
+	 * registry, now and later. Listeners are told in the order they were
+	 * added.
+	 * @param listener the listener.
+	 */
+	public synchronized void addChangeListener(ChangeListener listener) {
+		listeners.add(listener);
+		attachListeners();
+	}
+
+	/**
+	 * Remove a listener added to the registry.
+	 * @param listener the listener.
+	 * @return false if the listener was not added.
+	 */
+	public synchronized boolean removeChangeListener(ChangeListener listener) {
+		if (!listeners.remove(listener)) return false;
+		attachListeners();
+		return true;
+	}
+
+	/**
+	 * Get the cache holding the Automobiles registered by where they are 
+	 * stored, to set its budget or read its counters.
+	 * @return the cache.
+	 */
+	public AutoCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Insert a batch of Automobiles, each under its own name.
+	 * @param batch the Automobile objects.
+	 */
+	public void putAll(Collection<Automobile> batch) {
+		for (Automobile auto : batch) put(auto.getName(), auto);
+	}
+
+	/**
+	 * Remove an Automobile from the registry.
+	 * @param name the auto name
+	 * @return the removed Automobile, or null if it was not registered.
+	 */
+	public Automobile remove(String name) {
+		Automobile old = autos.remove(name);
+		cache.remove(name);
+		OffHeapStore s = store;
+		if (s != null) s.remove(name);
+		if (inImage(name)) imageRemoved.add(name);
+		else order.remove(name);
+		return old;
+	}
+
+	/**
+	 * Get the number of autos in the registry. The models of the image that
+	 * were built, stored or removed are still counted with the image, so the
+	 * number can be too high once an image is mapped.
+	 * @return the number of autos.
+	 */
+	public int size() {
+		CatalogSnapshot img = image;
+		OffHeapStore s = store;
+		return autos.size() + cache.size() + (s != null ? s.size() : 0)
+				+ (img != null ? img.size() : 0);
+	}
+
+	/**
+	 * Get the names of all autos: the models of the image first, sorted, then
+	 * the others in the order they were inserted.
+	 * The list is a snapshot and is not affected by later inserts.
+	 * @return the auto names.
+	 */
+	public List<String> names() {
+		ArrayList<String> names = new ArrayList<String>(size());
+		CatalogSnapshot img = image;
+		if (img != null) {
+			for (String name : img.names()) {
+				if (!imageRemoved.contains(name)) names.add(name);
+			}
+		}
+		List<Map.Entry<String, Long>> inserted = new ArrayList<Map.Entry<String, Long>>(order.entrySet());
+		inserted.sort(Map.Entry.comparingByValue());
+		for (Map.Entry<String, Long> entry : inserted) {
+			// Skip names removed after the order was read, and names already
+			// listed with the image.
+			String name = entry.getKey();
+			if (contains(name) && (img == null || !img.contains(name))) names.add(name);
+		}
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * Remove all autos from the registry. The off-heap store is no longer
+	 * used, but keeps its models.
+	 */
+	public synchronized void clear() {
+		useStore(null);
+		autos.clear();
+		cache.clear();
+		order.clear();
+		image = null;
+		imageRemoved.clear();
+	}
+
+	/**
+	 * Give the listeners to every Automobile. The caller holds the lock of
+	 * the registry.
+	 */
+	private void attachListeners() {
+		ChangeListener l;
+		if (listeners.isEmpty()) l = null;
+		else if (listeners.size() == 1) l = listeners.get(0);
+		else l = new Fanout(listeners.toArray(new ChangeListener[listeners.size()]));
+		listener = l;
+		for (Automobile auto : autos.values()) auto.setChangeListener(l);
+		OffHeapStore s = store;
+		if (s != null) s.setChangeListener(l);
+	}
+
+	/**
+	 * Give a name the next sequence number, unless it has one.
+	 */
+	private void addOrder(String name) {
+		if (!order.containsKey(name)) order.putIfAbsent(name, sequence.incrementAndGet());
+	}
+
+	/**
+	 * Check whether a name is a model of the image.
+	 */
+	private boolean inImage(String name) {
+		CatalogSnapshot img = image;
+		return img != null && img.contains(name);
+	}
+
+
+
+	/**
+	 * Tells several listeners about each update, in order.
+	 */
+	private static class Fanout implements ChangeListener {
+
+		private final ChangeListener[] listeners;
+
+		private Fanout(ChangeListener[] listeners) {
+			this.listeners = listeners;
+		}
+
+		@Override
+		public void opSetRenamed(String name, long version, int setIndex, String newName) {
+			for (ChangeListener l : listeners) l.opSetRenamed(name, version, setIndex, newName);
+		}
+
+		@Override
+		public void opPriceChanged(String name, long version, int setIndex, int opIndex,
+				long priceCents) {
+			for (ChangeListener l : listeners)
+				l.opPriceChanged(name, version, setIndex, opIndex, priceCents);
+		}
+
+		@Override
+		public void opAdded(String name, long version, int setIndex, int opIndex,
+				String opName, long priceCents) {
+			for (ChangeListener l : listeners)
+				l.opAdded(name, version, setIndex, opIndex, opName, priceCents);
+		}
+
+		@Override
+		public void opSetDeleted(String name, long version, int setIndex) {
+			for (ChangeListener l : listeners) l.opSetDeleted(name, version, setIndex);
+		}
+
+		@Override
+		public void opDeleted(String name, long version, int setIndex, int opIndex) {
+			for (ChangeListener l : listeners) l.opDeleted(name, version, setIndex, opIndex);
+		}
+
+	}
+
+}
@@ -0,0 +1,384 @@
+package adapter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import model.ChangeEvent;
+import model.ChangeListener;
+
+/**
+ * This class hands the changes of the Automobiles to subscribers, as
+ * ChangeEvents. A subscriber follows one car or the whole catalog.
+ * The feed is a ChangeListener of the registry: it is told about a change
+ * while the car holds its write lock, so it only puts the event in the
+ * buffer of each subscription that wants it and returns. The events are
+ * delivered later on a pool thread, in batches, in the order the changes
+ * were applied to each car. A subscription delivers one batch at a time.
+ * The feed has its own delivery threads by default, so a slow subscriber
+ * does not hold up the common pool; a pool given instead must not run the
+ * task on the calling thread, which holds the write lock of the car.
+ * The buffer of a subscription is bounded: when a subscriber is too slow
+ * and its buffer is full, the new events are dropped instead of holding up
+ * the update, and the next batch tells how many were dropped, so the
+ * subscriber knows to read the car again.
+ * @author ShuqinYe
+ *
+ */
+public class ChangeFeed implements ChangeListener {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+	public static final int DEFAULT_BATCH = 256;
+	public static final int DEFAULT_THREADS = 2;
+
+	private static final Subscription[] NONE = new Subscription[0];
+
+	private final Executor pool;
+
+	// Car name -> the subscriptions to the car. Arrays are replaced, not changed.
+	private final ConcurrentHashMap<String, Subscription[]> byName =
+			new ConcurrentHashMap<String, Subscription[]>();
+
+	// The subscriptions to the whole catalog.
+	private volatile Subscription[] all = NONE;
+
+	// Counters.
+	private final LongAdder published = new LongAdder();
+
+
+	/**
+	 * Construct a feed delivering on its own daemon threads.
+	 */
+	public ChangeFeed() {
+		this(deliveryThreads(DEFAULT_THREADS));
+	}
+
+	/**
+	 * Construct a feed.
+	 * @param pool the threads delivering the events.
+	 */
+	public ChangeFeed(Executor pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Subscribe to the changes of one car, or of the whole catalog.
+	 * @param name the car name, null for every car.
+	 * @param subscriber told about the changes.
+	 * @return the subscription, to close it.
+	 */
+	public Subscription subscribe(String name, Subscriber subscriber) {
+		return subscribe(name, subscriber, DEFAULT_CAPACITY, DEFAULT_BATCH);
+	}
+
+	/**
+	 * Subscribe to the changes of one car, or of the whole catalog.
+	 * @param name the car name, null for every car.
+	 * @param subscriber told about the changes.
+	 * @param capacity the number of events buffered before events are dropped.
+	 * @param maxBatch the largest number of events delivered at once.
+	 * @return the subscription, to close it.
+	 */
+	public synchronized Subscription subscribe(String name, Subscriber subscriber,
+			int capacity, int maxBatch) {
+		if (capacity < 1) throw new IllegalArgumentException("capacity " + capacity);
+		if (maxBatch < 1) throw new IllegalArgumentException("maxBatch " + maxBatch);
+		Subscription s = new Subscription(name, subscriber, capacity, maxBatch);
+		if (name == null) all = add(all, s);
+		else byName.put(name, add(byName.getOrDefault(name, NONE), s));
+		return s;
+	}
+
+	/**
+	 * Get the number of events put in at least one buffer.
+	 * @return the number of events.
+	 */
+	public long getPublished() { return published.sum(); }
+
+	@Override
+	public String toString() {
+		return String.format("%d events published, %d catalog and %d car subscriptions",
+				getPublished(), all.length, byName.values().stream().mapToInt(a -> a.length).sum());
+	}
+
+
+	// Below methods are told about the changes, under the write lock of the car.
+
+	@Override
+	public void opSetRenamed(String name, long version, int setIndex, String newName) {
+		publish(ChangeEvent.Type.SET_RENAMED, name, version, setIndex, -1, newName, 0);
+	}
+
+	@Override
+	public void opPriceChanged(String name, long version, int setIndex, int opIndex,
+			long priceCents) {
+		publish(ChangeEvent.Type.PRICE_CHANGED, name, version, setIndex, opIndex, null,
+				priceCents);
+	}
+
+	@Override
+	public void opAdded(String name, long version, int setIndex, int opIndex,
+			String opName, long priceCents) {
+		publish(ChangeEvent.Type.OPTION_ADDED, name, version, setIndex, opIndex, opName,
+				priceCents);
+	}
+
+	@Override
+	public void opSetDeleted(String name, long version, int setIndex) {
+		publish(ChangeEvent.Type.SET_DELETED, name, version, setIndex, -1, null, 0);
+	}
+
+	@Override
+	public void opDeleted(String name, long version, int setIndex, int opIndex) {
+		publish(ChangeEvent.Type.OPTION_DELETED, name, version, setIndex, opIndex, null, 0);
+	}
+
+
+	/**
+	 * Put an event in the buffer of every subscription that wants it. The
+	 * event is only made if there is one.
+	 */
+	private void publish(ChangeEvent.Type type, String name, long version, int setIndex,
+			int opIndex, String text, long priceCents) {
+		Subscription[] catalog = all;
+		Subscription[] car = byName.getOrDefault(name, NONE);
+		if (catalog.length == 0 && car.length == 0) return;
+
+		ChangeEvent event = new ChangeEvent(type, name, version, setIndex, opIndex, text,
+				priceCents);
+		for (Subscription s : car) s.offer(event);
+		for (Subscription s : catalog) s.offer(event);
+		published.increment();
+	}
+
+	/**
+	 * Remove a closed subscription.
+	 */
+	private synchronized void remove(Subscription s) {
+		if (s.name == null) {
+			all = without(all, s);
+			return;
+		}
+		Subscription[] left = without(byName.getOrDefault(s.name, NONE), s);
+		if (left.length == 0) byName.remove(s.name);
+		else byName.put(s.name, left);
+	}
+
+	/**
+	 * Make the default delivery threads of a feed.
+	 */
+	private static Executor deliveryThreads(int threads) {
+		AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "ChangeFeed delivery " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private static Subscription[] add(Subscription[] subs, Subscription s) {
+		Subscription[] more = Arrays.copyOf(subs, subs.length + 1);
+		more[subs.length] = s;
+		return more;
+	}
+
+	private static Subscription[] without(Subscription[] subs, Subscription s) {
+		List<Subscription> left = new ArrayList<Subscription>(Arrays.asList(subs));
+		left.remove(s);
+		return left.toArray(NONE);
+	}
+
+
+	/**
+	 * Provides an API for receiving the changes of a subscription.
+	 */
+	public interface Subscriber {
+
+		/**
+		 * Receive a batch of changes. It is called by one thread at a time
+		 * for a subscription, and may take its time: the changes meanwhile
+		 * wait in the buffer.
+		 * @param events the changes, in the order they were applied to each
+		 * car.
+		 * @param dropped the number of changes dropped because the buffer was
+		 * full, since the last batch. If it is not 0, the cars changed in ways
+		 * the events do not tell, and should be read again.
+		 */
+		public void changed(List<ChangeEvent> events, long dropped);
+
+	}
+
+	/**
+	 * One subscriber and its buffer. It runs on a pool thread while it has
+	 * events, and goes back to the pool after each batch, so other
+	 * subscriptions get a turn.
+	 */
+	public class Subscription implements AutoCloseable {
+
+		private final String name; // The car name, null for every car.
+		private final Subscriber subscriber;
+		private final int capacity;
+		private final int maxBatch;
+		private final Runnable task = this::deliver;
+
+		// Guarded by this.
+		private final ArrayDeque<ChangeEvent> buffer = new ArrayDeque<ChangeEvent>();
+		private long droppedSince; // Dropped since the last batch.
+		private boolean running; // The subscription is on the pool.
+		private boolean closed;
+
+		// Counters.
+		private final LongAdder delivered = new LongAdder();
+		private final LongAdder dropped = new LongAdder();
+		private final LongAdder batches = new LongAdder();
+
+		private Subscription(String name, Subscriber subscriber, int capacity, int maxBatch) {
+			this.name = name;
+			this.subscriber = subscriber;
+			this.capacity = capacity;
+			this.maxBatch = maxBatch;
+		}
+
+		/**
+		 * Stop delivering events. A batch being delivered still finishes.
+		 */
+		@Override
+		public void close() {
+			synchronized(this) {
+				closed = true;
+				buffer.clear();
+				droppedSince = 0;
+				notifyAll();
+			}
+			remove(this);
+		}
+
+		/**
+		 * Wait until every event buffered so far is delivered.
+		 * @param timeout the longest time to wait, in milliseconds.
+		 * @return true if the events were delivered within the time.
+		 * @throws InterruptedException if the thread is interrupted while waiting.
+		 */
+		public synchronized boolean awaitDelivered(long timeout) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (running) {
+				long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (left <= 0) return false;
+				wait(left);
+			}
+			return true;
+		}
+
+		/**
+		 * Get the number of events delivered.
+		 * @return the number of events.
+		 */
+		public long getDelivered() { return delivered.sum(); }
+
+		/**
+		 * Get the number of events dropped because the buffer was full.
+		 * @return the number of events.
+		 */
+		public long getDropped() { return dropped.sum(); }
+
+		/**
+		 * Get the number of batches delivered.
+		 * @return the number of batches.
+		 */
+		public long getBatches() { return batches.sum(); }
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d events in %d batches, %d dropped",
+					name == null ? "all cars" : name, getDelivered(), getBatches(), getDropped());
+		}
+
+		/**
+		 * Buffer an event, or drop it if the buffer is full. The subscription
+		 * is put on the pool outside its lock.
+		 */
+		private void offer(ChangeEvent event) {
+			synchronized(this) {
+				if (closed) return;
+				if (buffer.size() >= capacity) {
+					++droppedSince;
+					dropped.increment();
+					return;
+				}
+				buffer.add(event);
+				if (running) return;
+				running = true;
+			}
+			schedule();
+		}
+
+		/**
+		 * Put the subscription on the pool. If the pool rejects it, the events
+		 * stay in the buffer and the next event tries again.
+		 */
+		private void schedule() {
+			try {
+				pool.execute(task);
+			}
+			catch(RejectedExecutionException e) {
+				// Print the error message
+				e.printStackTrace();
+				synchronized(this) {
+					running = false;
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Deliver one batch on a pool thread, then go back to the pool if
+		 * there are more events.
+		 */
+		private void deliver() {
+			List<ChangeEvent> batch;
+			long lost;
+			synchronized(this) {
+				int n = Math.min(buffer.size(), maxBatch);
+				batch = new ArrayList<ChangeEvent>(n);
+				for (int i = 0; i < n; ++i) batch.add(buffer.poll());
+				lost = droppedSince;
+				droppedSince = 0;
+				if (closed || (batch.isEmpty() && lost == 0)) {
+					running = false;
+					notifyAll();
+					return;
+				}
+			}
+
+			try {
+				subscriber.changed(Collections.unmodifiableList(batch), lost);
+			}
+			catch(Throwable t) {
+				// Print the error message, and keep the subscription going.
+				t.printStackTrace();
+			}
+			delivered.add(batch.size());
+			batches.increment();
+
+			synchronized(this) {
+				if (closed || (buffer.isEmpty() && droppedSince == 0)) {
+					running = false;
+					notifyAll();
+					return;
+				}
+			}
+			schedule();
+		}
+
+	}
+
+}
@@ -2,14 +2,15 @@ package adapter;
 
 /**
  * This interface provides an API of buildAuto from a file, and print the 
- * Automobile object after it's built.
+ * Automobile object after it's built. buildAuto returns false if the file
+ * could not be built.
  * @author ShuqinYe
  *
  *
  */
 public interface CreateAuto {
 
-	public void buildAuto(String filename);
+	public boolean buildAuto(String filename);
 	public void printAuto(String autoName);
 	
 }
@@ -1,15 +1,47 @@
 package adapter;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import exceptions.AutoException;
+import fixerrors.FixMode;
+import metrics.Metrics;
+import metrics.Operation;
+import util.AutoSource;
+import util.BulkLoader;
+import util.CatalogSnapshot;
 import util.FileIO;
+import util.Journal;
+import util.LoadListener;
+import util.LoadReport;
+import util.OffHeapStore;
+import model.AutoTable;
 import model.Automobile;
+import model.ConfigurationExplorer;
+import model.ConfigurationSession;
+import model.Price;
+import model.PriceTable;
+import model.Symbols;
 
 /**
  * This class hides the object Automobile but provides an API for user to access
  * API.
+ * The time, throughput and failures of the main operations are recorded in
+ * metrics.Metrics and published over JMX, unless metrics are switched off.
+ * Once a journal is opened, the built Automobiles and the updates of option
+ * sets and options are written to it, and an update returns only once it is
+ * in the journal.
+ * Subscribers can follow the changes of one car or of all cars, see
+ * subscribe().
+ * For very large catalogs, the cars can be kept outside of the Java heap, see
+ * useOffHeapStore(). The cars of the store are changed by exact option set and
+ * option names.
  * 
  * @author ShuqinYe
  * @andrewID shuqiny
@@ -17,7 +49,17 @@ import model.Automobile;
  */
 public abstract class ProxyAutomobile {
 	
-	private static LinkedHashMap<String, Automobile> autos = new LinkedHashMap<String, Automobile>();
+	// Database of all autos, shared by every ProxyAutomobile object.
+	private static AutoRegistry autos = new AutoRegistry();
+	
+	// Configuration sessions of all customers.
+	private static SessionManager sessions = new SessionManager();
+	
+	// Journal of the updates of all autos, null if updates are not journaled.
+	private static volatile Journal journal;
+	
+	// Feed of the changes of all autos, null until the first subscription.
+	private static ChangeFeed feed;
 	
 	
 	/**
@@ -27,83 +69,378 @@ public abstract class ProxyAutomobile {
 	 * @return the Automobile with the specified name
 	 */
 	public Automobile getAuto(String name) {
-		Set<String> keySet = autos.keySet();
-		Iterator<String> i = keySet.iterator();
-		
-		while (i.hasNext()) {
-			String thisName = i.next();
-			if (name.equals(thisName)) return autos.get(name);
-		}
-		
-		return null;
+		long start = Metrics.start();
+		Automobile auto = autos.get(name);
+		Operation.GET_AUTO.end(start, auto != null);
+		return auto;
 	}
 	
 	
 	/**
 	 * Build an Automobile object from a file.
+	 * @param filename the model file
+	 * @return true if the Automobile was built, false if the error was reported
+	 * or the Automobile could not be written to the journal
 	 */
-	public void buildAuto(String filename) {
+	public boolean buildAuto(String filename) {
 		
+		long start = Metrics.start();
 		FileIO fileio = new FileIO();
 		Automobile oneAuto = fileio.buildAutoObj(filename);
-		String name = oneAuto.getName();
-		autos.put(name, oneAuto);
 		
+		// The error has already been reported by buildAutoObj.
+		boolean ok = oneAuto != null;
+		if (ok) {
+			put(oneAuto);
+			ok = commit();
+		}
+		Operation.BUILD_AUTO.end(start, ok);
+		return ok;
 	}
 	
 	/**
-	 * Print the whole Automobile object from a file.
+	 * Build Automobile objects from all model files at a path, in parallel.
+	 * Files that fail to load are listed in the report and do not stop the 
+	 * other files from loading.
+	 * @param path a directory, a single file, or a glob such as "catalog/*.txt"
+	 * @param listener receives the progress of the load, can be null
+	 * @return the report of the load
+	 * @throws IOException if the directory cannot be listed, or the 
+	 * Automobiles loaded could not be written to the journal
 	 */
-	public void printAuto(String name) {
-		Set<String> keySet = autos.keySet();
-		Iterator<String> i = keySet.iterator();
+	public LoadReport buildAutos(String path, LoadListener listener) 
+			throws IOException {
+		BulkLoader loader = new BulkLoader();
+		LoadReport report = loader.load(path, batch -> {
+			for (Automobile auto : batch) put(auto);
+		}, listener);
+		Journal j = journal;
+		if (j != null) j.commit();
+		return report;
+	}
+	
+	/**
+	 * Save all Automobile objects to one binary catalog snapshot file.
+	 * @param filename the snapshot file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void saveCatalog(String filename) throws IOException {
+		CatalogSnapshot.writeTables(Paths.get(filename), catalogTables());
+	}
+	
+	/**
+	 * Build all Automobile objects saved in a binary catalog snapshot file.
+	 * @param filename the snapshot file
+	 * @return the number of Automobile objects built
+	 * @throws IOException if the file cannot be read
+	 */
+	public int loadCatalog(String filename) throws IOException {
+		CatalogSnapshot snapshot = new CatalogSnapshot(Paths.get(filename));
+		List<AutoTable> tables = snapshot.readAllTables();
+		for (AutoTable table : tables) put(table.toAutomobile());
+		commit();
+		return tables.size();
+	}
+	
+	/**
+	 * Register all model files at a path without building them. Each 
+	 * Automobile is built from its file the first time it is used, and cold
+	 * Automobiles are evicted again when the cache is over its budget.
+	 * @param path a directory, a single file, or a glob such as "catalog/*.txt"
+	 * @return the number of Automobile objects registered
+	 * @throws IOException if the directory cannot be listed
+	 */
+	public int registerAutos(String path) throws IOException {
+		FileIO fileio = new FileIO();
+		int count = 0;
 		
-		while (i.hasNext()) {
-			String thisName = i.next();
-			if (name.equals(thisName)) {
-				System.out.println(autos.get(name).getAuto());
-				break;
+		for (Path file : BulkLoader.listFiles(path)) {
+			String filename = file.toString();
+			try {
+				autos.register(fileio.readAutoName(filename), AutoSource.fromFile(filename));
+				++count;
+			}
+			catch(AutoException a) {
+				// Print the error message
+				a.printException(a.getErrNum());
+				// Output the log into a file called log.txt.
+				a.log();
 			}
 		}
-		
+		return count;
+	}
+	
+	/**
+	 * Register all Automobile objects saved in a binary catalog snapshot file
+	 * without building them. Each Automobile is built from the snapshot the 
+	 * first time it is used.
+	 * @param filename the snapshot file
+	 * @return the number of Automobile objects registered
+	 * @throws IOException if the file cannot be read
+	 */
+	public int registerCatalog(String filename) throws IOException {
+		CatalogSnapshot snapshot = new CatalogSnapshot(Paths.get(filename));
+		List<String> names = snapshot.names();
+		for (String name : names) autos.register(name, AutoSource.fromSnapshot(snapshot, name));
+		return names.size();
+	}
+	
+	/**
+	 * Map a binary catalog snapshot file as the catalog image, without reading
+	 * its models. The models are read straight from the image by 
+	 * getAutoText(), getTotalPrice(), priceConfigurations() and 
+	 * exploreConfigurations(), and an Automobile is built for a model only
+	 * when it is changed or handed out by getAuto(). Mapping takes the same 
+	 * time whatever the size of the catalog.
+	 * @param filename the snapshot file
+	 * @return the number of models in the image
+	 * @throws IOException if the file cannot be read
+	 */
+	public int mapCatalog(String filename) throws IOException {
+		CatalogSnapshot snapshot = new CatalogSnapshot(Paths.get(filename));
+		autos.mapImage(snapshot);
+		return snapshot.size();
+	}
+	
+	/**
+	 * Set how many registered Automobile objects are kept built at most.
+	 * @param maxEntries the maximum number of built Automobile objects
+	 * @param maxBytes the maximum estimated heap bytes of built Automobile objects
+	 */
+	public void setCacheBudget(int maxEntries, long maxBytes) {
+		autos.getCache().setBudget(maxEntries, maxBytes);
+	}
+	
+	/**
+	 * Get the hit, miss and eviction counters of the registered Automobiles.
+	 * @return the cache holding the registered Automobile objects
+	 */
+	public AutoCache getAutoCache() {
+		return autos.getCache();
+	}
+	
+	/**
+	 * Set how option set and option names that are not found are fixed, for
+	 * all Automobile objects that do not set their own way. A server should 
+	 * not use PROMPT, which waits for input on the console.
+	 * @param mode the way names are fixed
+	 */
+	public void setFixMode(FixMode mode) {
+		Automobile.setDefaultFixMode(mode);
+	}
+	
+	/**
+	 * Print the time, throughput and failures of the operations so far, the
+	 * lock waits of the Automobile objects, the error counts and the memory
+	 * saved by the symbol table of names.
+	 */
+	public void printMetrics() {
+		System.out.print(Metrics.report());
+		System.out.println("symbols: " + Symbols.report());
+	}
+	
+	/**
+	 * Get the text of the whole Automobile object, without building a model
+	 * of the catalog image.
+	 * @param name the Auto name = make + model
+	 * @return the text, null if the car is not found
+	 */
+	public String getAutoText(String name) {
+		long start = Metrics.start();
+		String text = null;
+		Automobile auto = autos.getBuilt(name);
+		OffHeapStore store;
+		if (auto != null) text = auto.getAuto();
+		else if ((store = autos.getStoreFor(name)) != null) text = store.getAutoText(name);
+		else {
+			AutoTable table = autos.getImageTable(name);
+			if (table != null) text = table.getAuto();
+		}
+		Operation.GET_AUTO.end(start, text != null);
+		return text;
+	}
+	
+	/**
+	 * Write the text of the whole Automobile object. The text of a built car
+	 * is rendered once per update and written without a copy.
+	 * @param name the Auto name = make + model
+	 * @param out the text to append to, for example a Writer
+	 * @return false if the car is not found
+	 * @throws IOException if the text cannot be written
+	 */
+	public boolean writeAuto(String name, Appendable out) throws IOException {
+		Automobile auto = autos.getBuilt(name);
+		if (auto != null) {
+			long start = Metrics.start();
+			auto.writeAuto(out);
+			Operation.GET_AUTO.end(start, true);
+			return true;
+		}
+		String text = getAutoText(name);
+		if (text != null) out.append(text);
+		return text != null;
+	}
+	
+	/**
+	 * Get the text of the whole Automobile object in UTF-8. The bytes of a
+	 * built car are encoded once per update and shared.
+	 * @param name the Auto name = make + model
+	 * @return a read-only buffer of the text, null if the car is not found
+	 */
+	public ByteBuffer getAutoBuffer(String name) {
+		Automobile auto = autos.getBuilt(name);
+		if (auto != null) {
+			long start = Metrics.start();
+			ByteBuffer text = auto.getAutoBuffer();
+			Operation.GET_AUTO.end(start, true);
+			return text;
+		}
+		String text = getAutoText(name);
+		return text != null ? ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)) : null;
+	}
+	
+	/**
+	 * Print the whole Automobile object from a file.
+	 */
+	public void printAuto(String name) {
+		String text = getAutoText(name);
+		if (text != null) System.out.println(text);
+	}
+	
+	/**
+	 * Print all Automobile objects, in the order they were built.
+	 */
+	public void printAllAutos() {
+		for (String name : autos.names()) printAuto(name);
 	}
 	
 
 	
 	/**
 	 * Update option set name for an automobile with a given name
+	 * @return false if the car or the option set is not found, or the update
+	 * could not be written to the journal
 	 */
-	public void updateOptionSetName(String name, String setName,
+	public boolean updateOptionSetName(String name, String setName,
 			String newName) {
-		Set<String> keySet = autos.keySet();
-		Iterator<String> i = keySet.iterator();
-		
-		while (i.hasNext()) {
-			String thisName = i.next();
-			if (name.equals(thisName)) {
-				autos.get(name).updateOpSetName(setName, newName);
-				break;
-			}
+		long start = Metrics.start();
+		boolean ok;
+		OffHeapStore store = autos.getStoreFor(name);
+		if (store != null) ok = store.updateOpSetName(name, setName, newName);
+		else {
+			Automobile auto = autos.getForUpdate(name);
+			ok = auto != null && auto.updateOpSetName(setName, newName);
 		}
+		if (ok) ok = commit();
+		Operation.UPDATE_OPTION_SET_NAME.end(start, ok);
+		return ok;
 	}
 
 
 	/**
 	 * Update option price
+	 * @return false if the car, the option set or the option is not found, or
+	 * the update could not be written to the journal
 	 */
-	public void updateOptionPrice(String name, String setName, 
+	public boolean updateOptionPrice(String name, String setName, 
 			String opName, float newPrice) {
-		
-		Set<String> keySet = autos.keySet();
-		Iterator<String> i = keySet.iterator();
-		
-		while (i.hasNext()) {
-			String thisName = i.next();
-			if (name.equals(thisName)) {
-				autos.get(name).updateOpPrice(setName, opName, newPrice);
-				break;
+		long start = Metrics.start();
+		boolean ok;
+		OffHeapStore store = autos.getStoreFor(name);
+		if (store != null)
+			ok = store.updateOpPriceCents(name, setName, opName, Price.toCents(newPrice));
+		else {
+			Automobile auto = autos.getForUpdate(name);
+			ok = auto != null && auto.updateOpPrice(setName, opName, newPrice);
+		}
+		if (ok) ok = commit();
+		Operation.UPDATE_OPTION_PRICE.end(start, ok);
+		return ok;
+	}
+	
+	
+	/**
+	 * Add an option to an option set of a car.
+	 * @param name the car name
+	 * @param setName the option set name
+	 * @param opName the option name
+	 * @param price the option price
+	 * @return false if the car or the option set is not found, or the update
+	 * could not be written to the journal
+	 */
+	public boolean addOption(String name, String setName, String opName, float price) {
+		long start = Metrics.start();
+		boolean ok;
+		OffHeapStore store = autos.getStoreFor(name);
+		if (store != null) ok = store.addOptionCents(name, setName, opName, Price.toCents(price));
+		else {
+			Automobile auto = autos.getForUpdate(name);
+			ok = auto != null && auto.findOpSetByName(setName) != -1;
+			if (ok) {
+				try {
+					auto.addOption(setName, opName, price);
+					ok = commit();
+				}
+				catch(IndexOutOfBoundsException e) {
+					// Deleted by another thread meanwhile.
+					ok = false;
+				}
+			}
+		}
+		Operation.ADD_OPTION.end(start, ok);
+		return ok;
+	}
+	
+	/**
+	 * Delete an option set of a car.
+	 * @param name the car name
+	 * @param setName the option set name
+	 * @return false if the car or the option set is not found, or the update
+	 * could not be written to the journal
+	 */
+	public boolean deleteOptionSet(String name, String setName) {
+		long start = Metrics.start();
+		boolean ok;
+		OffHeapStore store = autos.getStoreFor(name);
+		if (store != null) ok = store.deleteOpSet(name, setName);
+		else {
+			Automobile auto = autos.getForUpdate(name);
+			ok = auto != null && auto.findOpSetByName(setName) != -1;
+			if (ok) {
+				try {
+					auto.deleteOpSetByName(setName);
+					ok = commit();
+				}
+				catch(IndexOutOfBoundsException e) {
+					// Deleted by another thread meanwhile.
+					ok = false;
+				}
 			}
 		}
+		Operation.DELETE_OPTION_SET.end(start, ok);
+		return ok;
+	}
+	
+	/**
+	 * Delete an option of a car.
+	 * @param name the car name
+	 * @param setName the option set name
+	 * @param opName the option name
+	 * @return false if the car, the option set or the option is not found, or
+	 * the update could not be written to the journal
+	 */
+	public boolean deleteOption(String name, String setName, String opName) {
+		long start = Metrics.start();
+		boolean ok;
+		OffHeapStore store = autos.getStoreFor(name);
+		if (store != null) ok = store.deleteOp(name, setName, opName);
+		else {
+			Automobile auto = autos.getForUpdate(name);
+			ok = auto != null && auto.deleteOpByName(setName, opName);
+			if (ok) ok = commit();
+		}
+		Operation.DELETE_OPTION.end(start, ok);
+		return ok;
 	}
 	
 	
@@ -113,16 +450,57 @@ public abstract class ProxyAutomobile {
 	 * @return the total price
 	 */
 	public float getTotalPrice(String name) {
-		Set<String> keySet = autos.keySet();
-		Iterator<String> i = keySet.iterator();
-		
-		while (i.hasNext()) {
-			String thisName = i.next();
-			if (name.equals(thisName)) {
-				return autos.get(name).getTotalPrice();
-			}
+		long total = getTotalPriceCents(name);
+		return total != -1 ? Price.toDollars(total) : 0;
+	}
+	
+	/**
+	 * Get the total price of user options for the car, in cents. No option is
+	 * chosen for a model of the catalog image that was not built.
+	 * @param name the car name
+	 * @return the total price in cents, -1 if the car is not found
+	 */
+	public long getTotalPriceCents(String name) {
+		long start = Metrics.start();
+		long total = -1;
+		Automobile auto = autos.getBuilt(name);
+		OffHeapStore store;
+		if (auto != null) total = auto.getTotalPriceCents();
+		else if ((store = autos.getStoreFor(name)) != null) total = store.getTotalPriceCents(name);
+		else {
+			AutoTable table = autos.getImageTable(name);
+			if (table != null) total = table.getBasePriceCents();
 		}
-		return 0;
+		Operation.GET_TOTAL_PRICE.end(start, total != -1);
+		return total;
+	}
+	
+	/**
+	 * Price many configurations of a car in one call.
+	 * @param name the car name
+	 * @param choices the configurations packed one after the other, each
+	 * holding one option index per option set (-1 for no choice)
+	 * @param count the number of configurations
+	 * @return the total price in cents of each configuration, null if the car
+	 * is not found
+	 */
+	public long[] priceConfigurations(String name, short[] choices, int count) {
+		long start = Metrics.start();
+		AutoTable table = autos.getTable(name);
+		long[] totals = table != null ? new PriceTable(table).price(choices, count) : null;
+		Operation.PRICE_CONFIGURATIONS.end(start, totals != null);
+		return totals;
+	}
+	
+	/**
+	 * Get the explorer of all configurations of a car, to find their price
+	 * distribution and the cheapest or most expensive ones.
+	 * @param name the car name
+	 * @return the explorer, null if the car is not found
+	 */
+	public ConfigurationExplorer exploreConfigurations(String name) {
+		AutoTable table = autos.getTable(name);
+		return table != null ? new ConfigurationExplorer(table, ForkJoinPool.commonPool()) : null;
 	}
 	
 	
@@ -131,17 +509,19 @@ public abstract class ProxyAutomobile {
 	 * @param name the car name
 	 * @param setName option set name
 	 * @param opName option name
+	 * @return false if the car, the option set or the option is not found
 	 */
-	public void setOpChoice(String name, String setName, String opName) {
-		Set<String> keySet = autos.keySet();
-		Iterator<String> i = keySet.iterator();
-		
-		while (i.hasNext()) {
-			String thisName = i.next();
-			if (name.equals(thisName)) {
-				autos.get(name).setOpChoice(setName, opName);
-			}
+	public boolean setOpChoice(String name, String setName, String opName) {
+		long start = Metrics.start();
+		boolean ok;
+		OffHeapStore store = autos.getStoreFor(name);
+		if (store != null) ok = store.setOpChoice(name, setName, opName);
+		else {
+			Automobile auto = autos.getForUpdate(name);
+			ok = auto != null && auto.setOpChoice(setName, opName);
 		}
+		Operation.SET_OP_CHOICE.end(start, ok);
+		return ok;
 	}
 	
 	
@@ -150,16 +530,329 @@ public abstract class ProxyAutomobile {
 	 * @param name the car name
 	 */
 	public void printConfig(String name) {
-		Set<String> keySet = autos.keySet();
-		Iterator<String> i = keySet.iterator();
-		
-		while (i.hasNext()) {
-			String thisName = i.next();
-			if (name.equals(thisName)) {
-				autos.get(name).printConfig();
+		Automobile auto = autos.get(name);
+		if (auto != null) auto.printConfig();
+	}
+	
+
+	
+	// Below methods keep the catalog in a journal, so it survives a restart.
+	
+	/**
+	 * Open a journal: map its latest snapshot as the catalog image (see
+	 * mapCatalog()), replay the updates written after it, then write every 
+	 * later build and update to it. It should be opened before any Automobile is built, since the
+	 * Automobiles already built are only saved by the next checkpoint.
+	 * @param dir the journal directory, created if it does not exist
+	 * @param fsync true to force every update to the disk before it returns,
+	 * false to only write it to the operating system
+	 * @return the number of updates replayed
+	 * @throws IOException if the journal cannot be read or is corrupt
+	 */
+	public long openJournal(String dir, boolean fsync) throws IOException {
+		synchronized(ProxyAutomobile.class) {
+			if (journal != null) throw new IllegalStateException("A journal is already open");
+			if (autos.getStore() != null)
+				throw new IllegalStateException("The cars are kept in an off-heap store");
+			Journal j = new Journal(Paths.get(dir), fsync, ProxyAutomobile::catalogTables);
+			long replayed = j.open(new Replay());
+			if (j.getMissing() > 0)
+				System.out.println(j.getMissing() + " journal updates were not replayed, "
+						+ "as their cars are not in the catalog.");
+			autos.addChangeListener(j);
+			journal = j;
+			return replayed;
+		}
+	}
+	
+	/**
+	 * Write all Automobiles to a new snapshot of the journal and drop the 
+	 * updates before it. Updates go on meanwhile.
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public void checkpoint() throws IOException {
+		Journal j = journal;
+		if (j == null) throw new IllegalStateException("No journal is open");
+		j.checkpoint();
+	}
+	
+	/**
+	 * Start a checkpoint automatically each time the journal grows past a size.
+	 * @param bytes the size of the journal, 0 for no automatic checkpoints
+	 */
+	public void setCheckpointSize(long bytes) {
+		Journal j = journal;
+		if (j == null) throw new IllegalStateException("No journal is open");
+		j.setCheckpointSize(bytes);
+	}
+	
+	/**
+	 * Get the journal, to read its counters.
+	 * @return the journal, null if none is open
+	 */
+	public Journal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * Close the journal. Later updates are no longer journaled.
+	 * @throws IOException if the last updates cannot be written
+	 */
+	public void closeJournal() throws IOException {
+		synchronized(ProxyAutomobile.class) {
+			Journal j = journal;
+			if (j == null) return;
+			journal = null;
+			autos.removeChangeListener(j);
+			j.close();
+		}
+	}
+	
+	
+	// Below methods keep the cars outside of the Java heap.
+	
+	/**
+	 * Keep the cars built from now on in an off-heap store, in direct memory
+	 * or in a file so they survive a restart. The cars already in the file 
+	 * join the catalog. Option prices, chosen options and option set names of
+	 * the same length are changed in place in the store; getAuto() hands out
+	 * a copy of a stored car. A store cannot be used with a journal.
+	 * @param filename the store file, created if it does not exist, null to
+	 * keep the cars in direct memory
+	 * @return the number of cars already in the store
+	 * @throws IOException if the file cannot be read or is not a store
+	 */
+	public int useOffHeapStore(String filename) throws IOException {
+		synchronized(ProxyAutomobile.class) {
+			if (journal != null) throw new IllegalStateException("A journal is open");
+			if (autos.getStore() != null)
+				throw new IllegalStateException("An off-heap store is already used");
+			OffHeapStore store = filename == null
+					? new OffHeapStore(OffHeapStore.DEFAULT_SEGMENT_SIZE)
+					: new OffHeapStore(Paths.get(filename), OffHeapStore.DEFAULT_SEGMENT_SIZE);
+			autos.useStore(store);
+			return store.size();
+		}
+	}
+	
+	/**
+	 * Get the off-heap store, to read its counters.
+	 * @return the store, null if none is used
+	 */
+	public OffHeapStore getOffHeapStore() {
+		return autos.getStore();
+	}
+	
+	/**
+	 * Stop using the off-heap store and close it. Its cars leave the catalog.
+	 * @throws IOException if the store file cannot be written
+	 */
+	public void closeOffHeapStore() throws IOException {
+		synchronized(ProxyAutomobile.class) {
+			OffHeapStore store = autos.getStore();
+			if (store == null) return;
+			autos.useStore(null);
+			store.close();
+		}
+	}
+	
+	
+	// Below methods hand the changes of the cars to subscribers.
+	
+	/**
+	 * Subscribe to the changes of a car: option set renames, option price 
+	 * changes, options added or deleted and option sets deleted. The changes are
+	 * delivered later, in batches, on a pool thread.
+	 * @param name the car name, null for every car
+	 * @param subscriber told about the changes
+	 * @return the subscription, to close it
+	 */
+	public ChangeFeed.Subscription subscribe(String name, ChangeFeed.Subscriber subscriber) {
+		return getChangeFeed().subscribe(name, subscriber);
+	}
+	
+	/**
+	 * Get the feed of the changes of all cars, to subscribe with other buffer
+	 * sizes or read its counters. The feed listens to the cars from the first
+	 * call on.
+	 * @return the feed
+	 */
+	public ChangeFeed getChangeFeed() {
+		synchronized(ProxyAutomobile.class) {
+			if (feed == null) {
+				feed = new ChangeFeed();
+				autos.addChangeListener(feed);
 			}
+			return feed;
 		}
 	}
 	
-
+	
+	/**
+	 * Register an Automobile, writing it to the journal if one is open.
+	 * @param auto the Automobile
+	 */
+	private static void put(Automobile auto) {
+		Journal j = journal;
+		if (j == null) autos.put(auto.getName(), auto);
+		else j.logBuild(auto.toTable(), () -> autos.put(auto.getName(), auto));
+	}
+	
+	/**
+	 * Wait until the updates so far are written to the journal, if one is
+	 * open.
+	 * @return false if the journal could not be written
+	 */
+	private static boolean commit() {
+		Journal j = journal;
+		if (j == null) return true;
+		try {
+			j.commit();
+			return true;
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Copy every Automobile, without building the models of the catalog image.
+	 * @return the copies
+	 */
+	private static List<AutoTable> catalogTables() {
+		List<AutoTable> tables = new ArrayList<AutoTable>(autos.size());
+		for (String name : autos.names()) {
+			AutoTable table = autos.getTable(name);
+			if (table != null) tables.add(table);
+		}
+		return tables;
+	}
+	
+	
+	/**
+	 * Applies the snapshot and the updates of a journal to the registry.
+	 */
+	private static class Replay implements Journal.Replayer {
+		
+		@Override
+		public void mapped(CatalogSnapshot snapshot) {
+			autos.mapImage(snapshot);
+		}
+		
+		@Override
+		public void built(AutoTable table) {
+			autos.put(table.getName(), table.toAutomobile());
+		}
+		
+		@Override
+		public boolean contains(String name) {
+			return autos.contains(name);
+		}
+		
+		@Override
+		public void opSetRenamed(String name, long version, int setIndex, String newName) {
+			Automobile auto = autos.getForUpdate(name);
+			auto.setOpSetName(setIndex, newName);
+			auto.setVersion(version);
+		}
+		
+		@Override
+		public void opPriceChanged(String name, long version, int setIndex, int opIndex,
+				long priceCents) {
+			Automobile auto = autos.getForUpdate(name);
+			auto.setOpPriceCents(setIndex, opIndex, priceCents);
+			auto.setVersion(version);
+		}
+		
+		@Override
+		public void opAdded(String name, long version, int setIndex, int opIndex,
+				String opName, long priceCents) {
+			Automobile auto = autos.getForUpdate(name);
+			auto.addOptionCents(setIndex, opName, priceCents);
+			auto.setVersion(version);
+		}
+		
+		@Override
+		public void opSetDeleted(String name, long version, int setIndex) {
+			Automobile auto = autos.getForUpdate(name);
+			auto.deleteOpSetByIndex(setIndex);
+			auto.setVersion(version);
+		}
+		
+		@Override
+		public void opDeleted(String name, long version, int setIndex, int opIndex) {
+			Automobile auto = autos.getForUpdate(name);
+			auto.deleteOpByIndex(setIndex, opIndex);
+			auto.setVersion(version);
+		}
+		
+	}
+	
+	
+	// Below methods configure a car in a customer's own session, so that 
+	// customers configuring the same car do not overwrite each other's choices.
+	
+	/**
+	 * Open a configuration session for a car.
+	 * @param name the car name
+	 * @return the session id, -1 if the car is not found
+	 */
+	public long openSession(String name) {
+		Automobile auto = autos.get(name);
+		if (auto == null) return -1;
+		return sessions.open(auto).getId();
+	}
+	
+	/**
+	 * Close a configuration session.
+	 * @param sessionId the session id
+	 */
+	public void closeSession(long sessionId) {
+		sessions.close(sessionId);
+	}
+	
+	/**
+	 * Set the time to live of idle configuration sessions.
+	 * @param ttl the time to live in milliseconds
+	 */
+	public void setSessionTimeout(long ttl) {
+		sessions.setTtl(ttl);
+	}
+	
+	/**
+	 * Set the option for a car configured in a session.
+	 * @param sessionId the session id
+	 * @param setName option set name
+	 * @param opName option name
+	 */
+	public void setOpChoice(long sessionId, String setName, String opName) {
+		long start = Metrics.start();
+		ConfigurationSession session = sessions.get(sessionId);
+		boolean ok = session != null && session.setOpChoice(setName, opName);
+		Operation.SESSION_SET_OP_CHOICE.end(start, ok);
+	}
+	
+	/**
+	 * Get the total price of the car configured in a session.
+	 * @param sessionId the session id
+	 * @return the total price, 0 if the session is not found
+	 */
+	public float getTotalPrice(long sessionId) {
+		long start = Metrics.start();
+		ConfigurationSession session = sessions.get(sessionId);
+		float total = session != null ? session.getTotalPrice() : 0;
+		Operation.SESSION_GET_TOTAL_PRICE.end(start, session != null);
+		return total;
+	}
+	
+	/**
+	 * Print the configuration of the car configured in a session.
+	 * @param sessionId the session id
+	 */
+	public void printConfig(long sessionId) {
+		ConfigurationSession session = sessions.get(sessionId);
+		if (session != null) session.printConfig();
+	}
+	
 }
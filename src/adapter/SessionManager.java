@@ -0,0 +1,144 @@
+package adapter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.Automobile;
+import model.ConfigurationSession;
+
+/**
+ * This class keeps the open ConfigurationSession objects of all customers.
+ * A session that has not been used for longer than the time to live (TTL) is
+ * expired: it is removed when it is next looked up, and idle sessions are
+ * swept regularly so the heap does not grow with abandoned sessions.
+ * @author ShuqinYe
+ *
+ */
+public class SessionManager {
+
+	// Default time to live of a session: 30 minutes.
+	public static final long DEFAULT_TTL = 30 * 60 * 1000L;
+
+	private final ConcurrentHashMap<Long, ConfigurationSession> sessions;
+	private final AtomicLong nextId; // Id of the next session.
+	private volatile long ttl; // Time to live in milliseconds.
+	private volatile long nextSweep; // Time of the next sweep in milliseconds.
+
+
+	/**
+	 * Construct a session manager with the default time to live.
+	 */
+	public SessionManager() {
+		this(DEFAULT_TTL);
+	}
+
+	/**
+	 * Construct a session manager.
+	 * @param ttl the time to live of an idle session, in milliseconds.
+	 */
+	public SessionManager(long ttl) {
+		sessions = new ConcurrentHashMap<Long, ConfigurationSession>();
+		nextId = new AtomicLong(1);
+		this.ttl = ttl;
+		nextSweep = System.currentTimeMillis() + ttl;
+	}
+
+	/**
+	 * Set the time to live of an idle session.
+	 * @param ttl the time to live in milliseconds.
+	 */
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Get the time to live of an idle session.
+	 * @return the time to live in milliseconds.
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Open a new session for a car model.
+	 * @param auto the car model to be configured.
+	 * @return the new session.
+	 */
+	public ConfigurationSession open(Automobile auto) {
+		sweepIfDue();
+		ConfigurationSession session =
+				new ConfigurationSession(nextId.getAndIncrement(), auto);
+		sessions.put(session.getId(), session);
+		return session;
+	}
+
+	/**
+	 * Get an open session. An expired session is removed and not returned.
+	 * @param id the session id.
+	 * @return the session, null if there is no such session or it has expired.
+	 */
+	public ConfigurationSession get(long id) {
+		ConfigurationSession session = sessions.get(id);
+		if (session == null) return null;
+
+		if (session.isExpired(System.currentTimeMillis(), ttl)) {
+			sessions.remove(id, session);
+			return null;
+		}
+		session.touch();
+		return session;
+	}
+
+	/**
+	 * Close a session.
+	 * @param id the session id.
+	 */
+	public void close(long id) {
+		sessions.remove(id);
+	}
+
+	/**
+	 * Get the number of sessions currently held, including expired ones
+	 * that have not been swept yet.
+	 * @return the number of sessions.
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Remove all expired sessions.
+	 * @return the number of sessions removed.
+	 */
+	public int expireSessions() {
+		long now = System.currentTimeMillis();
+		int removed = 0;
+
+		Iterator<ConfigurationSession> i = sessions.values().iterator();
+		while (i.hasNext()) {
+			if (i.next().isExpired(now, ttl)) {
+				i.remove();
+				++removed;
+			}
+		}
+		nextSweep = now + ttl;
+		return removed;
+	}
+
+	/**
+	 * Sweep the expired sessions once per time to live. The sweep is done by
+	 * the thread opening a session, so no extra thread is needed.
+	 */
+	private void sweepIfDue() {
+		long sweepAt = nextSweep;
+		if (System.currentTimeMillis() < sweepAt) return;
+
+		synchronized(this) {
+			// Another thread may have swept while this one was waiting.
+			if (nextSweep != sweepAt) return;
+			expireSessions();
+		}
+	}
+
+}
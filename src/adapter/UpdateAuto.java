@@ -2,16 +2,17 @@ package adapter;
 
 /**
  * This interface provides API for updating an option set name and updating 
- * the option price.
+ * the option price. Each update returns false if the car or a name is not
+ * found.
  * @author ShuqinYe
  *
  */
 public interface UpdateAuto {
 	
-	public void updateOptionSetName(String autoName, String setName, 
+	public boolean updateOptionSetName(String autoName, String setName, 
 			String newName);
 	
-	public void updateOptionPrice(String autoName, String setName, 
+	public boolean updateOptionPrice(String autoName, String setName, 
 			String opName, float newPrice);
 	
 
@@ -0,0 +1,72 @@
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import model.AutoTable;
+import model.Automobile;
+import model.PriceTable;
+
+/**
+ * This class compares pricing many configurations of one car one call at a
+ * time through Automobile.getTotalPriceCents(short[]) with pricing them in 
+ * one batch through a PriceTable, on one thread and on the common pool.
+ * Run with: java benchmark.BatchPricingBenchmark [number of configurations]
+ * @author ShuqinYe
+ *
+ */
+public class BatchPricingBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+		Automobile auto = new CatalogGenerator(42, 8, 10).buildModel(0);
+		AutoTable table = auto.toTable();
+		int sets = table.getOpSetCount();
+
+		// Random configurations, packed one after the other.
+		Random random = new Random(7);
+		short[] choices = new short[count * sets];
+		for (int c = 0, p = 0; c < count; ++c)
+			for (int s = 0; s < sets; ++s, ++p)
+				choices[p] = (short) random.nextInt(table.getOpCount(s));
+
+		PriceTable prices = new PriceTable(table);
+		long[] totals = new long[count];
+		short[] one = new short[sets];
+
+		System.out.println(count + " configurations of " + sets + " option sets, "
+				+ ForkJoinPool.getCommonPoolParallelism() + " pool threads");
+		System.out.println("round\tper-call ms\tbatch ms\tparallel batch ms");
+
+		for (int round = 1; round <= ROUNDS; ++round) {
+			long start = System.nanoTime();
+			long sink = 0;
+			for (int c = 0; c < count; ++c) {
+				System.arraycopy(choices, c * sets, one, 0, sets);
+				sink += auto.getTotalPriceCents(one);
+			}
+			long perCall = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			prices.price(choices, totals, count, null, PriceTable.DEFAULT_CHUNK_SIZE);
+			long batch = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			prices.price(choices, totals, count, ForkJoinPool.commonPool(),
+					PriceTable.DEFAULT_CHUNK_SIZE);
+			long parallel = System.nanoTime() - start;
+
+			// Both paths must agree, which also keeps the loops from being removed.
+			long check = 0;
+			for (long total : totals) check += total;
+			if (check != sink) throw new IllegalStateException("Totals differ");
+
+			System.out.printf("%d\t%.1f\t%.1f\t%.1f%n", round, perCall / 1e6,
+					batch / 1e6, parallel / 1e6);
+		}
+	}
+
+}
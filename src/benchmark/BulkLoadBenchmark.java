@@ -0,0 +1,45 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.BulkLoader;
+import util.LoadReport;
+
+/**
+ * This class measures how the time to load a whole catalog directory with
+ * the BulkLoader scales with the number of threads.
+ * Run with: java benchmark.BulkLoadBenchmark [number of files]
+ * @author ShuqinYe
+ *
+ */
+public class BulkLoadBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+		Path dir = Files.createTempDirectory("catalog");
+		new CatalogGenerator(42, 5, 6).writeCatalog(dir, count);
+		System.out.println("Generated " + count + " model files in " + dir);
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("threads\tms\tfiles/sec\terrors");
+
+		for (int threads = 1; threads <= cores; threads *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			final AtomicInteger built = new AtomicInteger();
+
+			LoadReport report = new BulkLoader(pool, BulkLoader.DEFAULT_BATCH_SIZE)
+					.load(dir.toString(), batch -> built.addAndGet(batch.size()), null);
+			pool.shutdown();
+
+			System.out.printf("%d\t%.1f\t%.0f\t%d%n", threads,
+					report.getElapsedNanos() / 1e6, report.getFilesPerSecond(),
+					report.getErrors().size());
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import exceptions.AutoException;
+import model.Automobile;
+import util.MappedAutoParser;
+
+/**
+ * This class writes synthetic model files in the same tab-delimited format as
+ * Focus_Wagon_ZTW.txt, for benchmarks that need large catalogs.
+ * @author ShuqinYe
+ *
+ */
+public class CatalogGenerator {
+
+	// Option set names and option names shared by all generated models.
+	private static final String[] SET_NAMES = { "Color", "Transmission",
+			"Brakes/Traction Control", "Side Impace Air Bags", "Power Moonroof",
+			"Wheels", "Audio", "Seats" };
+	private static final String[] OPTION_NAMES = { "None", "Selected",
+			"Standard", "Automatic", "ABS", "ABS with Advance Trac",
+			"Pitch Black Clearcoat", "Cloud 9 White Clearcoat",
+			"Infra-Red Clearcoat", "CD Silver Clearcoat Metallic" };
+
+	private final Random random;
+	private final int opSets; // Option sets per model.
+	private final int options; // Options per option set.
+
+	/**
+	 * Construct a generator.
+	 * @param seed the random seed, so runs are repeatable.
+	 * @param opSets the number of option sets per model.
+	 * @param options the number of options per option set.
+	 */
+	public CatalogGenerator(long seed, int opSets, int options) {
+		this.random = new Random(seed);
+		this.opSets = opSets;
+		this.options = options;
+	}
+
+	/**
+	 * Get the make of the generated model with a certain number.
+	 * @param i the model number.
+	 * @return the make.
+	 */
+	public static String make(int i) {
+		return "Make" + (i % 100);
+	}
+
+	/**
+	 * Get the model of the generated model with a certain number.
+	 * @param i the model number.
+	 * @return the model.
+	 */
+	public static String model(int i) {
+		return String.format("Model%07d", i);
+	}
+
+	/**
+	 * Get the auto name (make + model) of the generated model with a certain
+	 * number.
+	 * @param i the model number.
+	 * @return the auto name.
+	 */
+	public static String name(int i) {
+		return make(i) + " " + model(i);
+	}
+
+	/**
+	 * Get the text of one model file.
+	 * @param i the model number.
+	 * @return the model file content.
+	 */
+	public String modelText(int i) {
+		StringBuilder out = new StringBuilder();
+		out.append(make(i)).append('\t').append(model(i)).append('\t')
+				.append(15000 + random.nextInt(30000)).append('\n');
+
+		for (int s = 0; s < opSets; ++s) {
+			// Set names repeat across models, and get a suffix past the list.
+			String setName = SET_NAMES[s % SET_NAMES.length];
+			if (s >= SET_NAMES.length) setName += " " + (s / SET_NAMES.length);
+			out.append(setName).append('\n');
+
+			for (int o = 0; o < options; ++o) {
+				String opName = OPTION_NAMES[o % OPTION_NAMES.length];
+				if (o >= OPTION_NAMES.length) opName += " " + (o / OPTION_NAMES.length);
+				int price = o == 0 ? 0 : random.nextInt(3000) - 1000;
+				out.append(opName).append('\t').append(price).append('\n');
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Write one model file.
+	 * @param file the file to write.
+	 * @param i the model number.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void writeModel(Path file, int i) throws IOException {
+		Files.write(file, modelText(i).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Build one model in memory, without a file.
+	 * @param i the model number.
+	 * @return the Automobile.
+	 */
+	public Automobile buildModel(int i) {
+		ByteBuffer text = ByteBuffer.wrap(modelText(i).getBytes(StandardCharsets.UTF_8));
+		try {
+			return new MappedAutoParser(StandardCharsets.UTF_8).parse(text, model(i));
+		}
+		catch(AutoException a) {
+			// Generated text always has a model name and prices.
+			throw new IllegalStateException(a.getMessage(a.getErrNum()));
+		}
+	}
+
+	/**
+	 * Write a catalog of model files into a directory.
+	 * @param dir the directory.
+	 * @param count the number of model files.
+	 * @throws IOException if a file cannot be written.
+	 */
+	public void writeCatalog(Path dir, int count) throws IOException {
+		Files.createDirectories(dir);
+		for (int i = 0; i < count; ++i)
+			writeModel(dir.resolve(model(i) + ".txt"), i);
+	}
+
+}
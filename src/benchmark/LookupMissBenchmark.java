@@ -0,0 +1,82 @@
+package benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import exceptions.AutoException;
+import exceptions.ExceptionSets;
+import fixerrors.FixMode;
+import model.AutoTable;
+import model.Automobile;
+import util.FileIO;
+
+/**
+ * This class measures the cost of an option choice whose option name is
+ * found (a hit) and not found (a miss), for each way misses are handled, and
+ * the cost of creating the exception for a miss.
+ * Run with: java benchmark.LookupMissBenchmark [model file] [operations]
+ * @author ShuqinYe
+ *
+ */
+public class LookupMissBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		String filename = args.length > 0 ? args[0] : "Focus_Wagon_ZTW.txt";
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+		Automobile auto = new FileIO().buildAutoObj(filename);
+		AutoTable table = auto.toTable();
+		String setName = table.getOpSetName(0);
+		String opName = table.getOpName(0);
+
+		// The console would dominate the misses that print, so drop the output.
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {}
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		}));
+
+		console.println("round\thit ns\tSILENT miss ns\tFAIL_FAST miss ns\t"
+				+ "Exception ns\tAutoException ns\tshared ns");
+		for (int round = 1; round <= ROUNDS; ++round) {
+			auto.setFixMode(FixMode.SILENT);
+			long hit = time(operations, () -> auto.setOpChoice(setName, opName));
+			long silent = time(operations, () -> auto.setOpChoice(setName, "No such option"));
+
+			// FAIL_FAST also logs every miss, so run fewer to keep the log small.
+			auto.setFixMode(FixMode.FAIL_FAST);
+			long failFast = time(operations / 10, () -> auto.setOpChoice(setName, "No such option"));
+
+			long withStack = time(operations, () -> new Exception("The option name was not found!"));
+			long stackless = time(operations, 
+					() -> new AutoException(ExceptionSets.OPTIONNAMENOTFOUND, "No such option"));
+			long shared = time(operations, 
+					() -> AutoException.shared(ExceptionSets.OPTIONNAMENOTFOUND));
+
+			console.printf("%d\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f%n", round,
+					(double) hit / operations, (double) silent / operations,
+					(double) failFast / (operations / 10), (double) withStack / operations,
+					(double) stackless / operations, (double) shared / operations);
+		}
+
+		System.setOut(console);
+		for (ExceptionSets exception : ExceptionSets.values())
+			System.out.println(exception + "\t" + exception.getCount());
+		System.out.println(AutoException.getLog());
+	}
+
+	/**
+	 * Run an operation a number of times.
+	 * @return the time taken in nanoseconds.
+	 */
+	private static long time(int operations, Runnable operation) {
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; ++i) operation.run();
+		return System.nanoTime() - start;
+	}
+
+}
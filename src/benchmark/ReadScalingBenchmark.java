@@ -0,0 +1,99 @@
+package benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import adapter.BuildAuto;
+import adapter.ProxyAutomobile;
+import model.Automobile;
+
+/**
+ * This class measures how the read throughput of one Automobile scales with
+ * the number of reader threads, while a writer thread keeps updating an
+ * option price in the background.
+ * Run with: java benchmark.ReadScalingBenchmark [model file] [seconds per run]
+ * @author ShuqinYe
+ *
+ */
+public class ReadScalingBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		String filename = args.length > 0 ? args[0] : "Focus_Wagon_ZTW.txt";
+		long seconds = args.length > 1 ? Long.parseLong(args[1]) : 2;
+
+		ProxyAutomobile autos = new BuildAuto();
+		autos.buildAuto(filename);
+
+		Automobile auto = autos.getAuto("Focus Wagon ZTW");
+		auto.setOpChoice("Color", "Infra-Red Clearcoat");
+		auto.setOpChoice("Transmission", "Standard");
+		auto.setOpChoice("Brakes/Traction Control", "ABS");
+		auto.setOpChoice("Side Impace Air Bags", "None");
+		auto.setOpChoice("Power Moonroof", "Selected");
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("threads\treads/sec\treads/sec/thread");
+
+		for (int threads = 1; threads <= cores; threads *= 2) {
+			double throughput = run(auto, threads, seconds * 1000);
+			System.out.printf("%d\t%.0f\t%.0f%n", threads, throughput,
+					throughput / threads);
+		}
+	}
+
+	/**
+	 * Run the readers and the writer for a while.
+	 * @param auto the Automobile to read.
+	 * @param threads the number of reader threads.
+	 * @param millis how long to run, in milliseconds.
+	 * @return the number of reads per second of all readers.
+	 */
+	private static double run(final Automobile auto, int threads, long millis)
+			throws InterruptedException {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final LongAdder reads = new LongAdder();
+		final CountDownLatch done = new CountDownLatch(threads + 1);
+
+		for (int t = 0; t < threads; ++t) {
+			new Thread(() -> {
+				long count = 0;
+				float sink = 0;
+				while (running.get()) {
+					sink += auto.getTotalPrice();
+					sink += auto.getBasePrice();
+					sink += auto.findOpSetByName("Power Moonroof");
+					count += 3;
+				}
+				reads.add(count);
+				// Keep the reads from being optimized away.
+				if (sink == Float.MIN_VALUE) System.out.println(sink);
+				done.countDown();
+			}).start();
+		}
+
+		// One writer updates a price about a thousand times per second.
+		new Thread(() -> {
+			float price = 0;
+			while (running.get()) {
+				auto.updateOpPrice("Power Moonroof", "Selected", 595 + (price++ % 10));
+				try {
+					Thread.sleep(1);
+				}
+				catch(InterruptedException e) {
+					break;
+				}
+			}
+			done.countDown();
+		}).start();
+
+		long start = System.nanoTime();
+		Thread.sleep(millis);
+		running.set(false);
+		done.await();
+		long elapsed = System.nanoTime() - start;
+
+		return reads.sum() * 1e9 / elapsed;
+	}
+
+}
@@ -0,0 +1,79 @@
+package benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.AutoTable;
+import model.Automobile;
+import util.CatalogSnapshot;
+
+/**
+ * This class compares saving and loading a whole catalog with Java object
+ * serialization and with the binary CatalogSnapshot, and times reading a
+ * single model from the snapshot.
+ * Run with: java benchmark.SnapshotBenchmark [number of models]
+ * @author ShuqinYe
+ *
+ */
+public class SnapshotBenchmark {
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		CatalogGenerator generator = new CatalogGenerator(42, 5, 6);
+		ArrayList<Automobile> autos = new ArrayList<Automobile>(count);
+		for (int i = 0; i < count; ++i) autos.add(generator.buildModel(i));
+
+		Path dir = Files.createTempDirectory("snapshot");
+		Path ser = dir.resolve("catalog.ser");
+		Path snap = dir.resolve("catalog.snap");
+
+		System.out.println("format\tsave ms\tload ms\tbytes");
+
+		long start = System.nanoTime();
+		try (ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(ser.toFile())))) {
+			out.writeObject(autos);
+		}
+		long saved = System.nanoTime();
+		try (ObjectInputStream in = new ObjectInputStream(
+				new BufferedInputStream(new FileInputStream(ser.toFile())))) {
+			if (((List<?>) in.readObject()).size() != count) throw new IllegalStateException();
+		}
+		long loaded = System.nanoTime();
+		print("serialization", saved - start, loaded - saved, Files.size(ser));
+
+		start = System.nanoTime();
+		CatalogSnapshot.write(snap, autos);
+		saved = System.nanoTime();
+		List<AutoTable> tables = new CatalogSnapshot(snap).readAllTables();
+		List<Automobile> read = new ArrayList<Automobile>(tables.size());
+		for (AutoTable table : tables) read.add(table.toAutomobile());
+		loaded = System.nanoTime();
+		print("snapshot", saved - start, loaded - saved, Files.size(snap));
+
+		// One model looked up in a freshly opened snapshot.
+		start = System.nanoTime();
+		Automobile one = new CatalogSnapshot(snap).read(CatalogGenerator.name(count / 2));
+		long single = System.nanoTime() - start;
+		System.out.printf("single model lookup: %.3f ms (%s)%n", single / 1e6, one.getName());
+
+		Files.delete(ser);
+		Files.delete(snap);
+		Files.delete(dir);
+	}
+
+	private static void print(String format, long save, long load, long bytes) {
+		System.out.printf("%s\t%.1f\t%.1f\t%d%n", format, save / 1e6, load / 1e6, bytes);
+	}
+
+}
@@ -0,0 +1,66 @@
+package driver;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import model.AutoTable;
+import model.Automobile;
+
+/**
+ * This class tests the indexes an option set builds on reads while another
+ * thread adds and deletes options. Readers find options by name, which builds
+ * the name index of a large option set, while the writer deletes an option
+ * and adds a batch of new ones. After each batch the writer checks that every
+ * option is found at its index: an index built from the set before a change
+ * and kept after it would miss the options added since.
+ * Run with: java driver.OptionIndexTest [seconds]
+ * @author ShuqinYe
+ *
+ */
+public class OptionIndexTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+
+		Automobile auto = new Automobile("Index", "Test", 20000);
+		auto.addEmptyOpSet("Color");
+		for (int o = 0; o < 40; ++o) auto.addOptionCents("Color", "Color " + o, o * 100);
+
+		AtomicBoolean done = new AtomicBoolean();
+		Thread[] readers = new Thread[3];
+		for (int r = 0; r < readers.length; ++r) {
+			int seed = r;
+			readers[r] = new Thread(() -> {
+				for (int i = seed; !done.get(); ++i) auto.findOpInSet(0, "Color " + (i % 64));
+			});
+			readers[r].start();
+		}
+
+		long end = System.nanoTime() + seconds * 1000000000L;
+		long batches = 0;
+		String failure = null;
+		for (int next = 40; failure == null && System.nanoTime() < end; ++batches) {
+			// Keep the set at about 40 options, so the name index is used.
+			for (int i = 0; i < 4; ++i) {
+				auto.deleteOpByIndex(0, 0);
+				auto.addOptionCents("Color", "Color " + (next++ % 64), next * 100L);
+			}
+
+			AutoTable table = auto.toTable();
+			for (int o = 0; o < table.getOpCount(0) && failure == null; ++o) {
+				String name = table.getOpName(table.getOpStart(0) + o);
+				int found = auto.findOpInSet(0, name);
+				if (found != o) failure = name + " found at " + found + " instead of " + o;
+			}
+		}
+		done.set(true);
+		for (Thread reader : readers) reader.join();
+
+		if (failure == null) System.out.println("All option indexes were current in " + batches
+				+ " batches.");
+		else {
+			System.out.println("Batch " + batches + ": " + failure);
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package driver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import benchmark.CatalogGenerator;
+import exceptions.AutoException;
+import model.Automobile;
+import util.FileIO;
+import util.MappedAutoParser;
+
+/**
+ * This class tests that the memory-mapped parser builds the same Automobile
+ * as FileIO, or fails with the same error, on:
+ * - the model files given as arguments (Focus_Wagon_ZTW.txt by default),
+ * - generated files, and files with CRLF line ends, blank lines, signs,
+ * missing prices and a missing model name.
+ * @author ShuqinYe
+ *
+ */
+public class ParserDiffTest {
+
+	public static void main(String[] args) throws IOException {
+		List<String> files = new ArrayList<String>();
+		if (args.length == 0) files.add("Focus_Wagon_ZTW.txt");
+		for (String arg : args) files.add(arg);
+
+		Path dir = Files.createTempDirectory("parserdiff");
+		CatalogGenerator generator = new CatalogGenerator(7, 8, 12);
+		for (int i = 0; i < 20; ++i) {
+			Path file = dir.resolve("generated" + i + ".txt");
+			generator.writeModel(file, i);
+			files.add(file.toString());
+		}
+
+		files.add(write(dir, "crlf.txt", "Ford\tFocus\t18445\r\nColor\r\nRed\t0\r\nBlue\t+15\r\n"));
+		files.add(write(dir, "cr.txt", "Ford\tFocus\t18445\rColor\rRed\t-815"));
+		files.add(write(dir, "blank.txt", "Ford\tFocus\t18445\n\nColor\n\nRed\t0\t\t\n"));
+		files.add(write(dir, "extra.txt", "Ford\tFocus\t18445\textra\nColor\nRed\t0\textra\n"));
+		files.add(write(dir, "price.txt", "Ford\tFocus\t18445\nColor\nRed\tabc\n"));
+		files.add(write(dir, "overflow.txt", "Ford\tFocus\t18445\nColor\nRed\t2147483648\n"));
+		files.add(write(dir, "minint.txt", "Ford\tFocus\t18445\nColor\nRed\t-2147483648\n"));
+		files.add(write(dir, "model.txt", "Ford\t \t18445\nColor\n"));
+		files.add(write(dir, "empty.txt", ""));
+		files.add(write(dir, "noset.txt", "Ford\tFocus\t18445\nRed\t0\n"));
+		files.add(dir.resolve("missing.txt").toString());
+
+		int failures = 0;
+		for (String file : files) {
+			String expected = describe(file, false);
+			String actual = describe(file, true);
+
+			if (expected.equals(actual)) {
+				System.out.println("PASS\t" + file);
+			}
+			else {
+				++failures;
+				System.out.println("FAIL\t" + file);
+				System.out.println("FileIO:\n" + expected);
+				System.out.println("MappedAutoParser:\n" + actual);
+			}
+		}
+
+		System.out.println(failures == 0 ? "All " + files.size() + " files match."
+				: failures + " of " + files.size() + " files differ.");
+		
+		// Remove the files written by the test.
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path file : stream) Files.delete(file);
+		}
+		Files.delete(dir);
+	}
+
+	/**
+	 * Write a small model file.
+	 */
+	private static String write(Path dir, String name, String content)
+			throws IOException {
+		Path file = dir.resolve(name);
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file.toString();
+	}
+
+	/**
+	 * Parse a file and describe the result, including the error if any.
+	 * @param mapped true to use MappedAutoParser, false to use FileIO.
+	 */
+	private static String describe(String file, boolean mapped) {
+		try {
+			Automobile auto = mapped ? new MappedAutoParser().parse(file)
+					: new FileIO().parseAutoObj(file);
+			return auto.getName() + "\n" + auto.getAuto();
+		}
+		catch(AutoException a) {
+			return "AutoException " + a.getErrNum() + " " + a.getDetail();
+		}
+		catch(IOException i) {
+			return "IOException " + i;
+		}
+	}
+
+}
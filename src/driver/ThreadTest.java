@@ -1,19 +1,23 @@
 package driver;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 import adapter.BuildAuto;
 import adapter.ProxyAutomobile;
-import scale.EditOptions;
+import scale.UpdateScheduler;
 
 /**
- * This class tests runs 2 threads which execute the same operations at the same
- * time. It demonstrate the concept of how the synchronized modifier will lock 
- * the access of only one thread to a certain set of data.
+ * This class tests 2 updates of the same car submitted at the same time. The
+ * UpdateScheduler runs them one after the other on a shared pool of threads,
+ * in the order they were submitted, so the second one always sees the result
+ * of the first one.
  * @author ShuqinYe
  *
  */
 public class ThreadTest {
 	
-	public static void main(String[] args) {
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
 		
 		// Initiate new proxyautomobile linkedhashmap.
 		ProxyAutomobile autos = new BuildAuto();
@@ -21,41 +25,26 @@ public class ThreadTest {
 		// Populate all the option sets and options to the autos object.
 		autos.buildAuto("Focus_Wagon_ZTW.txt");
 		
-		// Create thread 1.
-		EditOptions editOp1 = new EditOptions("1");
-		editOp1.setAutos(autos);
-		
-		// Create thread 2.
-		EditOptions editOp2 = new EditOptions("2");
-		editOp2.setAutos(autos);
+		UpdateScheduler scheduler = new UpdateScheduler(autos);
 		
-		// Start 2 threads simultaneously.
-		editOp1.start();
-		editOp2.start();
+		// Submit 2 updates of the same car at once.
+		CompletableFuture<Boolean> update1 = scheduler.updateOptionPrice("Focus Wagon ZTW", 
+				"Color", "Fort Knox Gold Clearcoat Metallic", (float) 10.0);
+		CompletableFuture<Boolean> update2 = scheduler.updateOptionSetName("Focus Wagon ZTW", 
+				"Power Moonroof", "Moonroof");
 		
+		// Wait for both updates to finish.
+		System.out.println("Update 1 succeeded: " + update1.get());
+		System.out.println("Update 2 succeeded: " + update2.get());
 		
-		// Track when the thread is dead.
-		boolean t1IsAlive = true;
-		boolean t2IsAlive = true;
+		System.out.println("The color option of \"Fort Knox Gold Clearcoat Metallic\""
+				+ " has been changed to 10 dollars.");
+		System.out.println("The option set \"Power Moonroof\" has been renamed to \"Moonroof\".");
+		System.out.println("The Automobile after the above changes is: ");
+		autos.printAuto("Focus Wagon ZTW");
 		
-		do {
-			
-		if (t1IsAlive && !editOp1.isAlive()) {
-			t1IsAlive = false;
-			System.out.println("t1 is dead."); 
-		}
-		if (t2IsAlive && !editOp2.isAlive()) { 
-			t2IsAlive = false;
-			System.out.println("t2 is dead.");
-		}
-		} while(t1IsAlive || t2IsAlive);
-
+		System.out.println(scheduler);
+		scheduler.shutdown();
 	}
-
-
-	
-	
-	
-	
 	
 }
@@ -1,27 +1,78 @@
 package exceptions;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Calendar;
-import java.util.Date;
 import fixerrors.Fix1To5;
 import fixerrors.FixAuto;
 
 /**
  * Exceptions that can occur during operations on Aubomobile object.
+ * The exceptions carry no stack trace, which is never printed, so creating one
+ * costs little more than any small object. Every exception created is counted
+ * by its ExceptionSets code. Where many errors are expected and no details are
+ * needed, the shared instance of a code avoids creating an exception at all.
  * @author ShuqinYe
  *
  */
 public class AutoException extends Exception implements FixAuto {
 
-	private static PrintWriter writer = createLog();
+	// Whether the shutdown hook closing the log was added, guarded by the class.
+	private static boolean shutdownHook;
+	private static volatile ErrorLog errorLog = createLog();
+	private static final Fix1To5 FIXER = new Fix1To5();
+	
+	// One shared exception without details of each code, see shared().
+	private static final AutoException[] SHARED = createShared();
+	
 	private ExceptionSets exception;
 	private int errNum;
+	private String detail; // Where the error happened, e.g. file and line.
 	
 	public AutoException(ExceptionSets exception) {
+		this(exception, null);
+	}
+	
+	public AutoException(ExceptionSets exception, String detail) {
+		this(exception, detail, true);
+	}
+	
+	private AutoException(ExceptionSets exception, String detail, boolean count) {
+		// No message, cause, suppressed exceptions or stack trace.
+		super(null, null, false, false);
 		this.exception = exception;
+		this.detail = detail;
 		errNum = exception.getErrNum();
+		if (count) exception.record();
+	}
+	
+	/**
+	 * Get the shared exception of a code, without details, and count it. 
+	 * The shared exception is never created again, so reporting an error this
+	 * way allocates nothing.
+	 * @param exception the exception code
+	 * @return the shared exception
+	 */
+	public static AutoException shared(ExceptionSets exception) {
+		exception.record();
+		return SHARED[exception.ordinal()];
+	}
+	
+	/**
+	 * Create the shared exception of every code.
+	 */
+	private static AutoException[] createShared() {
+		ExceptionSets[] codes = ExceptionSets.values();
+		AutoException[] shared = new AutoException[codes.length];
+		for (int i = 0; i < codes.length; ++i) 
+			shared[i] = new AutoException(codes[i], null, false);
+		return shared;
+	}
+	
+	/**
+	 * Get the details of where the exception happened.
+	 * @return the details, null if there are none.
+	 */
+	public String getDetail() {
+		return detail;
 	}
 	
 	/**
@@ -36,7 +87,7 @@ public class AutoException extends Exception implements FixAuto {
 	 * Fix the exception according to error number.
 	 */
 	public String fix(int errNum) {
-		Fix1To5 f = new Fix1To5();
+		Fix1To5 f = FIXER;
 		
 		switch(errNum) {
 		
@@ -49,6 +100,8 @@ public class AutoException extends Exception implements FixAuto {
 			case 4: return f.fix4();
 
 			case 5: return f.fix5();
+			
+			case 6: return f.fix6();
 
 			default: return null;
 		
@@ -69,6 +122,7 @@ public class AutoException extends Exception implements FixAuto {
 		case 3: return "The option name was not found!";
 		case 4: return "The option sizes were not found!";
 		case 5: return "The file was not found!";
+		case 6: return "The option price was not found!";
 
 		default: return null;
 
@@ -93,6 +147,8 @@ public class AutoException extends Exception implements FixAuto {
 					break;
 			case 5: System.out.println(getMessage(errNum));
 					break;
+			case 6: System.out.println(getMessage(errNum));
+					break;
 
 			default: return;
 	
@@ -101,38 +157,50 @@ public class AutoException extends Exception implements FixAuto {
 	
 	
 	/**
-	 * Output log file according to error number
-	 * @param errNum error number of the exception
+	 * Output log file according to error number. The message is only queued, 
+	 * and written to log.txt by the log's own thread, so the call never waits
+	 * for the disk even when the caller holds a lock.
 	 */
 	public void log() {
-		
-		Calendar calendar = Calendar.getInstance();
-		Date timestamp = calendar.getTime();
-		writer.print(timestamp.toString());
-		writer.print("\t");
-		writer.print(getMessage(errNum));
-		writer.println();
-		
-		// Make sure all output is printed to the file.
-		writer.flush();
-
+		ErrorLog log = errorLog;
+		if (log != null) log.log(getMessage(errNum), detail);
 	}
 	
 	/**
-	 * Reset the printwrite and create a new log file.
-	 * Call the function before 
+	 * Get the log all exceptions are written to, e.g. to read its counters.
+	 * @return the log, null if the log file could not be created.
 	 */
-	public static PrintWriter createLog() {
+	public static ErrorLog getLog() {
+		return errorLog;
+	}
+	
+	/**
+	 * Reset the log and create a new log file. Messages queued in the old log
+	 * are written to it first, before the new log replaces the file.
+	 * @return the new log, null if the log file could not be created.
+	 */
+	public static synchronized ErrorLog createLog() {
+		ErrorLog old = errorLog;
+		if (old != null) old.close();
 		try {
-			writer = new PrintWriter(new File("log.txt"));
+			errorLog = new ErrorLog("log.txt");
 		}
 		catch(IOException i) {
 			System.out.println("There was an error when trying to create a log"
 					+ " file!");
 			i.printStackTrace();
-			return null;
+			errorLog = null;
+		}
+		
+		// Write the queued messages when the program exits, only once.
+		if (!shutdownHook) {
+			shutdownHook = true;
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				ErrorLog log = errorLog;
+				if (log != null) log.close();
+			}));
 		}
-		return writer;
+		return errorLog;
 		
 	}
 	
@@ -0,0 +1,323 @@
+package exceptions;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class writes error messages to a log file without making the caller
+ * wait for the disk. A message is only put in a bounded ring buffer; one
+ * background thread takes all buffered messages at once, writes them and
+ * flushes the file once per batch. When the buffer is full the message is
+ * dropped and counted, so a burst of errors never blocks the caller.
+ * The log file is rotated when it grows past a size or gets older than an
+ * age: log.txt is renamed to log.txt.1, log.txt.1 to log.txt.2 and so on,
+ * keeping a fixed number of old files.
+ * @author ShuqinYe
+ *
+ */
+public class ErrorLog {
+
+	public static final int DEFAULT_CAPACITY = 8192;
+	public static final long DEFAULT_MAX_BYTES = 10L << 20;
+	public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(1);
+	public static final int DEFAULT_MAX_FILES = 5;
+
+	// Most messages written before one flush.
+	private static final int MAX_BATCH = 1024;
+
+	private final Path file; // The log file.
+	private final long maxBytes; // Size after which the file is rotated.
+	private final long maxAge; // Age in milliseconds after which the file is rotated.
+	private final int maxFiles; // Number of rotated files kept.
+
+	private final ArrayBlockingQueue<Record> queue; // The ring buffer.
+	private final Thread writerThread;
+	private volatile boolean closed;
+
+	// Counters.
+	private final LongAdder logged = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder rotations = new LongAdder();
+
+	// Below are only used by the writer thread.
+	private Writer out;
+	private long bytes; // Characters written to the current file.
+	private long openedAt; // When the current file was created.
+
+
+	/**
+	 * Create a log with the default buffer size and rotation, replacing the
+	 * log file if it exists.
+	 * @param filename the log file.
+	 * @throws IOException if the log file cannot be created.
+	 */
+	public ErrorLog(String filename) throws IOException {
+		this(Paths.get(filename), DEFAULT_CAPACITY, DEFAULT_MAX_BYTES,
+				DEFAULT_MAX_AGE, DEFAULT_MAX_FILES);
+	}
+
+	/**
+	 * Create a log, replacing the log file if it exists.
+	 * @param file the log file.
+	 * @param capacity the number of messages buffered before messages are dropped.
+	 * @param maxBytes the size after which the file is rotated.
+	 * @param maxAge the age in milliseconds after which the file is rotated.
+	 * @param maxFiles the number of rotated files kept, 0 to keep none.
+	 * @throws IOException if the log file cannot be created.
+	 */
+	public ErrorLog(Path file, int capacity, long maxBytes, long maxAge,
+			int maxFiles) throws IOException {
+		this.file = file;
+		this.maxBytes = maxBytes;
+		this.maxAge = maxAge;
+		this.maxFiles = maxFiles;
+		queue = new ArrayBlockingQueue<Record>(capacity);
+		open();
+
+		writerThread = new Thread(this::run, "ErrorLog " + file.getFileName());
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Log a message. The call never blocks and never touches the disk.
+	 * @param message the message.
+	 * @param detail where the error happened, can be null.
+	 * @return false if the message was dropped because the buffer is full or
+	 * the log is closed.
+	 */
+	public boolean log(String message, String detail) {
+		if (!closed && queue.offer(new Record(System.currentTimeMillis(), message, detail)))
+			return true;
+		dropped.increment();
+		return false;
+	}
+
+	/**
+	 * Wait until every message logged before the call is written to the file.
+	 * @param timeout the longest time to wait, in milliseconds.
+	 * @return true if the messages were written within the time.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public boolean flush(long timeout) throws InterruptedException {
+		Record marker = new Record(new CountDownLatch(1), false);
+		if (closed || !queue.offer(marker, timeout, TimeUnit.MILLISECONDS)) return false;
+		return marker.done.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write the messages still buffered, close the log file and stop the
+	 * writer thread. Messages logged afterwards are dropped.
+	 */
+	public void close() {
+		if (closed) return;
+		closed = true;
+		try {
+			queue.put(new Record(new CountDownLatch(1), true));
+			writerThread.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get the number of messages written to the log file.
+	 * @return the number of messages.
+	 */
+	public long getLogged() { return logged.sum(); }
+
+	/**
+	 * Get the number of messages dropped.
+	 * @return the number of messages.
+	 */
+	public long getDropped() { return dropped.sum(); }
+
+	/**
+	 * Get the number of times the log file was rotated.
+	 * @return the number of rotations.
+	 */
+	public long getRotations() { return rotations.sum(); }
+
+	/**
+	 * Get the number of messages waiting to be written.
+	 * @return the number of messages.
+	 */
+	public int getPending() { return queue.size(); }
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d logged, %d dropped, %d pending, %d rotations",
+				file, getLogged(), getDropped(), getPending(), getRotations());
+	}
+
+
+	// Below methods run on the writer thread.
+
+	/**
+	 * Take the buffered messages in batches and write each batch with one
+	 * flush, until the log is closed.
+	 */
+	private void run() {
+		List<Record> batch = new ArrayList<Record>(MAX_BATCH);
+		while (true) {
+			try {
+				batch.add(queue.take());
+			}
+			catch(InterruptedException e) {
+				// Only close() stops the writer thread.
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+
+			boolean stop = false;
+			List<CountDownLatch> waiting = new ArrayList<CountDownLatch>();
+			for (Record record : batch) {
+				if (record.done == null) write(record);
+				else {
+					waiting.add(record.done);
+					stop |= record.stop;
+				}
+			}
+			batch.clear();
+
+			try {
+				if (out != null) out.flush();
+			}
+			catch(IOException i) {
+				i.printStackTrace();
+			}
+			for (CountDownLatch done : waiting) done.countDown();
+
+			if (stop) {
+				// Messages that raced with close() are dropped.
+				List<Record> rest = new ArrayList<Record>();
+				queue.drainTo(rest);
+				for (Record record : rest) {
+					if (record.done != null) record.done.countDown();
+					else dropped.increment();
+				}
+				closeFile();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Write one message, rotating the log file first if it is due.
+	 */
+	private void write(Record record) {
+		try {
+			if (out == null || bytes >= maxBytes
+					|| record.time - openedAt >= maxAge) rotate();
+
+			StringBuilder line = new StringBuilder(80);
+			line.append(new Date(record.time)).append('\t').append(record.message);
+			if (record.detail != null) line.append('\t').append(record.detail);
+			line.append(System.lineSeparator());
+
+			out.write(line.toString());
+			bytes += line.length();
+			logged.increment();
+		}
+		catch(IOException i) {
+			dropped.increment();
+			i.printStackTrace();
+		}
+	}
+
+	/**
+	 * Close the log file, shift the old files up by one and start a new file.
+	 */
+	private void rotate() throws IOException {
+		closeFile();
+		if (maxFiles > 0) {
+			for (int i = maxFiles - 1; i >= 1; --i) {
+				Path older = rotated(i);
+				if (Files.exists(older))
+					Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (Files.exists(file))
+				Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+		}
+		open();
+		rotations.increment();
+	}
+
+	/**
+	 * Create the log file, replacing it if it exists.
+	 */
+	private void open() throws IOException {
+		out = new BufferedWriter(new OutputStreamWriter(
+				Files.newOutputStream(file), StandardCharsets.UTF_8));
+		bytes = 0;
+		openedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Close the log file.
+	 */
+	private void closeFile() {
+		if (out == null) return;
+		try {
+			out.close();
+		}
+		catch(IOException i) {
+			i.printStackTrace();
+		}
+		out = null;
+	}
+
+	/**
+	 * Get the path of a rotated log file.
+	 */
+	private Path rotated(int i) {
+		return file.resolveSibling(file.getFileName() + "." + i);
+	}
+
+
+	/**
+	 * One buffered message, or a marker asking the writer to signal once
+	 * everything before it is written.
+	 */
+	private static class Record {
+
+		private final long time;
+		private final String message;
+		private final String detail;
+		private final CountDownLatch done; // Set for markers only.
+		private final boolean stop; // Marker closing the log.
+
+		private Record(long time, String message, String detail) {
+			this.time = time;
+			this.message = message;
+			this.detail = detail;
+			this.done = null;
+			this.stop = false;
+		}
+
+		private Record(CountDownLatch done, boolean stop) {
+			this.time = 0;
+			this.message = null;
+			this.detail = null;
+			this.done = done;
+			this.stop = stop;
+		}
+
+	}
+
+}
@@ -1,5 +1,7 @@
 package exceptions;
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * This enum set consists of all custom exceptions that can occur while 
  * processing Automobile object or ProxyAutomobile object.
@@ -9,9 +11,10 @@ package exceptions;
 public enum ExceptionSets {
 
 	SETNAMENOTFOUND(1), MODELNAMENOTFOUND(2), OPTIONNAMENOTFOUND(3), 
-	OPTIONSIZESNOTFOUND(4), FILENOTFOUND(5);
+	OPTIONSIZESNOTFOUND(4), FILENOTFOUND(5), OPTIONPRICENOTFOUND(6);
 	
 	private int errNum;
+	private final LongAdder count = new LongAdder(); // Times the exception occurred.
 	
 	/**
 	 * Constructor for the enum type
@@ -29,4 +32,26 @@ public enum ExceptionSets {
 		return errNum;
 	}
 	
+	/**
+	 * Count one occurrence of the exception.
+	 */
+	public void record() {
+		count.increment();
+	}
+	
+	/**
+	 * Get the number of times the exception occurred.
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * Reset the counts of all exceptions to 0.
+	 */
+	public static void resetCounts() {
+		for (ExceptionSets exception : values()) exception.count.reset();
+	}
+	
 }
@@ -66,5 +66,12 @@ public class Fix1To5 {
 	}
 	
 	
+	/**
+	 * Fix for OPTIONPRICENOTFOUND exception.
+	 * This exception is not fixed, but only returned by the program.
+	 */
+	public String fix6() {
+		return null;
+	}
 	
 }
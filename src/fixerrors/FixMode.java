@@ -0,0 +1,24 @@
+package fixerrors;
+
+/**
+ * This enum set consists of the ways a name that was not found (an option set
+ * or option name) is fixed.
+ * @author ShuqinYe
+ *
+ */
+public enum FixMode {
+
+	// Ask the user for a valid name on the console until one is given.
+	PROMPT,
+
+	// Report the error and give up the update.
+	FAIL_FAST,
+
+	// Use the closest known name if it is close enough, else give up.
+	CLOSEST_MATCH,
+
+	// Only count the error by its code and give up, without printing or
+	// logging it, for lookups that are expected to miss often.
+	SILENT
+
+}
@@ -0,0 +1,151 @@
+package fixerrors;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class finds the known name closest to a misspelled one. The names are
+ * kept in a BK-tree ordered by edit distance, ignoring case, so a lookup only
+ * visits the few names that can be within the allowed distance instead of 
+ * comparing against every name.
+ * @author ShuqinYe
+ *
+ */
+public class NameIndex {
+
+	private Node root;
+	private int size;
+
+
+	/**
+	 * Add a name. A name equal to one already added, ignoring case, is ignored.
+	 * @param name the name.
+	 */
+	public void add(String name) {
+		Node node = new Node(name, size);
+		if (root == null) {
+			root = node;
+			++size;
+			return;
+		}
+
+		Node parent = root;
+		while (true) {
+			int d = distance(parent.key, node.key);
+			if (d == 0) return;
+			Node child = parent.children.get(d);
+			if (child == null) {
+				parent.children.put(d, node);
+				++size;
+				return;
+			}
+			parent = child;
+		}
+	}
+
+	/**
+	 * Get the number of names.
+	 * @return the number of names.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the name closest to a name, within the default distance.
+	 * @param name the name to be found.
+	 * @return the closest name, null if none is close enough.
+	 */
+	public String closest(String name) {
+		return closest(name, maxDistance(name));
+	}
+
+	/**
+	 * Find the name closest to a name. Of equally close names, the one added
+	 * first is returned.
+	 * @param name the name to be found.
+	 * @param maxDistance the largest edit distance accepted.
+	 * @return the closest name, null if none is within the distance.
+	 */
+	public String closest(String name, int maxDistance) {
+		if (root == null || name == null) return null;
+		String key = name.toLowerCase(Locale.ROOT);
+
+		Node best = null;
+		int bestDistance = maxDistance;
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		stack.push(root);
+
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			int d = distance(node.key, key);
+			if (d < bestDistance || (d == bestDistance 
+					&& (best == null || node.order < best.order))) {
+				best = node;
+				bestDistance = d;
+			}
+
+			// Only subtrees at distance d +- best from this node can hold a match.
+			for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+				if (Math.abs(child.getKey() - d) <= bestDistance) stack.push(child.getValue());
+			}
+		}
+		return best == null ? null : best.name;
+	}
+
+	/**
+	 * Get the default largest edit distance accepted for a name: one edit per
+	 * three characters, and at least one.
+	 * @param name the name.
+	 * @return the distance.
+	 */
+	public static int maxDistance(String name) {
+		return Math.max(1, name.length() / 3);
+	}
+
+	/**
+	 * Get the edit (Levenshtein) distance between two strings.
+	 * @param a the first string.
+	 * @param b the second string.
+	 * @return the number of characters to insert, delete or replace.
+	 */
+	public static int distance(String a, String b) {
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); ++j) previous[j] = j;
+
+		for (int i = 1; i <= a.length(); ++i) {
+			current[0] = i;
+			for (int j = 1; j <= b.length(); ++j) {
+				int replace = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+				current[j] = Math.min(replace, Math.min(previous[j], current[j - 1]) + 1);
+			}
+			int[] t = previous;
+			previous = current;
+			current = t;
+		}
+		return previous[b.length()];
+	}
+
+
+	/**
+	 * One name in the tree, with its children by distance.
+	 */
+	private static class Node {
+
+		private final String name; // The name as added.
+		private final String key; // The name in lower case.
+		private final int order; // Number of names added before it.
+		private final HashMap<Integer, Node> children = new HashMap<Integer, Node>();
+
+		private Node(String name, int order) {
+			this.name = name;
+			this.key = name.toLowerCase(Locale.ROOT);
+			this.order = order;
+		}
+
+	}
+
+}
@@ -0,0 +1,46 @@
+package metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import exceptions.ExceptionSets;
+
+/**
+ * This class publishes the number of times each ExceptionSets error occurred.
+ * The errors count themselves, so this class only reads them.
+ * @author ShuqinYe
+ *
+ */
+public class ErrorCounts implements ErrorCountsMXBean {
+
+	@Override
+	public Map<String, Long> getCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (ExceptionSets error : ExceptionSets.values())
+			counts.put(error.name(), error.getCount());
+		return counts;
+	}
+
+	@Override
+	public long getTotal() {
+		long total = 0;
+		for (ExceptionSets error : ExceptionSets.values()) total += error.getCount();
+		return total;
+	}
+
+	@Override
+	public void reset() {
+		ExceptionSets.resetCounts();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (Map.Entry<String, Long> count : getCounts().entrySet()) {
+			if (str.length() > 0) str.append(", ");
+			str.append(count.getKey()).append(' ').append(count.getValue());
+		}
+		return str.toString();
+	}
+
+}
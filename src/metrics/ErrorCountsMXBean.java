@@ -0,0 +1,17 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of the counts of the ExceptionSets errors,
+ * published over JMX as carconfig:type=Errors.
+ * @author ShuqinYe
+ *
+ */
+public interface ErrorCountsMXBean {
+
+	public Map<String, Long> getCounts();
+	public long getTotal();
+	public void reset();
+
+}
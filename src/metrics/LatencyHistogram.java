@@ -0,0 +1,149 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies in nanoseconds in log-linear buckets: every
+ * power of two is split into 16 equal buckets, so any percentile is known to
+ * within about 6% while the whole histogram is a fixed array of counters.
+ * Recording is one array increment, with no lock and no allocation. The
+ * counters are striped by thread, so threads recording the same latency do
+ * not fight over one cache line.
+ * @author ShuqinYe
+ *
+ */
+public class LatencyHistogram {
+
+	// Each power of two is split into 1 << SUB_BITS buckets.
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+	// Number of stripes, a power of two.
+	private static final int STRIPES = Math.min(8,
+			Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * STRIPES);
+	private final AtomicLong max = new AtomicLong();
+
+
+	/**
+	 * Count one latency.
+	 * @param nanos the latency in nanoseconds, negative values count as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		counts.getAndIncrement(stripe * BUCKETS + bucket(nanos));
+
+		// Only write when the maximum actually grows.
+		long old;
+		while (nanos > (old = max.get()) && !max.compareAndSet(old, nanos)) {}
+	}
+
+	/**
+	 * Get the number of latencies counted.
+	 * @return the number of latencies.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); ++i) count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * Get the longest latency counted.
+	 * @return the latency in nanoseconds, 0 if none was counted.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Get the latency below which a fraction of the latencies fall.
+	 * @param fraction the fraction, such as 0.99 for the 99th percentile.
+	 * @return the upper bound in nanoseconds of the bucket holding the
+	 * percentile, never more than the maximum; 0 if none was counted.
+	 */
+	public long getPercentile(double fraction) {
+		long[] merged = merge();
+		long total = 0;
+		for (long count : merged) total += count;
+		if (total == 0) return 0;
+
+		long rank = (long) Math.ceil(fraction * total);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; ++b) {
+			seen += merged[b];
+			if (seen >= rank) return Math.min(upperBound(b), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Get the mean latency, from the bucket midpoints.
+	 * @return the mean in nanoseconds, 0 if none was counted.
+	 */
+	public double getMean() {
+		long[] merged = merge();
+		long total = 0;
+		double sum = 0;
+		for (int b = 0; b < BUCKETS; ++b) {
+			if (merged[b] == 0) continue;
+			total += merged[b];
+			sum += merged[b] * ((lowerBound(b) + (double) upperBound(b)) / 2);
+		}
+		return total == 0 ? 0 : sum / total;
+	}
+
+	/**
+	 * Set every count back to 0. Latencies counted while resetting may be kept
+	 * or lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); ++i) counts.set(i, 0);
+		max.set(0);
+	}
+
+
+	/**
+	 * Add up the stripes.
+	 */
+	private long[] merge() {
+		long[] merged = new long[BUCKETS];
+		for (int i = 0; i < counts.length(); ++i) merged[i % BUCKETS] += counts.get(i);
+		return merged;
+	}
+
+	/**
+	 * Get the bucket of a latency. Values below SUB_COUNT have a bucket each;
+	 * above, the bucket is the power of two and the next SUB_BITS bits.
+	 */
+	static int bucket(long nanos) {
+		if (nanos < SUB_COUNT) return (int) nanos;
+		int exp = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	/**
+	 * Get the smallest latency of a bucket.
+	 */
+	static long lowerBound(int bucket) {
+		if (bucket < SUB_COUNT) return bucket;
+		int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+		long sub = bucket % SUB_COUNT;
+		return (1L << exp) + (sub << (exp - SUB_BITS));
+	}
+
+	/**
+	 * Get the largest latency of a bucket.
+	 */
+	static long upperBound(int bucket) {
+		if (bucket == BUCKETS - 1) return Long.MAX_VALUE;
+		return lowerBound(bucket + 1) - 1;
+	}
+
+}
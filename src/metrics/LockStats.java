@@ -0,0 +1,86 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the statistics of a kind of lock: how many times it was
+ * taken, how many of those times the thread had to wait, and a histogram of
+ * the waits.
+ * @author ShuqinYe
+ *
+ */
+public class LockStats implements LockStatsMXBean {
+
+	private final String name;
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final LatencyHistogram waits = new LatencyHistogram();
+
+
+	/**
+	 * Construct the statistics of a kind of lock.
+	 * @param name the lock name.
+	 */
+	public LockStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Count the lock taken without waiting.
+	 */
+	public void acquired() {
+		acquired.increment();
+	}
+
+	/**
+	 * Count the lock taken after waiting.
+	 * @param nanos the time waited, in nanoseconds.
+	 */
+	public void waited(long nanos) {
+		acquired.increment();
+		waitNanos.add(nanos);
+		waits.record(nanos);
+	}
+
+	@Override
+	public String getName() { return name; }
+
+	@Override
+	public long getAcquired() { return acquired.sum(); }
+
+	@Override
+	public long getContended() { return waits.getCount(); }
+
+	@Override
+	public double getContendedPercent() {
+		long all = getAcquired();
+		return all == 0 ? 0 : 100.0 * getContended() / all;
+	}
+
+	@Override
+	public double getTotalWaitMillis() { return waitNanos.sum() / 1e6; }
+
+	@Override
+	public double getMeanWaitMicros() { return waits.getMean() / 1e3; }
+
+	@Override
+	public double getP99WaitMicros() { return waits.getPercentile(0.99) / 1e3; }
+
+	@Override
+	public double getMaxWaitMicros() { return waits.getMax() / 1e3; }
+
+	@Override
+	public void reset() {
+		acquired.reset();
+		waitNanos.reset();
+		waits.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-24s %10d %10d %7.2f%% %12.3f %10.2f %10.2f",
+				name, getAcquired(), getContended(), getContendedPercent(),
+				getTotalWaitMillis(), getP99WaitMicros(), getMaxWaitMicros());
+	}
+
+}
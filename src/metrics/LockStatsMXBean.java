@@ -0,0 +1,21 @@
+package metrics;
+
+/**
+ * The management interface of the statistics of a kind of lock, published
+ * over JMX as carconfig:type=Lock,name=...
+ * @author ShuqinYe
+ *
+ */
+public interface LockStatsMXBean {
+
+	public String getName();
+	public long getAcquired();
+	public long getContended();
+	public double getContendedPercent();
+	public double getTotalWaitMillis();
+	public double getMeanWaitMicros();
+	public double getP99WaitMicros();
+	public double getMaxWaitMicros();
+	public void reset();
+
+}
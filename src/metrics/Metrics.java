@@ -0,0 +1,113 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class is the switch of all metrics, and publishes them over JMX:
+ * - carconfig:type=Operation,name=... the latency histogram, throughput and
+ *   failures of each ProxyAutomobile operation;
+ * - carconfig:type=Lock,name=... how often and how long threads waited for
+ *   the lock of an Automobile;
+ * - carconfig:type=Errors the count of each ExceptionSets error.
+ * Metrics are on unless the JVM is started with -Dcarconfig.metrics=false.
+ * The switch is a static final field read once, so when it is off the JIT
+ * compiler removes the timing code altogether.
+ * @author ShuqinYe
+ *
+ */
+public final class Metrics {
+
+	public static final boolean ENABLED =
+			!"false".equalsIgnoreCase(System.getProperty("carconfig.metrics"));
+
+	// Write locks of all Automobile objects.
+	public static final LockStats WRITE_LOCK = new LockStats("Automobile.write");
+
+	// Read locks of all Automobile objects, taken when an optimistic read
+	// overlapped an update.
+	public static final LockStats READ_LOCK = new LockStats("Automobile.read");
+
+	public static final ErrorCounts ERRORS = new ErrorCounts();
+
+	static {
+		if (ENABLED) register();
+	}
+
+	private Metrics() {}
+
+	/**
+	 * Get the start time of a call to time.
+	 * @return the time in nanoseconds, 0 when metrics are off.
+	 */
+	public static long start() {
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Set all operation and lock statistics and error counts back to 0.
+	 */
+	public static void reset() {
+		for (Operation op : Operation.values()) op.getStats().reset();
+		WRITE_LOCK.reset();
+		READ_LOCK.reset();
+		ERRORS.reset();
+	}
+
+	/**
+	 * Get all statistics as a table.
+	 * @return the table, one line per operation and lock.
+	 */
+	public static String report() {
+		if (!ENABLED) return "Metrics are off\n";
+		StringBuilder str = new StringBuilder();
+
+		str.append(String.format("%-24s %10s %8s %12s %10s %10s %10s %10s%n",
+				"operation", "calls", "failed", "calls/sec", "mean(us)",
+				"p50(us)", "p99(us)", "max(us)"));
+		for (Operation op : Operation.values())
+			if (op.getStats().getCount() > 0) str.append(op.getStats()).append('\n');
+
+		str.append(String.format("%-24s %10s %10s %8s %12s %10s %10s%n",
+				"lock", "taken", "waited", "", "wait(ms)", "p99(us)", "max(us)"));
+		str.append(WRITE_LOCK).append('\n');
+		str.append(READ_LOCK).append('\n');
+
+		str.append("errors: ").append(ERRORS).append('\n');
+		return str.toString();
+	}
+
+	/**
+	 * Publish the statistics as MBeans of the platform MBean server.
+	 */
+	private static void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (Operation op : Operation.values())
+				register(server, "carconfig:type=Operation,name=" + op.getStats().getName(),
+						op.getStats());
+			register(server, "carconfig:type=Lock,name=" + WRITE_LOCK.getName(), WRITE_LOCK);
+			register(server, "carconfig:type=Lock,name=" + READ_LOCK.getName(), READ_LOCK);
+			register(server, "carconfig:type=Errors", ERRORS);
+		}
+		catch(JMException | SecurityException e) {
+			// The statistics are still kept, only not visible over JMX.
+			e.printStackTrace();
+		}
+	}
+
+	private static void register(MBeanServer server, String name, Object bean)
+			throws JMException {
+		try {
+			server.registerMBean(bean, new ObjectName(name));
+		}
+		catch(InstanceAlreadyExistsException e) {
+			// Already published by another copy of the class.
+		}
+	}
+
+}
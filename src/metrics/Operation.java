@@ -0,0 +1,48 @@
+package metrics;
+
+/**
+ * This enum set consists of the ProxyAutomobile operations that are timed.
+ * Each operation holds its own statistics, the way each ExceptionSets error
+ * holds its own count.
+ * @author ShuqinYe
+ *
+ */
+public enum Operation {
+
+	BUILD_AUTO("buildAuto"), GET_AUTO("getAuto"),
+	UPDATE_OPTION_SET_NAME("updateOptionSetName"),
+	UPDATE_OPTION_PRICE("updateOptionPrice"), SET_OP_CHOICE("setOpChoice"),
+	ADD_OPTION("addOption"), DELETE_OPTION_SET("deleteOptionSet"),
+	DELETE_OPTION("deleteOption"),
+	GET_TOTAL_PRICE("getTotalPrice"), PRICE_CONFIGURATIONS("priceConfigurations"),
+	SESSION_SET_OP_CHOICE("session.setOpChoice"),
+	SESSION_GET_TOTAL_PRICE("session.getTotalPrice");
+
+	private final OperationStats stats;
+
+	/**
+	 * Constructor for the enum type
+	 * @param name the method name of the operation
+	 */
+	private Operation(String name) {
+		stats = new OperationStats(name);
+	}
+
+	/**
+	 * Count one call of the operation. Does nothing when metrics are off.
+	 * @param start the time the call started, from Metrics.start().
+	 * @param ok false if the call failed.
+	 */
+	public void end(long start, boolean ok) {
+		if (Metrics.ENABLED) stats.record(System.nanoTime() - start, ok);
+	}
+
+	/**
+	 * Get the statistics of the operation.
+	 * @return the statistics
+	 */
+	public OperationStats getStats() {
+		return stats;
+	}
+
+}
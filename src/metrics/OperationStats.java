@@ -0,0 +1,94 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the statistics of one operation: a histogram of its
+ * latency, the number of calls that failed, and the time since the counts
+ * were reset, from which the throughput is computed.
+ * @author ShuqinYe
+ *
+ */
+public class OperationStats implements OperationStatsMXBean {
+
+	private final String name;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder failures = new LongAdder();
+	private volatile long resetAt = System.nanoTime();
+
+
+	/**
+	 * Construct the statistics of an operation.
+	 * @param name the operation name.
+	 */
+	public OperationStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Count one call.
+	 * @param nanos the time the call took, in nanoseconds.
+	 * @param ok false if the call failed.
+	 */
+	public void record(long nanos, boolean ok) {
+		latency.record(nanos);
+		if (!ok) failures.increment();
+	}
+
+	/**
+	 * Get the histogram of the time calls took.
+	 * @return the histogram, in nanoseconds.
+	 */
+	public LatencyHistogram getLatency() { return latency; }
+
+	@Override
+	public String getName() { return name; }
+
+	@Override
+	public long getCount() { return latency.getCount(); }
+
+	@Override
+	public long getFailures() { return failures.sum(); }
+
+	/**
+	 * Get the number of calls per second since the counts were reset.
+	 */
+	@Override
+	public double getThroughput() {
+		double seconds = (System.nanoTime() - resetAt) / 1e9;
+		return seconds > 0 ? getCount() / seconds : 0;
+	}
+
+	@Override
+	public double getMeanMicros() { return latency.getMean() / 1e3; }
+
+	@Override
+	public double getP50Micros() { return latency.getPercentile(0.5) / 1e3; }
+
+	@Override
+	public double getP90Micros() { return latency.getPercentile(0.9) / 1e3; }
+
+	@Override
+	public double getP99Micros() { return latency.getPercentile(0.99) / 1e3; }
+
+	@Override
+	public double getP999Micros() { return latency.getPercentile(0.999) / 1e3; }
+
+	@Override
+	public double getMaxMicros() { return latency.getMax() / 1e3; }
+
+	@Override
+	public void reset() {
+		latency.reset();
+		failures.reset();
+		resetAt = System.nanoTime();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-24s %10d %8d %12.0f %10.2f %10.2f %10.2f %10.2f",
+				name, getCount(), getFailures(), getThroughput(), getMeanMicros(),
+				getP50Micros(), getP99Micros(), getMaxMicros());
+	}
+
+}
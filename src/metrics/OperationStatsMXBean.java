@@ -0,0 +1,23 @@
+package metrics;
+
+/**
+ * The management interface of the statistics of one ProxyAutomobile
+ * operation, published over JMX as carconfig:type=Operation,name=...
+ * @author ShuqinYe
+ *
+ */
+public interface OperationStatsMXBean {
+
+	public String getName();
+	public long getCount();
+	public long getFailures();
+	public double getThroughput();
+	public double getMeanMicros();
+	public double getP50Micros();
+	public double getP90Micros();
+	public double getP99Micros();
+	public double getP999Micros();
+	public double getMaxMicros();
+	public void reset();
+
+}
@@ -0,0 +1,189 @@
+package model;
+
+/**
+ * This class is a flattened, immutable copy of one Automobile: the option sets
+ * are stored as a list of names plus the range of options each one owns, and
+ * all options of the car are stored in two parallel arrays of names and
+ * prices. It is used to write an Automobile to a file, or to read through a
+ * whole car, without holding its lock.
+ * @author ShuqinYe
+ *
+ */
+public class AutoTable {
+
+	private final String make; // The brand
+	private final String model; // The model
+	private final long basePriceCents; // The car model's base price, in cents.
+	private final long version; // The version of the car the table was copied from.
+
+	private final String[] setNames; // Name of each option set.
+	private final int[] setStart; // Index of the first option of each set, plus the total.
+	private final String[] opNames; // Name of each option, set by set.
+	private final long[] opPriceCents; // Price of each option in cents, set by set.
+
+
+	/**
+	 * Construct a table. The arrays are kept, not copied.
+	 * @param make the brand.
+	 * @param model the model.
+	 * @param basePriceCents the base price in cents.
+	 * @param setNames the name of each option set.
+	 * @param setStart the index of the first option of each set in opNames and
+	 * opPriceCents, with one more entry holding the number of options.
+	 * @param opNames the name of each option.
+	 * @param opPriceCents the price of each option in cents.
+	 */
+	public AutoTable(String make, String model, long basePriceCents, String[] setNames,
+			int[] setStart, String[] opNames, long[] opPriceCents) {
+		this(make, model, basePriceCents, setNames, setStart, opNames, opPriceCents, 0);
+	}
+
+	/**
+	 * Construct a table of a certain version of a car. The arrays are kept,
+	 * not copied.
+	 * @param version the version of the car, see Automobile.getVersion().
+	 */
+	public AutoTable(String make, String model, long basePriceCents, String[] setNames,
+			int[] setStart, String[] opNames, long[] opPriceCents, long version) {
+		this.make = make;
+		this.model = model;
+		this.basePriceCents = basePriceCents;
+		this.setNames = setNames;
+		this.setStart = setStart;
+		this.opNames = opNames;
+		this.opPriceCents = opPriceCents;
+		this.version = version;
+	}
+
+	/**
+	 * Get the car model name.
+	 * @return car model as a String.
+	 */
+	public String getName() { return make + " " + model; }
+
+	/**
+	 * Get the brand name
+	 * @return the brand name
+	 */
+	public String getMake() { return make; }
+
+	/**
+	 * Get the car model
+	 * @return the car model
+	 */
+	public String getModel() { return model; }
+
+	/**
+	 * Get the base price of the model.
+	 * @return the base price.
+	 */
+	public float getBasePrice() { return Price.toDollars(basePriceCents); }
+
+	/**
+	 * Get the base price of the model in cents.
+	 * @return the base price in cents.
+	 */
+	public long getBasePriceCents() { return basePriceCents; }
+
+	/**
+	 * Get the version of the car the table was copied from.
+	 * @return the version.
+	 */
+	public long getVersion() { return version; }
+
+	/**
+	 * Get the number of option sets.
+	 * @return the number of option sets.
+	 */
+	public int getOpSetCount() { return setNames.length; }
+
+	/**
+	 * Get the name of an option set.
+	 * @param setIndex the option set index.
+	 * @return the option set name.
+	 */
+	public String getOpSetName(int setIndex) { return setNames[setIndex]; }
+
+	/**
+	 * Get the index of the first option of an option set.
+	 * @param setIndex the option set index, or the number of option sets.
+	 * @return the index of the first option in the option arrays, or the
+	 * total number of options for the index after the last set.
+	 */
+	public int getOpStart(int setIndex) { return setStart[setIndex]; }
+
+	/**
+	 * Get the number of options in an option set.
+	 * @param setIndex the option set index.
+	 * @return the number of options.
+	 */
+	public int getOpCount(int setIndex) {
+		return setStart[setIndex + 1] - setStart[setIndex];
+	}
+
+	/**
+	 * Get the number of options of all option sets.
+	 * @return the number of options.
+	 */
+	public int getTotalOpCount() { return opNames.length; }
+
+	/**
+	 * Get the name of an option.
+	 * @param index the option index in the option arrays.
+	 * @return the option name.
+	 */
+	public String getOpName(int index) { return opNames[index]; }
+
+	/**
+	 * Get the price of an option.
+	 * @param index the option index in the option arrays.
+	 * @return the option price.
+	 */
+	public float getOpPrice(int index) { return Price.toDollars(opPriceCents[index]); }
+
+	/**
+	 * Get the price of an option in cents.
+	 * @param index the option index in the option arrays.
+	 * @return the option price in cents.
+	 */
+	public long getOpPriceCents(int index) { return opPriceCents[index]; }
+
+	/**
+	 * Output all option sets and options within each option set, the same way
+	 * as Automobile.getAuto().
+	 * @return a String representation of all option sets and options.
+	 */
+	public String getAuto() {
+		StringBuilder str = new StringBuilder();
+		Automobile.appendHeader(str, make, model, setNames.length, basePriceCents);
+		
+		for (int s = 0; s < setNames.length; ++s) {
+			OptionSet.appendHeader(str, setNames[s]);
+			for (int o = setStart[s]; o < setStart[s + 1]; ++o)
+				Option.appendOption(str, opNames[o], Price.toDollars(opPriceCents[o]));
+			str.append("\n");
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Build a new Automobile with the option sets and options of the table,
+	 * at the version of the table.
+	 * @return the Automobile.
+	 */
+	public Automobile toAutomobile() {
+		Automobile auto = new Automobile(make, model, 0);
+		auto.setBasePriceCents(basePriceCents);
+
+		for (int s = 0; s < setNames.length; ++s) {
+			OptionSet opSet = new OptionSet(setNames[s]);
+			for (int o = setStart[s]; o < setStart[s + 1]; ++o)
+				opSet.addOpCents(opNames[o], opPriceCents[o]);
+			opSet.trim();
+			auto.addOpSet(opSet);
+		}
+		auto.setVersion(version);
+		return auto;
+	}
+
+}
@@ -1,16 +1,43 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 import exceptions.AutoException;
 import exceptions.ExceptionSets;
+import fixerrors.FixMode;
+import fixerrors.NameIndex;
+import metrics.Metrics;
 
 /**
  * This class represents a specific car model and all its possible
  * properties (OptionSets)
- * All the methods in the class is synchronized so that the CRUD (create, read,
- * update, delete) options on the object are thread safe.
+ * All the methods in the class are guarded by a StampedLock so that the CRUD 
+ * (create, read, update, delete) options on the object are thread safe.
+ * Updates take the write lock. Reads are done optimistically without taking
+ * any lock and are validated afterwards; only a read that overlapped an update
+ * is redone under the read lock. Readers therefore never block each other, and
+ * never see a half-applied update.
+ * A name that is not found is fixed as set by the FixMode, always after the
+ * lock is released, so asking the user for a name never blocks other threads.
+ * Prices are kept in whole cents, so totals are exact. The total price of the
+ * configured car is kept up to date by every update, so reading it is O(1).
+ * Every update counts up the version of the car, and the renames, price
+ * changes and deletes of option sets and options are told to the 
+ * ChangeListener of the car, if it has one. The OptionSets handed out are
+ * copies, so no change can bypass the lock, the version or the listener.
+ * The text of getAuto() and printConfig() is rendered once and kept until
+ * the next update, and can be written straight to an Appendable (a Writer,
+ * a PrintStream) or a ByteBuffer.
  * @author ShuqinYe
  * @andrewID shuqiny
  */
@@ -20,11 +47,44 @@ public class Automobile implements Serializable {
 	private String name; // The car name = brand + model.
 	private String make; // The brand
 	private String model; // The model
-	private float basePrice; // The car model's base price.
+	private long basePriceCents; // The car model's base price, in cents.
 	
 	// Member variables related to options and option sets.
 	private ArrayList<OptionSet> opSets; // All possible option sets for the car.
 	
+	// Option set name -> index of the first option set with that name.
+	private transient IdIndex setNameIndex;
+	
+	// Base price plus the price of the option chosen in each option set, in cents.
+	private transient long totalPriceCents;
+	
+	// Option set names by edit distance, built the first time a name is misspelled.
+	private transient NameIndex setNameFuzzy;
+	
+	// How names that are not found are fixed, null for the default.
+	private transient volatile FixMode fixMode;
+	private static volatile FixMode defaultFixMode = FixMode.PROMPT;
+	
+	// The number of times the write lock was taken, see getVersion().
+	private transient long version;
+	
+	// The number of writes, which unlike the version is never set back, so
+	// a text rendered at a number of writes is current while it is unchanged.
+	private transient long writes;
+	
+	// The texts of getAuto() and printConfig(), null until rendered.
+	private transient volatile Rendering autoText;
+	private transient volatile Rendering configText;
+	
+	// The copy of getSnapshot(), null until made.
+	private transient volatile Snapshot snapshot;
+	
+	// Told about the updates of the car under the write lock, can be null.
+	private transient volatile ChangeListener listener;
+	
+	// Guards all the member variables above and the option sets' contents.
+	private transient StampedLock lock = new StampedLock();
+	
 
 	/**
 	 * This is a constructor for a car model.
@@ -35,18 +95,28 @@ public class Automobile implements Serializable {
 		this.make = make;
 		this.model = model;
 		this.name = make + " " + model;
-		this.basePrice = basePrice;
+		this.basePriceCents = Price.toCents(basePrice);
+		this.totalPriceCents = basePriceCents;
 		
-		// Initialize the ArrayList.
+		// Initialize the ArrayList and its index.
 		opSets = new ArrayList<OptionSet>();
+		setNameIndex = new IdIndex();
 		
 		}
 	
 	/**
 	 * @param opSet the OptionSet to be added
 	 */
-	synchronized public void addOpSet(OptionSet opSet) {
-		opSets.add(opSet);
+	public void addOpSet(OptionSet opSet) {
+		long stamp = writeLock();
+		try {
+			opSets.add(opSet);
+			indexLastOpSet();
+			totalPriceCents += opSet.getOpChoiceCents();
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	
@@ -54,9 +124,9 @@ public class Automobile implements Serializable {
 	 * Add an empty set to the auto.
 	 * @param setName the option set name.
 	 */
-	synchronized public void addEmptyOpSet(String setName) {
+	public void addEmptyOpSet(String setName) {
 		OptionSet opSet = new OptionSet(setName);
-		opSets.add(opSet);
+		addOpSet(opSet);
 	}
 	
 	
@@ -66,67 +136,191 @@ public class Automobile implements Serializable {
 	 * @param opName the option name to be added.
 	 * @param price the price of the option.
 	 */
-	synchronized public void addOption(String setName, String opName, float price) {
-		Option option = new Option(opName, price);
-		getOpSetByName(setName).addOp(opName, price);
+	public void addOption(String setName, String opName, float price) {
+		addOptionCents(setName, opName, Price.toCents(price));
+	}
+	
+	/**
+	 * Add one option to a certain option set.
+	 * @param setName the option set name.
+	 * @param opName the option name to be added.
+	 * @param priceCents the price of the option in cents.
+	 */
+	public void addOptionCents(String setName, String opName, long priceCents) {
+		long stamp = writeLock();
+		try {
+			int setIndex = indexOfOpSet(setName);
+			
+			// Keep the behaviour of a lookup past the end of the list.
+			if (setIndex == -1) throw new IndexOutOfBoundsException("Option set not found: " + setName);
+			addOp(setIndex, opName, priceCents);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Add one option to the option set at a certain index.
+	 * @param setIndex the option set index.
+	 * @param opName the option name to be added.
+	 * @param priceCents the price of the option in cents.
+	 */
+	public void addOptionCents(int setIndex, String opName, long priceCents) {
+		long stamp = writeLock();
+		try {
+			addOp(setIndex, opName, priceCents);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 
+	/**
+	 * Set how names that are not found are fixed for all cars that do not set
+	 * their own way.
+	 * @param mode the way names are fixed.
+	 */
+	public static void setDefaultFixMode(FixMode mode) {
+		defaultFixMode = mode;
+	}
+	
+	/**
+	 * Get how names that are not found are fixed for this car.
+	 * @return the way names are fixed.
+	 */
+	public FixMode getFixMode() {
+		FixMode mode = fixMode;
+		return mode != null ? mode : defaultFixMode;
+	}
+	
+	/**
+	 * Set how names that are not found are fixed for this car.
+	 * @param mode the way names are fixed, null for the default.
+	 */
+	public void setFixMode(FixMode mode) {
+		fixMode = mode;
+	}
+	
+	/**
+	 * Get the version of the car. It grows by at least one with every update,
+	 * so a copy of the car taken at some version is still current as long as
+	 * the version has not changed.
+	 * @return the version.
+	 */
+	public long getVersion() { return readLong(() -> version); }
+	
+	/**
+	 * Set the version of the car, when it is restored from a copy.
+	 * @param version the version.
+	 */
+	public void setVersion(long version) {
+		long stamp = lock.writeLock();
+		try {
+			this.version = version;
+			++writes;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Drop the room kept for more options in each option set, once the car
+	 * is built. The car is not changed, so its version is kept.
+	 */
+	public void trimToSize() {
+		long stamp = lock.writeLock();
+		try {
+			for (int i = 0; i < opSets.size(); ++i) opSets.get(i).trim();
+			opSets.trimToSize();
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Get the listener told about the updates of the car.
+	 * @return the listener, null if none.
+	 */
+	public ChangeListener getChangeListener() {
+		return listener;
+	}
+	
+	/**
+	 * Set the listener told about the updates of the car.
+	 * @param listener the listener, null for none.
+	 */
+	public void setChangeListener(ChangeListener listener) {
+		this.listener = listener;
+	}
+	
 	/**
 	 * Get the car model name.
 	 * @return car model as a String.
 	 */
-	synchronized public String getName() { return make + " " + model; }
+	public String getName() { return read(() -> make + " " + model); }
 	
 	/**
 	 * Get the base price of the model.
 	 * @return the base price.
 	 */
-	synchronized public float getBasePrice() { return basePrice; }
+	public float getBasePrice() { return Price.toDollars(getBasePriceCents()); }
+	
+	/**
+	 * Get the base price of the model in cents.
+	 * @return the base price in cents.
+	 */
+	public long getBasePriceCents() { return readLong(() -> basePriceCents); }
 	
 	/**
 	 * Get the brand name
 	 * @return the brand name
 	 */
-	synchronized public String getMake() { return make; }
+	public String getMake() { return read(() -> make); }
 	
 	
 	/**
 	 * Get the car model
 	 * @return the car model
 	 */
-	synchronized public String getModel() { return model; }
+	public String getModel() { return read(() -> model); }
 	
 	
 	
 	
 	/**
-	 * Get the complete OptionSet of the car.
-	 * @return the OptionSet of the car.
+	 * Get copies of all OptionSets of the car. The car is only changed 
+	 * through its own methods, so changing the copies does not change the car.
+	 * @return copies of the OptionSets of the car.
 	 */
-	synchronized public ArrayList<OptionSet> getAllOptionSets() {
-		return opSets;
+	public ArrayList<OptionSet> getAllOptionSets() {
+		return readCopy(() -> {
+			ArrayList<OptionSet> copies = new ArrayList<OptionSet>(opSets.size());
+			for (OptionSet opSet : opSets) copies.add(opSet.copy());
+			return copies;
+		});
 	}
 	
 	/**
-	 * get OptionSet by index value
+	 * get a copy of the OptionSet by index value
 	 * @param setIndex the index of the OptionSet in the array of all OptionSets.
-	 * @return the OptionSet for the specified index.
+	 * @return a copy of the OptionSet for the specified index.
 	 */
-	synchronized public OptionSet getOpSetByIndex(int setIndex) {
-		return opSets.get(setIndex);
+	public OptionSet getOpSetByIndex(int setIndex) {
+		return readCopy(() -> opSets.get(setIndex).copy());
 	}
 	
 	
 	/**
-	 * Get OptionSet by name
+	 * Get a copy of the OptionSet by name
 	 * @param setName the option set name
-	 * @return the OptionSet of a certain name
+	 * @return a copy of the OptionSet of a certain name
 	 */
-	synchronized public OptionSet getOpSetByName(String setName) {
-		int i = 0;
-		while (i < opSets.size() && !opSets.get(i).getName().equals(setName)) ++i;
-		return opSets.get(i);
+	public OptionSet getOpSetByName(String setName) {
+		return readCopy(() -> opSetNamed(setName).copy());
 	}
 
 	
@@ -135,10 +329,8 @@ public class Automobile implements Serializable {
 	 * @param setName the name of option set to be found.
 	 * @return -1 if not found, index of the option set if found.
 	 */
-	synchronized public int findOpSetByName(String setName) {
-		int i = 0;
-		while (i < opSets.size() && !opSets.get(i).getName().equals(setName)) ++i;
-		return i < opSets.size() ? i : -1;
+	public int findOpSetByName(String setName) {
+		return readInt(() -> indexOfOpSet(setName));
 	}
 	
 	
@@ -147,32 +339,67 @@ public class Automobile implements Serializable {
 	 * @param opName the option name
 	 * @return -1 if not found, index within its option set if found.
 	 */
-	synchronized public int findOpByName(String opName) {
-		int i = 0;
-		while (i < opSets.size() && opSets.get(i).findOpByName(opName) == -1) ++i;
-		return i < opSets.size() ? opSets.get(i).findOpByName(opName) : -1;
+	public int findOpByName(String opName) {
+		return readInt(() -> {
+			for (int i = 0; i < opSets.size(); ++i) {
+				int opIndex = opSets.get(i).findOpByName(opName);
+				if (opIndex != -1) return opIndex;
+			}
+			return -1;
+		});
 	}
 	
 	/**
 	 * Set car base price.
 	 * @param basePrice the car base price.
 	 */
-	synchronized public void setBasePrice(float basePrice) {
-		this.basePrice = basePrice;
+	public void setBasePrice(float basePrice) {
+		setBasePriceCents(Price.toCents(basePrice));
+	}
+	
+	/**
+	 * Set car base price in cents.
+	 * @param basePriceCents the car base price in cents.
+	 */
+	public void setBasePriceCents(long basePriceCents) {
+		long stamp = writeLock();
+		try {
+			totalPriceCents += basePriceCents - this.basePriceCents;
+			this.basePriceCents = basePriceCents;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 
 	/**
 	 * Set the brand name
 	 * @param make brand name
 	 */
-	synchronized public void setMake(String make) { this.make = make; }
+	public void setMake(String make) { 
+		long stamp = writeLock();
+		try {
+			this.make = make;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
 	
 	
 	/**
 	 * Set the model
 	 * @param model the car model
 	 */
-	synchronized public void setModel(String model) { this.model = model; }
+	public void setModel(String model) { 
+		long stamp = writeLock();
+		try {
+			this.model = model;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
 	
 	
 	/**
@@ -180,8 +407,14 @@ public class Automobile implements Serializable {
 	 * @param opSet the new option set
 	 * @param opSetIndex the index of the option set that needs replacement
 	 */
-	synchronized public void setOpSet(int setIndex, OptionSet opSet) {
-		opSets.add(setIndex, opSet);
+	public void setOpSet(int setIndex, OptionSet opSet) {
+		long stamp = writeLock();
+		try {
+			insertOpSet(setIndex, opSet);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	
@@ -190,8 +423,16 @@ public class Automobile implements Serializable {
 	 * @param setIndex index of option set
 	 * @param opSetName name of option set.
 	 */
-	synchronized public void setOpSetName(int setIndex, String opSetName) {
-		opSets.get(setIndex).setName(opSetName);
+	public void setOpSetName(int setIndex, String opSetName) {
+		long stamp = writeLock();
+		try {
+			renameOpSet(setIndex, opSetName);
+			ChangeListener l = listener;
+			if (l != null) l.opSetRenamed(carName(), version, setIndex, opSetName);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -199,11 +440,18 @@ public class Automobile implements Serializable {
 	 * @param name the name of the option set.
 	 * @param opIndex the index of the option in the option set.
 	 */
-	synchronized public void setOpBySetName(String setName, int opIndex, 
+	public void setOpBySetName(String setName, int opIndex, 
 			String opName, float opPrice) {
-		int i = 0;
-		while (i < opSets.size() && !opSets.get(i).getName().equals(setName)) ++i;
-		opSets.get(i).setOp(opIndex, opName, opPrice);
+		long stamp = writeLock();
+		try {
+			OptionSet opSet = opSetNamed(setName);
+			long before = opSet.getOpChoiceCents();
+			opSet.setOp(opIndex, opName, opPrice);
+			repriceOpSet(opSet, before);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	
@@ -213,9 +461,40 @@ public class Automobile implements Serializable {
 	 * @param opIndex the option index in which the option is to be set
 	 * @param option the option
 	 */
-	synchronized public void setOpBySetIndex(int setIndex, int opIndex, 
+	public void setOpBySetIndex(int setIndex, int opIndex, 
 			String opName, float opPrice) {
-		opSets.get(setIndex).setOp(opIndex, opName, opPrice);
+		long stamp = writeLock();
+		try {
+			OptionSet opSet = opSets.get(setIndex);
+			long before = opSet.getOpChoiceCents();
+			opSet.setOp(opIndex, opName, opPrice);
+			repriceOpSet(opSet, before);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Set the price of the option at a certain index, within the option set
+	 * at a certain index.
+	 * @param setIndex the option set index
+	 * @param opIndex the option index within the set
+	 * @param opPriceCents the new price of the option in cents
+	 */
+	public void setOpPriceCents(int setIndex, int opIndex, long opPriceCents) {
+		long stamp = writeLock();
+		try {
+			OptionSet opSet = opSets.get(setIndex);
+			long before = opSet.getOpChoiceCents();
+			opSet.setOpPriceCents(opIndex, opPriceCents);
+			repriceOpSet(opSet, before);
+			ChangeListener l = listener;
+			if (l != null) l.opPriceChanged(carName(), version, setIndex, opIndex, opPriceCents);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -223,44 +502,30 @@ public class Automobile implements Serializable {
 	 * @param setName the set to be updated
 	 * @param opSet the new option set
 	 */
-	synchronized public void updateOpSet(String setName, OptionSet opSet) {
-		setOpSet(findOpSetByName(setName), opSet);
+	public void updateOpSet(String setName, OptionSet opSet) {
+		long stamp = writeLock();
+		try {
+			insertOpSet(indexOfOpSet(setName), opSet);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
 	 * Update the opSet name of a give opSet
 	 * @param setName the opSet name to be changed
 	 * @param newName the new opSet name
+	 * @return true if the opSet was updated, false if its name was not found
 	 */
-	synchronized public void updateOpSetName(String setName, String newName) {
-		int index = findOpSetByName(setName);
-		
-		try {
-			if (index == -1) throw new AutoException(ExceptionSets.SETNAMENOTFOUND);		
-		}
-		catch(AutoException a) {
-			int errNum = a.getErrNum();
-			
-			// Print the error message
-			a.printException(errNum);
-			
-			// Output the log into a file called log.txt.
-			a.log();
-			
-			// Assign the new setName
-			while(true) {
-				setName = a.fix(errNum);
-				index = findOpSetByName(setName);
-				if (index != -1) break;
-				
-				// Print the error message
-				a.printException(errNum);
-				// Output the log into a file called log.txt.
-				a.log();
-			}
-		}
-		
-		setOpSetName(index, newName);
+	public boolean updateOpSetName(String setName, String newName) {
+		return update(setName, null, names -> {
+			int setIndex = lookupOpSet(names);
+			if (setIndex == -1) return;
+			renameOpSet(setIndex, newName);
+			ChangeListener l = listener;
+			if (l != null) l.opSetRenamed(carName(), version, setIndex, newName);
+		});
 	}
 	
 	/**
@@ -268,37 +533,20 @@ public class Automobile implements Serializable {
 	 * @param setName the set to be updated.
 	 * @param opName the option to be updated.
 	 * @param option the new option.
+	 * @return true if the option was updated, false if a name was not found
 	 */
-	synchronized public void updateOp(String setName, String opName, float opPrice) {
-		int setIndex = findOpSetByName(setName);
-		
-		try {
-			if (setIndex == -1) throw new AutoException(ExceptionSets.SETNAMENOTFOUND);		
-		}
-		catch(AutoException a) {
-			int errNum = a.getErrNum();
+	public boolean updateOp(String setName, String opName, float opPrice) {
+		return update(setName, opName, names -> {
+			int setIndex = lookupOpSet(names);
+			if (setIndex == -1) return;
+			OptionSet opSet = opSets.get(setIndex);
+			int opIndex = lookupOp(opSet, names);
+			if (opIndex == -1) return;
 			
-			// Print the error message
-			a.printException(errNum);
-			
-			// Output the log into a file called log.txt.
-			a.log();
-			
-			// Assign the new setName
-			while(true) {
-				setName = a.fix(errNum);
-				setIndex = findOpSetByName(setName);
-				if (setIndex != -1) break;
-				
-				// Print the error message
-				a.printException(errNum);
-				// Output the log into a file called log.txt.
-				a.log();
-			}
-		}
-		
-		int opIndex = opSets.get(setIndex).findOpByName(opName);
-		opSets.get(setIndex).setOp(opIndex, opName, opPrice);
+			long before = opSet.getOpChoiceCents();
+			opSet.setOp(opIndex, names.opName, opPrice);
+			repriceOpSet(opSet, before);
+		});
 	}
 	
 	/**
@@ -306,36 +554,33 @@ public class Automobile implements Serializable {
 	 * @param setName the opSet name
 	 * @param opName the option name
 	 * @param opPrice the new price of the option
+	 * @return true if the price was updated, false if a name was not found
 	 */
-	synchronized public void updateOpPrice(String setName, String opName, float opPrice) {
-		int setIndex = findOpSetByName(setName);
-		
-		try {
-			if (setIndex == -1) throw new AutoException(ExceptionSets.SETNAMENOTFOUND);		
-		}
-		catch(AutoException a) {
-			int errNum = a.getErrNum();
-			
-			// Print the error message
-			a.printException(errNum);
-			
-			// Output the log into a file called log.txt.
-			a.log();
+	public boolean updateOpPrice(String setName, String opName, float opPrice) {
+		return updateOpPriceCents(setName, opName, Price.toCents(opPrice));
+	}
+	
+	/**
+	 * Update the option price in cents
+	 * @param setName the opSet name
+	 * @param opName the option name
+	 * @param opPriceCents the new price of the option in cents
+	 * @return true if the price was updated, false if a name was not found
+	 */
+	public boolean updateOpPriceCents(String setName, String opName, long opPriceCents) {
+		return update(setName, opName, names -> {
+			int setIndex = lookupOpSet(names);
+			if (setIndex == -1) return;
+			OptionSet opSet = opSets.get(setIndex);
+			int opIndex = lookupOp(opSet, names);
+			if (opIndex == -1) return;
 			
-			// Assign the new setName
-			while(true) {
-				setName = a.fix(errNum);
-				setIndex = findOpSetByName(setName);
-				if (setIndex != -1) break;
-				
-				// Print the error message
-				a.printException(errNum);
-				// Output the log into a file called log.txt.
-				a.log();
-			}
-		}
-		
-		opSets.get(setIndex).getOpByName(opName).setPrice(opPrice);
+			long before = opSet.getOpChoiceCents();
+			opSet.setOpPriceCents(opIndex, opPriceCents);
+			repriceOpSet(opSet, before);
+			ChangeListener l = listener;
+			if (l != null) l.opPriceChanged(carName(), version, setIndex, opIndex, opPriceCents);
+		});
 	}
 	
 	
@@ -343,17 +588,33 @@ public class Automobile implements Serializable {
 	 * Delete an option set at a certain index
 	 * @param setIndex index of the set to be deleted
 	 */
-	synchronized public void deleteOpSetByIndex(int setIndex) {
-		opSets.remove(setIndex);
+	public void deleteOpSetByIndex(int setIndex) {
+		long stamp = writeLock();
+		try {
+			removeOpSet(setIndex);
+			opSetDeleted(setIndex);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	
 	/**
-	 * Delete an option set of a certain name
+	 * Delete an option set of a certain name. The name must match exactly.
 	 * @param setName name of option set to be deleted
+	 * @throws IndexOutOfBoundsException if the name is not found.
 	 */
-	synchronized public void deleteOpSetByName(String setName) {
-		opSets.remove(findOpSetByName(setName));
+	public void deleteOpSetByName(String setName) {
+		long stamp = writeLock();
+		try {
+			int setIndex = indexOfOpSet(setName);
+			removeOpSet(setIndex);
+			opSetDeleted(setIndex);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -361,8 +622,18 @@ public class Automobile implements Serializable {
 	 * @param setIndex index of option set
 	 * @param opIndex index of option to be deleted
 	 */
-	synchronized public void deleteOpByIndex(int setIndex, int opIndex) {
-		opSets.get(setIndex).deleteOpByIndex(opIndex);
+	public void deleteOpByIndex(int setIndex, int opIndex) {
+		long stamp = writeLock();
+		try {
+			OptionSet opSet = opSets.get(setIndex);
+			long before = opSet.getOpChoiceCents();
+			opSet.deleteOpByIndex(opIndex);
+			repriceOpSet(opSet, before);
+			opDeleted(setIndex, opIndex);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
@@ -370,26 +641,61 @@ public class Automobile implements Serializable {
 	 * @param setName name of option set the option is in
 	 * @param opIndex index of option to be deleted
 	 */
-	synchronized public void deleteOpByIndex(String setName, int opIndex) {
-		opSets.get(findOpSetByName(setName)).deleteOpByIndex(opIndex);
+	public void deleteOpByIndex(String setName, int opIndex) {
+		long stamp = writeLock();
+		try {
+			int setIndex = indexOfOpSet(setName);
+			OptionSet opSet = opSets.get(setIndex);
+			long before = opSet.getOpChoiceCents();
+			opSet.deleteOpByIndex(opIndex);
+			repriceOpSet(opSet, before);
+			opDeleted(setIndex, opIndex);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 	
 	/**
 	 * Delete an option of a certain name, within option set at a certain index.
+	 * The name must match exactly, even in CLOSEST_MATCH mode.
 	 * @param setIndex option set index.
 	 * @param opName name of option to be deleted
+	 * @return true if the option was deleted, false if its name was not found
 	 */
-	synchronized public void deleteOpByName(int setIndex, String opName) {
-		opSets.get(setIndex).deleteOpByName(opName);
+	public boolean deleteOpByName(int setIndex, String opName) {
+		return delete(null, opName, names -> {
+			OptionSet opSet = opSets.get(setIndex);
+			int opIndex = lookupOp(opSet, names);
+			if (opIndex == -1) return;
+			
+			long before = opSet.getOpChoiceCents();
+			opSet.deleteOpByIndex(opIndex);
+			repriceOpSet(opSet, before);
+			opDeleted(setIndex, opIndex);
+		});
 	}
 	
 	/**
-	 * Delete an option of a certain name, within option set of a certain name
+	 * Delete an option of a certain name, within option set of a certain name.
+	 * The names must match exactly, even in CLOSEST_MATCH mode.
 	 * @param setName name of option set the option is in
 	 * @param opName name of option to be deleted
+	 * @return true if the option was deleted, false if a name was not found
 	 */
-	synchronized public void deleteOpByName(String setName, String opName) {
-		opSets.get(findOpSetByName(setName)).deleteOpByName(opName);
+	public boolean deleteOpByName(String setName, String opName) {
+		return delete(setName, opName, names -> {
+			int setIndex = lookupOpSet(names);
+			if (setIndex == -1) return;
+			OptionSet opSet = opSets.get(setIndex);
+			int opIndex = lookupOp(opSet, names);
+			if (opIndex == -1) return;
+			
+			long before = opSet.getOpChoiceCents();
+			opSet.deleteOpByIndex(opIndex);
+			repriceOpSet(opSet, before);
+			opDeleted(setIndex, opIndex);
+		});
 	}
 	
 	
@@ -397,27 +703,100 @@ public class Automobile implements Serializable {
 	 * Output all option sets and options within each option set.
 	 * @return a String representation of all option sets and options.
 	 */
-	synchronized public String getAuto() {
-		StringBuffer str = new StringBuffer();
+	public String getAuto() {
+		return rendered(false).text;
+	}
+	
+	/**
+	 * Write the text of getAuto() without copying it.
+	 * @param out the text to append to, for example a Writer.
+	 * @throws IOException if the text cannot be written.
+	 */
+	public void writeAuto(Appendable out) throws IOException {
+		out.append(rendered(false).text);
+	}
+	
+	/**
+	 * Write the text of getAuto() in UTF-8. Nothing is written if it does not 
+	 * fit.
+	 * @param out the buffer to write to.
+	 * @return the number of bytes written.
+	 * @throws java.nio.BufferOverflowException if the buffer has not enough room.
+	 */
+	public int writeAuto(ByteBuffer out) {
+		byte[] bytes = rendered(false).getBytes();
+		out.put(bytes);
+		return bytes.length;
+	}
+	
+	/**
+	 * Get the text of getAuto() in UTF-8, encoded once until the next update.
+	 * @return a read-only buffer of the text.
+	 */
+	public ByteBuffer getAutoBuffer() {
+		return ByteBuffer.wrap(rendered(false).getBytes()).asReadOnlyBuffer();
+	}
+	
+	
+	/**
+	 * Append the heading of the description of a car.
+	 * @param str the text to append to.
+	 * @param make the brand.
+	 * @param model the model.
+	 * @param sets the number of option sets.
+	 * @param basePriceCents the base price in cents.
+	 */
+	static void appendHeader(StringBuilder str, String make, String model, int sets,
+			long basePriceCents) {
 		str.append("The car ");
 		str.append(make);
 		str.append(" ");
 		str.append(model);
 		str.append(" has ");
-		str.append(opSets.size());
+		str.append(sets);
 		str.append(" property settings.\n\n");
 		str.append("Its base price is ");
-		str.append(basePrice);
+		str.append(Price.toDollars(basePriceCents));
 		str.append(" dollars.\n");
-		
-		for (int i = 0; i < opSets.size(); ++i) {
-			str.append(opSets.get(i).getOpSet());
-		}
-	
-		return str.toString();
 	}
 	
 	
+	/**
+	 * Copy all option sets and options into a flat, immutable table. The copy
+	 * is taken in one read, so it never mixes the car before and after an
+	 * update.
+	 * @return the AutoTable of the car.
+	 */
+	public AutoTable toTable() {
+		return read(() -> {
+			int total = 0;
+			for (int s = 0; s < opSets.size(); ++s)
+				total += opSets.get(s).getOpCount();
+
+			String[] setNames = new String[opSets.size()];
+			int[] setStart = new int[opSets.size() + 1];
+			String[] opNames = new String[total];
+			long[] opPrices = new long[total];
+
+			int o = 0;
+			for (int s = 0; s < opSets.size(); ++s) {
+				OptionSet opSet = opSets.get(s);
+				setNames[s] = opSet.getName();
+				setStart[s] = o;
+				for (int i = 0; i < opSet.getOpCount(); ++i) {
+					opNames[o] = opSet.getOpName(i);
+					opPrices[o] = opSet.getOpPriceCents(i);
+					++o;
+				}
+			}
+			setStart[opSets.size()] = o;
+
+			return new AutoTable(make, model, basePriceCents, setNames, setStart,
+					opNames, opPrices, version);
+		});
+	}
+
+
 	// Below methods are used when user wants to configure their auto.
 	
 	/**
@@ -425,8 +804,8 @@ public class Automobile implements Serializable {
 	 * @param setName the option set name.
 	 * @return the name of the option chosen for the option set.
 	 */
-	synchronized public String getOpChoice(String setName) {
-		return getOpSetByName(setName).getOpChoice().getName();
+	public String getOpChoice(String setName) {
+		return read(() -> opSetNamed(setName).getOpChoice().getName());
 	}
 	
 	/**
@@ -434,17 +813,48 @@ public class Automobile implements Serializable {
 	 * @param setName the name of the option set.
 	 * @return the price of the option for the option set.
 	 */
-	synchronized public float getOpChoicePrice(String setName) {
-		return getOpSetByName(setName).getOpChoice().getPrice();
+	public float getOpChoicePrice(String setName) {
+		return Price.toDollars(readLong(() -> 
+				opSetNamed(setName).getOpChoice().getPriceCents()));
 	}
 	
 	/**
 	 * Set the user preferred options for an option set.
 	 * @param setName the option set name.
 	 * @param opName the option name the user chooses.
+	 * @return true if the choice was set, false if a name was not found.
 	 */
-	synchronized public void setOpChoice(String setName, String opName) {
-		getOpSetByName(setName).setOpChoice(opName);
+	public boolean setOpChoice(String setName, String opName) {
+		return update(setName, opName, names -> {
+			int setIndex = lookupOpSet(names);
+			if (setIndex == -1) return;
+			OptionSet opSet = opSets.get(setIndex);
+			int opIndex = lookupOp(opSet, names);
+			if (opIndex == -1) return;
+			
+			long before = opSet.getOpChoiceCents();
+			opSet.setOpChoice(opIndex);
+			repriceOpSet(opSet, before);
+		});
+	}
+	
+	/**
+	 * Set the user preferred option at a certain index, within the option set
+	 * at a certain index, e.g. when names repeat within the car.
+	 * @param setIndex the option set index.
+	 * @param opIndex the option index within the set.
+	 */
+	public void setOpChoice(int setIndex, int opIndex) {
+		long stamp = writeLock();
+		try {
+			OptionSet opSet = opSets.get(setIndex);
+			long before = opSet.getOpChoiceCents();
+			opSet.setOpChoice(opIndex);
+			repriceOpSet(opSet, before);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 
 	
@@ -452,33 +862,726 @@ public class Automobile implements Serializable {
 	 * Get the total price of the car of user's choice
 	 * @return the total price of the car of a certain configuration.
 	 */
-	synchronized public float getTotalPrice() {
-		float totalPrice = 0;
-		totalPrice += basePrice;
-		for (int i = 0; i < opSets.size(); ++i)
-			totalPrice += getOpSetByIndex(i).getOpChoice().getPrice();
-		return totalPrice;
+	public float getTotalPrice() {
+		return Price.toDollars(getTotalPriceCents());
+	}
+	
+	/**
+	 * Get the total price in cents of the car of user's choice. Option sets 
+	 * without a chosen option add nothing.
+	 * @return the total price in cents of the car of a certain configuration.
+	 */
+	public long getTotalPriceCents() {
+		return readLong(() -> totalPriceCents);
+	}
+	
+	
+	/**
+	 * Get the number of option sets of the car.
+	 * @return the number of option sets.
+	 */
+	public int getOpSetCount() {
+		return readInt(() -> opSets.size());
+	}
+	
+	/**
+	 * Find the index of an option within the option set at a certain index.
+	 * @param setIndex the option set index.
+	 * @param opName the option name.
+	 * @return -1 if not found, index of the option within the set if found.
+	 */
+	public int findOpInSet(int setIndex, String opName) {
+		return readInt(() -> opSets.get(setIndex).findOpByName(opName));
+	}
+	
+	/**
+	 * Get the name of the option at a certain index in a certain option set.
+	 * @param setIndex the option set index.
+	 * @param opIndex the option index, -1 if no option is chosen.
+	 * @return the option name, null if the indexes do not name an option.
+	 */
+	public String getOpName(int setIndex, int opIndex) {
+		return read(() -> isOption(setIndex, opIndex) 
+				? opSets.get(setIndex).getOpName(opIndex) : null);
+	}
+	
+	/**
+	 * Get the total price of a configuration held outside of the car, one
+	 * chosen option index per option set (-1 for no choice).
+	 * @param choices the chosen option index of each option set.
+	 * @return the total price of the configured car.
+	 */
+	public float getTotalPrice(short[] choices) {
+		return Price.toDollars(getTotalPriceCents(choices));
+	}
+	
+	/**
+	 * Get the total price in cents of a configuration held outside of the car,
+	 * one chosen option index per option set (-1 for no choice).
+	 * @param choices the chosen option index of each option set.
+	 * @return the total price in cents of the configured car.
+	 */
+	public long getTotalPriceCents(short[] choices) {
+		return readLong(() -> {
+			long totalPrice = basePriceCents;
+			for (int i = 0; i < opSets.size() && i < choices.length; ++i) {
+				if (isOption(i, choices[i])) totalPrice += opSets.get(i).getOpPriceCents(choices[i]);
+			}
+			return totalPrice;
+		});
+	}
+	
+	/**
+	 * Print out a configuration held outside of the car, one chosen option 
+	 * index per option set (-1 for no choice).
+	 * @param choices the chosen option index of each option set.
+	 */
+	public void printConfig(short[] choices) {
+		String config = read(() -> renderConfig(choices));
+		
+		// Print outside of the read so a slow console does not hold any lock.
+		System.out.print(config);
+	}
+	
+	/**
+	 * Check whether there is an option at certain indexes, tolerating indexes
+	 * that no longer exist because options were deleted after they were chosen.
+	 * @param setIndex the option set index.
+	 * @param opIndex the option index.
+	 * @return true if there is an option at the indexes.
+	 */
+	private boolean isOption(int setIndex, int opIndex) {
+		if (setIndex < 0 || setIndex >= opSets.size()) return false;
+		return opIndex >= 0 && opIndex < opSets.get(setIndex).getOpCount();
 	}
 	
 	
 	/**
 	 * Print out the user configured car.
 	 */
-	synchronized public void printConfig() {
-		System.out.println("Your car configuration is as follows:");
-		System.out.print("Car make: ");
-		System.out.println(make);
-		System.out.print("Car model: ");
-		System.out.println(model);
-		System.out.print("Base price: ");
-		System.out.println(basePrice);
+	public void printConfig() {
+		// Print outside of the read so a slow console does not hold any lock.
+		System.out.print(rendered(true).text);
+	}
+	
+	/**
+	 * Get the text printConfig() prints.
+	 * @return the configuration of the car as a String.
+	 */
+	public String getConfig() {
+		return rendered(true).text;
+	}
+	
+	/**
+	 * Write the text printConfig() prints without copying it.
+	 * @param out the text to append to, for example a Writer.
+	 * @throws IOException if the text cannot be written.
+	 */
+	public void writeConfig(Appendable out) throws IOException {
+		out.append(rendered(true).text);
+	}
+	
+	/**
+	 * Write the text printConfig() prints in UTF-8. Nothing is written if it
+	 * does not fit.
+	 * @param out the buffer to write to.
+	 * @return the number of bytes written.
+	 * @throws java.nio.BufferOverflowException if the buffer has not enough room.
+	 */
+	public int writeConfig(ByteBuffer out) {
+		byte[] bytes = rendered(true).getBytes();
+		out.put(bytes);
+		return bytes.length;
+	}
+	
+	
+	// Below methods render the text of the car, kept until the next update.
+	
+	/**
+	 * Get a copy of the car as it is now, which nobody changes, e.g. for the
+	 * configuration sessions of customers: the indexes of its option sets
+	 * and options stay valid whatever happens to the car. The same copy is
+	 * handed out until the car is next written.
+	 * @return the copy.
+	 */
+	public Automobile getSnapshot() {
+		Snapshot s = snapshot;
+		long current = readLong(() -> writes);
+		if (s != null && s.writes == current) return s.auto;
+		
+		while (true) {
+			AutoTable table = toTable();
+			long after = readLong(() -> writes);
+			// Only a copy made between two equal counts is at that count.
+			if (after == current) {
+				Automobile copy = table.toAutomobile();
+				copy.setFixMode(fixMode);
+				snapshot = new Snapshot(current, copy);
+				return copy;
+			}
+			current = after;
+		}
+	}
+	
+	/**
+	 * Get the text of getAuto() or printConfig(), rendering it again if the
+	 * car was written since it was kept.
+	 * @param config true for the text of printConfig().
+	 * @return the text.
+	 */
+	private Rendering rendered(boolean config) {
+		Rendering r = config ? configText : autoText;
+		if (r != null && r.writes == readLong(() -> writes)) return r;
+		
+		// Two threads may render the same text; either copy can be kept.
+		r = read(() -> new Rendering(writes, config ? renderConfig(null) : renderAuto()));
+		if (config) configText = r;
+		else autoText = r;
+		return r;
+	}
+	
+	/**
+	 * Render all option sets and options within each option set. The caller 
+	 * runs it as a read.
+	 * @return the text.
+	 */
+	private String renderAuto() {
+		Rendering last = autoText;
+		StringBuilder str = new StringBuilder(last != null ? last.text.length() + 64 : 1024);
+		appendHeader(str, make, model, opSets.size(), basePriceCents);
+		
+		for (int i = 0; i < opSets.size(); ++i) opSets.get(i).appendOpSet(str);
+		return str.toString();
+	}
+	
+	/**
+	 * Render a configuration of the car. The caller runs it as a read.
+	 * @param choices the chosen option index of each option set (-1 for no
+	 * choice), null for the options chosen in the car.
+	 * @return the text.
+	 */
+	private String renderConfig(short[] choices) {
+		StringBuilder str = new StringBuilder(256);
+		str.append("Your car configuration is as follows:\n");
+		str.append("Car make: ").append(make).append("\n");
+		str.append("Car model: ").append(model).append("\n");
+		str.append("Base price: ").append(Price.toDollars(basePriceCents)).append("\n");
 		
 		for (int i = 0; i < opSets.size(); ++i) {
-			System.out.println(getOpSetByIndex(i).getName());
-			System.out.print(getOpSetByIndex(i).getOpChoice().getOption());
+			OptionSet opSet = opSets.get(i);
+			str.append(opSet.getName()).append("\n");
+			int choice;
+			if (choices == null) choice = opSet.getOpChoiceIndex();
+			else choice = i < choices.length ? choices[i] : -1;
+			if (isOption(i, choice)) {
+				Option.appendOption(str, opSet.getOpName(choice),
+						Price.toDollars(opSet.getOpPriceCents(choice)));
+			}
+			else str.append("No option chosen.\n");
+		}
+		return str.toString();
+	}
+	
+	/**
+	 * A text rendered at a certain number of writes of the car, and its UTF-8
+	 * bytes, encoded the first time they are asked for.
+	 */
+	private static class Rendering {
+		
+		private final long writes;
+		private final String text;
+		private volatile byte[] bytes;
+		
+		private Rendering(long writes, String text) {
+			this.writes = writes;
+			this.text = text;
 		}
 		
+		private byte[] getBytes() {
+			byte[] b = bytes;
+			if (b == null) bytes = b = text.getBytes(StandardCharsets.UTF_8);
+			return b;
+		}
 	}
 	
-}
 	
+	/**
+	 * A copy of the car made at a certain number of writes.
+	 */
+	private static class Snapshot {
+		
+		private final long writes;
+		private final Automobile auto;
+		
+		private Snapshot(long writes, Automobile auto) {
+			this.writes = writes;
+			this.auto = auto;
+		}
+	}
+	
+	
+	// Below methods do the work of the public methods above. They assume the 
+	// caller already holds the lock, because a StampedLock is not reentrant.
+	
+	/**
+	 * Find the index of the option set of a certain name.
+	 * @param setName the option set name.
+	 * @return -1 if not found, index of the option set if found.
+	 */
+	private int indexOfOpSet(String setName) {
+		return setNameIndex.get(Symbols.find(setName));
+	}
+	
+	/**
+	 * Get the option set of a certain name.
+	 * @param setName the option set name.
+	 * @return the OptionSet of a certain name.
+	 */
+	private OptionSet opSetNamed(String setName) {
+		int i = indexOfOpSet(setName);
+		
+		// Keep the behaviour of a lookup past the end of the list.
+		if (i == -1) throw new IndexOutOfBoundsException("Option set not found: " + setName);
+		return opSets.get(i);
+	}
+	
+	/**
+	 * Find the index of the option set named by a lookup. If it is not found,
+	 * the closest option set name is used in CLOSEST_MATCH mode; otherwise the
+	 * miss is recorded in the lookup, to be reported once the lock is released.
+	 * @param names the lookup.
+	 * @return -1 if not found, index of the option set if found.
+	 */
+	private int lookupOpSet(Lookup names) {
+		int setIndex = indexOfOpSet(names.setName);
+		if (setIndex != -1) return setIndex;
+		
+		if (names.mode == FixMode.CLOSEST_MATCH) {
+			if (setNameFuzzy == null) {
+				setNameFuzzy = new NameIndex();
+				for (OptionSet opSet : opSets) setNameFuzzy.add(opSet.getName());
+			}
+			String closest = setNameFuzzy.closest(names.setName);
+			if (closest != null) {
+				names.correct(ExceptionSets.SETNAMENOTFOUND, names.setName, closest);
+				names.setName = closest;
+				return indexOfOpSet(closest);
+			}
+		}
+		names.miss = miss(ExceptionSets.SETNAMENOTFOUND, names.setName, names.mode);
+		return -1;
+	}
+	
+	/**
+	 * Find the index of the option named by a lookup within an option set, see
+	 * lookupOpSet().
+	 * @param opSet the option set.
+	 * @param names the lookup.
+	 * @return -1 if not found, index of the option within the set if found.
+	 */
+	private int lookupOp(OptionSet opSet, Lookup names) {
+		int opIndex = opSet.findOpByName(names.opName);
+		if (opIndex != -1) return opIndex;
+		
+		if (names.mode == FixMode.CLOSEST_MATCH) {
+			opIndex = opSet.findClosestOp(names.opName);
+			if (opIndex != -1) {
+				String closest = opSet.getOpName(opIndex);
+				names.correct(ExceptionSets.OPTIONNAMENOTFOUND, names.opName, closest);
+				names.opName = closest;
+				return opIndex;
+			}
+		}
+		names.miss = miss(ExceptionSets.OPTIONNAMENOTFOUND, names.opName, names.mode);
+		return -1;
+	}
+	
+	/**
+	 * Get the exception for a name that was not found. In SILENT mode it is 
+	 * only counted, so the shared exception without details is used.
+	 * @param exception the exception code.
+	 * @param name the name that was not found.
+	 * @param mode the way names are fixed.
+	 * @return the exception.
+	 */
+	private static AutoException miss(ExceptionSets exception, String name, FixMode mode) {
+		if (mode == FixMode.SILENT) return AutoException.shared(exception);
+		return new AutoException(exception, name);
+	}
+	
+	/**
+	 * Insert an option set at a certain index.
+	 * @param setIndex the index.
+	 * @param opSet the option set.
+	 */
+	private void insertOpSet(int setIndex, OptionSet opSet) {
+		opSets.add(setIndex, opSet);
+		rebuildSetIndex();
+		totalPriceCents += opSet.getOpChoiceCents();
+	}
+	
+	/**
+	 * Rename the option set at a certain index.
+	 * @param setIndex the index.
+	 * @param opSetName the new name.
+	 */
+	private void renameOpSet(int setIndex, String opSetName) {
+		opSets.get(setIndex).setName(opSetName);
+		
+		// A rename can change which option set is the first of its name.
+		rebuildSetIndex();
+	}
+	
+	/**
+	 * Remove the option set at a certain index.
+	 * @param setIndex the index.
+	 */
+	private void removeOpSet(int setIndex) {
+		totalPriceCents -= opSets.remove(setIndex).getOpChoiceCents();
+		
+		// The option sets after the deleted one have shifted down by one.
+		rebuildSetIndex();
+	}
+	
+	
+	/**
+	 * Update the total price after an update of an option set, which may have
+	 * changed the price of its chosen option.
+	 * @param opSet the option set.
+	 * @param before the price in cents of its chosen option before the update.
+	 */
+	private void repriceOpSet(OptionSet opSet, long before) {
+		totalPriceCents += opSet.getOpChoiceCents() - before;
+	}
+	
+	/**
+	 * Recompute the total price from the base price and the chosen options.
+	 */
+	private void recomputeTotal() {
+		totalPriceCents = basePriceCents;
+		for (int i = 0; i < opSets.size(); ++i)
+			totalPriceCents += opSets.get(i).getOpChoiceCents();
+	}
+	
+	
+	/**
+	 * Get the car name from the member variables, for the caller holding the
+	 * lock.
+	 * @return the car name.
+	 */
+	private String carName() {
+		return make + " " + model;
+	}
+	
+	/**
+	 * Add an option and tell the listener. The caller holds the write lock.
+	 * @param setIndex the option set index.
+	 * @param opName the option name.
+	 * @param priceCents the price of the option in cents.
+	 */
+	private void addOp(int setIndex, String opName, long priceCents) {
+		OptionSet opSet = opSets.get(setIndex);
+		opSet.addOpCents(opName, priceCents);
+		ChangeListener l = listener;
+		if (l != null) l.opAdded(carName(), version, setIndex,
+				opSet.getOpCount() - 1, opName, priceCents);
+	}
+	
+	/**
+	 * Tell the listener that an option set was deleted. The caller holds the
+	 * write lock.
+	 * @param setIndex the index the option set had.
+	 */
+	private void opSetDeleted(int setIndex) {
+		ChangeListener l = listener;
+		if (l != null) l.opSetDeleted(carName(), version, setIndex);
+	}
+	
+	/**
+	 * Tell the listener that an option was deleted. The caller holds the
+	 * write lock.
+	 * @param setIndex the option set index.
+	 * @param opIndex the index the option had within the set.
+	 */
+	private void opDeleted(int setIndex, int opIndex) {
+		ChangeListener l = listener;
+		if (l != null) l.opDeleted(carName(), version, setIndex, opIndex);
+	}
+	
+	
+	// Below methods run an update that looks up option set and option names.
+	
+	/**
+	 * The names an update looks up, and what happened looking them up. It is 
+	 * filled in under the write lock and reported after the lock is released.
+	 */
+	private static class Lookup {
+		
+		private String setName;
+		private String opName;
+		private final FixMode mode;
+		private AutoException miss; // The name that was not found.
+		private List<AutoException> corrections; // Names replaced by the closest match.
+		
+		private Lookup(String setName, String opName, FixMode mode) {
+			this.setName = setName;
+			this.opName = opName;
+			this.mode = mode;
+		}
+		
+		/**
+		 * Record that a name was replaced by the closest match.
+		 */
+		private void correct(ExceptionSets exception, String name, String closest) {
+			if (corrections == null) corrections = new ArrayList<AutoException>(2);
+			corrections.add(new AutoException(exception, name + " -> " + closest));
+		}
+	}
+	
+	/**
+	 * An update run under the write lock, which records a name it does not 
+	 * find in the lookup instead of changing the car.
+	 */
+	private interface Update {
+		void apply(Lookup names);
+	}
+	
+	/**
+	 * Run an update that looks up names. The update runs under the write lock.
+	 * A name that was not found is reported once the lock is released and, in
+	 * PROMPT mode, the user is asked for a name and the update is tried again.
+	 * @param setName the option set name to look up, null if none.
+	 * @param opName the option name to look up, null if none.
+	 * @param update the update.
+	 * @return true if the update was applied, false if a name was not found.
+	 */
+	private boolean update(String setName, String opName, Update update) {
+		return update(setName, opName, getFixMode(), update);
+	}
+	
+	/**
+	 * Run a delete that looks up names, see update(). A misspelled name is
+	 * never replaced by the closest match, which could delete the wrong 
+	 * option: in CLOSEST_MATCH mode it fails as in FAIL_FAST mode.
+	 */
+	private boolean delete(String setName, String opName, Update delete) {
+		FixMode mode = getFixMode();
+		return update(setName, opName,
+				mode == FixMode.CLOSEST_MATCH ? FixMode.FAIL_FAST : mode, delete);
+	}
+	
+	/**
+	 * Run an update that looks up names in a certain fix mode, see update().
+	 */
+	private boolean update(String setName, String opName, FixMode mode, Update update) {
+		Lookup names = new Lookup(setName, opName, mode);
+		while (true) {
+			names.miss = null;
+			long stamp = writeLock();
+			try {
+				update.apply(names);
+			}
+			finally {
+				lock.unlockWrite(stamp);
+			}
+			
+			// Output the names that were corrected into log.txt.
+			if (names.corrections != null) {
+				for (AutoException a : names.corrections) a.log();
+				names.corrections = null;
+			}
+			if (names.miss == null) return true;
+			if (names.mode == FixMode.SILENT) return false;
+			
+			int errNum = names.miss.getErrNum();
+			// Print the error message
+			names.miss.printException(errNum);
+			// Output the log into a file called log.txt.
+			names.miss.log();
+			if (names.mode != FixMode.PROMPT) return false;
+			
+			// Assign the new name, without holding the lock.
+			String name = names.miss.fix(errNum);
+			if (name == null) return false;
+			if (errNum == ExceptionSets.SETNAMENOTFOUND.getErrNum()) names.setName = name;
+			else names.opName = name;
+		}
+	}
+	
+	
+	// Below methods run a read of the car without blocking other readers.
+	
+	/**
+	 * Take the write lock, counting in the metrics whether and how long the 
+	 * thread waited for it, and count up the version of the car.
+	 * @return the stamp to unlock with.
+	 */
+	private long writeLock() {
+		long stamp;
+		if (!Metrics.ENABLED) stamp = lock.writeLock();
+		else {
+			stamp = lock.tryWriteLock();
+			if (stamp != 0) Metrics.WRITE_LOCK.acquired();
+			else {
+				long start = System.nanoTime();
+				stamp = lock.writeLock();
+				Metrics.WRITE_LOCK.waited(System.nanoTime() - start);
+			}
+		}
+		
+		// Every update takes the write lock, so it counts as a new version.
+		++version;
+		++writes;
+		return stamp;
+	}
+	
+	/**
+	 * Take the read lock after an optimistic read failed, see writeLock().
+	 * @return the stamp to unlock with.
+	 */
+	private long readLock() {
+		if (!Metrics.ENABLED) return lock.readLock();
+		
+		long stamp = lock.tryReadLock();
+		if (stamp != 0) {
+			Metrics.READ_LOCK.acquired();
+			return stamp;
+		}
+		long start = System.nanoTime();
+		stamp = lock.readLock();
+		Metrics.READ_LOCK.waited(System.nanoTime() - start);
+		return stamp;
+	}
+	
+	/**
+	 * Run a read of the car. The read is first done optimistically without 
+	 * taking the lock and validated afterwards. If an update overlapped it, 
+	 * the result (or the exception thrown by the torn read) is discarded and 
+	 * the read is redone under the read lock.
+	 * @param reader the read.
+	 * @return the result of the read.
+	 */
+	private <T> T read(Supplier<T> reader) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				T result = reader.get();
+				if (lock.validate(stamp)) return result;
+			}
+			catch(RuntimeException e) {
+				// A torn read, redo it under the read lock below.
+			}
+		}
+		
+		stamp = readLock();
+		try {
+			return reader.get();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Run a read of the car that copies its parts, under the read lock: a 
+	 * copy interns the names it holds, so it is not redone like read().
+	 * @param reader the read.
+	 * @return the result of the read.
+	 */
+	private <T> T readCopy(Supplier<T> reader) {
+		long stamp = readLock();
+		try {
+			return reader.get();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Run a read of the car returning an int, see read().
+	 * @param reader the read.
+	 * @return the result of the read.
+	 */
+	private int readInt(IntSupplier reader) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				int result = reader.getAsInt();
+				if (lock.validate(stamp)) return result;
+			}
+			catch(RuntimeException e) {
+				// A torn read, redo it under the read lock below.
+			}
+		}
+		
+		stamp = readLock();
+		try {
+			return reader.getAsInt();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Run a read of the car returning a long, see read().
+	 * @param reader the read.
+	 * @return the result of the read.
+	 */
+	private long readLong(LongSupplier reader) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				long result = reader.getAsLong();
+				if (lock.validate(stamp)) return result;
+			}
+			catch(RuntimeException e) {
+				// A torn read, redo it under the read lock below.
+			}
+		}
+		
+		stamp = readLock();
+		try {
+			return reader.getAsLong();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	
+	// Below methods maintain the index of option set names.
+	
+	/**
+	 * Add the last option set in the list to the index.
+	 */
+	private void indexLastOpSet() {
+		int i = opSets.size() - 1;
+		setNameIndex.putIfAbsent(opSets.get(i).getNameId(), i);
+		setNameFuzzy = null;
+	}
+	
+	/**
+	 * Rebuild the index of option set names from the list of option sets.
+	 */
+	private void rebuildSetIndex() {
+		setNameIndex = new IdIndex();
+		setNameFuzzy = null;
+		for (int i = 0; i < opSets.size(); ++i) 
+			setNameIndex.putIfAbsent(opSets.get(i).getNameId(), i);
+	}
+	
+	/**
+	 * Rebuild the index, the total price and the lock, which are not 
+	 * serialized, after deserialization.
+	 */
+	private void readObject(ObjectInputStream in) 
+			throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		rebuildSetIndex();
+		recomputeTotal();
+		lock = new StampedLock();
+	}
+	
+}
@@ -0,0 +1,88 @@
+package model;
+
+/**
+ * This class is one change of an Automobile, as told to a ChangeListener.
+ * Option sets and options are given by their index at the time of the
+ * change, so a copy of the car at an earlier version (see Automobile.toTable())
+ * is brought up to date by applying its later events in order. The version
+ * is the version of the car after the change; it grows by at least one with
+ * each change of the car.
+ * @author ShuqinYe
+ *
+ */
+public class ChangeEvent {
+
+	/**
+	 * The kinds of change.
+	 */
+	public enum Type {
+		SET_RENAMED,    // setIndex, name = the new option set name
+		PRICE_CHANGED,  // setIndex, opIndex, priceCents
+		OPTION_ADDED,   // setIndex, opIndex, name = the option name, priceCents
+		SET_DELETED,    // setIndex
+		OPTION_DELETED  // setIndex, opIndex
+	}
+
+	private final Type type;
+	private final String autoName;
+	private final long version;
+	private final int setIndex;
+	private final int opIndex;
+	private final String name;
+	private final long priceCents;
+
+
+	/**
+	 * Construct an event.
+	 * @param type the kind of change.
+	 * @param autoName the car name.
+	 * @param version the car version after the change.
+	 * @param setIndex the option set index.
+	 * @param opIndex the option index within the set, -1 if none.
+	 * @param name the new option set name or the option name, null if none.
+	 * @param priceCents the option price in cents, 0 if none.
+	 */
+	public ChangeEvent(Type type, String autoName, long version, int setIndex,
+			int opIndex, String name, long priceCents) {
+		this.type = type;
+		this.autoName = autoName;
+		this.version = version;
+		this.setIndex = setIndex;
+		this.opIndex = opIndex;
+		this.name = name;
+		this.priceCents = priceCents;
+	}
+
+	public Type getType() { return type; }
+
+	public String getAutoName() { return autoName; }
+
+	public long getVersion() { return version; }
+
+	public int getSetIndex() { return setIndex; }
+
+	public int getOpIndex() { return opIndex; }
+
+	public String getName() { return name; }
+
+	public long getPriceCents() { return priceCents; }
+
+	/**
+	 * Get the option price in dollars.
+	 * @return the price.
+	 */
+	public float getPrice() { return Price.toDollars(priceCents); }
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		str.append(autoName).append(" v").append(version).append(' ').append(type)
+			.append(" set ").append(setIndex);
+		if (opIndex >= 0) str.append(" option ").append(opIndex);
+		if (name != null) str.append(" \"").append(name).append('"');
+		if (type == Type.PRICE_CHANGED || type == Type.OPTION_ADDED)
+			str.append(' ').append(Price.toDollars(priceCents));
+		return str.toString();
+	}
+
+}
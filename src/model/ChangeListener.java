@@ -0,0 +1,66 @@
+package model;
+
+/**
+ * Provides an API for being told about the updates of an Automobile, for
+ * example to write them to a journal. The methods are called while the car
+ * holds its write lock, right after the update was applied, so the updates of
+ * one car are told in the order they were applied. They must be quick and
+ * must not call back into the car.
+ * Option sets and options are given by their index at the time of the update,
+ * after any misspelled name was fixed. The version is the version of the car
+ * after the update, see Automobile.getVersion().
+ * @author ShuqinYe
+ *
+ */
+public interface ChangeListener {
+
+	/**
+	 * An option set was renamed.
+	 * @param name the car name.
+	 * @param version the car version.
+	 * @param setIndex the option set index.
+	 * @param newName the new option set name.
+	 */
+	public void opSetRenamed(String name, long version, int setIndex, String newName);
+
+	/**
+	 * The price of an option was changed.
+	 * @param name the car name.
+	 * @param version the car version.
+	 * @param setIndex the option set index.
+	 * @param opIndex the option index within the set.
+	 * @param priceCents the new price in cents.
+	 */
+	public void opPriceChanged(String name, long version, int setIndex, int opIndex,
+			long priceCents);
+
+	/**
+	 * An option was added at the end of an option set.
+	 * @param name the car name.
+	 * @param version the car version.
+	 * @param setIndex the option set index.
+	 * @param opIndex the option index within the set.
+	 * @param opName the option name.
+	 * @param priceCents the option price in cents.
+	 */
+	public void opAdded(String name, long version, int setIndex, int opIndex,
+			String opName, long priceCents);
+
+	/**
+	 * An option set was deleted.
+	 * @param name the car name.
+	 * @param version the car version.
+	 * @param setIndex the index the option set had.
+	 */
+	public void opSetDeleted(String name, long version, int setIndex);
+
+	/**
+	 * An option was deleted.
+	 * @param name the car name.
+	 * @param version the car version.
+	 * @param setIndex the option set index.
+	 * @param opIndex the index the option had within the set.
+	 */
+	public void opDeleted(String name, long version, int setIndex, int opIndex);
+
+}
@@ -0,0 +1,384 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class answers questions about all complete configurations of one car
+ * (one option chosen in every option set) without listing them:
+ * - the price distribution, i.e. how many configurations have each total,
+ *   computed by dynamic programming over the price lists of the option sets;
+ * - how many configurations fall inside a budget, from the distribution;
+ * - the K cheapest or most expensive configurations, found by branch and
+ *   bound over the options of each set sorted by price.
+ * The explorer works on a copy of the car taken when it is built, so updates
+ * of the car after that are not seen.
+ * Counts are exact; a car with more than Long.MAX_VALUE configurations throws
+ * an ArithmeticException when they are counted.
+ * @author ShuqinYe
+ *
+ */
+public class ConfigurationExplorer {
+
+	// The widest price distribution computed, in steps of the price unit.
+	public static final int MAX_BUCKETS = 1 << 24;
+
+	// Number of distribution entries computed by one task.
+	private static final int CHUNK_SIZE = 1 << 14;
+
+	private final AutoTable table; // The copy of the car.
+	private final ForkJoinPool pool; // The pool the distribution is computed on.
+
+	// Price distribution, computed the first time it is needed.
+	private long unit; // Greatest common divisor of all price differences, in cents.
+	private long minTotal; // Total price in cents of the cheapest configuration.
+	private long[] cumulative; // Number of configurations up to minTotal + i * unit.
+
+
+	/**
+	 * Build the explorer of a car, from one consistent copy of it.
+	 * @param auto the car.
+	 */
+	public ConfigurationExplorer(Automobile auto) {
+		this(auto.toTable(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Build the explorer of a car.
+	 * @param table the flat copy of the car.
+	 * @param pool the pool the price distribution is computed on.
+	 */
+	public ConfigurationExplorer(AutoTable table, ForkJoinPool pool) {
+		this.table = table;
+		this.pool = pool;
+	}
+
+	/**
+	 * Get the number of complete configurations.
+	 * @return the product of the number of options of all option sets.
+	 */
+	public long countConfigurations() {
+		long count = 1;
+		for (int s = 0; s < table.getOpSetCount(); ++s)
+			count = Math.multiplyExact(count, table.getOpCount(s));
+		return count;
+	}
+
+	/**
+	 * Get the price distribution of all complete configurations.
+	 * @return the number of configurations of each total price in cents,
+	 * sorted by price.
+	 */
+	public synchronized SortedMap<Long, Long> getPriceDistribution() {
+		computeDistribution();
+		SortedMap<Long, Long> distribution = new TreeMap<Long, Long>();
+		long before = 0;
+		for (int i = 0; i < cumulative.length; ++i) {
+			long count = cumulative[i] - before;
+			if (count != 0) distribution.put(minTotal + i * unit, count);
+			before = cumulative[i];
+		}
+		return distribution;
+	}
+
+	/**
+	 * Count the complete configurations with a total price inside a range.
+	 * @param minCents the lowest total price in cents, inclusive.
+	 * @param maxCents the highest total price in cents, inclusive.
+	 * @return the number of configurations.
+	 */
+	public synchronized long countWithin(long minCents, long maxCents) {
+		computeDistribution();
+		if (cumulative.length == 0 || minCents > maxCents) return 0;
+		long below = minCents == Long.MIN_VALUE ? 0 : countAtMost(minCents - 1);
+		return countAtMost(maxCents) - below;
+	}
+
+	/**
+	 * Count the complete configurations that cost no more than a budget.
+	 * @param budgetCents the budget in cents.
+	 * @return the number of configurations.
+	 */
+	public long countWithinBudget(long budgetCents) {
+		return countWithin(Long.MIN_VALUE, budgetCents);
+	}
+
+	/**
+	 * Find the cheapest complete configurations.
+	 * @param k the number of configurations.
+	 * @return up to k configurations, cheapest first.
+	 */
+	public List<Build> findCheapest(int k) {
+		return findBest(k, 1);
+	}
+
+	/**
+	 * Find the most expensive complete configurations.
+	 * @param k the number of configurations.
+	 * @return up to k configurations, most expensive first.
+	 */
+	public List<Build> findMostExpensive(int k) {
+		return findBest(k, -1);
+	}
+
+	/**
+	 * Describe a configuration with the names of its options.
+	 * @param build the configuration.
+	 * @return the option set and option names, and the total price.
+	 */
+	public String describe(Build build) {
+		StringBuilder str = new StringBuilder();
+		for (int s = 0; s < build.choices.length; ++s) {
+			str.append(table.getOpSetName(s)).append(": ");
+			str.append(table.getOpName(table.getOpStart(s) + build.choices[s]));
+			str.append(", ");
+		}
+		str.append("total ").append(build.getTotalPrice());
+		return str.toString();
+	}
+
+
+	// Below methods compute the price distribution.
+
+	/**
+	 * Compute the price distribution, once. Every total is the cheapest total
+	 * plus a multiple of the unit, so the distribution is kept as one dense
+	 * array of counts by multiple of the unit. Each option set in turn spreads
+	 * the counts so far over its own prices, in parallel over the array.
+	 */
+	private void computeDistribution() {
+		if (cumulative != null) return;
+
+		int sets = table.getOpSetCount();
+		minTotal = table.getBasePriceCents();
+		unit = 0;
+		for (int s = 0; s < sets; ++s) {
+			if (table.getOpCount(s) == 0) {
+				// No option can be chosen in this set, so no configuration is complete.
+				cumulative = new long[0];
+				return;
+			}
+			long min = minPrice(s);
+			minTotal += min;
+			for (int o = table.getOpStart(s); o < table.getOpStart(s + 1); ++o)
+				unit = gcd(unit, table.getOpPriceCents(o) - min);
+		}
+		if (unit == 0) unit = 1;
+
+		long[] counts = { 1 };
+		for (int s = 0; s < sets; ++s) {
+			long min = minPrice(s);
+			int[] shift = new int[table.getOpCount(s)];
+			long width = 0;
+			for (int o = 0; o < shift.length; ++o) {
+				long steps = (table.getOpPriceCents(table.getOpStart(s) + o) - min) / unit;
+				width = Math.max(width, steps);
+				if (counts.length + width > MAX_BUCKETS)
+					throw new IllegalStateException("Price range of " + table.getName()
+							+ " is too wide for a price distribution");
+				shift[o] = (int) steps;
+			}
+
+			long[] next = new long[counts.length + (int) width];
+			pool.invoke(new Spread(counts, shift, next, 0, next.length));
+			counts = next;
+		}
+
+		// Keep running totals, so a range is counted with two reads.
+		for (int i = 1; i < counts.length; ++i)
+			counts[i] = Math.addExact(counts[i], counts[i - 1]);
+		cumulative = counts;
+	}
+
+	/**
+	 * Count the configurations with a total price of at most some cents.
+	 */
+	private long countAtMost(long cents) {
+		if (cents < minTotal) return 0;
+		long maxTotal = minTotal + (cumulative.length - 1) * unit;
+		if (cents >= maxTotal) return cumulative[cumulative.length - 1];
+		return cumulative[(int) ((cents - minTotal) / unit)];
+	}
+
+	/**
+	 * Get the price in cents of the cheapest option of an option set.
+	 */
+	private long minPrice(int setIndex) {
+		long min = Long.MAX_VALUE;
+		for (int o = table.getOpStart(setIndex); o < table.getOpStart(setIndex + 1); ++o)
+			min = Math.min(min, table.getOpPriceCents(o));
+		return min;
+	}
+
+	/**
+	 * Get the greatest common divisor of two numbers, 0 if both are 0.
+	 */
+	private static long gcd(long a, long b) {
+		a = Math.abs(a);
+		b = Math.abs(b);
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * The task spreading the counts over the prices of one option set, for a
+	 * range of the new counts. The range is split in halves until it fits in
+	 * one chunk, so idle threads can steal halves.
+	 */
+	private static class Spread extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long[] counts; // Counts before the option set.
+		private final int[] shift; // Price of each option above the cheapest, in units.
+		private final long[] next; // Counts after the option set.
+		private final int from;
+		private final int to;
+
+		private Spread(long[] counts, int[] shift, long[] next, int from, int to) {
+			this.counts = counts;
+			this.shift = shift;
+			this.next = next;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Spread(counts, shift, next, from, mid),
+						new Spread(counts, shift, next, mid, to));
+				return;
+			}
+			for (int i = from; i < to; ++i) {
+				long count = 0;
+				for (int d : shift) {
+					int j = i - d;
+					if (j >= 0 && j < counts.length) count = Math.addExact(count, counts[j]);
+				}
+				next[i] = count;
+			}
+		}
+
+	}
+
+
+	// Below methods find the cheapest or most expensive configurations.
+
+	/**
+	 * Find the best configurations by branch and bound. With sign 1 the best
+	 * are the cheapest, with sign -1 the most expensive. The options of each
+	 * set are tried best first, and a branch is cut as soon as even the best
+	 * options of the remaining sets cannot beat the k-th best found so far.
+	 */
+	private List<Build> findBest(int k, int sign) {
+		int sets = table.getOpSetCount();
+		if (k <= 0) return Collections.emptyList();
+
+		// The option indexes of each set, best first.
+		int[][] order = new int[sets][];
+		long[] rest = new long[sets + 1]; // Best possible price of sets s and later.
+		for (int s = sets - 1; s >= 0; --s) {
+			final int start = table.getOpStart(s);
+			Integer[] options = new Integer[table.getOpCount(s)];
+			if (options.length == 0) return Collections.emptyList();
+			for (int o = 0; o < options.length; ++o) options[o] = o;
+			Arrays.sort(options, Comparator.comparingLong(
+					(Integer o) -> sign * table.getOpPriceCents(start + o)));
+
+			order[s] = new int[options.length];
+			for (int o = 0; o < options.length; ++o) order[s][o] = options[o];
+			rest[s] = rest[s + 1] + sign * table.getOpPriceCents(start + order[s][0]);
+		}
+
+		// The k best so far, worst on top.
+		PriorityQueue<Build> best = new PriorityQueue<Build>(k,
+				(a, b) -> Long.compare(sign * b.totalCents, sign * a.totalCents));
+		search(0, sign * table.getBasePriceCents(), new short[sets], order, rest,
+				k, sign, best);
+
+		List<Build> result = new ArrayList<Build>(best);
+		result.sort((a, b) -> Long.compare(sign * a.totalCents, sign * b.totalCents));
+		return result;
+	}
+
+	/**
+	 * Try every option of one set, then the sets after it.
+	 * @param setIndex the option set.
+	 * @param score the signed total of the base price and the chosen options.
+	 */
+	private void search(int setIndex, long score, short[] choices, int[][] order,
+			long[] rest, int k, int sign, PriorityQueue<Build> best) {
+		if (setIndex == choices.length) {
+			if (best.size() == k) best.poll();
+			best.add(new Build(choices.clone(), sign * score));
+			return;
+		}
+
+		int start = table.getOpStart(setIndex);
+		for (int o : order[setIndex]) {
+			long next = score + sign * table.getOpPriceCents(start + o);
+
+			// The options are sorted, so no later option can do better either.
+			if (best.size() == k && next + rest[setIndex + 1] >= sign * best.peek().totalCents)
+				break;
+
+			choices[setIndex] = (short) o;
+			search(setIndex + 1, next, choices, order, rest, k, sign, best);
+		}
+	}
+
+
+	/**
+	 * One complete configuration: the option index chosen in each option set,
+	 * and the total price.
+	 */
+	public static class Build {
+
+		private final short[] choices;
+		private final long totalCents;
+
+		private Build(short[] choices, long totalCents) {
+			this.choices = choices;
+			this.totalCents = totalCents;
+		}
+
+		/**
+		 * Get the option index chosen in each option set.
+		 * @return the choices, in the layout used by PriceTable.
+		 */
+		public short[] getChoices() { return choices.clone(); }
+
+		/**
+		 * Get the total price.
+		 * @return the total price in cents.
+		 */
+		public long getTotalPriceCents() { return totalCents; }
+
+		/**
+		 * Get the total price.
+		 * @return the total price in dollars.
+		 */
+		public float getTotalPrice() { return Price.toDollars(totalCents); }
+
+		@Override
+		public String toString() {
+			return Arrays.toString(choices) + " " + getTotalPrice();
+		}
+
+	}
+
+}
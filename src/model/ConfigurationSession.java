@@ -0,0 +1,150 @@
+package model;
+
+import java.util.Arrays;
+
+import exceptions.AutoException;
+import exceptions.ExceptionSets;
+import fixerrors.FixMode;
+
+/**
+ * This class holds the options one customer has chosen for a car model.
+ * The choices are kept in the session as one option index per option set
+ * instead of in the shared Automobile, so any number of customers can
+ * configure the same model at the same time without overwriting each other.
+ * The session configures the car as it was when the session was opened (see
+ * Automobile.getSnapshot()): the indexes it keeps point into that copy, so
+ * they stay valid when the car is changed meanwhile, and the total price is
+ * the price of that car.
+ * A session belongs to one customer and is not meant to be shared between
+ * threads.
+ * @author ShuqinYe
+ *
+ */
+public class ConfigurationSession {
+
+	private final long id; // The session id.
+	private final Automobile auto; // The copy of the car model being configured.
+	private final short[] choices; // Chosen option index per option set, -1 if none.
+	private volatile long lastAccess; // Last time the session was used, in ms.
+
+
+	/**
+	 * Construct a session for a car model with nothing chosen yet.
+	 * @param id the session id.
+	 * @param auto the car model to be configured.
+	 */
+	public ConfigurationSession(long id, Automobile auto) {
+		this.id = id;
+		this.auto = auto.getSnapshot();
+		choices = new short[auto.getOpSetCount()];
+		Arrays.fill(choices, (short) -1);
+		touch();
+	}
+
+	/**
+	 * Get the session id.
+	 * @return the session id.
+	 */
+	public long getId() { return id; }
+
+	/**
+	 * Get the name of the car model configured in this session.
+	 * @return the car model name.
+	 */
+	public String getAutoName() { return auto.getName(); }
+
+	/**
+	 * Get the last time the session was used.
+	 * @return the last access time in milliseconds.
+	 */
+	public long getLastAccess() { return lastAccess; }
+
+	/**
+	 * Mark the session as used now.
+	 */
+	public void touch() {
+		lastAccess = System.currentTimeMillis();
+	}
+
+	/**
+	 * Check whether the session has been idle for longer than its time to live.
+	 * @param now the current time in milliseconds.
+	 * @param ttl the time to live in milliseconds.
+	 * @return true if the session has expired.
+	 */
+	public boolean isExpired(long now, long ttl) {
+		return now - lastAccess > ttl;
+	}
+
+	/**
+	 * Set the option the customer chooses for an option set.
+	 * @param setName the option set name.
+	 * @param opName the option name the customer chooses.
+	 * @return true if the choice was recorded, false if a name was not found.
+	 */
+	public boolean setOpChoice(String setName, String opName) {
+		touch();
+		boolean silent = auto.getFixMode() == FixMode.SILENT;
+		try {
+			int setIndex = auto.findOpSetByName(setName);
+			if (setIndex == -1 || setIndex >= choices.length)
+				throw silent ? AutoException.shared(ExceptionSets.SETNAMENOTFOUND)
+						: new AutoException(ExceptionSets.SETNAMENOTFOUND, setName);
+
+			int opIndex = auto.findOpInSet(setIndex, opName);
+			if (opIndex == -1)
+				throw silent ? AutoException.shared(ExceptionSets.OPTIONNAMENOTFOUND)
+						: new AutoException(ExceptionSets.OPTIONNAMENOTFOUND, opName);
+
+			choices[setIndex] = (short) opIndex;
+			return true;
+		}
+		catch(AutoException a) {
+			// In SILENT mode the error is only counted.
+			if (silent) return false;
+			
+			// The session is not fixed interactively, the choice is just refused.
+			a.printException(a.getErrNum());
+			a.log();
+			return false;
+		}
+	}
+
+	/**
+	 * Get the name of the option chosen for a certain option set.
+	 * @param setName the option set name.
+	 * @return the option name, null if nothing is chosen for the set.
+	 */
+	public String getOpChoice(String setName) {
+		touch();
+		int setIndex = auto.findOpSetByName(setName);
+		if (setIndex == -1 || setIndex >= choices.length) return null;
+		return auto.getOpName(setIndex, choices[setIndex]);
+	}
+
+	/**
+	 * Get the total price of the car as configured in this session.
+	 * @return the total price.
+	 */
+	public float getTotalPrice() {
+		return Price.toDollars(getTotalPriceCents());
+	}
+
+	/**
+	 * Get the total price in cents of the car as configured in this session.
+	 * @return the total price in cents.
+	 */
+	public long getTotalPriceCents() {
+		touch();
+		return auto.getTotalPriceCents(choices);
+	}
+
+	/**
+	 * Print out the car as configured in this session.
+	 */
+	public void printConfig() {
+		touch();
+		auto.printConfig(choices);
+	}
+
+}
@@ -0,0 +1,81 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class maps the symbol ids of names (see Symbols) to the index of the
+ * first option set or option with that name. It is an open-addressing hash
+ * table of ints, so a lookup compares ints and boxes nothing.
+ * It is not thread safe; its owner guards it.
+ * @author ShuqinYe
+ *
+ */
+class IdIndex {
+
+	private static final int EMPTY = -1;
+
+	private int[] keys; // Symbol ids, EMPTY for a free slot.
+	private int[] values; // Indexes.
+	private int size;
+
+
+	/**
+	 * Construct an empty index.
+	 */
+	IdIndex() {
+		keys = new int[8];
+		values = new int[8];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * Get the index of a name.
+	 * @param id the symbol id of the name, can be -1.
+	 * @return the index, -1 if the name is not in the index.
+	 */
+	int get(int id) {
+		if (id < 0) return -1;
+		int mask = keys.length - 1;
+		for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+			if (keys[i] == id) return values[i];
+			if (keys[i] == EMPTY) return -1;
+		}
+	}
+
+	/**
+	 * Add the index of a name, unless the name has an index already.
+	 * @param id the symbol id of the name.
+	 * @param index the index.
+	 */
+	void putIfAbsent(int id, int index) {
+		if ((size + 1) * 4 > keys.length * 3) grow();
+		int mask = keys.length - 1;
+		for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+			if (keys[i] == id) return;
+			if (keys[i] == EMPTY) {
+				keys[i] = id;
+				values[i] = index;
+				++size;
+				return;
+			}
+		}
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; ++i)
+			if (oldKeys[i] != EMPTY) putIfAbsent(oldKeys[i], oldValues[i]);
+	}
+
+	private static int hash(int id) {
+		// Ids are dense, spread them over the table.
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -1,33 +1,52 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * This class represents the possible option a car can have within a specific
- * OptionSet(property).
+ * OptionSet(property). An OptionSet keeps its options in columns of name
+ * ids, and an Option is a copy of one of them: it holds its name as a
+ * String, so it keeps its name whatever happens to the id in Symbols.
  * @author ShuqinYe
  *
  */
 public class Option implements Serializable {
 	
-	private String name; // Name of the option.
-	private float price; // Price of the option.
+	// Serialized as the name and the price in cents.
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("name", String.class),
+		new ObjectStreamField("priceCents", long.class)
+	};
+	
+	// Spaces to pad names and headings with, appended in one call.
+	static final char[] SPACES = new char[46];
+	static {
+		Arrays.fill(SPACES, ' ');
+	}
+	
+	private transient String name; // Name of the option.
+	private long priceCents; // Price of the option, in cents.
 	
 	/**
 	 * Default constructor without formal parameters.
 	 */
 	protected Option() {
-		this("noNameYet", 0);
+		this("noNameYet", 0L);
 	}
 	
 	/**
 	 * Constructor for option
 	 * @param name option name
-	 * @param price price
+	 * @param priceCents price in cents
 	 */
-	protected Option(String name, float price) {
+	protected Option(String name, long priceCents) {
 		this.name = name;
-		this.price = price;
+		this.priceCents = priceCents;
 	}
 	
 	
@@ -36,7 +55,11 @@ public class Option implements Serializable {
 	}
 	
 	protected float getPrice() {
-		return price;
+		return Price.toDollars(priceCents);
+	}
+	
+	protected long getPriceCents() {
+		return priceCents;
 	}
 	
 	protected void setName(String name) {
@@ -44,7 +67,11 @@ public class Option implements Serializable {
 	}
 	
 	protected void setPrice(float price) {
-		this.price = price;
+		this.priceCents = Price.toCents(price);
+	}
+	
+	protected void setPriceCents(long priceCents) {
+		this.priceCents = priceCents;
 	}
 	
 	/**
@@ -52,15 +79,44 @@ public class Option implements Serializable {
 	 * @return a String that describes the option.
 	 */
 	protected String getOption() {
-		StringBuffer str = new StringBuffer();
+		StringBuilder str = new StringBuilder();
+		appendOption(str, getName(), getPrice());
+		return str.toString();
+	}
+	
+	/**
+	 * Append the line describing an option.
+	 * @param str the text to append to.
+	 * @param name the option name.
+	 * @param price the option price.
+	 */
+	static void appendOption(StringBuilder str, String name, float price) {
 		str.append(name);
-		int i = 46 - str.length();
-		for (int c = 0; c < i; ++c) str.append(" ");
+		if (name.length() < SPACES.length) str.append(SPACES, 0, SPACES.length - name.length());
 		
 		str.append(price);
 		str.append("\n");
-		
-		return str.toString();
+	}
+	
+	
+	/**
+	 * Write the name and the price.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("name", getName());
+		fields.put("priceCents", priceCents);
+		out.writeFields();
+	}
+	
+	/**
+	 * Read the name and the price back.
+	 */
+	private void readObject(ObjectInputStream in) 
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		name = (String) fields.get("name", null);
+		priceCents = fields.get("priceCents", 0L);
 	}
 	
 }
@@ -1,22 +1,59 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 
-import exceptions.AutoException;
-import exceptions.ExceptionSets;
+import fixerrors.NameIndex;
 /**
  * This class is an option set of an automobile, containing all options available.
+ * The names of the set and of its options are kept as their ids in Symbols,
+ * so options are found by name with int compares.
+ * The options are stored in columns, a primitive array of name ids and one
+ * of prices in cents, instead of one Option object each; the chosen option
+ * is kept as its index. The Option objects handed out are copies of a row.
  * @author ShuqinYe
  *
  */
 
 public class OptionSet implements Serializable {
 
-	private String name; // The name of the car property.
-	private ArrayList<Option> options; // The possible options of the property (OptionSet).
+	// Serialized as the name, the options and the option chosen.
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("name", String.class),
+		new ObjectStreamField("options", ArrayList.class),
+		new ObjectStreamField("opChoice", Option.class)
+	};
 	
-	private Option opChoice; // The option chosen by the user.
+	// Option sets up to this size are searched by name without an index.
+	private static final int SCAN_LIMIT = 16;
+	
+	private transient int nameId; // Symbol id of the name of the car property.
+	
+	// The possible options of the property (OptionSet), by column.
+	private transient int size; // The number of options.
+	private transient int[] opNameIds; // Symbol ids of the option names.
+	private transient long[] opPrices; // Option prices in cents.
+	
+	private transient int opChoice; // Index of the option chosen by the user, -1 if none.
+	
+	// The number of changes of the options, counted up after each change. The
+	// indexes below are built by readers, which may overlap a change, so an
+	// index is used only while the count is the one it was built at.
+	private transient volatile int changes;
+	
+	// Option name id -> index of the first option with that name, built for
+	// large option sets the first time an option is found by name.
+	private transient volatile Built<IdIndex> nameIndex;
+	// Option indexes sorted by price, then index; built the first time an
+	// option is found by price.
+	private transient volatile Built<int[]> priceOrder;
+	// Option names by edit distance, built the first time a name is misspelled.
+	private transient volatile Built<NameIndex> fuzzyIndex;
 	
 	
 	/**
@@ -32,11 +69,12 @@ public class OptionSet implements Serializable {
 	 * @param name the name of the OptionSet.
 	 */
 	protected OptionSet(String name) {
-		this.name = name;		
+		this.nameId = Symbols.intern(name);
 		
-		// Initialize the ArrayList of options.
-		options = new ArrayList<Option>();
-
+		// Initialize the empty columns of options.
+		opNameIds = new int[4];
+		opPrices = new long[4];
+		opChoice = -1;
 	}
 	
 	/**
@@ -44,59 +82,84 @@ public class OptionSet implements Serializable {
 	 * @return the name of the OptionSet.
 	 */
 	protected String getName() {
-		return name;
+		return Symbols.name(nameId);
+	}
+	
+	/**
+	 * Get the symbol id of the OptionSet name.
+	 * @return the id of the name.
+	 */
+	protected int getNameId() {
+		return nameId;
 	}
 	
 	/**
 	 * Gets the whole OptionSet with an array of Options.
-	 * @return the OptionSet with all options.
+	 * @return copies of all options.
 	 */
 	protected ArrayList<Option> getAllOptions() {
+		ArrayList<Option> options = new ArrayList<Option>(size);
+		for (int i = 0; i < size; ++i) options.add(getOpByIndex(i));
 		return options;
 	}
 	
+	/**
+	 * Copy the OptionSet, with its options and the option chosen.
+	 * @return the copy.
+	 */
+	protected OptionSet copy() {
+		OptionSet copy = new OptionSet(getName());
+		for (int i = 0; i < size; ++i) copy.addOpCents(getOpName(i), opPrices[i]);
+		copy.opChoice = opChoice;
+		return copy;
+	}
+	
+	/**
+	 * Get the number of options.
+	 * @return the number of options.
+	 */
+	protected int getOpCount() {
+		return size;
+	}
+	
 	/**
 	 * Get an option with a certain index.
 	 * @param opIndex the index of the option that needs to be found.
-	 * @return the Option with an index of opIndex.
+	 * @return a copy of the Option with an index of opIndex.
 	 */
 	protected Option getOpByIndex(int opIndex) {
-		return options.get(opIndex);
+		checkIndex(opIndex);
+		return new Option(Symbols.name(opNameIds[opIndex]), opPrices[opIndex]);
+	}
+	
+	/**
+	 * Get the name of the option at a certain index.
+	 * @param opIndex the option index.
+	 * @return the option name.
+	 */
+	protected String getOpName(int opIndex) {
+		checkIndex(opIndex);
+		return Symbols.name(opNameIds[opIndex]);
+	}
+	
+	/**
+	 * Get the price in cents of the option at a certain index.
+	 * @param opIndex the option index.
+	 * @return the option price in cents.
+	 */
+	protected long getOpPriceCents(int opIndex) {
+		checkIndex(opIndex);
+		return opPrices[opIndex];
 	}
 	
 	/**
 	 * Find an option with a certain name.
 	 * @param name the name of the Option that needs to be found.
-	 * @return the Option with a certain name.
+	 * @return a copy of the Option with a certain name, null if not found.
 	 */
 	protected Option getOpByName(String name) {
 		int i = findOpByName(name);
-		try {
-			if (i == -1) throw new AutoException(ExceptionSets.OPTIONNAMENOTFOUND);
-			
-		}
-		catch(AutoException a) {
-			int errNum = a.getErrNum();
-			
-			// Print the error message
-			a.printException(errNum);
-			
-			// Output the log into a file called log.txt.
-			a.log();
-			
-			// Assign the new setName
-			while(true) {
-				name = a.fix(errNum);
-				i = findOpByName(name);
-				if (i != -1) break;
-				
-				// Print the error message
-				a.printException(errNum);
-				// Output the log into a file called log.txt.
-				a.log();
-			}
-		}
-		return options.get(i);
+		return i != -1 ? getOpByIndex(i) : null;
 	}
 	
 	/**
@@ -105,9 +168,38 @@ public class OptionSet implements Serializable {
 	 * @return -1 if the option is not found, returns the index if found.
 	 */
 	protected int findOpByName(String name) {
-		int i = 0;
-		while (i < options.size() && !options.get(i).getName().equals(name)) ++i;
-		return i < options.size() ? i : -1;
+		int id = Symbols.find(name);
+		if (id == -1) return -1;
+		if (size > SCAN_LIMIT) {
+			IdIndex index = current(nameIndex);
+			if (index == null) {
+				int seen = changes;
+				index = new IdIndex();
+				for (int i = 0; i < size; ++i) index.putIfAbsent(opNameIds[i], i);
+				nameIndex = new Built<IdIndex>(seen, index);
+			}
+			return index.get(id);
+		}
+		for (int i = 0; i < size; ++i)
+			if (opNameIds[i] == id) return i;
+		return -1;
+	}
+	
+	/**
+	 * Find the index of the option whose name is closest to a misspelled name.
+	 * @param name the misspelled name.
+	 * @return -1 if no option name is close enough, returns the index otherwise.
+	 */
+	protected int findClosestOp(String name) {
+		NameIndex index = current(fuzzyIndex);
+		if (index == null) {
+			int seen = changes;
+			index = new NameIndex();
+			for (int i = 0; i < size; ++i) index.add(Symbols.name(opNameIds[i]));
+			fuzzyIndex = new Built<NameIndex>(seen, index);
+		}
+		String closest = index.closest(name);
+		return closest != null ? findOpByName(closest) : -1;
 	}
 	
 	/**
@@ -116,9 +208,41 @@ public class OptionSet implements Serializable {
 	 * @return -1 if not found, returns the index if found.
 	 */
 	protected int findOpByPrice(float price) {
-		int i = 0;
-		while (i < options.size() && options.get(i).getPrice() != price) ++i;
-		return i < options.size() ? i : -1;
+		return findOpByPriceCents(Price.toCents(price));
+	}
+	
+	/**
+	 * Find the index of an option of a certain price in cents.
+	 * @param priceCents the price of the option to be found, in cents.
+	 * @return -1 if not found, returns the index if found.
+	 */
+	protected int findOpByPriceCents(long priceCents) {
+		int[] order = priceOrder();
+		
+		// The first option of the price in the order has the lowest index.
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (opPrices[order[mid]] < priceCents) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo < size && opPrices[order[lo]] == priceCents ? order[lo] : -1;
+	}
+	
+	/**
+	 * Find the index of the cheapest option.
+	 * @return -1 if the option set is empty, returns the index otherwise.
+	 */
+	protected int findCheapestOp() {
+		return size == 0 ? -1 : priceOrder()[0];
+	}
+	
+	/**
+	 * Find the index of the most expensive option.
+	 * @return -1 if the option set is empty, returns the index otherwise.
+	 */
+	protected int findMostExpensiveOp() {
+		return size == 0 ? -1 : findOpByPriceCents(opPrices[priceOrder()[size - 1]]);
 	}
 	
 	
@@ -127,7 +251,9 @@ public class OptionSet implements Serializable {
 	 * @param name the name of the OptionSet we need to set to.
 	 */
 	protected void setName(String name) {
-		this.name = name;
+		int old = nameId;
+		this.nameId = Symbols.intern(name);
+		Symbols.release(old);
 	}
 	
 	/**
@@ -136,8 +262,33 @@ public class OptionSet implements Serializable {
 	 * @param opIndex the index in the OptionSet the option needs to updated.
 	 */
 	protected void setOp(int opIndex, String opName, float price) {
-		options.get(opIndex).setName(opName);
-		options.get(opIndex).setPrice(price);
+		checkIndex(opIndex);
+		int old = opNameIds[opIndex];
+		opNameIds[opIndex] = Symbols.intern(opName);
+		Symbols.release(old);
+		opPrices[opIndex] = Price.toCents(price);
+		++changes;
+	}
+	
+	/**
+	 * Update the price of the option at a certain index.
+	 * @param opIndex the index of the option.
+	 * @param price the new price.
+	 */
+	protected void setOpPrice(int opIndex, float price) {
+		setOpPriceCents(opIndex, Price.toCents(price));
+	}
+	
+	/**
+	 * Update the price in cents of the option at a certain index.
+	 * @param opIndex the index of the option.
+	 * @param priceCents the new price in cents.
+	 */
+	protected void setOpPriceCents(int opIndex, long priceCents) {
+		checkIndex(opIndex);
+		if (opPrices[opIndex] == priceCents) return;
+		opPrices[opIndex] = priceCents;
+		++changes;
 	}
 	
 	
@@ -147,8 +298,24 @@ public class OptionSet implements Serializable {
 	 * @param price price of the option name.
 	 */
 	protected void addOp(String opName, float price) {
-		Option option = new Option(opName, price);
-		options.add(option);
+		addOpCents(opName, Price.toCents(price));
+	}
+	
+	/**
+	 * Add one option to the option set.
+	 * @param opName the name of the option.
+	 * @param priceCents price of the option in cents.
+	 */
+	protected void addOpCents(String opName, long priceCents) {
+		if (size == opNameIds.length) {
+			opNameIds = Arrays.copyOf(opNameIds, Math.max(4, size * 2));
+			opPrices = Arrays.copyOf(opPrices, Math.max(4, size * 2));
+		}
+		int id = Symbols.intern(opName);
+		opNameIds[size] = id;
+		opPrices[size] = priceCents;
+		++size;
+		++changes;
 	}
 	
 	/**
@@ -156,43 +323,26 @@ public class OptionSet implements Serializable {
 	 * @param opIndex the index of the option to be deleted.
 	 */
 	protected void deleteOpByIndex(int opIndex) {
-		options.remove(opIndex);
+		checkIndex(opIndex);
+		Symbols.release(opNameIds[opIndex]);
+		System.arraycopy(opNameIds, opIndex + 1, opNameIds, opIndex, size - opIndex - 1);
+		System.arraycopy(opPrices, opIndex + 1, opPrices, opIndex, size - opIndex - 1);
+		--size;
+		
+		// A deleted option can no longer be the user's choice, and the
+		// options after it have shifted down by one.
+		if (opChoice == opIndex) opChoice = -1;
+		else if (opChoice > opIndex) --opChoice;
+		++changes;
 	}
 	
 	/**
-	 * Delete the option that has a certain name.
-	 * @param name the name of the option to be deleted.
+	 * Drop the room kept for more options, once the option set is built.
 	 */
-	protected void deleteOpByName(String name) {
-		
-		int i = findOpByName(name);
-		try {
-			// If the name of the option is not found.
-			if (i == -1) throw new AutoException(ExceptionSets.OPTIONNAMENOTFOUND);
-			
-		}
-		catch(AutoException a) {
-			int errNum = a.getErrNum();
-			
-			// Print the error message
-			a.printException(errNum);
-			
-			// Output the log into a file called log.txt.
-			a.log();
-			
-			// Assign the new setName
-			while(true) {
-				name = a.fix(errNum);
-				i = findOpByName(name);
-				if (i != -1) break;
-				
-				// Print the error message
-				a.printException(errNum);
-				// Output the log into a file called log.txt.
-				a.log();
-			}
-		}
-		options.remove(i);
+	protected void trim() {
+		if (opNameIds.length == size) return;
+		opNameIds = Arrays.copyOf(opNameIds, size);
+		opPrices = Arrays.copyOf(opPrices, size);
 	}
 	
 	/**
@@ -200,40 +350,170 @@ public class OptionSet implements Serializable {
 	 * @return a String representation of the OptionSet.
 	 */
 	protected String getOpSet() {
-		StringBuffer str = new StringBuffer();
+		StringBuilder str = new StringBuilder();
+		appendOpSet(str);
+		return str.toString();
+	}
+	
+	/**
+	 * Append the name and options of the OptionSet, as getOpSet() returns them.
+	 * @param str the text to append to.
+	 */
+	void appendOpSet(StringBuilder str) {
+		appendHeader(str, getName());
+		
+		for (int i = 0; i < size; ++i) {
+			Option.appendOption(str, Symbols.name(opNameIds[i]), Price.toDollars(opPrices[i]));
+		}
+	
+		str.append("\n");
+	}
+	
+	
+	/**
+	 * Append the heading of the list of options of an option set.
+	 * @param str the text to append to.
+	 * @param name the option set name.
+	 */
+	static void appendHeader(StringBuilder str, String name) {
 		str.append("You can choose the following options and prices for ");
 		str.append(name);
 		str.append(":\n");
 		str.append("Option");
 		
 		// Insert 40 spaces to separate the options and prices.
-		for (int i = 0; i < 40; ++i) str.append(" ");
-
-		str.append("Price($)\n");
+		str.append(Option.SPACES, 0, 40);
 		
-		for (int i = 0; i < options.size(); ++i) {
-			str.append(options.get(i).getOption());
-		}
-		
-		str.append("\n");
-		return str.toString();
+		str.append("Price($)\n");
 	}
 	
 	
 	// The below methods are used when user wants to configure their own auto options.
 	/**
 	 * Get the option chosen by the user.
-	 * @return the Option chosen by the user.
+	 * @return a copy of the Option chosen by the user, null if none.
 	 */
 	protected Option getOpChoice() {
+		return opChoice == -1 ? null : getOpByIndex(opChoice);
+	}
+	
+	/**
+	 * Get the index of the option chosen by the user.
+	 * @return the option index, -1 if no option is chosen.
+	 */
+	protected int getOpChoiceIndex() {
 		return opChoice;
 	}
 	
 	/**
 	 * Set the option chosen by the user.
+	 * @param opIndex the index of the option.
+	 */
+	protected void setOpChoice(int opIndex) {
+		checkIndex(opIndex);
+		opChoice = opIndex;
+	}
+	
+	/**
+	 * Get the price of the option chosen by the user.
+	 * @return the price in cents, 0 if no option is chosen.
 	 */
-	protected void setOpChoice(String opName) {
-		opChoice = getOpByName(opName);
+	protected long getOpChoiceCents() {
+		return opChoice == -1 ? 0 : opPrices[opChoice];
+	}
+	
+	
+	// The below methods maintain the columns and the price index of the options.
+	
+	/**
+	 * Check that an index names an option, as a list would.
+	 * @param opIndex the option index.
+	 */
+	private void checkIndex(int opIndex) {
+		if (opIndex < 0 || opIndex >= size)
+			throw new IndexOutOfBoundsException("Index: " + opIndex + ", Size: " + size);
+	}
+	
+	/**
+	 * Get the option indexes sorted by price, then index, building them if
+	 * an option changed. Readers may build them at the same time.
+	 * @return the sorted indexes.
+	 */
+	private int[] priceOrder() {
+		int[] sorted = current(priceOrder);
+		if (sorted == null) {
+			int seen = changes;
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; ++i) order[i] = i;
+			Arrays.sort(order, (a, b) -> opPrices[a] != opPrices[b]
+					? Long.compare(opPrices[a], opPrices[b]) : Integer.compare(a, b));
+			sorted = new int[size];
+			for (int i = 0; i < size; ++i) sorted[i] = order[i];
+			priceOrder = new Built<int[]>(seen, sorted);
+		}
+		return sorted;
+	}
+	
+	/**
+	 * Get an index if no option changed since it was built.
+	 * @param built the index and the number of changes it was built at.
+	 * @return the index, null if there is none or it is out of date.
+	 */
+	private <T> T current(Built<T> built) {
+		return built != null && built.changes == changes ? built.index : null;
+	}
+	
+	/**
+	 * An index built by a reader, with the number of changes of the options 
+	 * read before building it. A change during the build counts up past it,
+	 * so an index built from half of a change is never used.
+	 */
+	private static final class Built<T> {
+		
+		private final int changes;
+		private final T index;
+		
+		private Built(int changes, T index) {
+			this.changes = changes;
+			this.index = index;
+		}
+	}
+	
+	/**
+	 * Write the options as a list of Options and the name as a String, as
+	 * they were stored before the columns; ids differ from one run to the
+	 * next.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ArrayList<Option> options = getAllOptions();
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("name", getName());
+		fields.put("options", options);
+		fields.put("opChoice", opChoice == -1 ? null : options.get(opChoice));
+		out.writeFields();
+	}
+	
+	/**
+	 * Intern the name read back, and store the options in columns.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		nameId = Symbols.intern((String) fields.get("name", null));
+		ArrayList<Option> options = (ArrayList<Option>) fields.get("options", null);
+		Option choice = (Option) fields.get("opChoice", null);
+		
+		size = options.size();
+		opNameIds = new int[Math.max(size, 1)];
+		opPrices = new long[Math.max(size, 1)];
+		opChoice = -1;
+		for (int i = 0; i < size; ++i) {
+			Option option = options.get(i);
+			opNameIds[i] = Symbols.intern(option.getName());
+			opPrices[i] = option.getPriceCents();
+			if (option == choice) opChoice = i;
+		}
 	}
 
 }
@@ -0,0 +1,32 @@
+package model;
+
+/**
+ * This class converts between prices in dollars, as shown to the user, and 
+ * prices in cents, as stored by Option, OptionSet and Automobile. Storing 
+ * whole cents in a long keeps totals exact however many prices are added up.
+ * @author ShuqinYe
+ *
+ */
+public final class Price {
+
+	private Price() {}
+
+	/**
+	 * Convert a price in dollars to cents, rounding to the nearest cent.
+	 * @param dollars the price in dollars.
+	 * @return the price in cents.
+	 */
+	public static long toCents(float dollars) {
+		return Math.round((double) dollars * 100);
+	}
+
+	/**
+	 * Convert a price in cents to dollars.
+	 * @param cents the price in cents.
+	 * @return the price in dollars.
+	 */
+	public static float toDollars(long cents) {
+		return cents / 100f;
+	}
+
+}
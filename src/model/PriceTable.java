@@ -0,0 +1,146 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class prices many configurations of one car in a single call. The
+ * prices of the car are copied once into one flat array of cents, with an
+ * extra slot of price 0 before the options of each option set for "no option
+ * chosen". Pricing a configuration is then one array read per option set,
+ * with no lock and no allocation. Large batches are split across a
+ * ForkJoinPool.
+ * The table is a copy: updates of the car after it was built are not seen.
+ * @author ShuqinYe
+ *
+ */
+public class PriceTable {
+
+	// Number of configurations priced by one task.
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	private final long basePriceCents; // The car model's base price, in cents.
+	private final long[] prices; // Price in cents of every slot, set by set.
+	private final int[] offset; // Slot of the first option of each set.
+	private final int[] opCount; // Number of options of each set.
+
+
+	/**
+	 * Build the price table of a car, from one consistent copy of it.
+	 * @param auto the car.
+	 */
+	public PriceTable(Automobile auto) {
+		this(auto.toTable());
+	}
+
+	/**
+	 * Build the price table of a car.
+	 * @param table the flat copy of the car.
+	 */
+	public PriceTable(AutoTable table) {
+		int sets = table.getOpSetCount();
+		basePriceCents = table.getBasePriceCents();
+		prices = new long[table.getTotalOpCount() + sets];
+		offset = new int[sets];
+		opCount = new int[sets];
+
+		for (int s = 0; s < sets; ++s) {
+			// Slot offset[s] - 1 stays 0, the price of choice -1.
+			offset[s] = table.getOpStart(s) + s + 1;
+			opCount[s] = table.getOpCount(s);
+			for (int o = 0; o < opCount[s]; ++o)
+				prices[offset[s] + o] = table.getOpPriceCents(table.getOpStart(s) + o);
+		}
+	}
+
+	/**
+	 * Get the number of option sets, which is the length of one configuration.
+	 * @return the number of option sets.
+	 */
+	public int getOpSetCount() {
+		return offset.length;
+	}
+
+	/**
+	 * Price a batch of configurations, in parallel on the common pool.
+	 * @param choices the configurations packed one after the other, each
+	 * holding one option index per option set (-1 for no choice).
+	 * @param count the number of configurations.
+	 * @return the total price in cents of each configuration.
+	 */
+	public long[] price(short[] choices, int count) {
+		long[] totals = new long[count];
+		price(choices, totals, count, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+		return totals;
+	}
+
+	/**
+	 * Price a batch of configurations into an existing array.
+	 * @param choices the configurations packed one after the other.
+	 * @param totals receives the total price in cents of each configuration.
+	 * @param count the number of configurations.
+	 * @param pool the pool the batch is priced on, null to price it on the
+	 * calling thread.
+	 * @param chunkSize the number of configurations priced by one task.
+	 */
+	public void price(short[] choices, long[] totals, int count,
+			ForkJoinPool pool, int chunkSize) {
+		if (count < 0 || (long) count * offset.length > choices.length || count > totals.length)
+			throw new IllegalArgumentException("Batch of " + count
+					+ " configurations does not fit the arrays");
+
+		if (pool == null || count <= chunkSize) priceRange(choices, totals, 0, count);
+		else pool.invoke(task(choices, totals, 0, count, Math.max(1, chunkSize)));
+	}
+
+	/**
+	 * Price the configurations in a range on the calling thread.
+	 * @param choices the configurations packed one after the other.
+	 * @param totals receives the total price in cents of each configuration.
+	 * @param from the first configuration.
+	 * @param to the configuration after the last one.
+	 */
+	public void priceRange(short[] choices, long[] totals, int from, int to) {
+		int sets = offset.length;
+
+		for (int c = from, p = from * sets; c < to; ++c) {
+			long total = basePriceCents;
+			for (int s = 0; s < sets; ++s, ++p) {
+				int choice = choices[p];
+				// A choice out of range would read the slot of another set.
+				if (choice < -1 || choice >= opCount[s]) throw badChoice(c, s, choice);
+				total += prices[offset[s] + choice];
+			}
+			totals[c] = total;
+		}
+	}
+
+	/**
+	 * Create the task pricing a range of configurations. The range is split in
+	 * halves until it fits in one chunk, so idle threads can steal halves.
+	 */
+	private RecursiveAction task(final short[] choices, final long[] totals,
+			final int from, final int to, final int chunkSize) {
+		return new RecursiveAction() {
+			@Override
+			protected void compute() {
+				if (to - from <= chunkSize) {
+					priceRange(choices, totals, from, to);
+					return;
+				}
+				int mid = (from + to) >>> 1;
+				invokeAll(task(choices, totals, from, mid, chunkSize),
+						task(choices, totals, mid, to, chunkSize));
+			}
+		};
+	}
+
+	/**
+	 * Create the exception for a choice that does not name an option of its set.
+	 */
+	private static IllegalArgumentException badChoice(int c, int s, int choice) {
+		return new IllegalArgumentException("Configuration " + c
+				+ " chooses option " + choice + " of option set " + s);
+	}
+
+}
@@ -0,0 +1,193 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is the symbol table of the option set and option names of the
+ * whole catalog. Each distinct name is kept once and given an int id, so the
+ * many options named "None" or "Standard" across the catalog hold the same
+ * id instead of a String each, and names are compared as ints.
+ * A lookup by a name never seen, such as a misspelled name in an update,
+ * does not add it. Each id counts the option sets holding it, as their name
+ * or the name of one of their options; the Options handed out by an option
+ * set are copies holding their name as a String, not an id.
+ * Renaming an option set or an option, or deleting an option, releases the
+ * old name: a name no longer held is removed and its id given to the next
+ * new name, so renaming the same option again and again does not grow the
+ * table. The names of a deleted option set are kept, as the set may still
+ * be held elsewhere.
+ * Names are interned when an OptionSet is made, gets an option or is read
+ * back from a serialized Automobile, whichever parser read them.
+ * @author ShuqinYe
+ *
+ */
+public final class Symbols {
+
+	// Name -> id.
+	private static final ConcurrentHashMap<String, Integer> ids =
+			new ConcurrentHashMap<String, Integer>();
+
+	// Id -> name, and id -> holders of the id: 0 while the id is being freed
+	// and -1 once it is free. Written under the lock of the class before the
+	// id is published in ids; the counters are also changed without the lock.
+	private static volatile String[] names = new String[1024];
+	private static volatile AtomicInteger[] counts = new AtomicInteger[1024];
+	private static int size;
+
+	// Freed ids, given to new names first. Guarded by the class.
+	private static int[] free = new int[16];
+	private static int freeCount;
+
+	// Counters.
+	private static final LongAdder references = new LongAdder();
+	private static final LongAdder bytesSaved = new LongAdder();
+
+
+	private Symbols() {
+	}
+
+	/**
+	 * Get the id of a name, adding the name if it is new. The caller holds
+	 * the id until it releases it.
+	 * @param name the name.
+	 * @return the id.
+	 */
+	public static int intern(String name) {
+		references.increment();
+		Integer id = ids.get(name);
+		if (id != null && acquire(id, name)) {
+			// A copy of the name the caller can now drop.
+			if (names[id] != name) bytesSaved.add(stringSize(name));
+			return id;
+		}
+
+		synchronized(Symbols.class) {
+			id = ids.get(name);
+			if (id != null) {
+				// Held again before it was freed.
+				counts[id].incrementAndGet();
+				return id;
+			}
+			int next;
+			if (freeCount > 0) next = free[--freeCount];
+			else {
+				if (size == names.length) {
+					names = Arrays.copyOf(names, size * 2);
+					counts = Arrays.copyOf(counts, size * 2);
+				}
+				counts[size] = new AtomicInteger(-1);
+				next = size++;
+			}
+			names[next] = name;
+			counts[next].set(1);
+			ids.put(name, next);
+			return next;
+		}
+	}
+
+	/**
+	 * Release an id got from intern(), e.g. when the option holding it is
+	 * renamed or deleted. The name is removed once no one holds it.
+	 * @param id the id.
+	 */
+	public static void release(int id) {
+		AtomicInteger count = counts[id];
+		if (count.decrementAndGet() != 0) return;
+
+		synchronized(Symbols.class) {
+			// Unless the name was interned again meanwhile.
+			if (!count.compareAndSet(0, -1)) return;
+			ids.remove(names[id]);
+			names[id] = null;
+			if (freeCount == free.length) free = Arrays.copyOf(free, freeCount * 2);
+			free[freeCount++] = id;
+		}
+	}
+
+	/**
+	 * Get the id of a name, without adding it.
+	 * @param name the name.
+	 * @return the id, -1 if the name was never interned.
+	 */
+	public static int find(String name) {
+		if (name == null) return -1;
+		Integer id = ids.get(name);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Get the name of an id.
+	 * @param id the id.
+	 * @return the name, null if the id is free.
+	 */
+	public static String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Get the number of distinct names.
+	 * @return the number of names.
+	 */
+	public static int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Get the number of names interned, counting repeats.
+	 * @return the number of names.
+	 */
+	public static long getReferences() {
+		return references.sum();
+	}
+
+	/**
+	 * Get an estimate of the heap saved by not keeping a String for each
+	 * repeated name: the size of the Strings that were interned again.
+	 * @return the size in bytes.
+	 */
+	public static long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	/**
+	 * Describe the symbol table.
+	 * @return the number of names and the memory saved.
+	 */
+	public static String report() {
+		return String.format("%d names for %d references, about %d KB saved",
+				size(), getReferences(), getBytesSaved() / 1024);
+	}
+
+	/**
+	 * Count one more holder of an id found without the lock. The id may
+	 * have been freed, or freed and given to another name, since it was
+	 * found: then intern() takes the lock.
+	 * @return true if the id is held for the name.
+	 */
+	private static boolean acquire(int id, String name) {
+		AtomicInteger count = counts[id];
+		for (int c = count.get(); c > 0; c = count.get()) {
+			if (!count.compareAndSet(c, c + 1)) continue;
+			if (name.equals(names[id])) return true;
+			release(id);
+			return false;
+		}
+		return false;
+	}
+
+	/**
+	 * Estimate the heap size of a String: its object and its array of chars,
+	 * stored as one byte each when they fit (compact strings), on a 64-bit VM
+	 * with compressed pointers.
+	 */
+	private static long stringSize(String s) {
+		boolean latin1 = true;
+		for (int i = 0; i < s.length() && latin1; ++i) latin1 = s.charAt(i) < 256;
+		long bytes = (long) s.length() * (latin1 ? 1 : 2);
+		return 24 + ((16 + bytes + 7) & ~7L);
+	}
+
+}
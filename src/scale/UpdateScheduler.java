@@ -0,0 +1,381 @@
+package scale;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import adapter.ProxyAutomobile;
+
+/**
+ * This class runs updates of cars on a shared pool of threads instead of a
+ * thread per update. Each car has its own queue: the updates of one car run
+ * one at a time in the order they were submitted, while the updates of
+ * different cars run in parallel. The queue of a car is removed once it is
+ * empty, so only the cars with pending updates hold one.
+ * A price update that is still queued is replaced by a later price update of
+ * the same option, as long as only price updates were queued in between:
+ * only the last price is written, and both callers get the same future.
+ * A caller that submits to a car whose queue is full waits until the queue
+ * has room, so a storm of updates slows its senders down instead of growing
+ * the queues without end. Coalesced updates do not take room in the queue.
+ * Every update returns a future holding false if the car or a name was not
+ * found. Updates should not use the PROMPT fix mode, which would hold a pool
+ * thread while waiting for the console.
+ * @author ShuqinYe
+ *
+ */
+public class UpdateScheduler {
+
+	public static final int DEFAULT_MAX_PENDING = 1024;
+
+	// Updates of one car run before its queue goes back to the pool.
+	private static final int BATCH = 64;
+
+	private final ProxyAutomobile autos;
+	private final Executor pool;
+	private final int maxPending; // Updates queued per car before callers wait.
+
+	// Car name -> its queue.
+	private final ConcurrentHashMap<String, CarQueue> queues =
+			new ConcurrentHashMap<String, CarQueue>();
+
+	private volatile boolean shutdown;
+
+	// Counters.
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder applied = new LongAdder();
+	private final LongAdder waits = new LongAdder();
+
+
+	/**
+	 * Construct a scheduler running on the common pool.
+	 * @param autos the cars to update.
+	 */
+	public UpdateScheduler(ProxyAutomobile autos) {
+		this(autos, ForkJoinPool.commonPool(), DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	 * Construct a scheduler.
+	 * @param autos the cars to update.
+	 * @param pool the threads running the updates.
+	 * @param maxPending the number of updates queued per car before callers
+	 * wait.
+	 */
+	public UpdateScheduler(ProxyAutomobile autos, Executor pool, int maxPending) {
+		if (maxPending < 1) throw new IllegalArgumentException("maxPending " + maxPending);
+		this.autos = autos;
+		this.pool = pool;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Update option set name.
+	 * @return the future result, false if the car or the option set is not found.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * for room in the queue.
+	 */
+	public CompletableFuture<Boolean> updateOptionSetName(String name, String setName,
+			String newName) throws InterruptedException {
+		return submit(name, null, new Update(
+				() -> autos.updateOptionSetName(name, setName, newName)));
+	}
+
+	/**
+	 * Update option price. Coalesced with a queued price update of the same
+	 * option.
+	 * @return the future result, false if the car, the option set or the
+	 * option is not found.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * for room in the queue.
+	 */
+	public CompletableFuture<Boolean> updateOptionPrice(String name, String setName,
+			String opName, float newPrice) throws InterruptedException {
+		return submit(name, new PriceUpdate(name, setName, opName, newPrice), null);
+	}
+
+	/**
+	 * Set the option for a car.
+	 * @return the future result, false if the car, the option set or the
+	 * option is not found.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * for room in the queue.
+	 */
+	public CompletableFuture<Boolean> setOpChoice(String name, String setName,
+			String opName) throws InterruptedException {
+		return submit(name, null, new Update(
+				() -> autos.setOpChoice(name, setName, opName)));
+	}
+
+	/**
+	 * Run any update of a car in the queue of the car.
+	 * @param name the car name.
+	 * @param update the update, returning false if it failed.
+	 * @return the future result of the update.
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * for room in the queue.
+	 */
+	public CompletableFuture<Boolean> submit(String name, BooleanSupplier update)
+			throws InterruptedException {
+		return submit(name, null, new Update(update));
+	}
+
+	/**
+	 * Stop taking updates. The updates already queued still run.
+	 */
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	/**
+	 * Wait until every queue is empty.
+	 * @param timeout the longest time to wait, in milliseconds.
+	 * @return true if every queue emptied within the time.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public boolean awaitIdle(long timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		for (CarQueue queue : queues.values()) {
+			synchronized(queue) {
+				while (queue.running) {
+					long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (left <= 0) return false;
+					queue.wait(left);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of updates submitted.
+	 * @return the number of updates.
+	 */
+	public long getSubmitted() { return submitted.sum(); }
+
+	/**
+	 * Get the number of price updates replaced by a later one before running.
+	 * @return the number of updates.
+	 */
+	public long getCoalesced() { return coalesced.sum(); }
+
+	/**
+	 * Get the number of updates run.
+	 * @return the number of updates.
+	 */
+	public long getApplied() { return applied.sum(); }
+
+	/**
+	 * Get the number of times a caller waited for room in a queue.
+	 * @return the number of waits.
+	 */
+	public long getWaits() { return waits.sum(); }
+
+	@Override
+	public String toString() {
+		return String.format("%d submitted, %d coalesced, %d applied, %d waits, %d cars",
+				getSubmitted(), getCoalesced(), getApplied(), getWaits(), queues.size());
+	}
+
+
+	/**
+	 * Queue an update in the queue of its car, or coalesce a price update with
+	 * the queued price update of the same option.
+	 * @param price the price update, or null.
+	 * @param update the other update, or null.
+	 */
+	private CompletableFuture<Boolean> submit(String name, PriceUpdate price,
+			Update update) throws InterruptedException {
+		if (shutdown) throw new RejectedExecutionException("The scheduler is shut down");
+		submitted.increment();
+		while (true) {
+			CarQueue queue = queues.computeIfAbsent(name, CarQueue::new);
+			synchronized(queue) {
+				// The queue drained and was removed after it was looked up.
+				if (queue.removed) continue;
+
+				PriceUpdate queued = queue.coalesce(price);
+				if (queued != null) return queued.result;
+
+				if (queue.updates.size() >= maxPending) {
+					waits.increment();
+					do queue.wait();
+					while (queue.updates.size() >= maxPending);
+					if (queue.removed) continue;
+
+					// A price update of the same option may have been queued meanwhile.
+					queued = queue.coalesce(price);
+					if (queued != null) return queued.result;
+				}
+
+				Update next = price != null ? price : update;
+				queue.updates.add(next);
+				// Any other update ends the run of price updates that may coalesce.
+				if (price != null) queue.openPrices.put(price.key, price);
+				else queue.openPrices.clear();
+
+				if (!queue.running) {
+					queue.running = true;
+					try {
+						pool.execute(queue);
+					}
+					catch(RejectedExecutionException e) {
+						queue.updates.removeLast();
+						queue.openPrices.clear();
+						queue.stop();
+						throw e;
+					}
+				}
+				return next.result;
+			}
+		}
+	}
+
+
+	/**
+	 * One queued update and its future result.
+	 */
+	private static class Update {
+
+		private final BooleanSupplier action;
+		protected final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+		private Update(BooleanSupplier action) {
+			this.action = action;
+		}
+
+		protected boolean apply() {
+			return action.getAsBoolean();
+		}
+
+	}
+
+	/**
+	 * A queued price update. Its price is changed when a later update of the
+	 * same option is coalesced into it.
+	 */
+	private class PriceUpdate extends Update {
+
+		private final String key; // The option set and option name.
+		private final String name;
+		private final String setName;
+		private final String opName;
+		private float price; // Guarded by the queue.
+
+		private PriceUpdate(String name, String setName, String opName, float price) {
+			super(null);
+			this.key = setName + '\u0000' + opName;
+			this.name = name;
+			this.setName = setName;
+			this.opName = opName;
+			this.price = price;
+		}
+
+		@Override
+		protected boolean apply() {
+			return autos.updateOptionPrice(name, setName, opName, price);
+		}
+
+	}
+
+	/**
+	 * The queue of one car. It runs on a pool thread while it has updates,
+	 * and goes back to the pool after a batch so other cars get a turn.
+	 */
+	private class CarQueue implements Runnable {
+
+		private final String name;
+
+		// Guarded by this.
+		private final ArrayDeque<Update> updates = new ArrayDeque<Update>();
+		private final HashMap<String, PriceUpdate> openPrices = new HashMap<String, PriceUpdate>();
+		private boolean running; // The queue is on the pool.
+		private boolean removed; // The queue is empty and no longer in the map.
+
+		private CarQueue(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Move the price of a price update into the queued price update of the
+		 * same option, if there is one that may still change. The caller holds
+		 * the lock of the queue.
+		 * @param price the price update, can be null.
+		 * @return the queued price update, null if the update is not coalesced.
+		 */
+		private PriceUpdate coalesce(PriceUpdate price) {
+			if (price == null) return null;
+			PriceUpdate queued = openPrices.get(price.key);
+			if (queued == null) return null;
+			queued.price = price.price;
+			coalesced.increment();
+			return queued;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < BATCH; ++i) {
+				Update update;
+				synchronized(this) {
+					update = updates.poll();
+					if (update == null) {
+						stop();
+						return;
+					}
+					// The update is taken, later ones must not change it.
+					if (update instanceof PriceUpdate) {
+						PriceUpdate price = (PriceUpdate) update;
+						if (openPrices.get(price.key) == price) openPrices.remove(price.key);
+					}
+					notifyAll();
+				}
+
+				try {
+					update.result.complete(update.apply());
+				}
+				catch(Throwable t) {
+					// Hand the failure to the caller, and keep the queue going.
+					update.result.completeExceptionally(t);
+				}
+				applied.increment();
+			}
+
+			try {
+				pool.execute(this);
+			}
+			catch(RejectedExecutionException e) {
+				// The pool is shut down: fail the updates left.
+				synchronized(this) {
+					for (Update update : updates) update.result.completeExceptionally(e);
+					updates.clear();
+					openPrices.clear();
+					stop();
+				}
+			}
+		}
+
+		/**
+		 * Take the queue off the pool, and remove it from the map if it is
+		 * empty, so the map holds only the cars with updates. The caller holds
+		 * the lock of the queue.
+		 */
+		private void stop() {
+			running = false;
+			if (updates.isEmpty()) {
+				removed = true;
+				queues.remove(name, this);
+			}
+			notifyAll();
+		}
+
+	}
+
+}
@@ -0,0 +1,233 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class calls an AutoServer over one TCP connection.
+ * The send methods only buffer a request, so many requests can be sent
+ * before flush() and their responses read afterwards with read(), in the same
+ * order. The other methods send one request and wait for its response.
+ * A client is used by one thread at a time.
+ * @author ShuqinYe
+ *
+ */
+public class AutoClient implements Closeable {
+
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+
+
+	/**
+	 * Connect to a server.
+	 * @param host the server host.
+	 * @param port the server port.
+	 * @throws IOException if the connection fails.
+	 */
+	public AutoClient(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+
+	// Below methods send requests without waiting for the responses.
+
+	public void sendPing() throws IOException {
+		send(Protocol.PING, 0);
+	}
+
+	public void sendBuildAuto(String filename) throws IOException {
+		send(Protocol.BUILD_AUTO, 0, filename);
+	}
+
+	public void sendGetAuto(String name) throws IOException {
+		send(Protocol.GET_AUTO, 0, name);
+	}
+
+	public void sendUpdateOptionSetName(String name, String setName, String newName)
+			throws IOException {
+		send(Protocol.UPDATE_OPTION_SET_NAME, 0, name, setName, newName);
+	}
+
+	public void sendUpdateOptionPrice(String name, String setName, String opName,
+			float price) throws IOException {
+		send(Protocol.UPDATE_OPTION_PRICE, 4, name, setName, opName);
+		out.writeFloat(price);
+	}
+
+	public void sendSetOpChoice(String name, String setName, String opName)
+			throws IOException {
+		send(Protocol.SET_OP_CHOICE, 0, name, setName, opName);
+	}
+
+	public void sendGetTotalPrice(String name) throws IOException {
+		send(Protocol.GET_TOTAL_PRICE, 0, name);
+	}
+
+	/**
+	 * Send the buffered requests to the server.
+	 * @throws IOException if the connection fails.
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Wait for the response of the oldest request not answered yet.
+	 * @return the response.
+	 * @throws IOException if the connection fails.
+	 */
+	public Response read() throws IOException {
+		int length = in.readInt();
+		if (length < 1 || length > Protocol.MAX_FRAME)
+			throw new IOException("Bad response frame of " + length + " bytes");
+		byte status = in.readByte();
+		byte[] body = new byte[length - 1];
+		in.readFully(body);
+		return new Response(status, body);
+	}
+
+
+	// Below methods send one request and wait for its response.
+
+	/**
+	 * Build an Automobile on the server from a file of the server.
+	 * @return true if the Automobile was built.
+	 */
+	public boolean buildAuto(String filename) throws IOException {
+		sendBuildAuto(filename);
+		return call().isOk();
+	}
+
+	/**
+	 * Get the text of an Automobile.
+	 * @return the text, null if the car is not found.
+	 */
+	public String getAuto(String name) throws IOException {
+		sendGetAuto(name);
+		Response response = call();
+		return response.isOk() ? response.getText() : null;
+	}
+
+	/**
+	 * @return false if the car or the option set is not found.
+	 */
+	public boolean updateOptionSetName(String name, String setName, String newName)
+			throws IOException {
+		sendUpdateOptionSetName(name, setName, newName);
+		return call().isOk();
+	}
+
+	/**
+	 * @return false if the car, the option set or the option is not found.
+	 */
+	public boolean updateOptionPrice(String name, String setName, String opName,
+			float price) throws IOException {
+		sendUpdateOptionPrice(name, setName, opName, price);
+		return call().isOk();
+	}
+
+	/**
+	 * @return false if the car, the option set or the option is not found.
+	 */
+	public boolean setOpChoice(String name, String setName, String opName)
+			throws IOException {
+		sendSetOpChoice(name, setName, opName);
+		return call().isOk();
+	}
+
+	/**
+	 * Get the total price of the options chosen for a car.
+	 * @return the total price in cents, 0 if the car is not found.
+	 */
+	public long getTotalPriceCents(String name) throws IOException {
+		sendGetTotalPrice(name);
+		Response response = call();
+		return response.isOk() ? response.getLong() : 0;
+	}
+
+
+	/**
+	 * Write the length, the operation code and the string arguments of a
+	 * request.
+	 * @param extra the size of the arguments written after the strings.
+	 */
+	private void send(byte op, int extra, String... args) throws IOException {
+		byte[][] bytes = new byte[args.length][];
+		int length = 1 + extra;
+		for (int i = 0; i < args.length; ++i) {
+			bytes[i] = args[i].getBytes(StandardCharsets.UTF_8);
+			length += Protocol.stringSize(bytes[i]);
+		}
+
+		out.writeInt(length);
+		out.writeByte(op);
+		for (byte[] arg : bytes) {
+			out.writeShort(arg.length);
+			out.write(arg);
+		}
+	}
+
+	private Response call() throws IOException {
+		flush();
+		return read();
+	}
+
+
+	/**
+	 * The response of one request.
+	 */
+	public static class Response {
+
+		private final byte status;
+		private final byte[] body;
+
+		private Response(byte status, byte[] body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		/**
+		 * Get the status, one of Protocol.OK, NOT_FOUND, BAD_REQUEST and
+		 * SERVER_ERROR.
+		 * @return the status.
+		 */
+		public byte getStatus() { return status; }
+
+		public boolean isOk() { return status == Protocol.OK; }
+
+		/**
+		 * Get the body as text, for GET_AUTO.
+		 * @return the text.
+		 */
+		public String getText() { return new String(body, StandardCharsets.UTF_8); }
+
+		/**
+		 * Get the body as a number, for GET_TOTAL_PRICE.
+		 * @return the number.
+		 */
+		public long getLong() { return ByteBuffer.wrap(body).getLong(); }
+
+		@Override
+		public String toString() {
+			return Protocol.statusName(status) + " (" + body.length + " bytes)";
+		}
+
+	}
+
+}
@@ -0,0 +1,531 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import adapter.BuildAuto;
+import adapter.ProxyAutomobile;
+import fixerrors.FixMode;
+
+/**
+ * This class serves the ProxyAutomobile API over TCP, see Protocol for the
+ * format of requests and responses.
+ * One selector thread does all the network I/O: it accepts connections, reads
+ * whole request frames and writes response frames. The requests are run on a
+ * small pool of worker threads, one connection at a time per worker, so the
+ * responses of a connection keep the order of its requests while many
+ * connections are served at once. A connection with nothing to do holds no
+ * thread and no buffer, only its socket, so tens of thousands of idle
+ * connections are cheap. A connection that sends requests faster than they
+ * are run stops being read until its queue drains.
+ * The server listens on the loopback address unless another address is
+ * given, and clients build cars only from the files of its model directory.
+ * @author ShuqinYe
+ *
+ */
+public class AutoServer implements Closeable {
+
+	// Requests queued on one connection before it stops being read.
+	public static final int MAX_PENDING = 1024;
+
+	// Responses written to a socket in one call.
+	private static final int MAX_GATHER = 64;
+
+	private final RequestHandler handler;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final ExecutorService workers;
+	private final Thread selectorThread;
+
+	// Connections with responses to write, filled by the workers.
+	private final ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<Connection>();
+
+	// Read buffer shared by all connections, only used by the selector thread.
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+
+	private volatile boolean closed;
+
+	// Counters.
+	private final AtomicInteger connections = new AtomicInteger();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder requests = new LongAdder();
+
+
+	/**
+	 * Start a server on the loopback address, refusing builds by clients.
+	 * @param autos the API the requests are run against.
+	 * @param port the TCP port, 0 for any free port.
+	 * @param workerThreads the number of threads running requests.
+	 * @throws IOException if the port cannot be opened.
+	 */
+	public AutoServer(ProxyAutomobile autos, int port, int workerThreads) throws IOException {
+		this(autos, null, port, workerThreads, null);
+	}
+
+	/**
+	 * Start a server.
+	 * @param autos the API the requests are run against.
+	 * @param address the address to listen on, null for the loopback address.
+	 * @param port the TCP port, 0 for any free port.
+	 * @param workerThreads the number of threads running requests.
+	 * @param modelDir the directory of the model files clients may build,
+	 * null to refuse every build.
+	 * @throws IOException if the port cannot be opened.
+	 */
+	public AutoServer(ProxyAutomobile autos, InetAddress address, int port,
+			int workerThreads, Path modelDir) throws IOException {
+		handler = new RequestHandler(autos, modelDir);
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		InetAddress bind = address != null ? address : InetAddress.getLoopbackAddress();
+		serverChannel.bind(new InetSocketAddress(bind, port), 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		AtomicInteger count = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(workerThreads, r -> {
+			Thread t = new Thread(r, "AutoServer worker " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		selectorThread = new Thread(this::run, "AutoServer selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * Get the TCP port the server listens on.
+	 * @return the port.
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Get the number of open connections.
+	 * @return the number of connections.
+	 */
+	public int getConnectionCount() { return connections.get(); }
+
+	/**
+	 * Get the number of connections accepted since the server started.
+	 * @return the number of connections.
+	 */
+	public long getAccepted() { return accepted.sum(); }
+
+	/**
+	 * Get the number of requests run since the server started.
+	 * @return the number of requests.
+	 */
+	public long getRequests() { return requests.sum(); }
+
+	/**
+	 * Stop accepting connections, close all connections and stop the threads.
+	 * Requests still queued are dropped.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		selector.wakeup();
+		try {
+			selectorThread.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AutoServer on port %d: %d connections, %d accepted, %d requests",
+				getPort(), getConnectionCount(), getAccepted(), getRequests());
+	}
+
+
+	// Below methods run on the selector thread.
+
+	/**
+	 * Wait for sockets to be ready and serve them, until the server is closed.
+	 */
+	private void run() {
+		try {
+			while (!closed) {
+				selector.select();
+
+				Connection conn;
+				while ((conn = ready.poll()) != null) conn.write();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+
+					if (key.isAcceptable()) accept();
+					else {
+						conn = (Connection) key.attachment();
+						if (key.isReadable()) conn.read();
+						if (key.isValid() && key.isWritable()) conn.write();
+					}
+				}
+			}
+		}
+		catch(IOException i) {
+			// The selector itself failed, the server cannot go on.
+			i.printStackTrace();
+		}
+		finally {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) ((Connection) key.attachment()).close();
+			}
+			try {
+				serverChannel.close();
+				selector.close();
+			}
+			catch(IOException i) {
+				i.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Accept all waiting connections.
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Connection conn = new Connection(channel);
+			conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+			connections.incrementAndGet();
+			accepted.increment();
+		}
+	}
+
+
+	/**
+	 * One client connection. Reading and writing the socket is done by the
+	 * selector thread; the requests are run by one worker at a time.
+	 */
+	private class Connection {
+
+		private final SocketChannel channel;
+		private SelectionKey key;
+
+		// Only used by the selector thread.
+		private ByteBuffer partial; // The start of a frame not read completely.
+		private boolean readPaused; // Too many requests are queued.
+
+		// Guarded by this.
+		private final ArrayDeque<ByteBuffer> queued = new ArrayDeque<ByteBuffer>();
+		private final ArrayDeque<ByteBuffer> responses = new ArrayDeque<ByteBuffer>();
+		private boolean scheduled; // A worker is running the queued requests.
+
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Read what the socket has and queue every complete request frame.
+		 */
+		private void read() {
+			try {
+				if (partial != null) {
+					if (channel.read(partial) < 0) {
+						close();
+						return;
+					}
+					if (partial.hasRemaining()) return;
+					if (partial.capacity() == 4) {
+						// The length is complete, read the rest of the frame.
+						partial.flip();
+						partial = startFrame(partial.getInt(0), partial);
+						return;
+					}
+					partial.flip();
+					partial.position(4);
+					queue(partial.slice());
+					partial = null;
+				}
+
+				readBuffer.clear();
+				if (channel.read(readBuffer) < 0) {
+					close();
+					return;
+				}
+				readBuffer.flip();
+
+				while (readBuffer.remaining() >= 4) {
+					int length = readBuffer.getInt(readBuffer.position());
+					if (length < 1 || length > Protocol.MAX_FRAME) {
+						badFrame(length);
+						return;
+					}
+					if (readBuffer.remaining() < 4 + length) break;
+
+					ByteBuffer frame = ByteBuffer.allocate(length);
+					readBuffer.position(readBuffer.position() + 4);
+					int limit = readBuffer.limit();
+					readBuffer.limit(readBuffer.position() + length);
+					frame.put(readBuffer);
+					readBuffer.limit(limit);
+					frame.flip();
+					queue(frame);
+				}
+
+				// Keep the start of an incomplete frame until the rest comes.
+				if (readBuffer.hasRemaining()) {
+					if (readBuffer.remaining() < 4) {
+						partial = ByteBuffer.allocate(4);
+						partial.put(readBuffer);
+					}
+					else partial = startFrame(readBuffer.getInt(readBuffer.position()), readBuffer);
+				}
+			}
+			catch(IOException i) {
+				// The client went away.
+				close();
+			}
+		}
+
+		/**
+		 * Allocate the buffer of a whole frame and copy its start into it.
+		 * @param length the length of the frame.
+		 * @param start the bytes read of the frame, from its length on.
+		 * @return the buffer, null if the connection was closed.
+		 */
+		private ByteBuffer startFrame(int length, ByteBuffer start) {
+			if (length < 1 || length > Protocol.MAX_FRAME) {
+				badFrame(length);
+				return null;
+			}
+			ByteBuffer frame = ByteBuffer.allocate(4 + length);
+			frame.put(start);
+			return frame;
+		}
+
+		/**
+		 * Close a connection that sent a frame the server cannot read, since
+		 * the start of the next frame cannot be found after it.
+		 */
+		private void badFrame(int length) {
+			System.out.println("Closing " + channel.socket().getRemoteSocketAddress()
+					+ ": frame of " + length + " bytes");
+			close();
+		}
+
+		/**
+		 * Queue a request, and give the connection to a worker if none is
+		 * running its requests.
+		 */
+		private void queue(ByteBuffer request) {
+			boolean submit;
+			int pending;
+			synchronized(this) {
+				queued.add(request);
+				pending = queued.size();
+				submit = !scheduled;
+				scheduled = true;
+			}
+			if (submit) workers.execute(this::runQueued);
+
+			if (pending >= MAX_PENDING && !readPaused) {
+				readPaused = true;
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			}
+		}
+
+		/**
+		 * Write as many responses as the socket takes, then wait for the socket
+		 * to be writable again if some are left. Reading is resumed once the
+		 * queue of requests has drained enough.
+		 */
+		private void write() {
+			if (!key.isValid()) return;
+			try {
+				ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+				while (true) {
+					int n = 0;
+					synchronized(this) {
+						for (ByteBuffer response : responses) {
+							if (n == batch.length) break;
+							batch[n++] = response;
+						}
+					}
+					if (n == 0) break;
+
+					channel.write(batch, 0, n);
+					int done = 0;
+					while (done < n && !batch[done].hasRemaining()) ++done;
+					synchronized(this) {
+						for (int i = 0; i < done; ++i) responses.poll();
+					}
+					if (done < n) break;
+				}
+
+				boolean more;
+				int pending;
+				synchronized(this) {
+					more = !responses.isEmpty();
+					pending = queued.size();
+				}
+				int ops = key.interestOps();
+				ops = more ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+				if (readPaused && pending < MAX_PENDING / 2) {
+					readPaused = false;
+					ops |= SelectionKey.OP_READ;
+				}
+				key.interestOps(ops);
+			}
+			catch(IOException i) {
+				// The client went away.
+				close();
+			}
+		}
+
+		/**
+		 * Close the socket. Requests still queued are run, but their responses
+		 * are dropped.
+		 */
+		private void close() {
+			if (!channel.isOpen()) return;
+			key.cancel();
+			try {
+				channel.close();
+			}
+			catch(IOException i) {
+				i.printStackTrace();
+			}
+			partial = null;
+			connections.decrementAndGet();
+		}
+
+
+		// Below method runs on a worker thread.
+
+		/**
+		 * Run the queued requests in order until none is left, handing the
+		 * responses to the selector thread as they are ready.
+		 */
+		private void runQueued() {
+			int unsent = 0;
+			boolean drained = false;
+			try {
+				while (true) {
+					ByteBuffer request;
+					synchronized(this) {
+						request = queued.poll();
+						if (request == null) {
+							scheduled = false;
+							drained = true;
+						}
+					}
+					if (request == null) break;
+
+					ByteBuffer response;
+					try {
+						response = handler.handle(request);
+					}
+					catch(RuntimeException e) {
+						// Answer the request, so the responses stay in order.
+						e.printStackTrace();
+						response = RequestHandler.status(Protocol.SERVER_ERROR);
+					}
+					requests.increment();
+					synchronized(this) {
+						responses.add(response);
+					}
+
+					// Send long runs of pipelined requests in parts.
+					if (++unsent == MAX_GATHER) {
+						wake();
+						unsent = 0;
+					}
+				}
+			}
+			finally {
+				if (!drained) {
+					// An Error stopped the run: let the next request schedule
+					// a worker again.
+					synchronized(this) {
+						scheduled = false;
+					}
+				}
+				if (unsent > 0) wake();
+			}
+		}
+
+		/**
+		 * Ask the selector thread to write the responses.
+		 */
+		private void wake() {
+			ready.add(this);
+			selector.wakeup();
+		}
+
+	}
+
+
+	/**
+	 * Run a server until the process is killed.
+	 * Run with: java [-Dautoserver.address=address] [-Dautoserver.models=dir]
+	 *   server.AutoServer [port] [model files or catalog images...]
+	 * A file ending in .acat is mapped as a catalog image, see
+	 * ProxyAutomobile.mapCatalog(). The server listens on the loopback address
+	 * unless autoserver.address is set, and clients may build the model files
+	 * of autoserver.models only, none if it is not set.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7641;
+		String address = System.getProperty("autoserver.address");
+		String models = System.getProperty("autoserver.models");
+
+		ProxyAutomobile autos = new BuildAuto();
+		// A server must never wait for a name typed on its console.
+		autos.setFixMode(FixMode.FAIL_FAST);
+		for (int i = 1; i < args.length; ++i) {
+			if (args[i].endsWith(".acat")) autos.mapCatalog(args[i]);
+			else autos.buildAuto(args[i]);
+		}
+
+		AutoServer server = new AutoServer(autos,
+				address == null ? null : InetAddress.getByName(address), port,
+				Runtime.getRuntime().availableProcessors(),
+				models == null ? null : Paths.get(models));
+		System.out.println("Listening on " + server.serverChannel.socket().getInetAddress()
+				+ " port " + server.getPort());
+
+		while (true) {
+			try {
+				TimeUnit.MINUTES.sleep(1);
+			}
+			catch(InterruptedException e) {
+				break;
+			}
+			System.out.println(server);
+		}
+		server.close();
+	}
+
+}
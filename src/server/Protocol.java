@@ -0,0 +1,95 @@
+package server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class defines the wire format of the AutoServer.
+ * Every request and response is one frame: a 4-byte big-endian length
+ * followed by that many bytes.
+ * - A request frame holds a 1-byte operation code and the arguments of the
+ *   operation. A string argument is a 2-byte length and its UTF-8 bytes, a
+ *   price is a 4-byte float.
+ * - A response frame holds a 1-byte status and the result: the UTF-8 text of
+ *   the car for GET_AUTO, the 8-byte total price in cents for
+ *   GET_TOTAL_PRICE, nothing otherwise.
+ * A client may send many requests without waiting for responses; the
+ * responses on one connection come back in the order of the requests.
+ * @author ShuqinYe
+ *
+ */
+public class Protocol {
+
+	// Operation codes.
+	public static final byte PING = 0;
+	public static final byte BUILD_AUTO = 1; // model file name, relative to the model directory of the server
+	public static final byte GET_AUTO = 2; // auto name
+	public static final byte UPDATE_OPTION_SET_NAME = 3; // auto name, set name, new name
+	public static final byte UPDATE_OPTION_PRICE = 4; // auto name, set name, option name, price
+	public static final byte SET_OP_CHOICE = 5; // auto name, set name, option name
+	public static final byte GET_TOTAL_PRICE = 6; // auto name
+
+	// Response statuses.
+	public static final byte OK = 0;
+	public static final byte NOT_FOUND = 1; // The car or a name was not found, or the file not built.
+	public static final byte BAD_REQUEST = 2; // Unknown operation, malformed arguments or a refused file.
+	public static final byte SERVER_ERROR = 3; // The request failed on the server.
+
+	// Longest frame accepted, not counting the length itself.
+	public static final int MAX_FRAME = 1 << 20;
+
+	private Protocol() {}
+
+	/**
+	 * Read a string argument.
+	 * @param buf the frame, positioned at the argument.
+	 * @return the string.
+	 * @throws BufferUnderflowException if the frame ends inside the argument.
+	 */
+	public static String getString(ByteBuffer buf) {
+		int length = buf.getShort() & 0xFFFF;
+		if (length > buf.remaining()) throw new BufferUnderflowException();
+		String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length,
+				StandardCharsets.UTF_8);
+		buf.position(buf.position() + length);
+		return s;
+	}
+
+	/**
+	 * Get the encoded size of a string argument.
+	 * @param bytes the UTF-8 bytes of the string.
+	 * @return the size in bytes, with the length.
+	 */
+	public static int stringSize(byte[] bytes) {
+		if (bytes.length > 0xFFFF)
+			throw new IllegalArgumentException("String of " + bytes.length + " bytes is too long");
+		return 2 + bytes.length;
+	}
+
+	/**
+	 * Write a string argument.
+	 * @param buf the frame.
+	 * @param bytes the UTF-8 bytes of the string.
+	 */
+	public static void putString(ByteBuffer buf, byte[] bytes) {
+		buf.putShort((short) bytes.length);
+		buf.put(bytes);
+	}
+
+	/**
+	 * Get the name of a status.
+	 * @param status the status.
+	 * @return the name.
+	 */
+	public static String statusName(byte status) {
+		switch (status) {
+		case OK: return "OK";
+		case NOT_FOUND: return "NOT_FOUND";
+		case BAD_REQUEST: return "BAD_REQUEST";
+		case SERVER_ERROR: return "SERVER_ERROR";
+		default: return "UNKNOWN(" + status + ")";
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+package server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import adapter.ProxyAutomobile;
+
+/**
+ * This class runs one request frame against the ProxyAutomobile API and
+ * builds the response frame, see Protocol for the format.
+ * A client builds cars only from the model files of one directory: the file
+ * name sent is resolved against it, and an absolute name or one with ".."
+ * is refused, so a client cannot make the server read any other file.
+ * @author ShuqinYe
+ *
+ */
+public class RequestHandler {
+
+	private final ProxyAutomobile autos;
+	private final Path modelDir; // Null if clients cannot build cars.
+
+	/**
+	 * Construct a handler.
+	 * @param autos the API the requests are run against.
+	 * @param modelDir the directory of the model files clients may build,
+	 * null to refuse every build.
+	 */
+	public RequestHandler(ProxyAutomobile autos, Path modelDir) {
+		this.autos = autos;
+		this.modelDir = modelDir == null ? null : modelDir.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Run one request.
+	 * @param request the request frame without its length, positioned at the
+	 * operation code.
+	 * @return the response frame with its length, ready to be written.
+	 */
+	public ByteBuffer handle(ByteBuffer request) {
+		try {
+			byte op = request.get();
+			switch (op) {
+			case Protocol.PING:
+				return status(Protocol.OK);
+
+			case Protocol.BUILD_AUTO: {
+				Path file = modelFile(Protocol.getString(request));
+				if (file == null) return status(Protocol.BAD_REQUEST);
+				return status(autos.buildAuto(file.toString()));
+			}
+
+			case Protocol.GET_AUTO: {
+				ByteBuffer text = autos.getAutoBuffer(Protocol.getString(request));
+				if (text == null) return status(Protocol.NOT_FOUND);
+				return response(Protocol.OK, text);
+			}
+
+			case Protocol.UPDATE_OPTION_SET_NAME: {
+				String name = Protocol.getString(request);
+				String setName = Protocol.getString(request);
+				String newName = Protocol.getString(request);
+				return status(autos.updateOptionSetName(name, setName, newName));
+			}
+
+			case Protocol.UPDATE_OPTION_PRICE: {
+				String name = Protocol.getString(request);
+				String setName = Protocol.getString(request);
+				String opName = Protocol.getString(request);
+				float price = request.getFloat();
+				return status(autos.updateOptionPrice(name, setName, opName, price));
+			}
+
+			case Protocol.SET_OP_CHOICE: {
+				String name = Protocol.getString(request);
+				String setName = Protocol.getString(request);
+				String opName = Protocol.getString(request);
+				return status(autos.setOpChoice(name, setName, opName));
+			}
+
+			case Protocol.GET_TOTAL_PRICE: {
+				long total = autos.getTotalPriceCents(Protocol.getString(request));
+				if (total == -1) return status(Protocol.NOT_FOUND);
+				ByteBuffer response = ByteBuffer.allocate(4 + 1 + 8);
+				response.putInt(1 + 8).put(Protocol.OK).putLong(total);
+				response.flip();
+				return response;
+			}
+
+			default:
+				return status(Protocol.BAD_REQUEST);
+			}
+		}
+		catch(BufferUnderflowException b) {
+			// The frame ended before all arguments were read.
+			return status(Protocol.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * Resolve the name of a model file sent by a client against the model
+	 * directory.
+	 * @param name the file name, relative to the model directory.
+	 * @return the file, null if builds are refused or the name is absolute or
+	 * leaves the directory.
+	 */
+	private Path modelFile(String name) {
+		if (modelDir == null) return null;
+		Path relative;
+		try {
+			relative = Paths.get(name);
+		}
+		catch(InvalidPathException e) {
+			return null;
+		}
+		if (relative.isAbsolute() || relative.getRoot() != null) return null;
+		for (Path part : relative)
+			if (part.toString().equals("..")) return null;
+		Path file = modelDir.resolve(relative).normalize();
+		return file.startsWith(modelDir) ? file : null;
+	}
+
+	private static ByteBuffer status(boolean ok) {
+		return status(ok ? Protocol.OK : Protocol.NOT_FOUND);
+	}
+
+	/**
+	 * Build a response frame without a result.
+	 * @param status the response status.
+	 * @return the response frame with its length, ready to be written.
+	 */
+	static ByteBuffer status(byte status) {
+		ByteBuffer response = ByteBuffer.allocate(4 + 1);
+		response.putInt(1).put(status);
+		response.flip();
+		return response;
+	}
+
+	private static ByteBuffer response(byte status, ByteBuffer body) {
+		ByteBuffer response = ByteBuffer.allocate(4 + 1 + body.remaining());
+		response.putInt(1 + body.remaining()).put(status).put(body);
+		response.flip();
+		return response;
+	}
+
+}
@@ -0,0 +1,75 @@
+package util;
+
+import java.io.IOException;
+
+import exceptions.AutoException;
+import exceptions.ExceptionSets;
+import model.AutoTable;
+import model.Automobile;
+
+/**
+ * Provides an API for building one Automobile from where it is stored, so the
+ * Automobile can be built only when it is needed.
+ * @author ShuqinYe
+ *
+ */
+public interface AutoSource {
+
+	/**
+	 * Build the Automobile.
+	 * @return the Automobile.
+	 * @throws AutoException if the Automobile cannot be built from the source.
+	 * @throws IOException if the source cannot be read.
+	 */
+	public Automobile load() throws AutoException, IOException;
+
+	/**
+	 * Get a description of where the Automobile is stored.
+	 * @return the description.
+	 */
+	public String location();
+
+
+	/**
+	 * Get the source of an Automobile stored in a model text file.
+	 * @param filename the model file.
+	 * @return the source.
+	 */
+	public static AutoSource fromFile(final String filename) {
+		return new AutoSource() {
+			@Override
+			public Automobile load() throws AutoException, IOException {
+				return new MappedAutoParser().parse(filename);
+			}
+
+			@Override
+			public String location() {
+				return filename;
+			}
+		};
+	}
+
+	/**
+	 * Get the source of an Automobile stored in a catalog snapshot.
+	 * @param snapshot the opened snapshot.
+	 * @param name the auto name.
+	 * @return the source.
+	 */
+	public static AutoSource fromSnapshot(final CatalogSnapshot snapshot,
+			final String name) {
+		return new AutoSource() {
+			@Override
+			public Automobile load() throws AutoException {
+				AutoTable table = snapshot.readTable(name);
+				if (table == null) throw new AutoException(ExceptionSets.MODELNAMENOTFOUND, name);
+				return table.toAutomobile();
+			}
+
+			@Override
+			public String location() {
+				return "snapshot:" + name;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,191 @@
+package util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import exceptions.AutoException;
+import model.Automobile;
+
+/**
+ * This class builds Automobile objects from a whole directory of model files.
+ * The files are parsed in parallel on a work-stealing ForkJoinPool with the
+ * memory-mapped MappedAutoParser, and the Automobiles are handed over in 
+ * batches. A file that fails to load, or whose batch the sink fails to take,
+ * is recorded in the LoadReport and logged, and does not stop the other files.
+ * @author ShuqinYe
+ *
+ */
+public class BulkLoader {
+
+	// Number of files parsed by one task and handed over together.
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	private final ForkJoinPool pool; // The pool the files are parsed on.
+	private final int batchSize; // Number of files per batch.
+
+
+	/**
+	 * Construct a loader using the common pool.
+	 */
+	public BulkLoader() {
+		this(ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Construct a loader.
+	 * @param pool the pool the files are parsed on.
+	 * @param batchSize the number of files per batch.
+	 */
+	public BulkLoader(ForkJoinPool pool, int batchSize) {
+		this.pool = pool;
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Load all model files found at a path.
+	 * @param path a directory, a single file, or a glob on file names such as
+	 * "catalog/*.txt".
+	 * @param sink receives each batch of Automobiles, possibly from several
+	 * threads at the same time.
+	 * @param listener receives the progress after each batch, can be null.
+	 * @return the report of the run.
+	 * @throws IOException if the directory cannot be listed.
+	 */
+	public LoadReport load(String path, Consumer<List<Automobile>> sink,
+			LoadListener listener) throws IOException {
+		long start = System.nanoTime();
+		List<Path> files = listFiles(path);
+
+		Batches batches = new Batches(files, sink, listener);
+		pool.invoke(batches.task(0, files.size()));
+
+		return new LoadReport(files.size(), batches.loaded.get(),
+				new ArrayList<LoadError>(batches.errors),
+				System.nanoTime() - start, pool.getParallelism());
+	}
+
+	/**
+	 * List the model files at a path, sorted by name.
+	 * @param path a directory, a single file, or a glob on file names.
+	 * @return the files.
+	 * @throws IOException if the directory cannot be listed.
+	 */
+	public static List<Path> listFiles(String path) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		Path dir = Paths.get(path);
+		String glob = "*";
+
+		if (!Files.isDirectory(dir)) {
+			// A glob is only allowed in the file name part of the path.
+			Path parent = dir.getParent();
+			glob = dir.getFileName().toString();
+			dir = parent != null ? parent : Paths.get(".");
+		}
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+			for (Path file : stream) {
+				if (Files.isRegularFile(file)) files.add(file);
+			}
+		}
+
+		Collections.sort(files);
+		return files;
+	}
+
+
+	/**
+	 * This class holds the state shared by the tasks of one run.
+	 */
+	private class Batches {
+
+		private final List<Path> files;
+		private final Consumer<List<Automobile>> sink;
+		private final LoadListener listener;
+
+		private final AtomicInteger done = new AtomicInteger();
+		private final AtomicInteger loaded = new AtomicInteger();
+		private final ConcurrentLinkedQueue<LoadError> errors =
+				new ConcurrentLinkedQueue<LoadError>();
+
+		private Batches(List<Path> files, Consumer<List<Automobile>> sink,
+				LoadListener listener) {
+			this.files = files;
+			this.sink = sink;
+			this.listener = listener;
+		}
+
+		/**
+		 * Create the task loading a range of files. The range is split in
+		 * halves until it fits in one batch, so idle threads can steal halves.
+		 */
+		private RecursiveAction task(final int from, final int to) {
+			return new RecursiveAction() {
+				@Override
+				protected void compute() {
+					if (to - from <= batchSize) {
+						loadBatch(from, to);
+						return;
+					}
+					int mid = (from + to) >>> 1;
+					invokeAll(task(from, mid), task(mid, to));
+				}
+			};
+		}
+
+		/**
+		 * Parse a range of files and hand the Automobiles to the sink.
+		 */
+		private void loadBatch(int from, int to) {
+			MappedAutoParser parser = new MappedAutoParser();
+			List<Automobile> batch = new ArrayList<Automobile>(to - from);
+			List<String> batchFiles = new ArrayList<String>(to - from);
+
+			for (int i = from; i < to; ++i) {
+				String filename = files.get(i).toString();
+				try {
+					batch.add(parser.parse(filename));
+					batchFiles.add(filename);
+				}
+				catch(AutoException a) {
+					String message = a.getMessage(a.getErrNum());
+					if (a.getDetail() != null) message += " (" + a.getDetail() + ")";
+					errors.add(new LoadError(filename, a.getErrNum(), message));
+
+					// Output the log into a file called log.txt.
+					a.log();
+				}
+				catch(IOException | RuntimeException e) {
+					// A bug of the parser on one file must not stop the others.
+					errors.add(new LoadError(filename, 0, e.toString()));
+				}
+			}
+
+			if (!batch.isEmpty()) {
+				try {
+					sink.accept(batch);
+					loaded.addAndGet(batch.size());
+				}
+				catch(RuntimeException e) {
+					for (String filename : batchFiles)
+						errors.add(new LoadError(filename, 0, e.toString()));
+				}
+			}
+
+			int count = done.addAndGet(to - from);
+			if (listener != null) listener.progress(count, files.size());
+		}
+
+	}
+
+}
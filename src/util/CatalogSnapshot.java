@@ -0,0 +1,437 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import model.AutoTable;
+import model.Automobile;
+import model.Price;
+
+/**
+ * This class writes and reads a whole catalog of Automobiles in a compact,
+ * versioned binary format, instead of one Automobile per Java serialization
+ * file. The file is written through a FileChannel and read through a
+ * read-only memory mapping, and one model can be read from the offset index
+ * without decoding the rest of the catalog. Opening a snapshot only reads its
+ * header, so it takes the same time whatever the size of the catalog, and a
+ * snapshot can be read by many threads at once.
+ *
+ * All numbers are big-endian. The layout of version 3 is:
+ * <pre>
+ * header (32 bytes)
+ *   int   magic "ACAT"
+ *   int   version
+ *   int   number of models
+ *   int   number of strings
+ *   long  offset of the string table
+ *   long  offset of the model index
+ * string table: every distinct make, model, set and option name, once
+ *   int[strings + 1] start of each string in the UTF-8 bytes, then the end
+ *   byte[]           the UTF-8 bytes of all strings
+ * model record, one per model
+ *   int   auto name id, make id, model id
+ *   long  base price in cents
+ *   long  version of the car
+ *   int   number of option sets
+ *   int[sets]         name id of each option set
+ *   int[sets + 1]     index of the first option of each set, then the total
+ *   int[options]      name id of each option
+ *   long[options]     price of each option in cents
+ * model index, sorted by auto name
+ *   (int auto name id, long offset of the model record)[models]
+ * </pre>
+ * Version 1 stored the prices as floats in dollars, and versions 1 and 2 did
+ * not store the version of the car; they can still be read.
+ * A snapshot file is limited to 2 GB, the size of one mapping.
+ * @author ShuqinYe
+ *
+ */
+public class CatalogSnapshot {
+
+	public static final int MAGIC = 0x41434154; // "ACAT"
+	public static final int VERSION = 3;
+	private static final int HEADER_SIZE = 32;
+	private static final int PAGE_BITS = 12; // Decoded strings are cached by pages of 4096.
+
+	private final MappedByteBuffer buf; // The mapped snapshot file.
+	private final int version;
+	private final int modelCount;
+	private final int stringCount;
+	private final int stringStarts; // Offset of the string start table.
+	private final int stringBytes; // Offset of the UTF-8 bytes.
+	private final int indexOffset;
+	private final String[][] strings; // Pages of the strings decoded so far, by id.
+
+
+	/**
+	 * Open a snapshot file for reading.
+	 * @param file the snapshot file.
+	 * @throws IOException if the file cannot be read or is not a snapshot.
+	 */
+	public CatalogSnapshot(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Snapshot too large to map: " + file);
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+			throw new IOException("Not a catalog snapshot: " + file);
+		version = buf.getInt(4);
+		if (version < 1 || version > VERSION)
+			throw new IOException("Unsupported catalog snapshot version "
+					+ version + ": " + file);
+
+		modelCount = buf.getInt(8);
+		stringCount = buf.getInt(12);
+		stringStarts = (int) buf.getLong(16);
+		stringBytes = stringStarts + 4 * (stringCount + 1);
+		indexOffset = (int) buf.getLong(24);
+		strings = new String[(stringCount >> PAGE_BITS) + 1][];
+	}
+
+	/**
+	 * Get the number of models in the snapshot.
+	 * @return the number of models.
+	 */
+	public int size() {
+		return modelCount;
+	}
+
+	/**
+	 * Get the names of all models, sorted.
+	 * @return the auto names.
+	 */
+	public List<String> names() {
+		List<String> names = new ArrayList<String>(modelCount);
+		for (int i = 0; i < modelCount; ++i) names.add(string(buf.getInt(indexEntry(i))));
+		return names;
+	}
+
+	/**
+	 * Check whether a model is in the snapshot.
+	 * @param name the auto name = make + model.
+	 * @return true if the model is in the snapshot.
+	 */
+	public boolean contains(String name) {
+		return find(name) != -1;
+	}
+
+	/**
+	 * Read one model, without reading the other models.
+	 * @param name the auto name = make + model.
+	 * @return the model, null if it is not in the snapshot.
+	 */
+	public AutoTable readTable(String name) {
+		int i = find(name);
+		return i == -1 ? null : readRecord((int) buf.getLong(indexEntry(i) + 4));
+	}
+
+	/**
+	 * Read one model as an Automobile.
+	 * @param name the auto name = make + model.
+	 * @return the Automobile, null if it is not in the snapshot.
+	 */
+	public Automobile read(String name) {
+		AutoTable table = readTable(name);
+		return table == null ? null : table.toAutomobile();
+	}
+
+	/**
+	 * Read all models, in the order they were written.
+	 * @return the models.
+	 */
+	public List<AutoTable> readAllTables() {
+		// Records are written one after the other, right after the strings.
+		List<AutoTable> tables = new ArrayList<AutoTable>(modelCount);
+		int[] offsets = new int[modelCount];
+		for (int i = 0; i < modelCount; ++i)
+			offsets[i] = (int) buf.getLong(indexEntry(i) + 4);
+		Arrays.sort(offsets);
+
+		for (int offset : offsets) tables.add(readRecord(offset));
+		return tables;
+	}
+
+	/**
+	 * Find a model by a binary search of the index, which is sorted by auto
+	 * name.
+	 * @return the entry of the model in the index, -1 if it is not found.
+	 */
+	private int find(String name) {
+		int low = 0;
+		int high = modelCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = string(buf.getInt(indexEntry(mid))).compareTo(name);
+			if (cmp < 0) low = mid + 1;
+			else if (cmp > 0) high = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the offset of an entry of the model index.
+	 */
+	private int indexEntry(int i) {
+		return indexOffset + 12 * i;
+	}
+
+	/**
+	 * Decode a string of the string table, once. Threads racing to decode the
+	 * same string or page only decode it twice.
+	 */
+	private String string(int id) {
+		String[] page = strings[id >> PAGE_BITS];
+		if (page == null) {
+			page = new String[1 << PAGE_BITS];
+			strings[id >> PAGE_BITS] = page;
+		}
+		String s = page[id & ((1 << PAGE_BITS) - 1)];
+		if (s == null) {
+			int start = buf.getInt(stringStarts + 4 * id);
+			int end = buf.getInt(stringStarts + 4 * (id + 1));
+			byte[] bytes = new byte[end - start];
+			ByteBuffer view = buf.duplicate();
+			view.position(stringBytes + start);
+			view.get(bytes);
+			s = new String(bytes, StandardCharsets.UTF_8);
+			page[id & ((1 << PAGE_BITS) - 1)] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Read the model record at an offset.
+	 */
+	private AutoTable readRecord(int pos) {
+		pos += 4; // Skip the auto name id.
+		String make = string(buf.getInt(pos));
+		String model = string(buf.getInt(pos + 4));
+		pos += 8;
+		long basePrice = readPrice(pos);
+		pos += version == 1 ? 4 : 8;
+		long carVersion = 0;
+		if (version >= 3) {
+			carVersion = buf.getLong(pos);
+			pos += 8;
+		}
+		int sets = buf.getInt(pos);
+		pos += 4;
+
+		String[] setNames = new String[sets];
+		for (int s = 0; s < sets; ++s, pos += 4) setNames[s] = string(buf.getInt(pos));
+
+		int[] setStart = new int[sets + 1];
+		for (int s = 0; s <= sets; ++s, pos += 4) setStart[s] = buf.getInt(pos);
+
+		int options = setStart[sets];
+		String[] opNames = new String[options];
+		for (int o = 0; o < options; ++o, pos += 4) opNames[o] = string(buf.getInt(pos));
+
+		long[] opPrices = new long[options];
+		int priceSize = version == 1 ? 4 : 8;
+		for (int o = 0; o < options; ++o, pos += priceSize) opPrices[o] = readPrice(pos);
+
+		return new AutoTable(make, model, basePrice, setNames, setStart, opNames, opPrices,
+				carVersion);
+	}
+
+	/**
+	 * Read a price in cents at an offset, converting the float dollars of
+	 * version 1.
+	 */
+	private long readPrice(int pos) {
+		return version == 1 ? Price.toCents(buf.getFloat(pos)) : buf.getLong(pos);
+	}
+
+
+	/**
+	 * Write a catalog to a snapshot file, replacing the file if it exists.
+	 * The catalog is written to a temporary file next to it, forced to the
+	 * disk and moved over the file in one step, so a crash never leaves a
+	 * truncated snapshot, and a snapshot still mapped keeps its contents.
+	 * @param file the snapshot file.
+	 * @param autos the models, each taken as one consistent copy.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void write(Path file, List<Automobile> autos) throws IOException {
+		List<AutoTable> tables = new ArrayList<AutoTable>(autos.size());
+		for (Automobile auto : autos) tables.add(auto.toTable());
+		writeTables(file, tables);
+	}
+
+	/**
+	 * Write a catalog to a snapshot file, replacing the file if it exists.
+	 * @param file the snapshot file.
+	 * @param tables the models.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void writeTables(Path file, List<AutoTable> tables) throws IOException {
+		// Give every distinct string an id.
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		List<byte[]> strings = new ArrayList<byte[]>();
+		int[] nameIds = new int[tables.size()];
+		for (int i = 0; i < tables.size(); ++i) {
+			AutoTable table = tables.get(i);
+			nameIds[i] = intern(table.getName(), ids, strings);
+			intern(table.getMake(), ids, strings);
+			intern(table.getModel(), ids, strings);
+			for (int s = 0; s < table.getOpSetCount(); ++s)
+				intern(table.getOpSetName(s), ids, strings);
+			for (int o = 0; o < table.getTotalOpCount(); ++o)
+				intern(table.getOpName(o), ids, strings);
+		}
+
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ChannelWriter out = new ChannelWriter(channel, HEADER_SIZE);
+
+			// String table.
+			long stringTable = out.position();
+			int start = 0;
+			for (byte[] s : strings) {
+				out.putInt(start);
+				start += s.length;
+			}
+			out.putInt(start);
+			for (byte[] s : strings) out.put(s);
+
+			// Model records.
+			long[] offsets = new long[tables.size()];
+			for (int i = 0; i < tables.size(); ++i) {
+				AutoTable table = tables.get(i);
+				offsets[i] = out.position();
+				out.putInt(nameIds[i]);
+				out.putInt(ids.get(table.getMake()));
+				out.putInt(ids.get(table.getModel()));
+				out.putLong(table.getBasePriceCents());
+				out.putLong(table.getVersion());
+				out.putInt(table.getOpSetCount());
+				for (int s = 0; s < table.getOpSetCount(); ++s)
+					out.putInt(ids.get(table.getOpSetName(s)));
+				for (int s = 0; s <= table.getOpSetCount(); ++s)
+					out.putInt(table.getOpStart(s));
+				for (int o = 0; o < table.getTotalOpCount(); ++o)
+					out.putInt(ids.get(table.getOpName(o)));
+				for (int o = 0; o < table.getTotalOpCount(); ++o)
+					out.putLong(table.getOpPriceCents(o));
+			}
+
+			// Model index, sorted by auto name.
+			final String[] names = new String[tables.size()];
+			Integer[] order = new Integer[tables.size()];
+			for (int i = 0; i < order.length; ++i) {
+				names[i] = tables.get(i).getName();
+				order[i] = i;
+			}
+			Arrays.sort(order, Comparator.comparing((Integer i) -> names[i]));
+
+			long index = out.position();
+			for (int i : order) {
+				out.putInt(nameIds[i]);
+				out.putLong(offsets[i]);
+			}
+			out.flush();
+
+			if (out.position() > Integer.MAX_VALUE)
+				throw new IOException("Catalog too large for one snapshot file: " + file);
+
+			// The header goes last, once all offsets are known.
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(tables.size())
+					.putInt(strings.size()).putLong(stringTable).putLong(index);
+			header.flip();
+			while (header.hasRemaining()) channel.write(header, HEADER_SIZE - header.remaining());
+			channel.force(true);
+		}
+		catch(IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Get the id of a string, adding the string to the table if it is new.
+	 */
+	private static int intern(String s, HashMap<String, Integer> ids,
+			List<byte[]> strings) {
+		Integer id = ids.get(s);
+		if (id == null) {
+			id = strings.size();
+			ids.put(s, id);
+			strings.add(s.getBytes(StandardCharsets.UTF_8));
+		}
+		return id;
+	}
+
+
+	/**
+	 * This class writes numbers to a FileChannel through one reusable buffer.
+	 */
+	private static class ChannelWriter {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+		private long flushed; // File position of the start of the buffer.
+
+		private ChannelWriter(FileChannel channel, long start) {
+			this.channel = channel;
+			this.flushed = start;
+		}
+
+		private long position() {
+			return flushed + buffer.position();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) flush();
+		}
+
+		private void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+		}
+
+		private void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+		}
+
+		private void put(byte[] bytes) throws IOException {
+			int off = 0;
+			while (off < bytes.length) {
+				ensure(1);
+				int len = Math.min(buffer.remaining(), bytes.length - off);
+				buffer.put(bytes, off, len);
+				off += len;
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				flushed += channel.write(buffer, flushed);
+			}
+			buffer.clear();
+		}
+
+	}
+
+}
@@ -33,47 +33,78 @@ public class FileIO {
 	 */
 	public Automobile buildAutoObj(String filename) {
 		
-
 		Automobile auto = null;
 		
+		try {
+			auto = parseAutoObj(filename);
+		}
+		
+		catch(AutoException a) {
+			int errNum = a.getErrNum();
+			
+			// Print the error message
+			a.printException(errNum);
+			
+			// Output the log into a file called log.txt.
+			a.log();
+		}
+		
+		catch(IOException i) {
+			i.printStackTrace();
+		}
+		
+		return auto;
+		
+	}
+	
+	/**
+	 * Reads a file and build Automobile object with all option sets and options.
+	 * Unlike buildAutoObj(), errors are not printed or logged but thrown to the
+	 * caller, with the file name and line number as the exception detail.
+	 * @param filename the file to read the input from.
+	 * @return an automobile with all option sets and options.
+	 * @throws AutoException if the file, the model name or a price is missing.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public Automobile parseAutoObj(String filename) throws AutoException, IOException {
+		
+		BufferedReader buffer;
+		
 		try {
 			// Create the input file stream.
 			FileReader reader = new FileReader(new File(filename));
-			BufferedReader buffer = new BufferedReader(reader);
-			
+			buffer = new BufferedReader(reader);
+		}
+		catch(FileNotFoundException f) {
+			throw new AutoException(ExceptionSets.FILENOTFOUND, filename);
+		}
+		
+		try {
 			String line = buffer.readLine(); // first line
+			int lineNum = 1;
 			
 			// tokens contains 3 Strings
 			// - 0th is make, 1st is model, 2nd is basePrice.
-			String[] tokens = line.split("\t");
-			String make = tokens[0];
-			String model = tokens[1];
-			float basePrice = (float) Integer.parseInt(tokens[2]);
-			
-			try {
-				// If the model name is blank.
-				if (model.equals(" ")) 
-					throw new AutoException(ExceptionSets.MODELNAMENOTFOUND);
-			}
+			String[] tokens = line == null ? new String[0] : line.split("\t");
 			
-			catch(AutoException a) {
-				int errNum = a.getErrNum();
-				// Print the error message
-				a.printException(errNum);
-				// Output the log into a file called log.txt.
-				a.log();
-				buffer.close();
-				return null;
-			}
+			// If the model name is blank.
+			if (tokens.length < 3 || tokens[1].equals(" ")) 
+				throw new AutoException(ExceptionSets.MODELNAMENOTFOUND, 
+						filename + ":" + lineNum);
 			
+			String make = tokens[0];
+			String model = tokens[1];
+			long basePriceCents = parsePrice(tokens[2], filename, lineNum);
 			
 			// Create Automobile object and initializes it
-			auto = new Automobile(make, model, basePrice);
+			Automobile auto = new Automobile(make, model, 0);
+			auto.setBasePriceCents(basePriceCents);
 			
 			String setName = ""; // The name of an option set.
 			// Read the rest of the file line by line until end of the file.
 			while (line != null) {
 				line = buffer.readLine();
+				++lineNum;
 				
 				// if it reaches the end of the document.
 				if (line == null) break;
@@ -90,34 +121,77 @@ public class FileIO {
 				// The lins is one option with name and price.
 				else {
 					String opName = values[0];
-					float opPrice = (float) Integer.parseInt(values[1]);
-					auto.addOption(setName, opName, opPrice);
+					long opPriceCents = parsePrice(values[1], filename, lineNum);
+					auto.addOptionCents(setName, opName, opPriceCents);
 				}
 				
 			} // Finish reading lines.
 			
+			auto.trimToSize();
+			return auto;
+		}
+		
+		catch(IndexOutOfBoundsException i) {
+			// An option line came before any option set name.
+			throw new AutoException(ExceptionSets.SETNAMENOTFOUND, filename);
+		}
+		
+		finally {
 			buffer.close();
-
 		}
 		
+	}
+	
+	/**
+	 * Read only the first line of a model file to get the auto name, without
+	 * building the Automobile.
+	 * @param filename the model file.
+	 * @return the auto name = make + model.
+	 * @throws AutoException if the file or the model name is missing.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public String readAutoName(String filename) throws AutoException, IOException {
+		BufferedReader buffer;
+		
+		try {
+			buffer = new BufferedReader(new FileReader(new File(filename)));
+		}
 		catch(FileNotFoundException f) {
-			AutoException a = new AutoException(ExceptionSets.FILENOTFOUND);
+			throw new AutoException(ExceptionSets.FILENOTFOUND, filename);
+		}
+		
+		try {
+			String line = buffer.readLine();
+			String[] tokens = line == null ? new String[0] : line.split("\t");
 			
-			int errNum = a.getErrNum();
+			// If the model name is blank.
+			if (tokens.length < 3 || tokens[1].equals(" ")) 
+				throw new AutoException(ExceptionSets.MODELNAMENOTFOUND, filename + ":1");
 			
-			// Print the error message
-			a.printException(errNum);
-			
-			// Output the log into a file called log.txt.
-			a.log();
+			return tokens[0] + " " + tokens[1];
 		}
-		
-		catch(IOException i) {
-			i.printStackTrace();
+		finally {
+			buffer.close();
+		}
+	}
+	
+	/**
+	 * Parse a whole-dollar price.
+	 * @param token the price as text.
+	 * @param filename the file the price is read from.
+	 * @param lineNum the line the price is read from.
+	 * @return the price in cents.
+	 * @throws AutoException if the token is not a number.
+	 */
+	private long parsePrice(String token, String filename, int lineNum) 
+			throws AutoException {
+		try {
+			return Integer.parseInt(token) * 100L;
+		}
+		catch(NumberFormatException n) {
+			throw new AutoException(ExceptionSets.OPTIONPRICENOTFOUND, 
+					filename + ":" + lineNum);
 		}
-		
-		return auto;
-		
 	}
 	
 	/**
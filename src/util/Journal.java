@@ -0,0 +1,887 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import model.AutoTable;
+import model.ChangeListener;
+
+/**
+ * This class is an append-only journal of the updates of a catalog, so that
+ * they survive a restart without rewriting the whole catalog after each one.
+ * It listens to the updates of the Automobiles (ChangeListener) and appends a
+ * small record for each one to a buffer. commit() makes the records appended
+ * so far durable: the first thread to commit writes and forces the records of
+ * every thread, while the threads that commit meanwhile wait and are covered
+ * by the next write (group commit). Many concurrent updates therefore share
+ * one fsync.
+ * A checkpoint writes the whole catalog to a CatalogSnapshot and drops the
+ * records before it. It does not stop the updates: the journal first moves
+ * on to a new segment file, then each Automobile is copied with its version,
+ * so on recovery a record is skipped if the snapshot already holds a version
+ * of the car at least as new. Recovery maps the latest snapshot, without
+ * reading its models, and replays the records after it; a record torn by a
+ * crash at the end of the journal is dropped.
+ *
+ * The journal directory holds snapshot-LSN.acat, the catalog holding every
+ * record before the log sequence number LSN, and journal-LSN.log, the
+ * segment of records starting at LSN. All numbers are big-endian, and
+ * strings are written as an unsigned short length and UTF-8 bytes.
+ * <pre>
+ * segment header (16 bytes)
+ *   int   magic "AJNL"
+ *   int   version
+ *   long  LSN of the first record
+ * record
+ *   int   length of the body
+ *   int   CRC32 of the body
+ *   body  long LSN, byte type, string auto name, long version of the car, then
+ *     BUILD       string make, string model, long base price in cents, int sets,
+ *                 (string set name, int options, (string name, long price)[options])[sets]
+ *     RENAME_SET  int set index, string new name
+ *     PRICE       int set index, int option index, long price in cents
+ *     DELETE_SET  int set index
+ *     DELETE_OP   int set index, int option index
+ *     ADD_OP      int set index, int option index, string option name, long price in cents
+ * </pre>
+ * @author ShuqinYe
+ *
+ */
+public class Journal implements ChangeListener, Closeable {
+
+	public static final int MAGIC = 0x414A4E4C; // "AJNL"
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	// Record types.
+	private static final byte BUILD = 1;
+	private static final byte RENAME_SET = 2;
+	private static final byte PRICE = 3;
+	private static final byte DELETE_SET = 4;
+	private static final byte DELETE_OP = 5;
+	private static final byte ADD_OP = 6;
+
+	// Record length, CRC32, LSN, type, auto name length and version.
+	private static final int RECORD_OVERHEAD = 4 + 4 + 8 + 1 + 2 + 8;
+
+	// A write buffer larger than this is not kept for the next batch.
+	private static final int MAX_SPARE = 1 << 20;
+
+	private final Path dir;
+	private final boolean fsync; // Force the records to the disk on commit.
+	private final Supplier<List<AutoTable>> catalog; // Copies the catalog for a checkpoint.
+
+	// Guarded by this.
+	private ByteBuffer pending = ByteBuffer.allocate(1 << 16); // Records not written yet.
+	private ByteBuffer spare; // The buffer of the last batch, to reuse.
+	private final CRC32 crc = new CRC32();
+	private FileChannel segment; // The segment records are written to.
+	private long segmentBytes; // Bytes of the segment, including the pending records.
+	private long nextLsn; // LSN of the next record.
+	private long durableLsn; // The records before it are written.
+	private boolean syncing; // A thread is writing the pending records.
+	private IOException failure; // The journal cannot be written any more.
+	private boolean closed;
+	private long records;
+	private long syncs;
+
+	// Checkpoints run one at a time.
+	private final Object checkpointLock = new Object();
+	// Held to start a new segment, so that it does not split a build.
+	private final Object buildLock = new Object();
+	private final AtomicBoolean checkpointing = new AtomicBoolean();
+	private volatile long checkpointSize; // Segment size starting a checkpoint, 0 for never.
+	private volatile long checkpoints;
+	private volatile long replayed;
+	private volatile long skipped;
+	private volatile long missing;
+
+
+	/**
+	 * Construct a journal. It is opened by open().
+	 * @param dir the journal directory, created if it does not exist.
+	 * @param fsync true to force the records to the disk on commit, false to
+	 * only write them to the operating system, which survives a crash of the
+	 * process but not of the machine.
+	 * @param catalog copies every Automobile of the catalog, for a checkpoint.
+	 */
+	public Journal(Path dir, boolean fsync, Supplier<List<AutoTable>> catalog) {
+		this.dir = dir;
+		this.fsync = fsync;
+		this.catalog = catalog;
+	}
+
+	/**
+	 * Recover the catalog from the latest snapshot and the records after it,
+	 * and open the journal for new records.
+	 * @param replayer applies the snapshot and the records to the catalog.
+	 * @return the number of records replayed.
+	 * @throws IOException if the journal cannot be read or is corrupt.
+	 */
+	public synchronized long open(Replayer replayer) throws IOException {
+		if (segment != null || closed) throw new IllegalStateException("The journal was opened");
+		Files.createDirectories(dir);
+
+		// Find the latest snapshot and the segments.
+		long snapshotLsn = -1;
+		List<Long> segments = new ArrayList<Long>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				long lsn = lsnOf(name, "snapshot-", ".acat");
+				if (lsn > snapshotLsn) snapshotLsn = lsn;
+				lsn = lsnOf(name, "journal-", ".log");
+				if (lsn >= 0) segments.add(lsn);
+			}
+		}
+		Collections.sort(segments);
+
+		long lsn = 0;
+		CatalogSnapshot snapshot = null;
+		if (snapshotLsn >= 0) {
+			snapshot = new CatalogSnapshot(dir.resolve(snapshotName(snapshotLsn)));
+			replayer.mapped(snapshot);
+			lsn = snapshotLsn;
+		}
+		// Car name -> version of the car, to skip the records already applied.
+		HashMap<String, Long> versions = new HashMap<String, Long>();
+
+		// Replay the segments after the snapshot, which follow one another.
+		long replayedRecords = 0;
+		long skippedRecords = 0;
+		long missingRecords = 0;
+		Path last = null;
+		long lastEnd = 0;
+		for (int i = 0; i < segments.size(); ++i) {
+			long start = segments.get(i);
+			if (start < lsn) continue; // Before the snapshot.
+			if (start != lsn)
+				throw new IOException("Journal records " + lsn + " to " + start + " are missing in " + dir);
+			last = dir.resolve(segmentName(start));
+			Replay replay = new Replay(replayer, snapshot, versions, start);
+			lastEnd = replay.run(last, i == segments.size() - 1);
+			lsn = replay.lsn;
+			replayedRecords += replay.applied;
+			skippedRecords += replay.skipped;
+			missingRecords += replay.missing;
+		}
+		replayed = replayedRecords;
+		skipped = skippedRecords;
+		missing = missingRecords;
+
+		// Go on writing the last segment after its last whole record.
+		if (last != null && lastEnd >= HEADER_SIZE) {
+			segment = FileChannel.open(last, StandardOpenOption.WRITE);
+			if (segment.size() > lastEnd) segment.truncate(lastEnd);
+			segment.position(lastEnd);
+			segmentBytes = lastEnd;
+		}
+		else {
+			segment = createSegment(lsn);
+			segmentBytes = HEADER_SIZE;
+		}
+		nextLsn = lsn;
+		durableLsn = lsn;
+		deleteBefore(snapshotLsn);
+		return replayedRecords;
+	}
+
+	/**
+	 * Wait until every record appended so far, by any thread, is written.
+	 * @throws IOException if the journal cannot be written.
+	 */
+	public void commit() throws IOException {
+		ByteBuffer batch;
+		FileChannel channel;
+		long end;
+		synchronized(this) {
+			end = nextLsn;
+			while (true) {
+				if (failure != null) throw new IOException("The journal failed", failure);
+				if (durableLsn >= end) return;
+				if (!syncing) break;
+				waitForSync();
+			}
+			// This thread writes the records of every thread waiting.
+			syncing = true;
+			end = nextLsn;
+			batch = takePending();
+			channel = segment;
+		}
+
+		IOException error = null;
+		try {
+			write(channel, batch);
+			if (fsync) channel.force(false);
+		}
+		catch(IOException e) {
+			error = e;
+		}
+		synchronized(this) {
+			syncing = false;
+			if (error == null) {
+				durableLsn = end;
+				++syncs;
+				recycle(batch);
+			}
+			else failure = error;
+			notifyAll();
+		}
+		if (error != null) throw error;
+
+		long size = checkpointSize;
+		if (size > 0 && getSegmentBytes() >= size) checkpointInBackground();
+	}
+
+	/**
+	 * Append the record of a built Automobile and register the Automobile, as
+	 * one step for checkpoints: a checkpoint either holds the Automobile or
+	 * comes before its record. The record is durable after commit().
+	 * @param table the copy of the Automobile.
+	 * @param register registers the Automobile in the catalog.
+	 */
+	public void logBuild(AutoTable table, Runnable register) {
+		byte[] body = encodeTable(table);
+		synchronized(buildLock) {
+			synchronized(this) {
+				int start = begin(BUILD, table.getName(), table.getVersion(), body.length);
+				if (start >= 0) {
+					pending.put(body);
+					end(start);
+				}
+			}
+			register.run();
+		}
+	}
+
+	@Override
+	public synchronized void opSetRenamed(String name, long version, int setIndex,
+			String newName) {
+		byte[] bytes = newName.getBytes(StandardCharsets.UTF_8);
+		int start = begin(RENAME_SET, name, version, 4 + 2 + bytes.length);
+		if (start < 0) return;
+		pending.putInt(setIndex);
+		putString(pending, bytes);
+		end(start);
+	}
+
+	@Override
+	public synchronized void opPriceChanged(String name, long version, int setIndex,
+			int opIndex, long priceCents) {
+		int start = begin(PRICE, name, version, 16);
+		if (start < 0) return;
+		pending.putInt(setIndex).putInt(opIndex).putLong(priceCents);
+		end(start);
+	}
+
+	@Override
+	public synchronized void opAdded(String name, long version, int setIndex,
+			int opIndex, String opName, long priceCents) {
+		byte[] bytes = opName.getBytes(StandardCharsets.UTF_8);
+		int start = begin(ADD_OP, name, version, 4 + 4 + 2 + bytes.length + 8);
+		if (start < 0) return;
+		pending.putInt(setIndex).putInt(opIndex);
+		putString(pending, bytes);
+		pending.putLong(priceCents);
+		end(start);
+	}
+
+	@Override
+	public synchronized void opSetDeleted(String name, long version, int setIndex) {
+		int start = begin(DELETE_SET, name, version, 4);
+		if (start < 0) return;
+		pending.putInt(setIndex);
+		end(start);
+	}
+
+	@Override
+	public synchronized void opDeleted(String name, long version, int setIndex, int opIndex) {
+		int start = begin(DELETE_OP, name, version, 8);
+		if (start < 0) return;
+		pending.putInt(setIndex).putInt(opIndex);
+		end(start);
+	}
+
+	/**
+	 * Write the whole catalog to a new snapshot and delete the records before
+	 * it. Updates go on while the snapshot is written.
+	 * @throws IOException if the snapshot or the journal cannot be written.
+	 */
+	public void checkpoint() throws IOException {
+		synchronized(checkpointLock) {
+			// Move on to a new segment, once the records of the old one are written.
+			ByteBuffer batch;
+			FileChannel old;
+			long lsn;
+			synchronized(buildLock) {
+				synchronized(this) {
+					if (segment == null || closed)
+						throw new IllegalStateException("The journal is not open");
+					while (syncing) waitForSync();
+					if (failure != null) throw new IOException("The journal failed", failure);
+					lsn = nextLsn;
+					FileChannel next = createSegment(lsn);
+					syncing = true;
+					batch = takePending();
+					old = segment;
+					segment = next;
+					segmentBytes = HEADER_SIZE;
+				}
+			}
+
+			IOException error = null;
+			try {
+				write(old, batch);
+				if (fsync) old.force(false);
+				old.close();
+			}
+			catch(IOException e) {
+				error = e;
+			}
+			synchronized(this) {
+				syncing = false;
+				if (error == null) durableLsn = lsn;
+				else failure = error;
+				notifyAll();
+			}
+			if (error != null) throw error;
+
+			// Copy the catalog while updates go on into the new segment.
+			// Written to a temporary file, forced and moved into place.
+			CatalogSnapshot.writeTables(dir.resolve(snapshotName(lsn)), catalog.get());
+			forceDir();
+
+			// The older snapshots and segments are no longer needed.
+			deleteBefore(lsn);
+			++checkpoints;
+		}
+	}
+
+	/**
+	 * Start a checkpoint automatically each time the current segment grows
+	 * past a size.
+	 * @param bytes the segment size, 0 for no automatic checkpoints.
+	 */
+	public void setCheckpointSize(long bytes) {
+		checkpointSize = bytes;
+	}
+
+	/**
+	 * Write the records appended so far and close the journal. Updates are no
+	 * longer journaled.
+	 * @throws IOException if the journal cannot be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(checkpointLock) {
+			try {
+				commit();
+			}
+			finally {
+				synchronized(this) {
+					closed = true;
+					if (segment != null) segment.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the number of records appended since the journal was opened.
+	 * @return the number of records.
+	 */
+	public synchronized long getRecords() { return records; }
+
+	/**
+	 * Get the number of writes of the records, each covering every commit
+	 * waiting for it.
+	 * @return the number of writes.
+	 */
+	public synchronized long getSyncs() { return syncs; }
+
+	/**
+	 * Get the size of the current segment, including the records not written
+	 * yet.
+	 * @return the size in bytes.
+	 */
+	public synchronized long getSegmentBytes() { return segmentBytes; }
+
+	/**
+	 * Get the number of checkpoints since the journal was opened.
+	 * @return the number of checkpoints.
+	 */
+	public long getCheckpoints() { return checkpoints; }
+
+	/**
+	 * Get the number of records replayed when the journal was opened.
+	 * @return the number of records.
+	 */
+	public long getReplayed() { return replayed; }
+
+	/**
+	 * Get the number of records skipped when the journal was opened, because
+	 * the snapshot already held them or they did not apply.
+	 * @return the number of records.
+	 */
+	public long getSkipped() { return skipped; }
+
+	/**
+	 * Get the number of records not replayed when the journal was opened,
+	 * because their car was not in the catalog.
+	 * @return the number of records.
+	 */
+	public long getMissing() { return missing; }
+
+	@Override
+	public String toString() {
+		long r = getRecords();
+		long s = getSyncs();
+		return String.format("%d records, %d syncs (%.1f records per sync), %d checkpoints, "
+				+ "%d bytes in the segment", r, s, s == 0 ? 0.0 : (double) r / s,
+				getCheckpoints(), getSegmentBytes());
+	}
+
+
+	// Below methods append records. The caller holds the lock of the journal.
+
+	/**
+	 * Start a record in the pending buffer.
+	 * @param extra the size of the record after the version.
+	 * @return the position of the record, -1 if the journal is not written.
+	 */
+	private int begin(byte type, String name, long version, int extra) {
+		if (segment == null || closed || failure != null) return -1;
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ensure(RECORD_OVERHEAD + bytes.length + extra);
+
+		int start = pending.position();
+		pending.position(start + 8); // Length and CRC32, see end().
+		pending.putLong(nextLsn).put(type);
+		putString(pending, bytes);
+		pending.putLong(version);
+		return start;
+	}
+
+	/**
+	 * Finish the record started at a position with its length and CRC32.
+	 */
+	private void end(int start) {
+		int length = pending.position() - start - 8;
+		crc.reset();
+		crc.update(pending.array(), start + 8, length);
+		pending.putInt(start, length);
+		pending.putInt(start + 4, (int) crc.getValue());
+		++nextLsn;
+		++records;
+		segmentBytes += 8 + length;
+	}
+
+	/**
+	 * Make room in the pending buffer.
+	 */
+	private void ensure(int bytes) {
+		if (pending.remaining() >= bytes) return;
+		int size = Math.max(pending.capacity() * 2, pending.position() + bytes);
+		ByteBuffer bigger = ByteBuffer.allocate(size);
+		pending.flip();
+		bigger.put(pending);
+		pending = bigger;
+	}
+
+	/**
+	 * Take the pending records to write them, leaving an empty buffer.
+	 */
+	private ByteBuffer takePending() {
+		ByteBuffer batch = pending;
+		batch.flip();
+		pending = spare != null ? spare : ByteBuffer.allocate(1 << 16);
+		spare = null;
+		return batch;
+	}
+
+	/**
+	 * Keep the buffer of a written batch for the next one.
+	 */
+	private void recycle(ByteBuffer batch) {
+		batch.clear();
+		if (batch.capacity() <= MAX_SPARE) spare = batch;
+	}
+
+	/**
+	 * Wait for the thread writing the records.
+	 */
+	private void waitForSync() throws InterruptedIOException {
+		try {
+			wait();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the journal");
+		}
+	}
+
+
+	// Below methods manage the files.
+
+	/**
+	 * Create an empty segment starting at an LSN.
+	 */
+	private FileChannel createSegment(long lsn) throws IOException {
+		FileChannel channel = FileChannel.open(dir.resolve(segmentName(lsn)),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putLong(lsn);
+		header.flip();
+		write(channel, header);
+		if (fsync) channel.force(true);
+		forceDir();
+		return channel;
+	}
+
+	/**
+	 * Delete the snapshots and segments before an LSN, and files left over by
+	 * a checkpoint that did not finish.
+	 */
+	private void deleteBefore(long lsn) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				long snapshot = lsnOf(name, "snapshot-", ".acat");
+				long start = lsnOf(name, "journal-", ".log");
+				if ((start >= 0 && start < lsn)
+						|| (name.startsWith("snapshot-") && name.endsWith(".tmp")))
+					Files.deleteIfExists(file);
+				else if (snapshot >= 0 && snapshot < lsn) {
+					try {
+						Files.deleteIfExists(file);
+					}
+					catch(IOException e) {
+						// Still mapped as the catalog image where that blocks deleting it.
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Force the directory, so that a created or renamed file survives a crash.
+	 */
+	private void forceDir() {
+		if (!fsync) return;
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		catch(IOException e) {
+			// Not every system can open a directory; the file itself was forced.
+		}
+	}
+
+	/**
+	 * Start a checkpoint on its own thread, unless one is running.
+	 */
+	private void checkpointInBackground() {
+		if (!checkpointing.compareAndSet(false, true)) return;
+		Thread thread = new Thread(() -> {
+			try {
+				checkpoint();
+			}
+			catch(IOException | RuntimeException e) {
+				e.printStackTrace();
+			}
+			finally {
+				checkpointing.set(false);
+			}
+		}, "journal-checkpoint");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static String snapshotName(long lsn) {
+		return String.format("snapshot-%016x.acat", lsn);
+	}
+
+	private static String segmentName(long lsn) {
+		return String.format("journal-%016x.log", lsn);
+	}
+
+	/**
+	 * Get the LSN in a file name.
+	 * @return the LSN, -1 if the name is not of the given kind.
+	 */
+	private static long lsnOf(String name, String prefix, String suffix) {
+		if (!name.startsWith(prefix) || !name.endsWith(suffix)) return -1;
+		try {
+			return Long.parseLong(name.substring(prefix.length(),
+					name.length() - suffix.length()), 16);
+		}
+		catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+
+
+	// Below methods encode and decode the fields of a record.
+
+	private static void putString(ByteBuffer buffer, byte[] bytes) {
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Encode the body of a BUILD record after the version.
+	 */
+	private static byte[] encodeTable(AutoTable table) {
+		List<byte[]> strings = new ArrayList<byte[]>();
+		strings.add(table.getMake().getBytes(StandardCharsets.UTF_8));
+		strings.add(table.getModel().getBytes(StandardCharsets.UTF_8));
+		for (int s = 0; s < table.getOpSetCount(); ++s) {
+			strings.add(table.getOpSetName(s).getBytes(StandardCharsets.UTF_8));
+			for (int o = table.getOpStart(s); o < table.getOpStart(s + 1); ++o)
+				strings.add(table.getOpName(o).getBytes(StandardCharsets.UTF_8));
+		}
+		int size = 8 + 4 + 4 * table.getOpSetCount() + 8 * table.getTotalOpCount();
+		for (byte[] s : strings) size += 2 + s.length;
+
+		ByteBuffer body = ByteBuffer.allocate(size);
+		int next = 0;
+		putString(body, strings.get(next++));
+		putString(body, strings.get(next++));
+		body.putLong(table.getBasePriceCents());
+		body.putInt(table.getOpSetCount());
+		for (int s = 0; s < table.getOpSetCount(); ++s) {
+			putString(body, strings.get(next++));
+			body.putInt(table.getOpCount(s));
+			for (int o = table.getOpStart(s); o < table.getOpStart(s + 1); ++o) {
+				putString(body, strings.get(next++));
+				body.putLong(table.getOpPriceCents(o));
+			}
+		}
+		return body.array();
+	}
+
+	/**
+	 * Decode the body of a BUILD record after the version.
+	 */
+	private static AutoTable decodeTable(ByteBuffer body, long version) {
+		String make = getString(body);
+		String model = getString(body);
+		long basePrice = body.getLong();
+		int sets = body.getInt();
+
+		String[] setNames = new String[sets];
+		int[] setStart = new int[sets + 1];
+		List<String> opNames = new ArrayList<String>();
+		List<Long> opPrices = new ArrayList<Long>();
+		for (int s = 0; s < sets; ++s) {
+			setNames[s] = getString(body);
+			setStart[s] = opNames.size();
+			int options = body.getInt();
+			for (int o = 0; o < options; ++o) {
+				opNames.add(getString(body));
+				opPrices.add(body.getLong());
+			}
+		}
+		setStart[sets] = opNames.size();
+
+		long[] prices = new long[opPrices.size()];
+		for (int o = 0; o < prices.length; ++o) prices[o] = opPrices.get(o);
+		return new AutoTable(make, model, basePrice, setNames, setStart,
+				opNames.toArray(new String[0]), prices, version);
+	}
+
+
+	/**
+	 * Provides an API for applying the snapshot and the records of a journal
+	 * to a catalog on recovery. Only the records of cars that are known and
+	 * newer than the car are applied, and the version given is the version the
+	 * car must have afterwards.
+	 */
+	public interface Replayer extends ChangeListener {
+
+		/**
+		 * The catalog is the catalog of the snapshot, before the records are
+		 * replayed.
+		 * @param snapshot the opened snapshot.
+		 */
+		public void mapped(CatalogSnapshot snapshot);
+
+		/**
+		 * An Automobile was built. It replaces the Automobile of the same name.
+		 * @param table the copy of the Automobile, with its version.
+		 */
+		public void built(AutoTable table);
+
+		/**
+		 * Check whether a car is in the catalog, before a record of the car
+		 * is replayed.
+		 * @param name the car name.
+		 * @return true if the car is in the catalog.
+		 */
+		public boolean contains(String name);
+
+	}
+
+	/**
+	 * The replay of one segment.
+	 */
+	private static class Replay {
+
+		private final Replayer replayer;
+		private final CatalogSnapshot snapshot; // Can be null.
+		private final HashMap<String, Long> versions; // Versions after the snapshot.
+		private long lsn; // LSN of the next record.
+		private long applied;
+		private long skipped;
+		private long missing; // Records of cars not in the catalog.
+
+		private Replay(Replayer replayer, CatalogSnapshot snapshot,
+				HashMap<String, Long> versions, long lsn) {
+			this.replayer = replayer;
+			this.snapshot = snapshot;
+			this.versions = versions;
+			this.lsn = lsn;
+		}
+
+		/**
+		 * Replay the records of a segment.
+		 * @param file the segment.
+		 * @param last true for the last segment, which may end in a torn record.
+		 * @return the end of the last whole record.
+		 * @throws IOException if the segment cannot be read or is corrupt.
+		 */
+		private long run(Path file, boolean last) throws IOException {
+			MappedByteBuffer buf;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				if (channel.size() > Integer.MAX_VALUE)
+					throw new IOException("Journal segment too large to map: " + file);
+				buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+
+			if (buf.limit() < HEADER_SIZE) {
+				// Cut short by a crash while it was created.
+				if (last) return 0;
+				throw new IOException("Corrupt journal segment: " + file);
+			}
+			if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getLong(8) != lsn)
+				throw new IOException("Not a journal segment starting at " + lsn + ": " + file);
+
+			CRC32 crc = new CRC32();
+			int pos = HEADER_SIZE;
+			while (pos < buf.limit()) {
+				int length = buf.limit() - pos >= 8 ? buf.getInt(pos) : -1;
+				boolean whole = length >= 9 && length <= buf.limit() - pos - 8;
+				if (whole) {
+					ByteBuffer body = buf.duplicate();
+					body.position(pos + 8).limit(pos + 8 + length);
+					crc.reset();
+					crc.update(body.duplicate());
+					whole = (int) crc.getValue() == buf.getInt(pos + 4)
+							&& body.getLong(pos + 8) == lsn;
+				}
+				if (!whole) {
+					// A torn record at the end of the journal was never committed.
+					if (last) return pos;
+					throw new IOException("Corrupt journal record " + lsn + " in " + file);
+				}
+
+				ByteBuffer body = buf.duplicate();
+				body.position(pos + 8 + 8).limit(pos + 8 + length);
+				apply(body);
+				++lsn;
+				pos += 8 + length;
+			}
+			return pos;
+		}
+
+		/**
+		 * Apply one record, from its type on.
+		 */
+		private void apply(ByteBuffer body) {
+			byte type = body.get();
+			String name = getString(body);
+			long version = body.getLong();
+			if (type == BUILD) {
+				// A build replaces the car, so it always applies.
+				replayer.built(decodeTable(body, version));
+				versions.put(name, version);
+				++applied;
+				return;
+			}
+
+			Long current = versions.get(name);
+			if (current == null && snapshot != null) {
+				AutoTable table = snapshot.readTable(name);
+				if (table != null) current = table.getVersion();
+			}
+			if (current == null || version <= current) {
+				++skipped;
+				return;
+			}
+			if (!replayer.contains(name)) {
+				++missing;
+				return;
+			}
+			try {
+				switch(type) {
+				case RENAME_SET:
+					int setIndex = body.getInt();
+					replayer.opSetRenamed(name, version, setIndex, getString(body));
+					break;
+				case PRICE:
+					replayer.opPriceChanged(name, version, body.getInt(), body.getInt(),
+							body.getLong());
+					break;
+				case DELETE_SET:
+					replayer.opSetDeleted(name, version, body.getInt());
+					break;
+				case DELETE_OP:
+					replayer.opDeleted(name, version, body.getInt(), body.getInt());
+					break;
+				case ADD_OP:
+					setIndex = body.getInt();
+					int opIndex = body.getInt();
+					replayer.opAdded(name, version, setIndex, opIndex, getString(body),
+							body.getLong());
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown journal record type " + type);
+				}
+				versions.put(name, version);
+				++applied;
+			}
+			catch(RuntimeException e) {
+				// The record does not fit the car, which a later build replaces.
+				++skipped;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,49 @@
+package util;
+
+/**
+ * This class describes why one file could not be loaded by the BulkLoader.
+ * @author ShuqinYe
+ *
+ */
+public class LoadError {
+
+	private final String filename; // The file that failed to load.
+	private final int errNum; // Error number from ExceptionSets, 0 if none.
+	private final String message; // What went wrong.
+
+	/**
+	 * Construct a load error.
+	 * @param filename the file that failed to load.
+	 * @param errNum the error number from ExceptionSets, 0 for an I/O error.
+	 * @param message what went wrong, with the line number if known.
+	 */
+	public LoadError(String filename, int errNum, String message) {
+		this.filename = filename;
+		this.errNum = errNum;
+		this.message = message;
+	}
+
+	/**
+	 * Get the name of the file that failed to load.
+	 * @return the file name.
+	 */
+	public String getFilename() { return filename; }
+
+	/**
+	 * Get the error number from ExceptionSets.
+	 * @return the error number, 0 for an I/O error.
+	 */
+	public int getErrNum() { return errNum; }
+
+	/**
+	 * Get the error message.
+	 * @return the error message.
+	 */
+	public String getMessage() { return message; }
+
+	@Override
+	public String toString() {
+		return filename + "\t" + message;
+	}
+
+}
@@ -0,0 +1,18 @@
+package util;
+
+/**
+ * Provides an API for following the progress of a BulkLoader.
+ * @author ShuqinYe
+ *
+ */
+public interface LoadListener {
+
+	/**
+	 * Called each time a batch of files has been loaded.
+	 * The method can be called from several threads at the same time.
+	 * @param done the number of files processed so far, failed ones included.
+	 * @param total the number of files to be processed.
+	 */
+	public void progress(int done, int total);
+
+}
@@ -0,0 +1,82 @@
+package util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is the result of one BulkLoader run: how many files were loaded,
+ * which files failed and why, and how fast the run was.
+ * @author ShuqinYe
+ *
+ */
+public class LoadReport {
+
+	private final int total; // Number of files found.
+	private final int loaded; // Number of Automobiles built.
+	private final List<LoadError> errors; // Files that failed.
+	private final long elapsedNanos; // Wall clock time of the run.
+	private final int parallelism; // Number of threads used.
+
+	/**
+	 * Construct a load report.
+	 * @param total the number of files found.
+	 * @param loaded the number of Automobiles built.
+	 * @param errors the files that failed.
+	 * @param elapsedNanos the wall clock time of the run in nanoseconds.
+	 * @param parallelism the number of threads used.
+	 */
+	public LoadReport(int total, int loaded, List<LoadError> errors,
+			long elapsedNanos, int parallelism) {
+		this.total = total;
+		this.loaded = loaded;
+		this.errors = Collections.unmodifiableList(errors);
+		this.elapsedNanos = elapsedNanos;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Get the number of files found.
+	 * @return the number of files.
+	 */
+	public int getTotal() { return total; }
+
+	/**
+	 * Get the number of Automobiles built.
+	 * @return the number of Automobiles.
+	 */
+	public int getLoaded() { return loaded; }
+
+	/**
+	 * Get the files that failed to load.
+	 * @return the errors.
+	 */
+	public List<LoadError> getErrors() { return errors; }
+
+	/**
+	 * Get the wall clock time of the run.
+	 * @return the time in nanoseconds.
+	 */
+	public long getElapsedNanos() { return elapsedNanos; }
+
+	/**
+	 * Get the number of threads used.
+	 * @return the number of threads.
+	 */
+	public int getParallelism() { return parallelism; }
+
+	/**
+	 * Get the number of files processed per second.
+	 * @return the throughput in files per second.
+	 */
+	public double getFilesPerSecond() {
+		return elapsedNanos == 0 ? 0 : total * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Loaded %d of %d files (%d errors) in %.1f ms "
+				+ "on %d threads, %.0f files/sec", loaded, total, errors.size(),
+				elapsedNanos / 1e6, parallelism, getFilesPerSecond());
+	}
+
+}
@@ -0,0 +1,267 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import exceptions.AutoException;
+import exceptions.ExceptionSets;
+import model.Automobile;
+
+/**
+ * This class builds an Automobile from a model file the same way as
+ * FileIO.parseAutoObj(), but without a Reader: the file is memory-mapped and
+ * tabs and line ends are found directly on the bytes. Prices are parsed from
+ * the bytes without creating Strings, and only the names the Automobile keeps
+ * are decoded. The charset must be ASCII compatible (UTF-8, ISO-8859-1...),
+ * which is true of the platform charsets FileIO reads with.
+ * One parser can be reused for many files, but not by two threads at once.
+ * @author ShuqinYe
+ *
+ */
+public class MappedAutoParser {
+
+	private static final byte TAB = '\t';
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	private final Charset charset; // Charset the names are decoded with.
+	private byte[] scratch = new byte[256]; // Bytes of the name being decoded.
+
+	// Start and end offsets of the fields of the current line. A line has at
+	// most 3 fields that matter, the rest are ignored like String.split does.
+	private final int[] starts = new int[3];
+	private final int[] ends = new int[3];
+
+
+	/**
+	 * Construct a parser decoding names with the platform charset, like
+	 * FileReader does.
+	 */
+	public MappedAutoParser() {
+		this(Charset.defaultCharset());
+	}
+
+	/**
+	 * Construct a parser.
+	 * @param charset the charset the names are decoded with.
+	 */
+	public MappedAutoParser(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Reads a file and build Automobile object with all option sets and options.
+	 * @param filename the file to read the input from.
+	 * @return an automobile with all option sets and options.
+	 * @throws AutoException if the file, the model name or a price is missing.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public Automobile parse(String filename) throws AutoException, IOException {
+		MappedByteBuffer buf;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Model file too large to map: " + filename);
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		catch(NoSuchFileException f) {
+			throw new AutoException(ExceptionSets.FILENOTFOUND, filename);
+		}
+
+		return parse(buf, filename);
+	}
+
+	/**
+	 * Build an Automobile from the bytes of a model file.
+	 * @param buf the bytes, from position 0 to the limit.
+	 * @param filename the file the bytes come from, for error details.
+	 * @return an automobile with all option sets and options.
+	 * @throws AutoException if the model name or a price is missing.
+	 */
+	public Automobile parse(ByteBuffer buf, String filename) throws AutoException {
+		int limit = buf.limit();
+		int lineNum = 1;
+
+		// The first line has the make, model and base price.
+		int lineEnd = lineEnd(buf, 0, limit);
+		int fields = lineEnd == -1 ? 0 : splitLine(buf, 0, lineEnd);
+
+		// If the model name is blank.
+		if (fields < 3 || isBlank(buf, starts[1], ends[1]))
+			throw new AutoException(ExceptionSets.MODELNAMENOTFOUND,
+					filename + ":" + lineNum);
+
+		String make = decode(buf, starts[0], ends[0]);
+		String model = decode(buf, starts[1], ends[1]);
+		long basePriceCents = parsePrice(buf, starts[2], ends[2], filename, lineNum);
+
+		Automobile auto = new Automobile(make, model, 0);
+		auto.setBasePriceCents(basePriceCents);
+
+		String setName = ""; // The name of an option set.
+		int pos = nextLine(buf, lineEnd, limit);
+
+		// Read the rest of the file line by line until end of the file.
+		while (pos < limit) {
+			lineEnd = lineEnd(buf, pos, limit);
+			++lineNum;
+			fields = splitLine(buf, pos, lineEnd);
+
+			// The line is the option set name.
+			if (fields == 1) {
+				setName = decode(buf, starts[0], ends[0]);
+				auto.addEmptyOpSet(setName);
+			}
+
+			// A line of only tabs has no fields, which FileIO fails on too.
+			else if (fields == 0) {
+				throw new AutoException(ExceptionSets.SETNAMENOTFOUND, filename);
+			}
+
+			// The line is one option with name and price.
+			else {
+				long opPriceCents = parsePrice(buf, starts[1], ends[1], filename, lineNum);
+				String opName = decode(buf, starts[0], ends[0]);
+				try {
+					auto.addOptionCents(setName, opName, opPriceCents);
+				}
+				catch(IndexOutOfBoundsException i) {
+					// An option line came before any option set name.
+					throw new AutoException(ExceptionSets.SETNAMENOTFOUND, filename);
+				}
+			}
+
+			pos = nextLine(buf, lineEnd, limit);
+		}
+
+		auto.trimToSize();
+		return auto;
+	}
+
+	/**
+	 * Find the end of the line starting at a position.
+	 * @return the offset of the line terminator, or the limit for the last
+	 * line, or -1 if the position is already at the limit (no line).
+	 */
+	private static int lineEnd(ByteBuffer buf, int pos, int limit) {
+		if (pos >= limit) return -1;
+		while (pos < limit) {
+			byte b = buf.get(pos);
+			if (b == LF || b == CR) return pos;
+			++pos;
+		}
+		return limit;
+	}
+
+	/**
+	 * Skip the line terminator at a position: "\n", "\r" or "\r\n", as
+	 * BufferedReader.readLine() does.
+	 * @return the offset of the next line.
+	 */
+	private static int nextLine(ByteBuffer buf, int lineEnd, int limit) {
+		if (lineEnd < 0 || lineEnd >= limit) return limit;
+		if (buf.get(lineEnd) == CR && lineEnd + 1 < limit && buf.get(lineEnd + 1) == LF)
+			return lineEnd + 2;
+		return lineEnd + 1;
+	}
+
+	/**
+	 * Split a line at its tabs into starts and ends, with the same number of
+	 * fields as String.split("\t"): trailing empty fields are dropped, and an
+	 * empty line is one empty field.
+	 * @return the number of fields.
+	 */
+	private int splitLine(ByteBuffer buf, int from, int to) {
+		if (from == to) {
+			starts[0] = ends[0] = from;
+			return 1;
+		}
+
+		int fields = 0; // Fields up to the last non-empty one.
+		int count = 0; // All fields seen so far.
+		int start = from;
+
+		for (int pos = from; pos <= to; ++pos) {
+			if (pos < to && buf.get(pos) != TAB) continue;
+
+			if (count < starts.length) {
+				starts[count] = start;
+				ends[count] = pos;
+			}
+			++count;
+			if (pos > start) fields = count;
+			start = pos + 1;
+		}
+		return fields;
+	}
+
+	/**
+	 * Check whether a field is exactly one space, which FileIO treats as a
+	 * missing model name.
+	 */
+	private static boolean isBlank(ByteBuffer buf, int from, int to) {
+		return to - from == 1 && buf.get(from) == ' ';
+	}
+
+	/**
+	 * Decode a field into a String.
+	 */
+	private String decode(ByteBuffer buf, int from, int to) {
+		int len = to - from;
+		if (len > scratch.length) scratch = new byte[Math.max(len, scratch.length * 2)];
+		for (int i = 0; i < len; ++i) scratch[i] = buf.get(from + i);
+		return new String(scratch, 0, len, charset);
+	}
+
+	/**
+	 * Parse a whole-dollar price with the rules of Integer.parseInt(), without
+	 * creating a String.
+	 * @return the price in cents.
+	 * @throws AutoException if the field is not an int.
+	 */
+	private long parsePrice(ByteBuffer buf, int from, int to, String filename,
+			int lineNum) throws AutoException {
+		int pos = from;
+		boolean negative = false;
+
+		if (pos < to && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+			negative = buf.get(pos) == '-';
+			++pos;
+		}
+
+		// Accumulate negatively, as Integer.parseInt does, to reach MIN_VALUE.
+		long value = 0;
+		boolean digits = false;
+		for (; pos < to; ++pos) {
+			int digit = buf.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				digits = false;
+				break;
+			}
+			value = value * 10 - digit;
+			digits = true;
+			if (value < Integer.MIN_VALUE) break;
+		}
+
+		if (!digits || value < Integer.MIN_VALUE || (!negative && value == Integer.MIN_VALUE)) {
+			// Let Integer.parseInt decide the rare cases, e.g. non-ASCII digits.
+			try {
+				return Integer.parseInt(decode(buf, from, to)) * 100L;
+			}
+			catch(NumberFormatException n) {
+				throw new AutoException(ExceptionSets.OPTIONPRICENOTFOUND,
+						filename + ":" + lineNum);
+			}
+		}
+		return (negative ? value : -value) * 100;
+	}
+
+}
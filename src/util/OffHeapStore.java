@@ -0,0 +1,1078 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import model.AutoTable;
+import model.Automobile;
+import model.ChangeListener;
+
+/**
+ * This class keeps models outside of the Java heap, for catalogs too large to
+ * hold as Automobile objects without long garbage collections. Each model is
+ * one record in a segment of direct memory, or of a memory-mapped file so the
+ * store survives a restart. The heap only holds an index of the records: an
+ * open-addressing table of the record address and the hash of the auto name,
+ * 12 bytes a slot, with at most three models for four slots.
+ * Option prices, chosen options and option set names of the same length are
+ * changed in place. Other changes write a new record at the end of the store
+ * and mark the old one dead; the space of dead records is not reused.
+ * Readers and writers of one model are serialized by a lock striped by auto
+ * name, and the models are read and changed by exact names only.
+ *
+ * All numbers are big-endian, and strings are written as an unsigned short
+ * length and UTF-8 bytes. Records do not span segments.
+ * <pre>
+ * header, at the start of the first segment (16 bytes)
+ *   int   magic "AOHS"
+ *   int   version
+ *   int   segment size
+ *   int   unused
+ * record
+ *   int   state: "AREC" live, "DEAD" replaced or removed, 0 while written,
+ *         and a state and length of 0 past the last record of a segment
+ *   int   length of the record
+ *   long  version of the car
+ *   long  base price in cents
+ *   string make, string model
+ *   int   sets
+ *   set[sets]
+ * set
+ *   int   length of the set
+ *   short chosen option or -1
+ *   string set name
+ *   int   options
+ *   long  price in cents[options]
+ *   string option name[options]
+ * </pre>
+ * The length of each set and the column of prices let a lookup skip the
+ * sets before the one it wants and read the price of an option by index.
+ * @author ShuqinYe
+ *
+ */
+public class OffHeapStore implements Closeable {
+
+	public static final int MAGIC = 0x414F4853; // "AOHS"
+	public static final int VERSION = 1;
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	private static final int HEADER_SIZE = 16;
+
+	// Record states.
+	private static final int LIVE = 0x41524543; // "AREC"
+	private static final int DEAD = 0x44454144; // "DEAD"
+
+	// Offsets within a record.
+	private static final int LENGTH = 4;
+	private static final int CAR_VERSION = 8;
+	private static final int BASE_PRICE = 16;
+	private static final int MAKE = 24;
+
+	private static final long REMOVED = -1; // A removed slot of the index.
+	private static final int STRIPES = 64;
+
+	private final FileChannel channel; // The store file, null in direct memory.
+	private final int segmentSize;
+
+	// The segments, replaced by a longer array when one is added.
+	private volatile ByteBuffer[] segments = new ByteBuffer[0];
+	private long end; // Address of the next record, guarded by this.
+
+	// Auto name -> record. Slots hold the record address + 1, 0 for a free
+	// slot or REMOVED; hashes hold the hash of the auto name.
+	private long[] slots = new long[1024];
+	private int[] hashes = new int[1024];
+	private int count; // Models in the index.
+	private int used; // Slots not free, with the removed ones.
+	private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+	// The records of a model are read and changed under the stripe of its name.
+	private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+
+	private volatile ChangeListener listener;
+
+	// Counters.
+	private final AtomicLong liveBytes = new AtomicLong();
+	private final AtomicLong deadBytes = new AtomicLong();
+	private final LongAdder inPlace = new LongAdder();
+	private final LongAdder rewritten = new LongAdder();
+
+
+	/**
+	 * Construct an empty store in direct memory.
+	 * @param segmentSize the size of each segment of memory, which limits
+	 * the size of one model.
+	 */
+	public OffHeapStore(int segmentSize) {
+		if (segmentSize < 4096) throw new IllegalArgumentException("segmentSize " + segmentSize);
+		this.channel = null;
+		this.segmentSize = segmentSize;
+		for (int i = 0; i < STRIPES; ++i) stripes[i] = new ReentrantReadWriteLock();
+		end = HEADER_SIZE;
+		addSegment();
+	}
+
+	/**
+	 * Open a store kept in a file, creating the file if it does not exist.
+	 * The models already in the file are indexed; a record torn by a crash
+	 * is dropped.
+	 * @param file the store file.
+	 * @param segmentSize the size of each segment of a new file; an existing
+	 * file keeps its own.
+	 * @throws IOException if the file cannot be read or is not a store.
+	 */
+	public OffHeapStore(Path file, int segmentSize) throws IOException {
+		if (segmentSize < 4096) throw new IllegalArgumentException("segmentSize " + segmentSize);
+		for (int i = 0; i < STRIPES; ++i) stripes[i] = new ReentrantReadWriteLock();
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			long size = channel.size();
+			if (size == 0) {
+				this.segmentSize = segmentSize;
+				end = HEADER_SIZE;
+				addSegment();
+				return;
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header, header.position()) > 0);
+			if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC)
+				throw new IOException("Not an off-heap store: " + file);
+			if (header.getInt(4) != VERSION)
+				throw new IOException("Unsupported off-heap store version " + header.getInt(4)
+						+ ": " + file);
+			this.segmentSize = header.getInt(8);
+			if (this.segmentSize < 4096) throw new IOException("Bad segment size: " + file);
+
+			long segmentCount = (size + this.segmentSize - 1) / this.segmentSize;
+			for (long i = 0; i < segmentCount; ++i) addSegment();
+			scan();
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Set the listener told about the changes of the models, after they are
+	 * applied and under the lock of the model, as an Automobile does.
+	 * @param listener the listener, null for none.
+	 */
+	public void setChangeListener(ChangeListener listener) {
+		this.listener = listener;
+	}
+
+
+	// Below methods add, read and remove whole models.
+
+	/**
+	 * Store a model, replacing the model of the same name. No option is
+	 * chosen.
+	 * @param table the model.
+	 */
+	public void put(AutoTable table) {
+		String name = table.getName();
+		Lock lock = stripe(name).writeLock();
+		lock.lock();
+		try {
+			long address = write(Model.of(table));
+			int hash = name.hashCode();
+			long old;
+			indexLock.writeLock().lock();
+			try {
+				int slot = find(name, bytes(name), hash);
+				old = slot == -1 ? -1 : slots[slot] - 1;
+				if (slot == -1) insert(hash, address);
+				else slots[slot] = address + 1;
+			}
+			finally {
+				indexLock.writeLock().unlock();
+			}
+			if (old != -1) kill(old);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Read a model.
+	 * @param name the auto name = make + model.
+	 * @return a copy of the model, null if it is not in the store.
+	 */
+	public AutoTable readTable(String name) {
+		Model model = readModel(name);
+		return model == null ? null : model.toTable();
+	}
+
+	/**
+	 * Read a model as an Automobile, with the options chosen in the store.
+	 * The Automobile is a copy: changing it does not change the store.
+	 * @param name the auto name = make + model.
+	 * @return the copy, null if the model is not in the store.
+	 */
+	public Automobile read(String name) {
+		Model model = readModel(name);
+		if (model == null) return null;
+		Automobile auto = model.toTable().toAutomobile();
+		// By index, as names may repeat within a model.
+		for (int s = 0; s < model.sets.size(); ++s) {
+			short choice = model.sets.get(s).choice;
+			if (choice >= 0) auto.setOpChoice(s, choice);
+		}
+		auto.setVersion(model.version);
+		return auto;
+	}
+
+	/**
+	 * Check whether a model is in the store.
+	 * @param name the auto name = make + model.
+	 * @return true if the model is in the store.
+	 */
+	public boolean contains(String name) {
+		return address(name) != -1;
+	}
+
+	/**
+	 * Remove a model.
+	 * @param name the auto name = make + model.
+	 * @return false if the model is not in the store.
+	 */
+	public boolean remove(String name) {
+		Lock lock = stripe(name).writeLock();
+		lock.lock();
+		try {
+			long old;
+			indexLock.writeLock().lock();
+			try {
+				int slot = find(name, bytes(name), name.hashCode());
+				if (slot == -1) return false;
+				old = slots[slot] - 1;
+				slots[slot] = REMOVED;
+				--count;
+			}
+			finally {
+				indexLock.writeLock().unlock();
+			}
+			kill(old);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the names of all models, in the order their records were written.
+	 * @return the auto names.
+	 */
+	public List<String> names() {
+		long[] addresses;
+		indexLock.readLock().lock();
+		try {
+			addresses = new long[count];
+			int n = 0;
+			for (long slot : slots) if (slot > 0) addresses[n++] = slot - 1;
+		}
+		finally {
+			indexLock.readLock().unlock();
+		}
+		Arrays.sort(addresses);
+
+		List<String> names = new ArrayList<String>(addresses.length);
+		for (long address : addresses)
+			names.add(recordName(segment(address), offset(address)));
+		return names;
+	}
+
+	/**
+	 * Get the number of models.
+	 * @return the number of models.
+	 */
+	public int size() {
+		indexLock.readLock().lock();
+		try {
+			return count;
+		}
+		finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+
+	// Below methods read a model without copying it.
+
+	/**
+	 * Get the text of a model, as Automobile.getAuto() writes it.
+	 * @param name the auto name = make + model.
+	 * @return the text, null if the model is not in the store.
+	 */
+	public String getAutoText(String name) {
+		AutoTable table = readTable(name);
+		return table == null ? null : table.getAuto();
+	}
+
+	/**
+	 * Get the base price of a model plus the prices of the options chosen.
+	 * @param name the auto name = make + model.
+	 * @return the total price in cents, -1 if the model is not in the store.
+	 */
+	public long getTotalPriceCents(String name) {
+		Lock lock = stripe(name).readLock();
+		lock.lock();
+		try {
+			long address = address(name);
+			if (address == -1) return -1;
+			ByteBuffer b = segment(address);
+			int rec = offset(address);
+			long total = b.getLong(rec + BASE_PRICE);
+
+			int pos = setsStart(b, rec);
+			int sets = b.getInt(pos);
+			pos += 4;
+			for (int s = 0; s < sets; ++s) {
+				short choice = b.getShort(pos + 4);
+				if (choice >= 0) total += b.getLong(skipString(b, pos + 6) + 4 + 8 * choice);
+				pos += b.getInt(pos);
+			}
+			return total;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+
+	// Below methods change a model, in place when its record keeps its size.
+
+	/**
+	 * Update the price of an option, in place.
+	 * @return false if the model, the option set or the option is not found.
+	 */
+	public boolean updateOpPriceCents(String name, String setName, String opName,
+			long priceCents) {
+		Lock lock = stripe(name).writeLock();
+		lock.lock();
+		try {
+			long address = address(name);
+			if (address == -1) return false;
+			ByteBuffer b = segment(address);
+			int rec = offset(address);
+			int[] at = findOption(b, rec, bytes(setName), bytes(opName));
+			if (at == null) return false;
+
+			b.putLong(at[2], priceCents);
+			long version = bump(b, rec);
+			inPlace.increment();
+			ChangeListener l = listener;
+			if (l != null) l.opPriceChanged(name, version, at[0], at[1], priceCents);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Choose an option of an option set, in place.
+	 * @return false if the model, the option set or the option is not found.
+	 */
+	public boolean setOpChoice(String name, String setName, String opName) {
+		Lock lock = stripe(name).writeLock();
+		lock.lock();
+		try {
+			long address = address(name);
+			if (address == -1) return false;
+			ByteBuffer b = segment(address);
+			int rec = offset(address);
+			int[] at = findOption(b, rec, bytes(setName), bytes(opName));
+			if (at == null) return false;
+
+			b.putShort(at[3], (short) at[1]);
+			bump(b, rec);
+			inPlace.increment();
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Rename an option set, in place if the new name has the same length.
+	 * @return false if the model or the option set is not found.
+	 */
+	public boolean updateOpSetName(String name, String setName, String newName) {
+		Lock lock = stripe(name).writeLock();
+		lock.lock();
+		try {
+			long address = address(name);
+			if (address == -1) return false;
+			ByteBuffer b = segment(address);
+			int rec = offset(address);
+			byte[] from = bytes(setName);
+			int[] at = findSet(b, rec, from);
+			if (at == null) return false;
+
+			long version;
+			byte[] to = bytes(newName);
+			if (to.length == from.length) {
+				ByteBuffer d = b.duplicate();
+				d.position(at[1] + 2);
+				d.put(to);
+				version = bump(b, rec);
+				inPlace.increment();
+			}
+			else {
+				Model model = decode(b, rec);
+				model.sets.get(at[0]).name = newName;
+				version = replace(name, address, model);
+			}
+			ChangeListener l = listener;
+			if (l != null) l.opSetRenamed(name, version, at[0], newName);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add an option at the end of an option set.
+	 * @return false if the model or the option set is not found.
+	 */
+	public boolean addOptionCents(String name, String setName, String opName,
+			long priceCents) {
+		Lock lock = stripe(name).writeLock();
+		lock.lock();
+		try {
+			long address = address(name);
+			if (address == -1) return false;
+			Model model = decode(segment(address), offset(address));
+			int s = model.findSet(setName);
+			if (s == -1) return false;
+
+			SetRecord set = model.sets.get(s);
+			set.opNames.add(opName);
+			set.prices.add(priceCents);
+			long version = replace(name, address, model);
+			ChangeListener l = listener;
+			if (l != null) l.opAdded(name, version, s, set.opNames.size() - 1, opName, priceCents);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Delete an option set.
+	 * @return false if the model or the option set is not found.
+	 */
+	public boolean deleteOpSet(String name, String setName) {
+		Lock lock = stripe(name).writeLock();
+		lock.lock();
+		try {
+			long address = address(name);
+			if (address == -1) return false;
+			Model model = decode(segment(address), offset(address));
+			int s = model.findSet(setName);
+			if (s == -1) return false;
+
+			model.sets.remove(s);
+			long version = replace(name, address, model);
+			ChangeListener l = listener;
+			if (l != null) l.opSetDeleted(name, version, s);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Delete an option.
+	 * @return false if the model, the option set or the option is not found.
+	 */
+	public boolean deleteOp(String name, String setName, String opName) {
+		Lock lock = stripe(name).writeLock();
+		lock.lock();
+		try {
+			long address = address(name);
+			if (address == -1) return false;
+			Model model = decode(segment(address), offset(address));
+			int s = model.findSet(setName);
+			if (s == -1) return false;
+			SetRecord set = model.sets.get(s);
+			int o = set.opNames.indexOf(opName);
+			if (o == -1) return false;
+
+			set.opNames.remove(o);
+			set.prices.remove(o);
+			// A deleted option can no longer be chosen, and the options after
+			// it have shifted down by one.
+			if (set.choice == o) set.choice = -1;
+			else if (set.choice > o) --set.choice;
+			long version = replace(name, address, model);
+			ChangeListener l = listener;
+			if (l != null) l.opDeleted(name, version, s, o);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * Force the changes of a store kept in a file to the disk.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void force() throws IOException {
+		if (channel == null) return;
+		for (ByteBuffer segment : segments) ((MappedByteBuffer) segment).force();
+	}
+
+	/**
+	 * Force the changes to the disk and close the file. The memory of the
+	 * segments is freed once they are garbage collected.
+	 * @throws IOException if the file cannot be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel == null) return;
+		force();
+		channel.close();
+	}
+
+	/**
+	 * Get the bytes of the live records.
+	 * @return the size in bytes.
+	 */
+	public long getLiveBytes() { return liveBytes.get(); }
+
+	/**
+	 * Get the bytes of the records replaced or removed, which are not reused.
+	 * @return the size in bytes.
+	 */
+	public long getDeadBytes() { return deadBytes.get(); }
+
+	/**
+	 * Get the size of the segments.
+	 * @return the size in bytes.
+	 */
+	public long getCapacity() { return (long) segments.length * segmentSize; }
+
+	/**
+	 * Get the heap held by the index.
+	 * @return the size in bytes.
+	 */
+	public long getIndexBytes() {
+		indexLock.readLock().lock();
+		try {
+			return slots.length * 12L;
+		}
+		finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the number of changes made in place.
+	 * @return the number of changes.
+	 */
+	public long getInPlaceUpdates() { return inPlace.sum(); }
+
+	/**
+	 * Get the number of changes that wrote a new record.
+	 * @return the number of changes.
+	 */
+	public long getRewrites() { return rewritten.sum(); }
+
+	@Override
+	public String toString() {
+		return String.format("%d models, %d MB live, %d MB dead, %d MB of %s segments, "
+				+ "%d KB of index, %d updates in place, %d rewrites", size(),
+				getLiveBytes() >> 20, getDeadBytes() >> 20, getCapacity() >> 20,
+				channel == null ? "memory" : "file", getIndexBytes() >> 10,
+				getInPlaceUpdates(), getRewrites());
+	}
+
+
+	// Below methods manage the segments and the records in them.
+
+	/**
+	 * Add a segment at the end of the store. A new file gets its header.
+	 */
+	private synchronized void addSegment() {
+		ByteBuffer segment;
+		int index = segments.length;
+		if (channel == null) segment = ByteBuffer.allocateDirect(segmentSize);
+		else {
+			try {
+				segment = channel.map(FileChannel.MapMode.READ_WRITE,
+						(long) index * segmentSize, segmentSize);
+			}
+			catch(IOException e) {
+				throw new IllegalStateException("Cannot grow the off-heap store", e);
+			}
+		}
+		if (index == 0 && segment.getInt(0) != MAGIC) {
+			segment.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, segmentSize);
+		}
+
+		ByteBuffer[] more = Arrays.copyOf(segments, index + 1);
+		more[index] = segment;
+		segments = more;
+	}
+
+	/**
+	 * Reserve room for a record at the end of the store, in the segment of
+	 * the last record or a new one.
+	 * @param length the length of the record.
+	 * @return the address of the record.
+	 */
+	private synchronized long allocate(int length) {
+		if (length > segmentSize - HEADER_SIZE)
+			throw new IllegalArgumentException("A model of " + length
+					+ " bytes does not fit in a segment of " + segmentSize);
+		if (offset(end) + length > segmentSize) end = (end / segmentSize + 1) * segmentSize;
+		while (end / segmentSize >= segments.length) addSegment();
+
+		long address = end;
+		end += length;
+		// The length is set first, so a record torn by a crash is skipped.
+		segment(address).putInt(offset(address) + LENGTH, length);
+		liveBytes.addAndGet(length);
+		return address;
+	}
+
+	/**
+	 * Write a model as a new record.
+	 * @return the address of the record.
+	 */
+	private long write(Model model) {
+		byte[] make = bytes(model.make);
+		byte[] name = bytes(model.model);
+		int length = MAKE + 2 + make.length + 2 + name.length + 4;
+		List<byte[]> strings = new ArrayList<byte[]>();
+		for (SetRecord set : model.sets) {
+			byte[] setName = bytes(set.name);
+			strings.add(setName);
+			length += 4 + 2 + 2 + setName.length + 4;
+			for (String opName : set.opNames) {
+				byte[] op = bytes(opName);
+				strings.add(op);
+				length += 8 + 2 + op.length;
+			}
+		}
+
+		long address = allocate(length);
+		ByteBuffer d = segment(address).duplicate();
+		int rec = offset(address);
+		d.position(rec + CAR_VERSION);
+		d.putLong(model.version).putLong(model.basePriceCents);
+		putString(d, make);
+		putString(d, name);
+		d.putInt(model.sets.size());
+		int n = 0;
+		for (SetRecord set : model.sets) {
+			int start = d.position();
+			d.putInt(0);
+			d.putShort(set.choice);
+			putString(d, strings.get(n++));
+			d.putInt(set.opNames.size());
+			for (long price : set.prices) d.putLong(price);
+			for (int o = 0; o < set.opNames.size(); ++o) putString(d, strings.get(n++));
+			d.putInt(start, d.position() - start);
+		}
+		// The state is set last, once the record is whole.
+		d.putInt(rec, LIVE);
+		return address;
+	}
+
+	/**
+	 * Write a changed model as a new record and drop its old record. The
+	 * caller holds the stripe of the model.
+	 * @return the new version of the model.
+	 */
+	private long replace(String name, long oldAddress, Model model) {
+		++model.version;
+		long address = write(model);
+		indexLock.writeLock().lock();
+		try {
+			slots[find(name, bytes(name), name.hashCode())] = address + 1;
+		}
+		finally {
+			indexLock.writeLock().unlock();
+		}
+		kill(oldAddress);
+		rewritten.increment();
+		return model.version;
+	}
+
+	/**
+	 * Mark a record dead.
+	 */
+	private void kill(long address) {
+		ByteBuffer b = segment(address);
+		int rec = offset(address);
+		b.putInt(rec, DEAD);
+		int length = b.getInt(rec + LENGTH);
+		liveBytes.addAndGet(-length);
+		deadBytes.addAndGet(length);
+	}
+
+	/**
+	 * Add one to the version of a model.
+	 * @return the new version.
+	 */
+	private static long bump(ByteBuffer b, int rec) {
+		long version = b.getLong(rec + CAR_VERSION) + 1;
+		b.putLong(rec + CAR_VERSION, version);
+		return version;
+	}
+
+	/**
+	 * Index the live records of a store file, and find its end.
+	 */
+	private void scan() {
+		ByteBuffer[] segs = segments;
+		for (int s = 0; s < segs.length; ++s) {
+			ByteBuffer b = segs[s];
+			int pos = s == 0 ? HEADER_SIZE : 0;
+			while (pos + MAKE <= segmentSize) {
+				int state = b.getInt(pos);
+				int length = b.getInt(pos + LENGTH);
+				if (length == 0) break;
+				if (length < MAKE || pos + length > segmentSize) break;
+				long address = (long) s * segmentSize + pos;
+				end = address + length;
+
+				if (state == LIVE) {
+					liveBytes.addAndGet(length);
+					// A crash can leave the old record of a replaced model live;
+					// the later record wins.
+					String name = recordName(b, pos);
+					int slot = find(name, bytes(name), name.hashCode());
+					if (slot == -1) insert(name.hashCode(), address);
+					else {
+						kill(slots[slot] - 1);
+						slots[slot] = address + 1;
+					}
+				}
+				else deadBytes.addAndGet(length);
+				pos += length;
+			}
+		}
+		if (end == 0) end = HEADER_SIZE;
+	}
+
+
+	// Below methods find models in the index and names in the records.
+
+	/**
+	 * Get the address of the record of a model.
+	 * @return the address, -1 if the model is not in the store.
+	 */
+	private long address(String name) {
+		indexLock.readLock().lock();
+		try {
+			int slot = find(name, bytes(name), name.hashCode());
+			return slot == -1 ? -1 : slots[slot] - 1;
+		}
+		finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the slot of a model in the index. The caller holds the index lock.
+	 * @return the slot, -1 if the model is not in the index.
+	 */
+	private int find(String name, byte[] bytes, int hash) {
+		int mask = slots.length - 1;
+		for (int i = spread(hash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+			if (slots[i] != REMOVED && hashes[i] == hash
+					&& nameMatches(slots[i] - 1, bytes)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add a model that is not in the index. The caller holds the index lock
+	 * for writing.
+	 */
+	private void insert(int hash, long address) {
+		if ((used + 1) * 4 > slots.length * 3) {
+			// Grow when the index is full of models, else only drop the removed.
+			long[] oldSlots = slots;
+			int[] oldHashes = hashes;
+			int length = (count + 1) * 2 > slots.length ? slots.length * 2 : slots.length;
+			slots = new long[length];
+			hashes = new int[length];
+			count = 0;
+			used = 0;
+			for (int i = 0; i < oldSlots.length; ++i)
+				if (oldSlots[i] > 0) insert(oldHashes[i], oldSlots[i] - 1);
+		}
+
+		int mask = slots.length - 1;
+		int i = spread(hash) & mask;
+		while (slots[i] > 0) i = (i + 1) & mask;
+		if (slots[i] == 0) ++used;
+		slots[i] = address + 1;
+		hashes[i] = hash;
+		++count;
+	}
+
+	private static int spread(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Check whether the make and model of a record spell an auto name.
+	 */
+	private boolean nameMatches(long address, byte[] name) {
+		ByteBuffer b = segment(address);
+		int pos = offset(address) + MAKE;
+		int makeLength = b.getShort(pos) & 0xFFFF;
+		int modelLength = b.getShort(pos + 2 + makeLength) & 0xFFFF;
+		if (makeLength + 1 + modelLength != name.length || name[makeLength] != ' ')
+			return false;
+		for (int i = 0; i < makeLength; ++i)
+			if (b.get(pos + 2 + i) != name[i]) return false;
+		int model = pos + 2 + makeLength + 2;
+		for (int i = 0; i < modelLength; ++i)
+			if (b.get(model + i) != name[makeLength + 1 + i]) return false;
+		return true;
+	}
+
+	/**
+	 * Find an option set by name.
+	 * @return the set index and the position of its name, null if not found.
+	 */
+	private static int[] findSet(ByteBuffer b, int rec, byte[] setName) {
+		int pos = setsStart(b, rec);
+		int sets = b.getInt(pos);
+		pos += 4;
+		for (int s = 0; s < sets; ++s) {
+			if (stringMatches(b, pos + 6, setName)) return new int[] { s, pos + 6 };
+			pos += b.getInt(pos);
+		}
+		return null;
+	}
+
+	/**
+	 * Find an option by set and option name.
+	 * @return the set index, the option index, the position of the price and
+	 * the position of the chosen option of the set; null if not found.
+	 */
+	private static int[] findOption(ByteBuffer b, int rec, byte[] setName, byte[] opName) {
+		int[] set = findSet(b, rec, setName);
+		if (set == null) return null;
+		int choice = set[1] - 2;
+		int prices = skipString(b, set[1]);
+		int options = b.getInt(prices);
+		prices += 4;
+		int pos = prices + 8 * options;
+		for (int o = 0; o < options; ++o) {
+			if (stringMatches(b, pos, opName)) return new int[] { set[0], o, prices + 8 * o, choice };
+			pos = skipString(b, pos);
+		}
+		return null;
+	}
+
+	/**
+	 * Get the position of the number of option sets of a record.
+	 */
+	private static int setsStart(ByteBuffer b, int rec) {
+		return skipString(b, skipString(b, rec + MAKE));
+	}
+
+	private static int skipString(ByteBuffer b, int pos) {
+		return pos + 2 + (b.getShort(pos) & 0xFFFF);
+	}
+
+	private static boolean stringMatches(ByteBuffer b, int pos, byte[] s) {
+		if ((b.getShort(pos) & 0xFFFF) != s.length) return false;
+		for (int i = 0; i < s.length; ++i)
+			if (b.get(pos + 2 + i) != s[i]) return false;
+		return true;
+	}
+
+	private static String getString(ByteBuffer b, int pos) {
+		byte[] bytes = new byte[b.getShort(pos) & 0xFFFF];
+		ByteBuffer d = b.duplicate();
+		d.position(pos + 2);
+		d.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void putString(ByteBuffer b, byte[] bytes) {
+		b.putShort((short) bytes.length);
+		b.put(bytes);
+	}
+
+	private static byte[] bytes(String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Name too long: " + s);
+		return bytes;
+	}
+
+	private String recordName(ByteBuffer b, int rec) {
+		int pos = rec + MAKE;
+		return getString(b, pos) + " " + getString(b, skipString(b, pos));
+	}
+
+	private ByteBuffer segment(long address) {
+		return segments[(int) (address / segmentSize)];
+	}
+
+	private int offset(long address) {
+		return (int) (address % segmentSize);
+	}
+
+	private ReentrantReadWriteLock stripe(String name) {
+		return stripes[spread(name.hashCode()) & (STRIPES - 1)];
+	}
+
+
+	// Below methods copy a record to the heap and back, to change its size.
+
+	/**
+	 * Read the record of a model under the stripe of the model.
+	 * @return the model, null if it is not in the store.
+	 */
+	private Model readModel(String name) {
+		Lock lock = stripe(name).readLock();
+		lock.lock();
+		try {
+			long address = address(name);
+			return address == -1 ? null : decode(segment(address), offset(address));
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private static Model decode(ByteBuffer b, int rec) {
+		Model model = new Model();
+		model.version = b.getLong(rec + CAR_VERSION);
+		model.basePriceCents = b.getLong(rec + BASE_PRICE);
+		int pos = rec + MAKE;
+		model.make = getString(b, pos);
+		pos = skipString(b, pos);
+		model.model = getString(b, pos);
+		pos = skipString(b, pos);
+
+		int sets = b.getInt(pos);
+		pos += 4;
+		for (int s = 0; s < sets; ++s) {
+			SetRecord set = new SetRecord(b.getShort(pos + 4), getString(b, pos + 6));
+			int prices = skipString(b, pos + 6);
+			int options = b.getInt(prices);
+			prices += 4;
+			int name = prices + 8 * options;
+			for (int o = 0; o < options; ++o) {
+				set.prices.add(b.getLong(prices + 8 * o));
+				set.opNames.add(getString(b, name));
+				name = skipString(b, name);
+			}
+			model.sets.add(set);
+			pos += b.getInt(pos);
+		}
+		return model;
+	}
+
+	/**
+	 * A model copied out of its record.
+	 */
+	private static class Model {
+
+		private String make;
+		private String model;
+		private long basePriceCents;
+		private long version;
+		private final List<SetRecord> sets = new ArrayList<SetRecord>();
+
+		private static Model of(AutoTable table) {
+			Model model = new Model();
+			model.make = table.getMake();
+			model.model = table.getModel();
+			model.basePriceCents = table.getBasePriceCents();
+			model.version = table.getVersion();
+			for (int s = 0; s < table.getOpSetCount(); ++s) {
+				SetRecord set = new SetRecord((short) -1, table.getOpSetName(s));
+				for (int o = table.getOpStart(s); o < table.getOpStart(s) + table.getOpCount(s); ++o) {
+					set.opNames.add(table.getOpName(o));
+					set.prices.add(table.getOpPriceCents(o));
+				}
+				model.sets.add(set);
+			}
+			return model;
+		}
+
+		private int findSet(String name) {
+			for (int s = 0; s < sets.size(); ++s)
+				if (sets.get(s).name.equals(name)) return s;
+			return -1;
+		}
+
+		private AutoTable toTable() {
+			int total = 0;
+			for (SetRecord set : sets) total += set.opNames.size();
+			String[] setNames = new String[sets.size()];
+			int[] setStart = new int[sets.size() + 1];
+			String[] opNames = new String[total];
+			long[] opPrices = new long[total];
+			int o = 0;
+			for (int s = 0; s < sets.size(); ++s) {
+				SetRecord set = sets.get(s);
+				setNames[s] = set.name;
+				setStart[s] = o;
+				for (int i = 0; i < set.opNames.size(); ++i, ++o) {
+					opNames[o] = set.opNames.get(i);
+					opPrices[o] = set.prices.get(i);
+				}
+			}
+			setStart[sets.size()] = o;
+			return new AutoTable(make, model, basePriceCents, setNames, setStart, opNames,
+					opPrices, version);
+		}
+
+	}
+
+	/**
+	 * An option set copied out of its record.
+	 */
+	private static class SetRecord {
+
+		private String name;
+		private short choice;
+		private final List<String> opNames = new ArrayList<String>();
+		private final List<Long> prices = new ArrayList<Long>();
+
+		private SetRecord(short choice, String name) {
+			this.choice = choice;
+			this.name = name;
+		}
+
+	}
+
+}